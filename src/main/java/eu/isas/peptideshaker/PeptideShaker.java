@@ -12,7 +12,6 @@ import com.compomics.util.experiment.identification.identifications.Ms2Identific
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
 import com.compomics.util.experiment.identification.tags.Tag;
-import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.io.ConfigurationFile;
 import com.compomics.util.memory.MemoryConsumptionStatus;
@@ -104,6 +103,11 @@ public class PeptideShaker {
      * Default PeptideShaker modifications.
      */
     public static final String PEPTIDESHAKER_CONFIGURATION_FILE = "PeptideShaker_configuration.txt";
+    /**
+     * The number of matches or spectra processed per task when processing
+     * them using multiple threads.
+     */
+    public static final int PARALLEL_CHUNK_SIZE = 100;
     /**
      * The location of the folder used for serialization of matches.
      */
@@ -287,7 +291,7 @@ public class PeptideShaker {
             PsmScorer psmScorer = new PsmScorer();
 
             waitingHandler.appendReport("Estimating PSM scores.", true, true);
-            psmScorer.estimateIntermediateScores(identification, inputMap, processingPreferences, shotgunProtocol, identificationParameters, waitingHandler);
+            psmScorer.estimateIntermediateScores(identification, inputMap, processingPreferences, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler);
 
             if (psmScoringPreferences.isTargetDecoyNeededForPsmScoring(usedAlgorithms)) {
                 if (sequenceFactory.concatenatedTargetDecoy()) {
@@ -320,7 +324,7 @@ public class PeptideShaker {
 
         waitingHandler.appendReport("Selecting best peptide per spectrum.", true, true);
         BestMatchSelection bestMatchSelection = new BestMatchSelection(identification, proteinCount, matchesValidator, metrics);
-        bestMatchSelection.selectBestHitAndFillPsmMap(inputMap, waitingHandler, shotgunProtocol, identificationParameters);
+        bestMatchSelection.selectBestHitAndFillPsmMap(inputMap, waitingHandler, shotgunProtocol, identificationParameters, processingPreferences, exceptionHandler);
         matchesValidator.getPsmMap().clean();
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
@@ -390,7 +394,7 @@ public class PeptideShaker {
         }
 
         waitingHandler.appendReport("Generating peptide map.", true, true); // slow?
-        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, identificationParameters);
+        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, identificationParameters, processingPreferences, exceptionHandler);
         matchesValidator.getPeptideMap().clean();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -444,7 +448,7 @@ public class PeptideShaker {
         } else {
             waitingHandler.appendReport("Validating identifications, quality control of matches.", true, true);
         }
-        matchesValidator.validateIdentifications(identification, metrics, waitingHandler, exceptionHandler, shotgunProtocol, identificationParameters, identificationFeaturesGenerator, inputMap, spectrumCountingPreferences);
+        matchesValidator.validateIdentifications(identification, metrics, waitingHandler, exceptionHandler, shotgunProtocol, identificationParameters, identificationFeaturesGenerator, inputMap, spectrumCountingPreferences, processingPreferences);
         waitingHandler.increasePrimaryProgressCounter();
         metrics.clearSpectrumKeys();
         if (waitingHandler.isRunCanceled()) {
@@ -452,14 +456,14 @@ public class PeptideShaker {
         }
 
         waitingHandler.appendReport("Scoring PTMs in peptides.", true, true);
-        ptmScorer.scorePeptidePtms(identification, waitingHandler, identificationParameters);
+        ptmScorer.scorePeptidePtms(identification, waitingHandler, identificationParameters, processingPreferences, exceptionHandler);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
         }
 
         waitingHandler.appendReport("Scoring PTMs in proteins.", true, true);
-        ptmScorer.scoreProteinPtms(identification, metrics, waitingHandler, shotgunProtocol, identificationParameters, identificationFeaturesGenerator);
+        ptmScorer.scoreProteinPtms(identification, metrics, waitingHandler, shotgunProtocol, identificationParameters, identificationFeaturesGenerator, processingPreferences, exceptionHandler);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -557,18 +561,19 @@ public class PeptideShaker {
      * @param processingPreferences the processing preferences
      * @param shotgunProtocol information on the protocol
      * @param identificationParameters the identification parameters
+     * @param exceptionHandler handler for exceptions
      *
      * @throws Exception exception thrown whenever it is attempted to attach
      * more than one identification per search engine per spectrum
      */
     public void spectrumMapChanged(Identification identification, WaitingHandler waitingHandler, ProcessingPreferences processingPreferences,
-            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters) throws Exception {
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ExceptionHandler exceptionHandler) throws Exception {
         PeptideSpecificMap peptideMap = new PeptideSpecificMap();
         ProteinMap proteinMap = new ProteinMap();
         matchesValidator.setPeptideMap(peptideMap);
         matchesValidator.setProteinMap(proteinMap);
         attachSpectrumProbabilitiesAndBuildPeptidesAndProteins(identificationParameters.getSequenceMatchingPreferences(), waitingHandler);
-        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, identificationParameters);
+        matchesValidator.fillPeptideMaps(identification, metrics, waitingHandler, identificationParameters, processingPreferences, exceptionHandler);
         peptideMap.clean();
         peptideMap.estimateProbabilities(waitingHandler);
         matchesValidator.attachPeptideProbabilities(identification, waitingHandler);
@@ -791,8 +796,11 @@ public class PeptideShaker {
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(psParameter);
 
+        PsmSpecificMap psmMap = matchesValidator.getPsmMap();
+
         for (String spectrumFileName : identification.getSpectrumFiles()) {
 
+            int fractionIndex = psmMap.getFractionRegistry().getIndex(spectrumFileName);
             PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, identification.getSpectrumIdentification(spectrumFileName), parameters, false, waitingHandler);
 
             while (psmIterator.hasNext()) {
@@ -805,9 +813,8 @@ public class PeptideShaker {
 
                 psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
                 if (sequenceFactory.concatenatedTargetDecoy()) {
-                    Integer charge = new Integer(psParameter.getSpecificMapKey());
-                    String fileName = Spectrum.getSpectrumFile(spectrumKey);
-                    psParameter.setPsmProbability(matchesValidator.getPsmMap().getProbability(fileName, charge, psParameter.getPsmProbabilityScore()));
+                    int charge = Integer.parseInt(psParameter.getSpecificMapKey());
+                    psParameter.setPsmProbability(psmMap.getProbability(fractionIndex, charge, psParameter.getPsmProbabilityScore()));
                 } else {
                     psParameter.setPsmProbability(1.0);
                 }
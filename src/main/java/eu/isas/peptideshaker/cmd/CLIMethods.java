@@ -8,6 +8,7 @@ import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.preferences.AnnotationPreferences;
 import com.compomics.util.preferences.IdFilter;
 import com.compomics.util.preferences.PTMScoringPreferences;
+import com.compomics.util.preferences.ProcessingPreferences;
 import eu.isas.peptideshaker.export.PSExportFactory;
 import com.compomics.util.io.export.ExportScheme;
 import com.compomics.util.preferences.IdentificationParameters;
@@ -24,6 +25,7 @@ import eu.isas.peptideshaker.preferences.FilterPreferences;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
 import eu.isas.peptideshaker.utils.CpsParent;
+import eu.isas.peptideshaker.utils.IdentificationFeaturesCache;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import java.io.File;
 import java.io.IOException;
@@ -68,7 +70,11 @@ public class CLIMethods {
         } else if (followUpCLIInputBean.getRecalibrationMode() == 2) {
             ms1 = false;
         }
-        RecalibrationExporter.writeRecalibratedSpectra(ms1, ms2, recalibrationFolder, identification, annotationPreferences, waitingHandler);
+        Integer nThreads = followUpCLIInputBean.getRecalibrationThreads();
+        if (nThreads == null) {
+            nThreads = 1;
+        }
+        RecalibrationExporter.writeRecalibratedSpectra(ms1, ms2, recalibrationFolder, identification, annotationPreferences, nThreads, waitingHandler);
     }
 
     /**
@@ -237,6 +243,58 @@ public class CLIMethods {
      * @param nSurroundingAA the number of amino acids to export on the side of
      * peptide sequences
      * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param processingPreferences the processing preferences, their number
+     * of threads is used when the number of report threads is not set, can be
+     * null
+     * @param waitingHandler waiting handler displaying feedback to the user
+     *
+     * @throws IOException thrown of IOException occurs
+     * @throws MzMLUnmarshallerException thrown if MzMLUnmarshallerException
+     * occurs
+     * @throws SQLException thrown if SQLException occurs
+     * @throws ClassNotFoundException thrown if ClassNotFoundException occurs
+     * @throws InterruptedException thrown if InterruptedException occurs
+     * @throws IllegalArgumentException thrown if IllegalArgumentException
+     * occurs
+     * @throws org.apache.commons.math.MathException thrown if MathException
+     * occurs
+     */
+    public static void exportReport(ReportCLIInputBean reportCLIInputBean, String reportType, String experiment, String sample, int replicateNumber,
+            ProjectDetails projectDetails, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, int nSurroundingAA, SpectrumCountingPreferences spectrumCountingPreferences,
+            ProcessingPreferences processingPreferences, WaitingHandler waitingHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException,
+            InterruptedException, MzMLUnmarshallerException, MathException {
+
+        Integer nThreads = reportCLIInputBean.getReportThreads();
+        if (nThreads == null) {
+            nThreads = processingPreferences != null ? processingPreferences.getnThreads() : 1;
+        }
+
+        exportReport(reportCLIInputBean, reportType, experiment, sample, replicateNumber, projectDetails, identification, identificationFeaturesGenerator,
+                shotgunProtocol, identificationParameters, nSurroundingAA, spectrumCountingPreferences, nThreads, waitingHandler);
+    }
+
+    /**
+     * Writes an export according to the command line settings contained in the
+     * reportCLIInputBean.
+     *
+     * @param reportCLIInputBean the command line settings
+     * @param reportType the report type
+     * @param experiment the experiment of the project
+     * @param sample the sample of the project
+     * @param replicateNumber the replicate number of the project
+     * @param projectDetails the project details of the project
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param shotgunProtocol information on the protocol used
+     * @param identificationParameters the identification parameters used
+     * @param nSurroundingAA the number of amino acids to export on the side of
+     * peptide sequences
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param nThreads the number of threads to use for the export, overrides
+     * the number of report threads of the command line settings
      * @param waitingHandler waiting handler displaying feedback to the user
      *
      * @throws IOException thrown of IOException occurs
@@ -252,7 +310,8 @@ public class CLIMethods {
      */
     public static void exportReport(ReportCLIInputBean reportCLIInputBean, String reportType, String experiment, String sample, int replicateNumber,
             ProjectDetails projectDetails, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
-            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, int nSurroundingAA, SpectrumCountingPreferences spectrumCountingPreferences, WaitingHandler waitingHandler)
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, int nSurroundingAA, SpectrumCountingPreferences spectrumCountingPreferences,
+            int nThreads, WaitingHandler waitingHandler)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException,
             InterruptedException, MzMLUnmarshallerException, MathException {
 
@@ -261,9 +320,42 @@ public class CLIMethods {
         String reportName = reportType.replaceAll(" ", "_");
         File reportFile = new File(reportCLIInputBean.getReportOutputFolder(), PSExportFactory.getDefaultReportName(experiment, sample, replicateNumber, reportName));
 
-        //@TODO: allow format selection
-        PSExportFactory.writeExport(exportScheme, reportFile, ExportFormat.text, experiment, sample, replicateNumber, projectDetails, identification, identificationFeaturesGenerator,
-                null, null, null, null, nSurroundingAA, shotgunProtocol, identificationParameters, spectrumCountingPreferences, waitingHandler);
+        if (reportCLIInputBean.isParquetFormat()) {
+            PSExportFactory.writeParquetExport(exportScheme, reportFile, identification, identificationFeaturesGenerator,
+                    null, null, null, nSurroundingAA, shotgunProtocol, identificationParameters, nThreads, waitingHandler);
+        } else {
+            PSExportFactory.writeExport(exportScheme, reportFile, ExportFormat.text, experiment, sample, replicateNumber, projectDetails, identification, identificationFeaturesGenerator,
+                    null, null, null, null, nSurroundingAA, shotgunProtocol, identificationParameters, spectrumCountingPreferences, nThreads, waitingHandler);
+        }
+    }
+
+    /**
+     * Sets the memory available to cache the protein coverage arrays during
+     * the report export if set in the command line settings.
+     *
+     * @param reportCLIInputBean the command line settings
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     */
+    public static void setReportCacheMemory(ReportCLIInputBean reportCLIInputBean, IdentificationFeaturesGenerator identificationFeaturesGenerator) {
+        Integer reportCacheMemory = reportCLIInputBean.getReportCacheMemory();
+        if (reportCacheMemory != null) {
+            identificationFeaturesGenerator.getIdentificationFeaturesCache().setBigObjectsMemoryLimit(reportCacheMemory);
+        }
+    }
+
+    /**
+     * Reports the use of the identification features cache.
+     *
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param waitingHandler waiting handler displaying feedback to the user
+     */
+    public static void reportFeaturesCacheUsage(IdentificationFeaturesGenerator identificationFeaturesGenerator, WaitingHandler waitingHandler) {
+        IdentificationFeaturesCache identificationFeaturesCache = identificationFeaturesGenerator.getIdentificationFeaturesCache();
+        waitingHandler.appendReport("Features cache: " + identificationFeaturesCache.getCacheHits() + " hits, " + identificationFeaturesCache.getCacheMisses() + " misses, "
+                + identificationFeaturesCache.getCacheEvictions() + " evictions, " + identificationFeaturesCache.getBigObjectsMemoryUsage() / (1024 * 1024) + " of "
+                + identificationFeaturesCache.getBigObjectsMemoryLimit() + " MB used by the coverage arrays.", true, true);
     }
 
     /**
@@ -319,7 +411,7 @@ public class CLIMethods {
         MzIdentMLExport mzIdentMLExport = new MzIdentMLExport(PeptideShaker.getVersion(), cpsParent.getIdentification(), cpsParent.getProjectDetails(),
                 cpsParent.getProcessingPreferences(), cpsParent.getShotgunProtocol(), cpsParent.getIdentificationParameters(),
                 cpsParent.getSpectrumCountingPreferences(), cpsParent.getIdentificationFeaturesGenerator(),
-                mzidCLIInputBean.getOutputFile(), waitingHandler);
+                mzidCLIInputBean.getOutputFile(), mzidCLIInputBean.isGzip(), waitingHandler);
         mzIdentMLExport.createMzIdentMLFile(false);
     }
 }
@@ -16,6 +16,7 @@ public enum FollowUpCLIParams {
     CPS_FILE("in", "PeptideShaker project (.cps or zip file)", true),
     RECALIBRATION_FOLDER("recalibration_folder", "Output folder for the recalibrated files. (Existing files will be overwritten.)", false),
     RECALIBRATION_MODE("recalibration_mode", "Recalibration type. 0: precursor and fragment ions (default), 1: precursor only, 2: fragment ions only.", false),
+    RECALIBRATION_THREADS("recalibration_threads", "Number of threads to use for the recalibration. Default is 1.", false),
     SPECTRUM_FOLDER("spectrum_folder", "Output folder for the spectra. (Existing files will be overwritten.)", false),
     PSM_TYPE("psm_type", "Type of PSMs. " + SpectrumExporter.ExportType.getCommandLineOptions(), false),
     ACCESSIONS_FILE("accessions_file", "Output file to export the protein accessions in text format. (Existing files will be overwritten.)", false),
@@ -73,6 +74,7 @@ public enum FollowUpCLIParams {
         aOptions.addOption(CPS_FILE.id, true, CPS_FILE.description);
         aOptions.addOption(RECALIBRATION_FOLDER.id, true, RECALIBRATION_FOLDER.description);
         aOptions.addOption(RECALIBRATION_MODE.id, true, RECALIBRATION_MODE.description);
+        aOptions.addOption(RECALIBRATION_THREADS.id, true, RECALIBRATION_THREADS.description);
         aOptions.addOption(SPECTRUM_FOLDER.id, true, SPECTRUM_FOLDER.description);
         aOptions.addOption(PSM_TYPE.id, true, PSM_TYPE.description);
         aOptions.addOption(ACCESSIONS_FILE.id, true, ACCESSIONS_FILE.description);
@@ -133,6 +135,7 @@ public enum FollowUpCLIParams {
         output += "\nRecalibration parameters:\n\n";
         output += "-" + String.format(formatter, RECALIBRATION_FOLDER.id) + RECALIBRATION_FOLDER.description + "\n";
         output += "-" + String.format(formatter, RECALIBRATION_MODE.id) + RECALIBRATION_MODE.description + "\n";
+        output += "-" + String.format(formatter, RECALIBRATION_THREADS.id) + RECALIBRATION_THREADS.description + "\n";
         
         output += "\nSpectrum export:\n\n";
         output += "-" + String.format(formatter, SPECTRUM_FOLDER.id) + SPECTRUM_FOLDER.description + "\n";
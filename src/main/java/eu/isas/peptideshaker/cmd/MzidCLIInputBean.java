@@ -59,6 +59,10 @@ public class MzidCLIInputBean {
      * The file where the mzIdentML export should be output.
      */
     private File outputFile;
+    /**
+     * Indicates whether the output should be compressed with gzip.
+     */
+    private boolean gzip = false;
     /**
      * The path settings.
      */
@@ -111,6 +115,14 @@ public class MzidCLIInputBean {
         if (aLine.hasOption(MzidCLIParams.OUTPUT_FILE.id)) {
             outputFile = new File(aLine.getOptionValue(MzidCLIParams.OUTPUT_FILE.id));
         }
+        if (aLine.hasOption(MzidCLIParams.GZIP.id)) {
+            String option = aLine.getOptionValue(MzidCLIParams.GZIP.id);
+            if (option.equals("1")) {
+                gzip = true;
+            } else if (!option.equals("0")) {
+                throw new IllegalArgumentException("Unknown gzip option \'" + option + "\'.");
+            }
+        }
 
         pathSettingsCLIInputBean = new PathSettingsCLIInputBean(aLine);
     }
@@ -223,6 +235,16 @@ public class MzidCLIInputBean {
         return outputFile;
     }
 
+    /**
+     * Indicates whether the output should be compressed with gzip.
+     *
+     * @return a boolean indicating whether the output should be compressed
+     * with gzip
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
     /**
      * Returns the path settings input.
      *
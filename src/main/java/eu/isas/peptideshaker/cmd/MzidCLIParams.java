@@ -19,7 +19,8 @@ public enum MzidCLIParams {
     ORGANIZATION_EMAIL("organization_email", "Organization e-mail.", true, true),
     ORGANIZATION_ADDRESS("organization_address", "Organization address.", true, true),
     ORGANIZATION_URL("organization_url", "Organization URL.", true, false),
-    OUTPUT_FILE("output_file", "Output file.", true, true);
+    OUTPUT_FILE("output_file", "Output file.", true, true),
+    GZIP("gzip", "Compress the output file with gzip using multiple threads, 0: no (default), 1: yes.", true, false);
 
     /**
      * Short Id for the CLI parameter.
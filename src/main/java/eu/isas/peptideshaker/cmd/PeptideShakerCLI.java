@@ -44,6 +44,7 @@ import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
 import eu.isas.peptideshaker.utils.Properties;
 import eu.isas.peptideshaker.utils.PsZipUtils;
+import eu.isas.peptideshaker.utils.SilentWaitingHandler;
 import eu.isas.peptideshaker.utils.Tips;
 import eu.isas.peptideshaker.validation.MatchesValidator;
 import java.awt.Point;
@@ -58,6 +59,10 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A command line interface to run PeptideShaker.
@@ -210,108 +215,121 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
             waitingHandler.setPrimaryProgressCounterIndeterminate(false);
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
 
-            // follow up tasks if needed
-            FollowUpCLIInputBean followUpCLIInputBean = cliInputBean.getFollowUpCLIInputBean();
+            // follow up tasks and reports, they are independent and are run concurrently so that the matches loaded by a task can be reused by the others
+            ArrayList<ExportTask> exportTasks = new ArrayList<ExportTask>();
+
+            final FollowUpCLIInputBean followUpCLIInputBean = cliInputBean.getFollowUpCLIInputBean();
             if (followUpCLIInputBean.followUpNeeded()) {
-                waitingHandler.appendReport("Starting follow up tasks.", true, true);
 
                 // recalibrate spectra
                 if (followUpCLIInputBean.recalibrationNeeded()) {
-                    try {
-                        CLIMethods.recalibrateSpectra(followUpCLIInputBean, identification, identificationParameters.getAnnotationPreferences(), waitingHandler);
-                    } catch (Exception e) {
-                        waitingHandler.appendReport("An error occurred while recalibrating the spectra.", true, true);
-                        e.printStackTrace();
-                    }
+                    exportTasks.add(new ExportTask("An error occurred while recalibrating the spectra.") {
+                        @Override
+                        public void run(WaitingHandler waitingHandler) throws Exception {
+                            CLIMethods.recalibrateSpectra(followUpCLIInputBean, identification, identificationParameters.getAnnotationPreferences(), waitingHandler);
+                        }
+                    });
                 }
 
                 // export spectra
                 if (followUpCLIInputBean.spectrumExportNeeded()) {
-                    try {
-                        CLIMethods.exportSpectra(followUpCLIInputBean, identification, waitingHandler, identificationParameters.getSequenceMatchingPreferences());
-                    } catch (Exception e) {
-                        waitingHandler.appendReport("An error occurred while exporting the spectra.", true, true);
-                        e.printStackTrace();
-                    }
+                    exportTasks.add(new ExportTask("An error occurred while exporting the spectra.") {
+                        @Override
+                        public void run(WaitingHandler waitingHandler) throws Exception {
+                            CLIMethods.exportSpectra(followUpCLIInputBean, identification, waitingHandler, identificationParameters.getSequenceMatchingPreferences());
+                        }
+                    });
                 }
 
                 // export protein accessions
                 if (followUpCLIInputBean.accessionExportNeeded()) {
-                    try {
-                        CLIMethods.exportAccessions(followUpCLIInputBean, identification, identificationFeaturesGenerator, waitingHandler, filterPreferences);
-                    } catch (Exception e) {
-                        waitingHandler.appendReport("An error occurred while exporting the protein accessions.", true, true);
-                        e.printStackTrace();
-                    }
+                    exportTasks.add(new ExportTask("An error occurred while exporting the protein accessions.") {
+                        @Override
+                        public void run(WaitingHandler waitingHandler) throws Exception {
+                            CLIMethods.exportAccessions(followUpCLIInputBean, identification, identificationFeaturesGenerator, waitingHandler, filterPreferences);
+                        }
+                    });
                 }
 
                 // export protein details
-                if (followUpCLIInputBean.accessionExportNeeded()) {
-                    try {
-                        CLIMethods.exportFasta(followUpCLIInputBean, identification, identificationFeaturesGenerator, waitingHandler, filterPreferences);
-                    } catch (Exception e) {
-                        waitingHandler.appendReport("An error occurred while exporting the protein details.", true, true);
-                        e.printStackTrace();
-                    }
+                if (followUpCLIInputBean.fastaExportNeeded()) {
+                    exportTasks.add(new ExportTask("An error occurred while exporting the protein details.") {
+                        @Override
+                        public void run(WaitingHandler waitingHandler) throws Exception {
+                            CLIMethods.exportFasta(followUpCLIInputBean, identification, identificationFeaturesGenerator, waitingHandler, filterPreferences);
+                        }
+                    });
                 }
 
                 // progenesis export
                 if (followUpCLIInputBean.progenesisExportNeeded()) {
-                    try {
-                        CLIMethods.exportProgenesis(followUpCLIInputBean, identification, waitingHandler, identificationParameters.getSequenceMatchingPreferences());
-                        waitingHandler.appendReport("Progenesis export completed.", true, true);
-                    } catch (Exception e) {
-                        waitingHandler.appendReport("An error occurred while exporting the Progenesis file.", true, true);
-                        e.printStackTrace();
-                    }
+                    exportTasks.add(new ExportTask("An error occurred while exporting the Progenesis file.") {
+                        @Override
+                        public void run(WaitingHandler waitingHandler) throws Exception {
+                            CLIMethods.exportProgenesis(followUpCLIInputBean, identification, waitingHandler, identificationParameters.getSequenceMatchingPreferences());
+                            waitingHandler.appendReport("Progenesis export completed.", true, true);
+                        }
+                    });
                 }
 
                 // de novo training export
                 if (followUpCLIInputBean.pepnovoTrainingExportNeeded()) {
-                    try {
-                        CLIMethods.exportPepnovoTrainingFiles(followUpCLIInputBean, identification, identificationParameters.getAnnotationPreferences(), waitingHandler);
-                        waitingHandler.appendReport("PepNovo training export completed.", true, true);
-                    } catch (Exception e) {
-                        waitingHandler.appendReport("An error occurred while exporting the Pepnovo training file.", true, true);
-                        e.printStackTrace();
-                    }
+                    exportTasks.add(new ExportTask("An error occurred while exporting the Pepnovo training file.") {
+                        @Override
+                        public void run(WaitingHandler waitingHandler) throws Exception {
+                            CLIMethods.exportPepnovoTrainingFiles(followUpCLIInputBean, identification, identificationParameters.getAnnotationPreferences(), waitingHandler);
+                            waitingHandler.appendReport("PepNovo training export completed.", true, true);
+                        }
+                    });
                 }
-
             }
 
             // report export if needed
-            ReportCLIInputBean reportCLIInputBean = cliInputBean.getReportCLIInputBean();
+            final ReportCLIInputBean reportCLIInputBean = cliInputBean.getReportCLIInputBean();
 
             // see if output folder is set, and if not set to the same folder as the cps file
             if (reportCLIInputBean.getReportOutputFolder() == null) {
                 reportCLIInputBean.setReportOutputFolder(cliInputBean.getOutput().getParentFile());
             }
 
+            // Export report(s)
             if (reportCLIInputBean.exportNeeded()) {
-                waitingHandler.appendReport("Starting report export.", true, true);
+                final int nSurroundingAAs = 2; //@TODO: this shall not be hard coded //peptideShakerGUI.getDisplayPreferences().getnAASurroundingPeptides()
+
+                // when run alongside other tasks every report is exported using a single thread
+                final boolean concurrentTasks = getExportThreads(exportTasks.size() + reportCLIInputBean.getReportTypes().size()) > 1;
+                CLIMethods.setReportCacheMemory(reportCLIInputBean, identificationFeaturesGenerator);
+
+                for (final String reportType : reportCLIInputBean.getReportTypes()) {
+                    exportTasks.add(new ExportTask("An error occurred while exporting the " + reportType + ".") {
+                        @Override
+                        public void run(WaitingHandler waitingHandler) throws Exception {
+                            if (concurrentTasks) {
+                                CLIMethods.exportReport(reportCLIInputBean, reportType, experiment.getReference(), sample.getReference(), replicateNumber, projectDetails, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, nSurroundingAAs, spectrumCountingPreferences, 1, waitingHandler);
+                            } else {
+                                CLIMethods.exportReport(reportCLIInputBean, reportType, experiment.getReference(), sample.getReference(), replicateNumber, projectDetails, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, nSurroundingAAs, spectrumCountingPreferences, processingPreferences, waitingHandler);
+                            }
+                        }
+                    });
+                }
+            }
 
-                // Export report(s)
+            if (!exportTasks.isEmpty()) {
+                waitingHandler.appendReport("Starting follow up tasks and report export.", true, true);
+                runExportTasks(exportTasks);
                 if (reportCLIInputBean.exportNeeded()) {
-                    int nSurroundingAAs = 2; //@TODO: this shall not be hard coded //peptideShakerGUI.getDisplayPreferences().getnAASurroundingPeptides()
-                    for (String reportType : reportCLIInputBean.getReportTypes()) {
-                        try {
-                            CLIMethods.exportReport(reportCLIInputBean, reportType, experiment.getReference(), sample.getReference(), replicateNumber, projectDetails, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, nSurroundingAAs, spectrumCountingPreferences, waitingHandler);
-                        } catch (Exception e) {
-                            waitingHandler.appendReport("An error occurred while exporting the " + reportType + ".", true, true);
-                            e.printStackTrace();
-                        }
-                    }
+                    CLIMethods.reportFeaturesCacheUsage(identificationFeaturesGenerator, waitingHandler);
                 }
+            }
 
-                // export documentation(s)
-                if (reportCLIInputBean.documentationExportNeeded()) {
-                    for (String reportType : reportCLIInputBean.getReportTypes()) {
-                        try {
-                            CLIMethods.exportDocumentation(reportCLIInputBean, reportType, waitingHandler);
-                        } catch (Exception e) {
-                            waitingHandler.appendReport("An error occurred while exporting the documentation for " + reportType + ".", true, true);
-                            e.printStackTrace();
-                        }
+            // export documentation(s)
+            if (reportCLIInputBean.exportNeeded() && reportCLIInputBean.documentationExportNeeded()) {
+                for (String reportType : reportCLIInputBean.getReportTypes()) {
+                    try {
+                        CLIMethods.exportDocumentation(reportCLIInputBean, reportType, waitingHandler);
+                    } catch (Exception e) {
+                        waitingHandler.appendReport("An error occurred while exporting the documentation for " + reportType + ".", true, true);
+                        e.printStackTrace();
                     }
                 }
             }
@@ -375,6 +393,64 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
         return null;
     }
 
+    /**
+     * Returns the number of threads used to run the given number of export
+     * tasks.
+     *
+     * @param nTasks the number of export tasks
+     *
+     * @return the number of threads used to run the export tasks
+     */
+    private int getExportThreads(int nTasks) {
+        return Math.max(Math.min(processingPreferences.getnThreads(), nTasks), 1);
+    }
+
+    /**
+     * Runs the given export tasks concurrently, using at most the number of
+     * threads of the processing preferences. The errors are reported in the
+     * order of the tasks. When several tasks run concurrently, every task gets
+     * its own waiting handler which does not display progress.
+     *
+     * @param exportTasks the export tasks
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    private void runExportTasks(ArrayList<ExportTask> exportTasks) throws InterruptedException {
+
+        int nThreads = getExportThreads(exportTasks.size());
+        boolean concurrentTasks = nThreads > 1;
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        if (concurrentTasks) {
+            waitingHandler.setPrimaryProgressCounterIndeterminate(true);
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        try {
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(exportTasks.size());
+            for (final ExportTask exportTask : exportTasks) {
+                final WaitingHandler taskWaitingHandler = concurrentTasks ? new SilentWaitingHandler(waitingHandler) : waitingHandler;
+                futures.add(pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        exportTask.run(taskWaitingHandler);
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    waitingHandler.appendReport(exportTasks.get(i).getErrorMessage(), true, true);
+                    e.getCause().printStackTrace();
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     /**
      * Save the peptide shaker report next to the cps file.
      */
@@ -1065,4 +1141,43 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
 
         return currentEnsemblVersion < latestEnsemblVersion;
     }
+
+    /**
+     * A follow up or report export task.
+     */
+    private static abstract class ExportTask {
+
+        /**
+         * The message to report in case of error.
+         */
+        private final String errorMessage;
+
+        /**
+         * Constructor.
+         *
+         * @param errorMessage the message to report in case of error
+         */
+        public ExportTask(String errorMessage) {
+            this.errorMessage = errorMessage;
+        }
+
+        /**
+         * Returns the message to report in case of error.
+         *
+         * @return the message to report in case of error
+         */
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        /**
+         * Runs the task.
+         *
+         * @param waitingHandler the waiting handler to use for this task
+         *
+         * @throws Exception exception thrown whenever an error occurred while
+         * running the task
+         */
+        public abstract void run(WaitingHandler waitingHandler) throws Exception;
+    }
 }
@@ -186,14 +186,16 @@ public class ReportCLI extends CpsParent {
         // export report(s)
         if (reportCLIInputBean.exportNeeded()) {
             int nSurroundingAAs = 2; //@TODO: this shall not be hard coded
+            CLIMethods.setReportCacheMemory(reportCLIInputBean, identificationFeaturesGenerator);
             for (String reportType : reportCLIInputBean.getReportTypes()) {
                 try {
-                    CLIMethods.exportReport(reportCLIInputBean, reportType, experiment.getReference(), sample.getReference(), replicateNumber, projectDetails, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, nSurroundingAAs, spectrumCountingPreferences, waitingHandler);
+                    CLIMethods.exportReport(reportCLIInputBean, reportType, experiment.getReference(), sample.getReference(), replicateNumber, projectDetails, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, nSurroundingAAs, spectrumCountingPreferences, processingPreferences, waitingHandler);
                 } catch (Exception e) {
                     waitingHandler.appendReport("An error occurred while exporting the " + reportType + ".", true, true);
                     e.printStackTrace();
                 }
             }
+            CLIMethods.reportFeaturesCacheUsage(identificationFeaturesGenerator, waitingHandler);
         }
 
         // export documentation(s)
@@ -34,6 +34,20 @@ public class ReportCLIInputBean {
      * The documentation types required by the user.
      */
     private ArrayList<String> documentationTypes = new ArrayList<String>();
+    /**
+     * The number of threads to use for the report export, null if not set.
+     */
+    private Integer reportThreads = null;
+    /**
+     * The memory in MB available to cache the protein coverage arrays during
+     * the report export, null if not set.
+     */
+    private Integer reportCacheMemory = null;
+    /**
+     * Boolean indicating whether the reports shall be exported in the parquet
+     * format.
+     */
+    private boolean parquetFormat = false;
     /**
      * The path settings.
      */
@@ -73,9 +87,53 @@ public class ReportCLIInputBean {
                 documentationTypes.add(exportFactory.getExportTypeFromCommandLineOption(option));
             }
         }
+        if (aLine.hasOption(ReportCLIParams.REPORT_THREADS.id)) {
+            reportThreads = new Integer(aLine.getOptionValue(ReportCLIParams.REPORT_THREADS.id));
+        }
+        if (aLine.hasOption(ReportCLIParams.REPORT_CACHE_MEMORY.id)) {
+            reportCacheMemory = new Integer(aLine.getOptionValue(ReportCLIParams.REPORT_CACHE_MEMORY.id));
+        }
+        if (aLine.hasOption(ReportCLIParams.REPORT_FORMAT.id)) {
+            String option = aLine.getOptionValue(ReportCLIParams.REPORT_FORMAT.id);
+            if (option.equals("1")) {
+                parquetFormat = true;
+            } else if (!option.equals("0")) {
+                throw new IllegalArgumentException("Unknown report format \'" + option + "\'.");
+            }
+        }
         pathSettingsCLIInputBean = new PathSettingsCLIInputBean(aLine);
     }
 
+    /**
+     * Returns the number of threads to use for the report export. Null if not
+     * set.
+     *
+     * @return the number of threads to use for the report export
+     */
+    public Integer getReportThreads() {
+        return reportThreads;
+    }
+
+    /**
+     * Returns the memory in MB available to cache the protein coverage arrays
+     * during the report export. Null if not set.
+     *
+     * @return the memory in MB available to cache the protein coverage arrays
+     */
+    public Integer getReportCacheMemory() {
+        return reportCacheMemory;
+    }
+
+    /**
+     * Indicates whether the reports shall be exported in the parquet format.
+     *
+     * @return a boolean indicating whether the reports shall be exported in
+     * the parquet format
+     */
+    public boolean isParquetFormat() {
+        return parquetFormat;
+    }
+
     /**
      * Returns the cps file from which the information can be obtained.
      *
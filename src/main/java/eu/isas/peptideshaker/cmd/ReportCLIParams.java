@@ -13,7 +13,10 @@ public enum ReportCLIParams {
     CPS_FILE("in", "PeptideShaker project (.cps or zip file)", true),
     EXPORT_FOLDER("out_reports", "Output folder for report files. (Existing files will be overwritten.)", true),
     REPORT_TYPE("reports", "Comma separated list of types of report to export. " + PSExportFactory.getInstance().getCommandLineOptions(), false),
-    DOCUMENTATION_TYPE("documentation", "Comma separated list of types of report documentation to export. " + PSExportFactory.getInstance().getCommandLineOptions(), false);
+    DOCUMENTATION_TYPE("documentation", "Comma separated list of types of report documentation to export. " + PSExportFactory.getInstance().getCommandLineOptions(), false),
+    REPORT_THREADS("report_threads", "Number of threads to use for the report export. Defaults to the number of processing threads of the project. When the reports are exported concurrently with other tasks every report uses a single thread.", false),
+    REPORT_CACHE_MEMORY("report_cache_memory", "Memory in MB available to cache the protein coverage arrays during the report export. Defaults to one eighth of the maximal heap size.", false),
+    REPORT_FORMAT("report_format", "Format of the reports. 0: text (default), 1: parquet (Protein, Peptide and PSM sections only, one file per section).", false);
 
     /**
      * Short Id for the CLI parameter.
@@ -54,6 +57,9 @@ public enum ReportCLIParams {
         aOptions.addOption(EXPORT_FOLDER.id, true, EXPORT_FOLDER.description);
         aOptions.addOption(REPORT_TYPE.id, true, REPORT_TYPE.description);
         aOptions.addOption(DOCUMENTATION_TYPE.id, true, DOCUMENTATION_TYPE.description);
+        aOptions.addOption(REPORT_THREADS.id, true, REPORT_THREADS.description);
+        aOptions.addOption(REPORT_CACHE_MEMORY.id, true, REPORT_CACHE_MEMORY.description);
+        aOptions.addOption(REPORT_FORMAT.id, true, REPORT_FORMAT.description);
 
         // Path setup
         aOptions.addOption(PathSettingsCLIParams.ALL.id, true, PathSettingsCLIParams.ALL.description);
@@ -96,6 +102,9 @@ public enum ReportCLIParams {
 
         output += "\nReport export:\n\n";
         output += "-" + String.format(formatter, REPORT_TYPE.id) + REPORT_TYPE.description + "\n";
+        output += "-" + String.format(formatter, REPORT_THREADS.id) + REPORT_THREADS.description + "\n";
+        output += "-" + String.format(formatter, REPORT_CACHE_MEMORY.id) + REPORT_CACHE_MEMORY.description + "\n";
+        output += "-" + String.format(formatter, REPORT_FORMAT.id) + REPORT_FORMAT.description + "\n";
 
         output += "\nReport Documentation export:\n\n";
         output += "-" + String.format(formatter, DOCUMENTATION_TYPE.id) + DOCUMENTATION_TYPE.description + "\n";
@@ -0,0 +1,552 @@
+package eu.isas.peptideshaker.export;
+
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.PeptideShaker;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+/**
+ * Snapshot of the files of the matches folder as stored in a cps archive. The
+ * snapshot allows updating the archive incrementally: only the files modified
+ * since the archive was written or extracted are appended at the end of the
+ * archive, the later entries replacing the former ones upon extraction.
+ *
+ * Files are compared using their size and last modification time. Since the
+ * modification time has a limited resolution, a file rewritten within the
+ * same second keeps its time stamp. The content of the files modified shortly
+ * before the snapshot is therefore also registered as a checksum and compared
+ * when size and time stamp are unchanged. Similarly, a checksum of the
+ * beginning and end of the archive is used to detect archives rewritten with
+ * the same size within the same second.
+ */
+public class CpsArchiveSnapshot {
+
+    /**
+     * The snapshot of the last archive written or extracted, null if none.
+     */
+    private static CpsArchiveSnapshot lastSnapshot = null;
+    /**
+     * The size of a tar block.
+     */
+    private static final int BLOCK_SIZE = 512;
+    /**
+     * The maximal size of a file which can be appended to the archive.
+     */
+    private static final long MAX_FILE_SIZE = 077777777777L;
+    /**
+     * The number of bytes which can be appended to the archive in addition to
+     * the size of the files before the archive is written anew.
+     */
+    private static final long MAX_OVERHEAD = 16 * 1024 * 1024;
+    /**
+     * The resolution of the file modification times in milliseconds. Two
+     * seconds to account for FAT file systems.
+     */
+    public static final long MODIFICATION_TIME_RESOLUTION = 2000;
+    /**
+     * The number of bytes at the beginning and at the end of the archive used
+     * to compute the archive checksum.
+     */
+    private static final int ARCHIVE_SAMPLE_SIZE = 64 * 1024;
+    /**
+     * Value indicating that no checksum was computed for a file.
+     */
+    public static final long NO_CHECKSUM = -1;
+    /**
+     * The archive file.
+     */
+    private final File archiveFile;
+    /**
+     * The size of the archive file when the snapshot was taken.
+     */
+    private long archiveLength;
+    /**
+     * The last modification time of the archive file when the snapshot was
+     * taken.
+     */
+    private long archiveLastModified;
+    /**
+     * The checksum of the beginning and end of the archive file when the
+     * snapshot was taken.
+     */
+    private long archiveChecksum;
+    /**
+     * The size, last modification time and checksum of the files of the
+     * matches folder indexed by path relative to the matches folder, see
+     * getFiles.
+     */
+    private HashMap<String, long[]> files;
+
+    /**
+     * Constructor.
+     *
+     * @param archiveFile the archive file
+     * @param files the size, last modification time and checksum of the files
+     * of the matches folder indexed by path relative to the matches folder
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the archive
+     */
+    private CpsArchiveSnapshot(File archiveFile, HashMap<String, long[]> files) throws IOException {
+        this.archiveFile = archiveFile;
+        this.files = files;
+        archiveLength = archiveFile.length();
+        archiveLastModified = archiveFile.lastModified();
+        archiveChecksum = getArchiveChecksum(archiveFile);
+    }
+
+    /**
+     * Registers the content of an archive after the given matches folder was
+     * saved to or extracted from it.
+     *
+     * @param archiveFile the archive file
+     * @param files the size, last modification time and checksum of the files
+     * of the matches folder as stored in the archive, see getFiles
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the archive
+     */
+    public static synchronized void register(File archiveFile, HashMap<String, long[]> files) throws IOException {
+        lastSnapshot = new CpsArchiveSnapshot(archiveFile.getAbsoluteFile(), files);
+    }
+
+    /**
+     * Clears the registered snapshot.
+     */
+    public static synchronized void clear() {
+        lastSnapshot = null;
+    }
+
+    /**
+     * Returns the snapshot of the given archive, null if no snapshot is
+     * registered for this archive or if it was modified since.
+     *
+     * @param archiveFile the archive file
+     *
+     * @return the snapshot of the given archive
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the archive
+     */
+    public static synchronized CpsArchiveSnapshot getSnapshot(File archiveFile) throws IOException {
+        if (lastSnapshot != null
+                && lastSnapshot.archiveFile.equals(archiveFile.getAbsoluteFile())
+                && lastSnapshot.archiveLength == archiveFile.length()
+                && lastSnapshot.archiveLastModified == archiveFile.lastModified()
+                && lastSnapshot.archiveChecksum == getArchiveChecksum(archiveFile)) {
+            return lastSnapshot;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the size, last modification time and checksum of the files in
+     * the given folder indexed by relative path. The checksum is only computed
+     * for the files modified within the resolution of the modification times
+     * before the call, NO_CHECKSUM otherwise.
+     *
+     * @param folder the folder to inspect
+     *
+     * @return the size, last modification time and checksum of the files in
+     * the given folder
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a file
+     */
+    public static HashMap<String, long[]> getFiles(File folder) throws IOException {
+        HashMap<String, long[]> result = new HashMap<String, long[]>();
+        long recentLimit = System.currentTimeMillis() - MODIFICATION_TIME_RESOLUTION;
+        addFiles(folder, "", recentLimit, result);
+        return result;
+    }
+
+    /**
+     * Adds the files of a folder to the given map recursively.
+     *
+     * @param folder the folder to inspect
+     * @param relativePath the path of the folder relative to the root folder
+     * @param recentLimit the modification time from which the checksum of the
+     * files is computed
+     * @param result the map where to add the files
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a file
+     */
+    private static void addFiles(File folder, String relativePath, long recentLimit, HashMap<String, long[]> result) throws IOException {
+        File[] folderFiles = folder.listFiles();
+        if (folderFiles != null) {
+            for (File file : folderFiles) {
+                String filePath = relativePath + file.getName();
+                if (file.isDirectory()) {
+                    addFiles(file, filePath + "/", recentLimit, result);
+                } else {
+                    long lastModified = file.lastModified();
+                    long checksum = lastModified >= recentLimit ? getChecksum(file) : NO_CHECKSUM;
+                    result.put(filePath, new long[]{file.length(), lastModified, checksum});
+                }
+            }
+        }
+    }
+
+    /**
+     * Indicates whether a file was modified since it was archived. The size
+     * and modification time are compared. If they did not change and a
+     * checksum was registered for the archived file, the checksum of the
+     * current file is compared. If missing, the checksum is computed and
+     * stored in the current file details.
+     *
+     * @param folder the folder containing the file
+     * @param path the path of the file relative to the folder
+     * @param archivedFile the details of the archived file as returned by
+     * getFiles
+     * @param currentFile the details of the current file as returned by
+     * getFiles
+     *
+     * @return a boolean indicating whether a file was modified since it was
+     * archived
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    static boolean isModified(File folder, String path, long[] archivedFile, long[] currentFile) throws IOException {
+        if (archivedFile == null || archivedFile[0] != currentFile[0] || archivedFile[1] != currentFile[1]) {
+            return true;
+        }
+        if (archivedFile[2] == NO_CHECKSUM) {
+            return false;
+        }
+        if (currentFile[2] == NO_CHECKSUM) {
+            currentFile[2] = getChecksum(new File(folder, path));
+        }
+        return archivedFile[2] != currentFile[2];
+    }
+
+    /**
+     * Returns the CRC32 checksum of the content of a file.
+     *
+     * @param file the file
+     *
+     * @return the checksum of the content of the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static long getChecksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Returns the CRC32 checksum of the beginning and end of an archive. The
+     * whole archive is not read in order to keep the check fast for large
+     * archives.
+     *
+     * @param archiveFile the archive file
+     *
+     * @return the checksum of the beginning and end of the archive
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static long getArchiveChecksum(File archiveFile) throws IOException {
+        CRC32 crc = new CRC32();
+        RandomAccessFile archive = new RandomAccessFile(archiveFile, "r");
+        try {
+            long length = archive.length();
+            byte[] buffer = new byte[(int) Math.min(length, ARCHIVE_SAMPLE_SIZE)];
+            archive.readFully(buffer);
+            crc.update(buffer);
+            if (length > ARCHIVE_SAMPLE_SIZE) {
+                buffer = new byte[(int) Math.min(length - ARCHIVE_SAMPLE_SIZE, ARCHIVE_SAMPLE_SIZE)];
+                archive.seek(length - buffer.length);
+                archive.readFully(buffer);
+                crc.update(buffer);
+            }
+        } finally {
+            archive.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Appends the files of the matches folder modified since the snapshot to
+     * the archive. Returns false if the archive cannot be updated
+     * incrementally and needs to be written anew: when files were deleted,
+     * when new folders were created, when the archive cannot be parsed or when
+     * the outdated content would take too much space.
+     *
+     * @param matchesFolder the matches folder
+     * @param waitingHandler a waiting handler used to cancel the saving
+     *
+     * @return a boolean indicating whether the archive was updated
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    public synchronized boolean update(File matchesFolder, WaitingHandler waitingHandler) throws IOException {
+
+        HashMap<String, long[]> currentFiles = getFiles(matchesFolder);
+
+        HashSet<String> folders = new HashSet<String>();
+        for (String path : files.keySet()) {
+            if (!currentFiles.containsKey(path)) {
+                return false;
+            }
+            int separatorIndex = path.lastIndexOf('/');
+            if (separatorIndex >= 0) {
+                folders.add(path.substring(0, separatorIndex));
+            }
+        }
+
+        ArrayList<String> modifiedFiles = new ArrayList<String>();
+        long filesSize = 0, appendedSize = 0;
+        for (String path : currentFiles.keySet()) {
+            long[] currentFile = currentFiles.get(path);
+            filesSize += currentFile[0];
+            long[] archivedFile = files.get(path);
+            if (isModified(matchesFolder, path, archivedFile, currentFile)) {
+                int separatorIndex = path.lastIndexOf('/');
+                if (separatorIndex >= 0 && !folders.contains(path.substring(0, separatorIndex))) {
+                    return false;
+                }
+                if (currentFile[0] > MAX_FILE_SIZE) {
+                    return false;
+                }
+                modifiedFiles.add(path);
+                appendedSize += 2 * BLOCK_SIZE + currentFile[0];
+            }
+        }
+
+        if (modifiedFiles.isEmpty()) {
+            return true;
+        }
+
+        String entryPrefix = null;
+        long endOffset = -1;
+        RandomAccessFile archive = new RandomAccessFile(archiveFile, "rw");
+        try {
+            String experimentEntry = PeptideShaker.experimentObjectName;
+            long length = archive.length();
+            long offset = 0;
+            byte[] header = new byte[BLOCK_SIZE];
+            String longName = null;
+            while (offset + BLOCK_SIZE <= length) {
+                archive.seek(offset);
+                archive.readFully(header);
+                if (isEmpty(header)) {
+                    endOffset = offset;
+                    break;
+                }
+                String name = longName != null ? longName : getEntryName(header);
+                longName = null;
+                long size = getEntrySize(header);
+                byte type = header[156];
+                if (type == 'L') {
+                    byte[] nameBytes = new byte[(int) size];
+                    archive.readFully(nameBytes);
+                    longName = getString(nameBytes, 0, nameBytes.length);
+                } else if ((type == '0' || type == 0) && (name.equals(experimentEntry) || name.endsWith("/" + experimentEntry))) {
+                    entryPrefix = name.substring(0, name.length() - experimentEntry.length());
+                }
+                offset += BLOCK_SIZE + (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+            }
+            if (entryPrefix == null || endOffset == -1 || endOffset + appendedSize > 2 * filesSize + MAX_OVERHEAD) {
+                return false;
+            }
+            archive.setLength(endOffset);
+        } finally {
+            archive.close();
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(modifiedFiles.size());
+        }
+
+        try {
+            appendFiles(matchesFolder, modifiedFiles, entryPrefix, waitingHandler);
+        } catch (IOException e) {
+            restoreArchive(endOffset);
+            throw e;
+        } catch (RuntimeException e) {
+            restoreArchive(endOffset);
+            throw e;
+        }
+
+        files = currentFiles;
+        archiveLength = archiveFile.length();
+        archiveLastModified = archiveFile.lastModified();
+        archiveChecksum = getArchiveChecksum(archiveFile);
+
+        return true;
+    }
+
+    /**
+     * Appends files to the end of the archive.
+     *
+     * @param matchesFolder the matches folder
+     * @param paths the paths of the files to append relative to the matches
+     * folder
+     * @param entryPrefix the prefix of the entries in the archive
+     * @param waitingHandler a waiting handler used to display progress
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    private void appendFiles(File matchesFolder, ArrayList<String> paths, String entryPrefix, WaitingHandler waitingHandler) throws IOException {
+
+        TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(archiveFile, true)));
+        try {
+            tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+            byte[] buffer = new byte[64 * 1024];
+            for (String path : paths) {
+                File file = new File(matchesFolder, path);
+                TarArchiveEntry entry = new TarArchiveEntry(file, entryPrefix + path);
+                tarOutput.putArchiveEntry(entry);
+                InputStream input = new BufferedInputStream(new FileInputStream(file));
+                try {
+                    long remaining = entry.getSize();
+                    int read;
+                    while (remaining > 0 && (read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                        tarOutput.write(buffer, 0, read);
+                        remaining -= read;
+                    }
+                } finally {
+                    input.close();
+                }
+                tarOutput.closeArchiveEntry();
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+        } finally {
+            tarOutput.close();
+        }
+    }
+
+    /**
+     * Restores the archive as it was before appending files by removing the
+     * appended content and writing the end of archive blocks.
+     *
+     * @param endOffset the offset of the end of the archive content
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void restoreArchive(long endOffset) throws IOException {
+        RandomAccessFile archive = new RandomAccessFile(archiveFile, "rw");
+        try {
+            archive.setLength(endOffset);
+            archive.seek(endOffset);
+            archive.write(new byte[2 * BLOCK_SIZE]);
+        } finally {
+            archive.close();
+        }
+        clear();
+    }
+
+    /**
+     * Indicates whether a block contains only zeros.
+     *
+     * @param block the block
+     *
+     * @return a boolean indicating whether a block contains only zeros
+     */
+    private static boolean isEmpty(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the name of an entry from its tar header.
+     *
+     * @param header the header
+     *
+     * @return the name of the entry
+     */
+    private static String getEntryName(byte[] header) {
+        String name = getString(header, 0, 100);
+        boolean posix = header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r' && header[262] == 0;
+        if (posix) {
+            String prefix = getString(header, 345, 155);
+            if (prefix.length() > 0) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Returns the size of an entry from its tar header.
+     *
+     * @param header the header
+     *
+     * @return the size of the entry
+     */
+    private static long getEntrySize(byte[] header) {
+        long size = 0;
+        if ((header[124] & 0x80) != 0) {
+            for (int i = 125; i < 136; i++) {
+                size = (size << 8) | (header[i] & 0xFF);
+            }
+        } else {
+            for (int i = 124; i < 136; i++) {
+                byte b = header[i];
+                if (b >= '0' && b <= '7') {
+                    size = (size << 3) | (b - '0');
+                } else if (b == 0 || (b == ' ' && size > 0)) {
+                    break;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns a NUL terminated string from a header.
+     *
+     * @param bytes the bytes of the header
+     * @param offset the offset of the string
+     * @param length the maximal length of the string
+     *
+     * @return the string
+     */
+    private static String getString(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        try {
+            return new String(bytes, offset, end - offset, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
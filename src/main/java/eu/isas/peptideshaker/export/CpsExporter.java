@@ -20,6 +20,7 @@ import eu.isas.peptideshaker.utils.IdentificationFeaturesCache;
 import eu.isas.peptideshaker.utils.Metrics;
 import java.io.*;
 import java.sql.SQLException;
+import java.util.HashMap;
 import org.apache.commons.compress.archivers.ArchiveException;
 
 /**
@@ -62,7 +63,7 @@ public class CpsExporter {
     }
 
     /**
-     * Saves the given data in a cps file.
+     * Saves the given data in a cps file. The cps file is written anew.
      *
      * @param destinationFile the destination cps file
      * @param waitingHandler a waiting handler used to cancel the saving
@@ -91,6 +92,45 @@ public class CpsExporter {
             IdentificationParameters identificationParameters, SpectrumCountingPreferences spectrumCountingPreferences, ProjectDetails projectDetails, FilterPreferences filterPreferences,
             Metrics metrics, ProcessingPreferences processingPreferences, IdentificationFeaturesCache identificationFeaturesCache, ObjectsCache objectsCache, boolean emptyCache,
             DisplayPreferences displayPreferences, String jarFilePath) throws IOException, SQLException, FileNotFoundException, ArchiveException {
+        saveAs(destinationFile, waitingHandler, experiment, identification, shotgunProtocol, identificationParameters, spectrumCountingPreferences, projectDetails, filterPreferences,
+                metrics, processingPreferences, identificationFeaturesCache, objectsCache, emptyCache, displayPreferences, jarFilePath, false);
+    }
+
+    /**
+     * Saves the given data in a cps file. If incremental is true and the
+     * destination file is the archive the project was last saved to or loaded
+     * from, only the files of the matches folder modified since are appended
+     * to the archive. The archive is written anew otherwise.
+     *
+     * @param destinationFile the destination cps file
+     * @param waitingHandler a waiting handler used to cancel the saving
+     * @param experiment the experiment to save
+     * @param identification the identification to save
+     * @param shotgunProtocol information about the protocol used
+     * @param identificationParameters the identification parameters
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param projectDetails the project details
+     * @param filterPreferences the filtering preferences
+     * @param displayPreferences the display preferences
+     * @param metrics the dataset metrics
+     * @param processingPreferences the processing preferences
+     * @param identificationFeaturesCache the identification features cache
+     * @param objectsCache the object cache
+     * @param emptyCache a boolean indicating whether the object cache should be
+     * emptied
+     * @param jarFilePath the path to the jar file
+     * @param incremental a boolean indicating whether the archive should be
+     * updated incrementally when possible
+     *
+     * @throws IOException thrown of IOException occurs
+     * @throws FileNotFoundException thrown if FileNotFoundException occurs
+     * @throws SQLException thrown of SQLException occurs
+     * @throws ArchiveException thrown of ArchiveException occurs
+     */
+    public static void saveAs(File destinationFile, WaitingHandler waitingHandler, MsExperiment experiment, Identification identification, ShotgunProtocol shotgunProtocol,
+            IdentificationParameters identificationParameters, SpectrumCountingPreferences spectrumCountingPreferences, ProjectDetails projectDetails, FilterPreferences filterPreferences,
+            Metrics metrics, ProcessingPreferences processingPreferences, IdentificationFeaturesCache identificationFeaturesCache, ObjectsCache objectsCache, boolean emptyCache,
+            DisplayPreferences displayPreferences, String jarFilePath, boolean incremental) throws IOException, SQLException, FileNotFoundException, ArchiveException {
 
         // save the user advocates
         projectDetails.setUserAdvocateMapping(Advocate.getUserAdvocates());
@@ -118,9 +158,17 @@ public class CpsExporter {
 
         identification.restoreConnection(matchesFolder.getAbsolutePath(), false, objectsCache);
 
-        // tar everything in the current cps file
+        // append the modified files to the cps file if possible, tar everything otherwise
         if (waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            TarUtils.tarFolder(matchesFolder, destinationFile, waitingHandler);
+            CpsArchiveSnapshot snapshot = incremental ? CpsArchiveSnapshot.getSnapshot(destinationFile) : null;
+            if (snapshot == null || !snapshot.update(matchesFolder, waitingHandler)) {
+                CpsArchiveSnapshot.clear();
+                HashMap<String, long[]> files = CpsArchiveSnapshot.getFiles(matchesFolder);
+                TarUtils.tarFolder(matchesFolder, destinationFile, waitingHandler);
+                if (!waitingHandler.isRunCanceled()) {
+                    CpsArchiveSnapshot.register(destinationFile, files);
+                }
+            }
         }
     }
 }
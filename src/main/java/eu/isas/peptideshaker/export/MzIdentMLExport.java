@@ -36,6 +36,7 @@ import com.compomics.util.pride.CvTerm;
 import com.compomics.util.pride.PrideObjectsFactory;
 import com.compomics.util.pride.PtmToPrideMap;
 import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.PeptideShaker;
 import eu.isas.peptideshaker.myparameters.PSMaps;
 import eu.isas.peptideshaker.myparameters.PSParameter;
 import eu.isas.peptideshaker.myparameters.PSPtmScores;
@@ -47,6 +48,7 @@ import eu.isas.peptideshaker.scoring.PtmScoring;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.SerializationCopy;
 import java.io.*;
 import java.sql.SQLException;
 import java.text.DateFormat;
@@ -55,7 +57,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.lang3.StringEscapeUtils;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
@@ -68,9 +76,10 @@ import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 public class MzIdentMLExport {
 
     /**
-     * The fileWriter.
+     * The writer sending the text to the file, possibly through a compressed
+     * stream.
      */
-    private FileWriter r;
+    private Writer r;
     /**
      * The buffered writer which will write the results in the desired file.
      */
@@ -96,6 +105,14 @@ public class MzIdentMLExport {
      * The PTM to mzIdentML map.
      */
     private PtmToPrideMap ptmToPrideMap; // @TODO: should be renamed!!!
+    /**
+     * The line separator.
+     */
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    /**
+     * Tabs used at the beginning of the lines.
+     */
+    private static final String TABS = "\t\t\t\t\t\t\t\t\t\t\t\t";
     /**
      * The number of decimals to use for the confidence values.
      */
@@ -145,9 +162,24 @@ public class MzIdentMLExport {
      */
     private HashMap<String, String> pepEvidenceIds = new HashMap<String, String>();
     /**
-     * The spectrum IDs.
+     * The index of every spectrum file used in the spectrum identification
+     * IDs.
+     */
+    private HashMap<String, Integer> spectrumFileIndexes = new HashMap<String, Integer>();
+    /**
+     * Buffers which can be reused to format the spectrum identification
+     * results.
+     */
+    private final ConcurrentLinkedQueue<StringBuilder> buffers = new ConcurrentLinkedQueue<StringBuilder>();
+    /**
+     * Copies of the annotation preferences which can be reused by the threads
+     * formatting the spectrum identification results.
+     */
+    private final ConcurrentLinkedQueue<AnnotationPreferences> annotationPreferencesCopies = new ConcurrentLinkedQueue<AnnotationPreferences>();
+    /**
+     * Array used to transfer the content of the buffers to the file.
      */
-    private HashMap<String, String> spectrumIds = new HashMap<String, String>();
+    private final char[] transferBuffer = new char[8192];
     /**
      * Information on the protocol.
      */
@@ -187,6 +219,38 @@ public class MzIdentMLExport {
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, SpectrumCountingPreferences spectrumCountingPreferences,
             IdentificationFeaturesGenerator identificationFeaturesGenerator,
             File outputFile, WaitingHandler waitingHandler) throws IOException, ClassNotFoundException {
+        this(peptideShakerVersion, identification, projectDetails, processingPreferences, shotgunProtocol, identificationParameters, spectrumCountingPreferences,
+                identificationFeaturesGenerator, outputFile, false, waitingHandler);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param peptideShakerVersion the PeptideShaker version
+     * @param identification the identification object which can be used to
+     * retrieve identification matches and parameters
+     * @param projectDetails the project details
+     * @param processingPreferences the processing preferences
+     * @param shotgunProtocol information on the protocol
+     * @param identificationParameters the identification parameters
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param outputFile Output file
+     * @param gzip if true the output is compressed in the gzip format using
+     * the number of threads of the processing preferences
+     * @param waitingHandler waiting handler used to display progress to the
+     * user and interrupt the process
+     *
+     * @throws IOException Exception thrown whenever an error occurred while
+     * reading/writing a file
+     * @throws ClassNotFoundException Exception thrown whenever an error
+     * occurred while deserializing an object
+     */
+    public MzIdentMLExport(String peptideShakerVersion, Identification identification, ProjectDetails projectDetails, ProcessingPreferences processingPreferences,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, SpectrumCountingPreferences spectrumCountingPreferences,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            File outputFile, boolean gzip, WaitingHandler waitingHandler) throws IOException, ClassNotFoundException {
         this.peptideShakerVersion = peptideShakerVersion;
         this.identification = identification;
         this.projectDetails = projectDetails;
@@ -199,7 +263,11 @@ public class MzIdentMLExport {
         PrideObjectsFactory prideObjectsFactory = PrideObjectsFactory.getInstance(); // @TODO: should be renamed!!!
         ptmToPrideMap = prideObjectsFactory.getPtmToPrideMap();
         this.peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
-        r = new FileWriter(outputFile);
+        OutputStream outputStream = new FileOutputStream(outputFile);
+        if (gzip) {
+            outputStream = new ParallelGzipOutputStream(outputStream, processingPreferences.getnThreads());
+        }
+        r = new OutputStreamWriter(outputStream);
         br = new BufferedWriter(r);
     }
 
@@ -223,49 +291,52 @@ public class MzIdentMLExport {
 
         mzidVersion_1_2 = version12;
 
-        // @TODO: use the waiting handler more (especially for command line mode)
-        // the mzIdentML start tag
-        writeMzIdentMLStartTag();
+        // the writers are closed in all cases, when compressing this also stops the compression threads
+        try {
 
-        // write the cv list
-        writeCvList();
+            // @TODO: use the waiting handler more (especially for command line mode)
+            // the mzIdentML start tag
+            writeMzIdentMLStartTag();
 
-        // write the AnalysisSoftwareList
-        writeAnalysisSoftwareList();
+            // write the cv list
+            writeCvList();
 
-        // write the Provider details
-        writeProviderDetails();
+            // write the AnalysisSoftwareList
+            writeAnalysisSoftwareList();
 
-        // write the AuditCollection details
-        writeAuditCollection();
+            // write the Provider details
+            writeProviderDetails();
 
-        waitingHandler.setPrimaryProgressCounterIndeterminate(false);
-        waitingHandler.resetPrimaryProgressCounter();
-        waitingHandler.setMaxPrimaryProgressCounter(sequenceFactory.getNSequences() + identification.getSpectrumIdentificationSize() * 3 + identification.getProteinIdentification().size());
+            // write the AuditCollection details
+            writeAuditCollection();
 
-        // write the sequence collection
-        writeSequenceCollection();
+            waitingHandler.setPrimaryProgressCounterIndeterminate(false);
+            waitingHandler.resetPrimaryProgressCounter();
+            waitingHandler.setMaxPrimaryProgressCounter(sequenceFactory.getNSequences() + identification.getSpectrumIdentificationSize() * 3 + identification.getProteinIdentification().size());
 
-        // write the analyis collection
-        writeAnalysisCollection();
+            // write the sequence collection
+            writeSequenceCollection();
 
-        // write the analysis protocol
-        writeAnalysisProtocol();
+            // write the analyis collection
+            writeAnalysisCollection();
 
-        // write the data collection
-        writeDataCollection();
+            // write the analysis protocol
+            writeAnalysisProtocol();
 
-        if (waitingHandler.isRunCanceled()) {
+            // write the data collection
+            writeDataCollection();
+
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            // the experiment end tag
+            writeMzIdentMLEndTag();
+
+        } finally {
             br.close();
             r.close();
-            return;
         }
-
-        // the experiment end tag
-        writeMzIdentMLEndTag();
-
-        br.close();
-        r.close();
     }
 
     /**
@@ -276,32 +347,32 @@ public class MzIdentMLExport {
      */
     private void writeCvList() throws IOException {
 
-        br.write(getCurrentTabSpace() + "<cvList>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<cvList>" + LINE_SEPARATOR);
         tabCounter++;
 
         br.write(getCurrentTabSpace()
                 + "<cv id=\"PSI-MS\" "
                 + "uri=\"http://psidev.cvs.sourceforge.net/viewvc/*checkout*/psidev/psi/psi-ms/mzML/controlledVocabulary/psi-ms.obo\" "
                 + "version=\"3.73.0\" "
-                + "fullName=\"PSI-MS\"/>" + System.getProperty("line.separator"));
+                + "fullName=\"PSI-MS\"/>" + LINE_SEPARATOR);
 
         br.write(getCurrentTabSpace()
                 + "<cv id=\"UNIMOD\" "
                 + "uri=\"http://www.unimod.org/obo/unimod.obo\" "
-                + "fullName=\"UNIMOD\"/>" + System.getProperty("line.separator"));
+                + "fullName=\"UNIMOD\"/>" + LINE_SEPARATOR);
 
         br.write(getCurrentTabSpace()
                 + "<cv id=\"UO\" "
                 + "uri=\"http://obo.cvs.sourceforge.net/*checkout*/obo/obo/ontology/phenotype/unit.obo\" "
-                + "fullName=\"UNIT-ONTOLOGY\"/>" + System.getProperty("line.separator"));
+                + "fullName=\"UNIT-ONTOLOGY\"/>" + LINE_SEPARATOR);
 
         br.write(getCurrentTabSpace()
                 + "<cv id=\"PRIDE\" "
                 + "uri=\"http://code.google.com/p/ebi-pride/source/browse/trunk/pride-core/schema/pride_cv.obo\" "
-                + "fullName=\"PRIDE\"/>" + System.getProperty("line.separator"));
+                + "fullName=\"PRIDE\"/>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</cvList>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</cvList>" + LINE_SEPARATOR);
     }
 
     /**
@@ -312,7 +383,7 @@ public class MzIdentMLExport {
      */
     private void writeAnalysisSoftwareList() throws IOException {
 
-        br.write(getCurrentTabSpace() + "<AnalysisSoftwareList>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<AnalysisSoftwareList>" + LINE_SEPARATOR);
         tabCounter++;
 
         // @TODO: also add SearchGUI and/or search engines used?
@@ -321,32 +392,32 @@ public class MzIdentMLExport {
                 + "version=\"" + peptideShakerVersion + "\" "
                 + "id=\"ID_software\" "
                 + "uri=\"http://peptide-shaker.googlecode.com\">"
-                + System.getProperty("line.separator"));
+                + LINE_SEPARATOR);
         tabCounter++;
 
-        br.write(getCurrentTabSpace() + "<ContactRole contact_ref=\"PS_DEV\">" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<ContactRole contact_ref=\"PS_DEV\">" + LINE_SEPARATOR);
         tabCounter++;
-        br.write(getCurrentTabSpace() + "<Role>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Role>" + LINE_SEPARATOR);
         tabCounter++;
         writeCvTerm(new CvTerm("PSI-MS", "MS:1001267", "software vendor", "CompOmics"));
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Role>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Role>" + LINE_SEPARATOR);
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</ContactRole>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</ContactRole>" + LINE_SEPARATOR);
 
-        br.write(getCurrentTabSpace() + "<SoftwareName>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<SoftwareName>" + LINE_SEPARATOR);
         tabCounter++;
         writeCvTerm(new CvTerm("PSI-MS", "MS:1002458", "PeptideShaker", null));
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</SoftwareName>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</SoftwareName>" + LINE_SEPARATOR);
 
-        br.write(getCurrentTabSpace() + "<Customizations>No customisations</Customizations>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Customizations>No customisations</Customizations>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</AnalysisSoftware>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</AnalysisSoftware>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</AnalysisSoftwareList>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</AnalysisSoftwareList>" + LINE_SEPARATOR);
     }
 
     /**
@@ -357,23 +428,23 @@ public class MzIdentMLExport {
      */
     private void writeProviderDetails() throws IOException {
 
-        br.write(getCurrentTabSpace() + "<Provider id=\"PROVIDER\">" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Provider id=\"PROVIDER\">" + LINE_SEPARATOR);
         tabCounter++;
 
-        br.write(getCurrentTabSpace() + "<ContactRole contact_ref=\"PROVIDER\">" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<ContactRole contact_ref=\"PROVIDER\">" + LINE_SEPARATOR);
         tabCounter++;
 
-        br.write(getCurrentTabSpace() + "<Role>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Role>" + LINE_SEPARATOR);
         tabCounter++;
         writeCvTerm(new CvTerm("PSI-MS", "MS:1001271", "researcher", null)); // @TODO: add user defined provider role?
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Role>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Role>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</ContactRole>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</ContactRole>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Provider>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Provider>" + LINE_SEPARATOR);
     }
 
     /**
@@ -384,25 +455,25 @@ public class MzIdentMLExport {
      */
     private void writeAuditCollection() throws IOException {
 
-        br.write(getCurrentTabSpace() + "<AuditCollection>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<AuditCollection>" + LINE_SEPARATOR);
         tabCounter++;
 
         br.write(getCurrentTabSpace() + "<Person "
                 + "firstName=\"" + projectDetails.getContactFirstName() + "\" "
                 + "lastName=\"" + projectDetails.getContactLastName() + "\" "
                 + "id=\"PROVIDER\">"
-                + System.getProperty("line.separator"));
+                + LINE_SEPARATOR);
         tabCounter++;
         writeCvTerm(new CvTerm("PSI-MS", "MS:1000587", "contact address", projectDetails.getContactAddress()));
         if (projectDetails.getContactUrl() != null && !projectDetails.getContactUrl().isEmpty()) {
             writeCvTerm(new CvTerm("PSI-MS", "MS:1000588", "contact url", projectDetails.getContactUrl()));
         }
         writeCvTerm(new CvTerm("PSI-MS", "MS:1000589", "contact email", projectDetails.getContactEmail()));
-        br.write(getCurrentTabSpace() + "<Affiliation organization_ref=\"ORG_DOC_OWNER\"/>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Affiliation organization_ref=\"ORG_DOC_OWNER\"/>" + LINE_SEPARATOR);
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Person>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Person>" + LINE_SEPARATOR);
 
-        br.write(getCurrentTabSpace() + "<Organization name=\"" + projectDetails.getOrganizationName() + "\" id=\"ORG_DOC_OWNER\">" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Organization name=\"" + projectDetails.getOrganizationName() + "\" id=\"ORG_DOC_OWNER\">" + LINE_SEPARATOR);
         tabCounter++;
         writeCvTerm(new CvTerm("PSI-MS", "MS:1000586", "contact name", projectDetails.getOrganizationName()));
         writeCvTerm(new CvTerm("PSI-MS", "MS:1000587", "contact address", projectDetails.getOrganizationAddress()));
@@ -411,19 +482,19 @@ public class MzIdentMLExport {
         }
         writeCvTerm(new CvTerm("PSI-MS", "MS:1000589", "contact email", projectDetails.getOrganizationEmail()));
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Organization>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Organization>" + LINE_SEPARATOR);
 
-        br.write(getCurrentTabSpace() + "<Organization name=\"PeptideShaker developers\" id=\"PS_DEV\">" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Organization name=\"PeptideShaker developers\" id=\"PS_DEV\">" + LINE_SEPARATOR);
         tabCounter++;
         writeCvTerm(new CvTerm("PSI-MS", "MS:1000586", "contact name", "PeptideShaker developers"));
         writeCvTerm(new CvTerm("PSI-MS", "MS:1000587", "contact address", "Proteomics Unit, Building for Basic Biology, University of Bergen, Jonas Liesvei 91, N-5009 Bergen, Norway"));
         writeCvTerm(new CvTerm("PSI-MS", "MS:1000588", "contact url", "http://peptide-shaker.googlecode.com"));
         writeCvTerm(new CvTerm("PSI-MS", "MS:1000589", "contact email", "peptide-shaker@googlegroups.com"));
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Organization>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Organization>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</AuditCollection>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</AuditCollection>" + LINE_SEPARATOR);
     }
 
     /**
@@ -440,7 +511,7 @@ public class MzIdentMLExport {
      */
     private void writeSequenceCollection() throws IOException, InterruptedException, ClassNotFoundException, SQLException {
 
-        br.write(getCurrentTabSpace() + "<SequenceCollection>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<SequenceCollection>" + LINE_SEPARATOR);
         tabCounter++;
 
         // get the sequence database
@@ -455,12 +526,12 @@ public class MzIdentMLExport {
         while (iterator.hasNext()) {
             Protein currentProtein = iterator.getNextProtein();
             br.write(getCurrentTabSpace() + "<DBSequence id=\"" + currentProtein.getAccession() + "\" "
-                    + "accession=\"" + currentProtein.getAccession() + "\" searchDatabase_ref=\"" + "SearchDB_1" + "\" >" + System.getProperty("line.separator"));
+                    + "accession=\"" + currentProtein.getAccession() + "\" searchDatabase_ref=\"" + "SearchDB_1" + "\" >" + LINE_SEPARATOR);
             tabCounter++;
-            //br.write(getCurrentTabSpace() + "<Seq>" + currentProtein.getSequence() + "</Seq>" + System.getProperty("line.separator"));
+            //br.write(getCurrentTabSpace() + "<Seq>" + currentProtein.getSequence() + "</Seq>" + LINE_SEPARATOR);
             writeCvTerm(new CvTerm("PSI-MS", "MS:1001088", "protein description", StringEscapeUtils.escapeHtml4(sequenceFactory.getHeader(currentProtein.getAccession()).getDescription())));
             tabCounter--;
-            br.write(getCurrentTabSpace() + "</DBSequence>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "</DBSequence>" + LINE_SEPARATOR);
 
             waitingHandler.increasePrimaryProgressCounter();
 
@@ -488,9 +559,9 @@ public class MzIdentMLExport {
             Peptide peptide = peptideMatch.getTheoreticPeptide();
             String peptideSequence = peptide.getSequence();
 
-            br.write(getCurrentTabSpace() + "<Peptide id=\"" + peptideKey + "\" >" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "<Peptide id=\"" + peptideKey + "\" >" + LINE_SEPARATOR);
             tabCounter++;
-            br.write(getCurrentTabSpace() + "<PeptideSequence>" + peptideSequence + "</PeptideSequence>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "<PeptideSequence>" + peptideSequence + "</PeptideSequence>" + LINE_SEPARATOR);
 
             for (ModificationMatch modMatch : peptide.getModificationMatches()) {
 
@@ -505,7 +576,7 @@ public class MzIdentMLExport {
 
                 br.write(getCurrentTabSpace() + "<Modification monoisotopicMassDelta=\"" + currentPtm.getMass() + "\" "
                         + "residues=\"" + peptideSequence.charAt(modMatch.getModificationSite() - 1) + "\" "
-                        + "location=\"" + ptmLocation + "\" >" + System.getProperty("line.separator"));
+                        + "location=\"" + ptmLocation + "\" >" + LINE_SEPARATOR);
 
                 CvTerm ptmCvTerm = ptmToPrideMap.getCVTerm(currentPtm.getName());
                 if (ptmCvTerm == null) {
@@ -517,11 +588,11 @@ public class MzIdentMLExport {
                     tabCounter--;
                 }
 
-                br.write(getCurrentTabSpace() + "</Modification>" + System.getProperty("line.separator"));
+                br.write(getCurrentTabSpace() + "</Modification>" + LINE_SEPARATOR);
             }
 
             tabCounter--;
-            br.write(getCurrentTabSpace() + "</Peptide>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "</Peptide>" + LINE_SEPARATOR);
 
             waitingHandler.increasePrimaryProgressCounter();
 
@@ -607,7 +678,7 @@ public class MzIdentMLExport {
                                     + "peptide_ref=\"" + matchingPeptideKey + "\" "
                                     + "dBSequence_ref=\"" + sequenceFactory.getProtein(tempProtein).getAccession() + "\" "
                                     + "id=\"" + pepEvidenceIds.get(pepEvidenceKey) + "\" "
-                                    + "/>" + System.getProperty("line.separator"));
+                                    + "/>" + LINE_SEPARATOR);
                         }
                     }
 
@@ -625,7 +696,7 @@ public class MzIdentMLExport {
         }
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</SequenceCollection>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</SequenceCollection>" + LINE_SEPARATOR);
     }
 
     /**
@@ -636,39 +707,39 @@ public class MzIdentMLExport {
      */
     private void writeAnalysisCollection() throws IOException {
 
-        br.write(getCurrentTabSpace() + "<AnalysisCollection>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<AnalysisCollection>" + LINE_SEPARATOR);
         tabCounter++;
 
         br.write(getCurrentTabSpace() + "<SpectrumIdentification "
                 + "spectrumIdentificationList_ref=\"SIL_1\" "
                 + "spectrumIdentificationProtocol_ref=\"SearchProtocol_1\" "
                 + "id=\"SpecIdent_1\">"
-                + System.getProperty("line.separator"));
+                + LINE_SEPARATOR);
         tabCounter++;
 
         // iterate the spectrum files and add the file name refs
         for (String mgfFileName : spectrumFactory.getMgfFileNames()) {
-            br.write(getCurrentTabSpace() + "<InputSpectra spectraData_ref=\"" + mgfFileName + "\"/>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "<InputSpectra spectraData_ref=\"" + mgfFileName + "\"/>" + LINE_SEPARATOR);
         }
 
-        br.write(getCurrentTabSpace() + "<SearchDatabaseRef searchDatabase_ref=\"SearchDB_1\"/>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<SearchDatabaseRef searchDatabase_ref=\"SearchDB_1\"/>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</SpectrumIdentification>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</SpectrumIdentification>" + LINE_SEPARATOR);
 
         // add protein detection
         br.write(getCurrentTabSpace() + "<ProteinDetection " // @TODO: add activityDate? example: activityDate="2011-03-25T13:33:51
                 + "proteinDetectionProtocol_ref=\"PeptideShaker_1\" "
                 + "proteinDetectionList_ref=\"Protein_groups\" "
                 + "id=\"PD_1\">"
-                + System.getProperty("line.separator"));
+                + LINE_SEPARATOR);
         tabCounter++;
-        br.write(getCurrentTabSpace() + "<InputSpectrumIdentifications spectrumIdentificationList_ref=\"SIL_1\"/>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<InputSpectrumIdentifications spectrumIdentificationList_ref=\"SIL_1\"/>" + LINE_SEPARATOR);
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</ProteinDetection>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</ProteinDetection>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</AnalysisCollection>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</AnalysisCollection>" + LINE_SEPARATOR);
     }
 
     /**
@@ -679,24 +750,24 @@ public class MzIdentMLExport {
      */
     private void writeAnalysisProtocol() throws IOException {
 
-        br.write(getCurrentTabSpace() + "<AnalysisProtocolCollection>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<AnalysisProtocolCollection>" + LINE_SEPARATOR);
         tabCounter++;
 
         // add spectrum identification protocol
         br.write(getCurrentTabSpace() + "<SpectrumIdentificationProtocol "
-                + "analysisSoftware_ref=\"ID_software\" id=\"SearchProtocol_1\">" + System.getProperty("line.separator"));
+                + "analysisSoftware_ref=\"ID_software\" id=\"SearchProtocol_1\">" + LINE_SEPARATOR);
         tabCounter++;
 
         // the search type
-        br.write(getCurrentTabSpace() + "<SearchType>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<SearchType>" + LINE_SEPARATOR);
         tabCounter++;
         writeCvTerm(new CvTerm("PSI-MS", "MS:1001083", "ms-ms search", null));
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</SearchType>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</SearchType>" + LINE_SEPARATOR);
 
         // the search parameters
         SearchParameters searchParameters = identificationParameters.getSearchParameters();
-        br.write(getCurrentTabSpace() + "<AdditionalSearchParams>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<AdditionalSearchParams>" + LINE_SEPARATOR);
         tabCounter++;
         writeCvTerm(new CvTerm("PSI-MS", "MS:1001211", "parent mass type mono", null));
         writeCvTerm(new CvTerm("PSI-MS", "MS:1001256", "fragment mass type mono", null));
@@ -709,10 +780,10 @@ public class MzIdentMLExport {
 
         // @TODO: list all search parameters from the search engines used?
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</AdditionalSearchParams>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</AdditionalSearchParams>" + LINE_SEPARATOR);
 
         // the modifications
-        br.write(getCurrentTabSpace() + "<ModificationParams>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<ModificationParams>" + LINE_SEPARATOR);
         tabCounter++;
 
         // create the ptm index map
@@ -745,7 +816,7 @@ public class MzIdentMLExport {
             }
 
             br.write(getCurrentTabSpace() + "<SearchModification residues=\"" + aminoAcidsAtTarget + "\" massDelta=\"" + currentPtm.getMass()
-                    + "\" fixedMod= \"" + searchParameters.getModificationProfile().getFixedModifications().contains(ptm) + "\" >" + System.getProperty("line.separator"));
+                    + "\" fixedMod= \"" + searchParameters.getModificationProfile().getFixedModifications().contains(ptm) + "\" >" + LINE_SEPARATOR);
             tabCounter++;
 
             CvTerm cvTerm = ptmToPrideMap.getCVTerm(ptm);
@@ -777,14 +848,14 @@ public class MzIdentMLExport {
             }
             writeCvTerm(new CvTerm("PSI-MS", "MS:1002504", "modification index", ptmIndex.toString()));
             tabCounter--;
-            br.write(getCurrentTabSpace() + "</SearchModification>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "</SearchModification>" + LINE_SEPARATOR);
         }
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</ModificationParams>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</ModificationParams>" + LINE_SEPARATOR);
 
         // enzyme
-        br.write(getCurrentTabSpace() + "<Enzymes independent=\"false\">" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Enzymes independent=\"false\">" + LINE_SEPARATOR);
         // note: if multiple enzymes are specified, independent is set to true if cleavage with different enzymes is performed independently
         tabCounter++;
 
@@ -796,10 +867,10 @@ public class MzIdentMLExport {
                 //+ "nTermGain=\"H\" " // Element formula gained at NTerm
                 + "id=\"Enz1\" "
                 + "name=\"" + enzyme.getName() + "\">"
-                + System.getProperty("line.separator"));
+                + LINE_SEPARATOR);
         tabCounter++;
 
-        br.write(getCurrentTabSpace() + "<EnzymeName>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<EnzymeName>" + LINE_SEPARATOR);
         tabCounter++;
         CvTerm enzymeCvTerm = EnzymeFactory.getEnzymeCvTerm(enzyme);
         if (enzymeCvTerm != null) {
@@ -808,16 +879,16 @@ public class MzIdentMLExport {
             writeUserParam(enzyme.getName());
         }
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</EnzymeName>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</EnzymeName>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Enzyme>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Enzyme>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Enzymes>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Enzymes>" + LINE_SEPARATOR);
 
         // fragment tolerance
-        br.write(getCurrentTabSpace() + "<FragmentTolerance>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<FragmentTolerance>" + LINE_SEPARATOR);
         tabCounter++;
 
         br.write(getCurrentTabSpace() + "<cvParam "
@@ -828,7 +899,7 @@ public class MzIdentMLExport {
                 + "unitAccession=\"UO:0000221\" "
                 + "value=\"" + searchParameters.getFragmentIonAccuracy() + "\" "
                 + "name=\"search tolerance plus value\" />"
-                + System.getProperty("line.separator"));
+                + LINE_SEPARATOR);
         br.write(getCurrentTabSpace() + "<cvParam "
                 + "accession=\"MS:1001413\" "
                 + "cvRef=\"PSI-MS\" "
@@ -837,12 +908,12 @@ public class MzIdentMLExport {
                 + "unitAccession=\"UO:0000221\" "
                 + "value=\"" + searchParameters.getFragmentIonAccuracy() + "\" "
                 + "name=\"search tolerance minus value\" />"
-                + System.getProperty("line.separator"));
+                + LINE_SEPARATOR);
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</FragmentTolerance>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</FragmentTolerance>" + LINE_SEPARATOR);
 
         // precursor tolerance
-        br.write(getCurrentTabSpace() + "<ParentTolerance>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<ParentTolerance>" + LINE_SEPARATOR);
         tabCounter++;
 
         if (searchParameters.isPrecursorAccuracyTypePpm()) {
@@ -854,7 +925,7 @@ public class MzIdentMLExport {
                     + "unitAccession=\"UO:0000169\" "
                     + "value=\"" + searchParameters.getPrecursorAccuracy() + "\" "
                     + "name=\"search tolerance plus value\" />"
-                    + System.getProperty("line.separator"));
+                    + LINE_SEPARATOR);
             br.write(getCurrentTabSpace() + "<cvParam "
                     + "accession=\"MS:1001413\" "
                     + "cvRef=\"PSI-MS\" "
@@ -863,7 +934,7 @@ public class MzIdentMLExport {
                     + "unitAccession=\"UO:0000169\" "
                     + "value=\"" + searchParameters.getPrecursorAccuracy() + "\" "
                     + "name=\"search tolerance minus value\" />"
-                    + System.getProperty("line.separator"));
+                    + LINE_SEPARATOR);
         } else {
             br.write(getCurrentTabSpace() + "<cvParam "
                     + "accession=\"MS:1001412\" "
@@ -873,7 +944,7 @@ public class MzIdentMLExport {
                     + "unitAccession=\"UO:0000221\" "
                     + "value=\"" + searchParameters.getPrecursorAccuracy() + "\" "
                     + "name=\"search tolerance plus value\" />"
-                    + System.getProperty("line.separator"));
+                    + LINE_SEPARATOR);
             br.write(getCurrentTabSpace() + "<cvParam "
                     + "accession=\"MS:1001413\" "
                     + "cvRef=\"PSI-MS\" "
@@ -882,14 +953,14 @@ public class MzIdentMLExport {
                     + "unitAccession=\"UO:0000221\" "
                     + "value=\"" + searchParameters.getPrecursorAccuracy() + "\" "
                     + "name=\"search tolerance minus value\" />"
-                    + System.getProperty("line.separator"));
+                    + LINE_SEPARATOR);
         }
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</ParentTolerance>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</ParentTolerance>" + LINE_SEPARATOR);
 
         // thresholds
-        br.write(getCurrentTabSpace() + "<Threshold>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Threshold>" + LINE_SEPARATOR);
         tabCounter++;
 
         boolean targetDecoy = sequenceFactory.concatenatedTargetDecoy();
@@ -1003,23 +1074,23 @@ public class MzIdentMLExport {
         }
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Threshold>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Threshold>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</SpectrumIdentificationProtocol>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</SpectrumIdentificationProtocol>" + LINE_SEPARATOR);
 
         // add ProteinDetectionProtocol
         br.write(getCurrentTabSpace() + "<ProteinDetectionProtocol "
-                + "analysisSoftware_ref=\"ID_software\" id=\"PeptideShaker_1\">" + System.getProperty("line.separator"));
+                + "analysisSoftware_ref=\"ID_software\" id=\"PeptideShaker_1\">" + LINE_SEPARATOR);
         tabCounter++;
 
-//        br.write(getCurrentTabSpace() + "<AnalysisParams>" + System.getProperty("line.separator"));
+//        br.write(getCurrentTabSpace() + "<AnalysisParams>" + LINE_SEPARATOR);
 //        tabCounter++;
         // @TODO: add cv terms? (children of MS:1001302)
 //        tabCounter--;
-//        br.write(getCurrentTabSpace() + "</AnalysisParams>" + System.getProperty("line.separator"));
+//        br.write(getCurrentTabSpace() + "</AnalysisParams>" + LINE_SEPARATOR);
         // protein level threshold
-        br.write(getCurrentTabSpace() + "<Threshold>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Threshold>" + LINE_SEPARATOR);
         tabCounter++;
 
         if (!targetDecoy) {
@@ -1043,13 +1114,13 @@ public class MzIdentMLExport {
             }
         }
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Threshold>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Threshold>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</ProteinDetectionProtocol>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</ProteinDetectionProtocol>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</AnalysisProtocolCollection>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</AnalysisProtocolCollection>" + LINE_SEPARATOR);
     }
 
     /**
@@ -1065,12 +1136,12 @@ public class MzIdentMLExport {
      * interracting with the database
      */
     private void writeDataCollection() throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
-        br.write(getCurrentTabSpace() + "<DataCollection>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<DataCollection>" + LINE_SEPARATOR);
         tabCounter++;
         writeInputFileDetails();
         writeDataAnalysis();
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</DataCollection>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</DataCollection>" + LINE_SEPARATOR);
     }
 
     /**
@@ -1087,41 +1158,92 @@ public class MzIdentMLExport {
      */
     private void writeDataAnalysis() throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
-        br.write(getCurrentTabSpace() + "<AnalysisData>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<AnalysisData>" + LINE_SEPARATOR);
         tabCounter++;
 
-        br.write(getCurrentTabSpace() + "<SpectrumIdentificationList id=\"SIL_1\">" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<SpectrumIdentificationList id=\"SIL_1\">" + LINE_SEPARATOR);
         tabCounter++;
 
         writeFragmentationTable();
 
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(new PSParameter());
-        int psmCount = 0;
 
-        // iterate the spectrum files
         for (String spectrumFileName : identification.getSpectrumFiles()) {
+            spectrumFileIndexes.put(spectrumFileName, spectrumFileIndexes.size());
+        }
 
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, identification.getSpectrumIdentification(spectrumFileName), parameters, true, waitingHandler);
+        int nThreads = processingPreferences.getnThreads();
+        ExecutorService pool = null;
+        LinkedList<Future<StringBuilder>> pendingChunks = null;
+        ArrayList<SpectrumMatch> chunk = null;
+        StringBuilder buffer = null;
+        if (nThreads > 1) {
+            pool = Executors.newFixedThreadPool(nThreads);
+            pendingChunks = new LinkedList<Future<StringBuilder>>();
+            chunk = new ArrayList<SpectrumMatch>(PeptideShaker.PARALLEL_CHUNK_SIZE);
+        } else {
+            buffer = new StringBuilder();
+        }
 
-            while (psmIterator.hasNext()) {
+        try {
 
-                waitingHandler.setDisplayProgress(false);
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                waitingHandler.setDisplayProgress(true);
+            // iterate the spectrum files
+            for (String spectrumFileName : identification.getSpectrumFiles()) {
 
-                String spectrumKey = spectrumMatch.getKey();
+                PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, identification.getSpectrumIdentification(spectrumFileName), parameters, true, waitingHandler);
 
-                writeSpectrumIdentificationResult(spectrumKey, ++psmCount);
-                waitingHandler.increasePrimaryProgressCounter();
+                while (psmIterator.hasNext()) {
+
+                    waitingHandler.setDisplayProgress(false);
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    waitingHandler.setDisplayProgress(true);
+
+                    if (pool != null) {
+
+                        chunk.add(spectrumMatch);
+
+                        if (chunk.size() == PeptideShaker.PARALLEL_CHUNK_SIZE) {
+                            pendingChunks.add(pool.submit(new SpectrumIdentificationResultsCallable(chunk, tabCounter)));
+                            chunk = new ArrayList<SpectrumMatch>(PeptideShaker.PARALLEL_CHUNK_SIZE);
+                            if (pendingChunks.size() >= 2 * nThreads) {
+                                StringBuilder chunkBuffer = getChunk(pendingChunks.removeFirst());
+                                writeBuffer(chunkBuffer);
+                                buffers.add(chunkBuffer);
+                            }
+                        }
+
+                    } else {
+
+                        buffer.setLength(0);
+                        appendSpectrumIdentificationResult(buffer, tabCounter, spectrumMatch, identificationParameters.getAnnotationPreferences(), peptideSpectrumAnnotator);
+                        writeBuffer(buffer);
+                        waitingHandler.increasePrimaryProgressCounter();
+                    }
+
+                    if (waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                }
 
                 if (waitingHandler.isRunCanceled()) {
                     break;
                 }
             }
 
-            if (waitingHandler.isRunCanceled()) {
-                break;
+            if (pool != null && !waitingHandler.isRunCanceled()) {
+                if (!chunk.isEmpty()) {
+                    pendingChunks.add(pool.submit(new SpectrumIdentificationResultsCallable(chunk, tabCounter)));
+                }
+                while (!pendingChunks.isEmpty()) {
+                    StringBuilder chunkBuffer = getChunk(pendingChunks.removeFirst());
+                    writeBuffer(chunkBuffer);
+                    buffers.add(chunkBuffer);
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
             }
         }
 
@@ -1132,12 +1254,12 @@ public class MzIdentMLExport {
         // add MS:1002439 - final PSM list UNDER DISCUSSION?
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</SpectrumIdentificationList>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</SpectrumIdentificationList>" + LINE_SEPARATOR);
 
         writeProteinDetectionList();
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</AnalysisData>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</AnalysisData>" + LINE_SEPARATOR);
     }
 
     /**
@@ -1154,7 +1276,7 @@ public class MzIdentMLExport {
      */
     private void writeProteinDetectionList() throws IOException, SQLException, ClassNotFoundException, InterruptedException {
 
-        br.write(getCurrentTabSpace() + "<ProteinDetectionList id=\"Protein_groups\">" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<ProteinDetectionList id=\"Protein_groups\">" + LINE_SEPARATOR);
         tabCounter++;
 
         identification.loadPeptideMatches(null);
@@ -1176,7 +1298,7 @@ public class MzIdentMLExport {
 
             String proteinGroupId = "PAG_" + groupCpt++;
 
-            br.write(getCurrentTabSpace() + "<ProteinAmbiguityGroup id=\"" + proteinGroupId + "\">" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "<ProteinAmbiguityGroup id=\"" + proteinGroupId + "\">" + LINE_SEPARATOR);
             tabCounter++;
 
             psParameter = (PSParameter) identification.getProteinMatchParameter(proteinGroupKey, psParameter);
@@ -1188,7 +1310,7 @@ public class MzIdentMLExport {
                 String accession = proteinMatch.getTheoreticProteinsAccessions().get(j);
 
                 br.write(getCurrentTabSpace() + "<ProteinDetectionHypothesis id=\"" + proteinGroupId + "_" + (j + 1) + "\" dBSequence_ref=\"" + accession
-                        + "\" passThreshold=\"" + psParameter.getMatchValidationLevel().isValidated() + "\">" + System.getProperty("line.separator"));
+                        + "\" passThreshold=\"" + psParameter.getMatchValidationLevel().isValidated() + "\">" + LINE_SEPARATOR);
                 tabCounter++;
 
                 ArrayList<String> peptideMatches = identification.getProteinMatch(proteinGroupKey).getPeptideMatchesKeys();
@@ -1208,16 +1330,17 @@ public class MzIdentMLExport {
 
                         if (peptideEvidenceId != null) {
 
-                            br.write(getCurrentTabSpace() + "<PeptideHypothesis peptideEvidence_ref=\"" + peptideEvidenceId + "\">" + System.getProperty("line.separator"));
+                            br.write(getCurrentTabSpace() + "<PeptideHypothesis peptideEvidence_ref=\"" + peptideEvidenceId + "\">" + LINE_SEPARATOR);
                             tabCounter++;
 
                             for (String spectrumKey : peptideMatch.getSpectrumMatches()) {
-                                br.write(getCurrentTabSpace() + "<SpectrumIdentificationItemRef spectrumIdentificationItem_ref=\""
-                                        + spectrumIds.get(spectrumKey) + "\"/>" + System.getProperty("line.separator"));
+                                // only the best assumption, of rank 1, is exported
+                                br.write(getCurrentTabSpace() + "<SpectrumIdentificationItemRef spectrumIdentificationItem_ref=\"SII_"
+                                        + getSpectrumIndexKey(spectrumKey) + "_1\"/>" + LINE_SEPARATOR);
                             }
 
                             tabCounter--;
-                            br.write(getCurrentTabSpace() + "</PeptideHypothesis>" + System.getProperty("line.separator"));
+                            br.write(getCurrentTabSpace() + "</PeptideHypothesis>" + LINE_SEPARATOR);
                         } else {
                             throw new IllegalArgumentException("No peptide evidence id found for key '" + pepEvidenceKey + "'.");
                         }
@@ -1242,7 +1365,7 @@ public class MzIdentMLExport {
                 }
 
                 tabCounter--;
-                br.write(getCurrentTabSpace() + "</ProteinDetectionHypothesis>" + System.getProperty("line.separator"));
+                br.write(getCurrentTabSpace() + "</ProteinDetectionHypothesis>" + LINE_SEPARATOR);
             }
 
             // add protein group cv terms
@@ -1252,7 +1375,7 @@ public class MzIdentMLExport {
             writeCvTerm(new CvTerm("PSI-MS", "MS:1002415", "protein group passes threshold", "" + psParameter.getMatchValidationLevel().isValidated()));
  
             tabCounter--;
-            br.write(getCurrentTabSpace() + "</ProteinAmbiguityGroup>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "</ProteinAmbiguityGroup>" + LINE_SEPARATOR);
 
             waitingHandler.increasePrimaryProgressCounter();
 
@@ -1265,14 +1388,20 @@ public class MzIdentMLExport {
         // @TODO: add children of MS:1001184 - search statistics? (date / time search performed, number of molecular hypothesis considered, search time taken)
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</ProteinDetectionList>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</ProteinDetectionList>" + LINE_SEPARATOR);
     }
 
     /**
-     * Write a spectrum identification result.
+     * Appends the spectrum identification result of the given spectrum match
+     * to the given buffer. Nothing is appended if the match has no best
+     * peptide assumption.
      *
-     * @param psmKey the key of the PSM to write
-     * @param psmIndex the index of the PSM
+     * @param buffer the buffer where to append the result
+     * @param tabs the number of tabs at the beginning of the element
+     * @param spectrumMatch the spectrum match to write
+     * @param annotationPreferences the annotation preferences to use, set to
+     * the best peptide assumption of the match
+     * @param annotator the spectrum annotator to use
      *
      * @throws IOException Exception thrown whenever an error occurred while
      * reading/writing a file
@@ -1285,366 +1414,497 @@ public class MzIdentMLExport {
      * @throws MzMLUnmarshallerException exception thrown whenever an error
      * occurred while reading an mzML file
      */
-    private void writeSpectrumIdentificationResult(String psmKey, int psmIndex)
+    private void appendSpectrumIdentificationResult(StringBuilder buffer, int tabs, SpectrumMatch spectrumMatch, AnnotationPreferences annotationPreferences, PeptideSpectrumAnnotator annotator)
             throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
-        SpectrumMatch spectrumMatch = identification.getSpectrumMatch(psmKey);
-        String spectrumTitle = Spectrum.getSpectrumTitle(psmKey);
-        String spectrumFileName = Spectrum.getSpectrumFile(psmKey);
-        String spectrumTitleHtml = StringEscapeUtils.escapeHtml4(spectrumTitle);
-        String spectrumIdentificationResultItemKey = "SIR_" + psmIndex;
-
-        br.write(getCurrentTabSpace() + "<SpectrumIdentificationResult "
-                + "spectraData_ref=\"" + spectrumFileName
-                + "\" spectrumID=\"" + "index=" + spectrumFactory.getSpectrumIndex(spectrumTitle, spectrumFileName)
-                + "\" id=\"" + spectrumIdentificationResultItemKey + "\">" + System.getProperty("line.separator"));
-        tabCounter++;
-
         // @TODO: iterate all assumptions and not just the best one?
         PeptideAssumption bestPeptideAssumption = spectrumMatch.getBestPeptideAssumption();
 
-        if (bestPeptideAssumption != null) {
-
-            PSParameter psmParameter = (PSParameter) identification.getSpectrumMatchParameter(psmKey, new PSParameter());
-            int rank = 1; // @TODO: should not be hardcoded?
-            String spectrumIdentificationItemKey = "SII_" + psmIndex + "_" + rank;
-            spectrumIds.put(psmKey, spectrumIdentificationItemKey);
+        if (bestPeptideAssumption == null) {
+            return;
+        }
 
-            String bestPeptideKey = bestPeptideAssumption.getPeptide().getMatchingKey(identificationParameters.getSequenceMatchingPreferences());
+        String psmKey = spectrumMatch.getKey();
+        String spectrumTitle = Spectrum.getSpectrumTitle(psmKey);
+        String spectrumFileName = Spectrum.getSpectrumFile(psmKey);
+        String spectrumIndexKey = getSpectrumIndexKey(psmKey);
+
+        appendTabs(buffer, tabs);
+        buffer.append("<SpectrumIdentificationResult spectraData_ref=\"").append(spectrumFileName)
+                .append("\" spectrumID=\"index=").append(spectrumFactory.getSpectrumIndex(spectrumTitle, spectrumFileName))
+                .append("\" id=\"SIR_").append(spectrumIndexKey).append("\">").append(LINE_SEPARATOR);
+        tabs++;
+
+        PSParameter psmParameter = (PSParameter) identification.getSpectrumMatchParameter(psmKey, new PSParameter());
+        int rank = 1; // @TODO: should not be hardcoded?
+
+        Peptide bestPeptide = bestPeptideAssumption.getPeptide();
+        String bestPeptideKey = bestPeptide.getMatchingKey(identificationParameters.getSequenceMatchingPreferences());
+
+        appendTabs(buffer, tabs);
+        buffer.append("<SpectrumIdentificationItem passThreshold=\"").append(psmParameter.getMatchValidationLevel().isValidated())
+                .append("\" rank=\"").append(rank)
+                .append("\" peptide_ref=\"").append(bestPeptideKey)
+                .append("\" calculatedMassToCharge=\"").append(bestPeptideAssumption.getTheoreticMz())
+                .append("\" experimentalMassToCharge=\"").append(spectrumFactory.getPrecursorMz(psmKey))
+                .append("\" chargeState=\"").append(bestPeptideAssumption.getIdentificationCharge().value)
+                .append("\" id=\"SII_").append(spectrumIndexKey).append('_').append(rank).append("\">").append(LINE_SEPARATOR);
+        tabs++;
+
+        // add the peptide evidence references
+        // get all the possible parent proteins
+        ArrayList<String> possibleProteins = bestPeptide.getParentProteins(identificationParameters.getSequenceMatchingPreferences());
+        String peptideSequence = bestPeptide.getSequence();
+
+        // iterate all the possible protein parents for each peptide
+        for (String tempProtein : possibleProteins) {
+
+            // get the start indexes and the surrounding amino acids
+            ArrayList<Integer> peptideStarts = sequenceFactory.getProtein(tempProtein).getPeptideStart(
+                    peptideSequence, identificationParameters.getSequenceMatchingPreferences());
+
+            for (int start : peptideStarts) {
+                String pepEvidenceKey = tempProtein + "_" + start + "_" + bestPeptideKey;
+                appendTabs(buffer, tabs);
+                buffer.append("<PeptideEvidenceRef peptideEvidence_ref=\"").append(pepEvidenceIds.get(pepEvidenceKey)).append("\"/>").append(LINE_SEPARATOR);
+            }
+        }
 
-            br.write(getCurrentTabSpace() + "<SpectrumIdentificationItem "
-                    + "passThreshold=\"" + psmParameter.getMatchValidationLevel().isValidated() + "\" "
-                    + "rank=\"" + rank + "\" "
-                    + "peptide_ref=\"" + bestPeptideKey + "\" "
-                    + "calculatedMassToCharge=\"" + bestPeptideAssumption.getTheoreticMz() + "\" "
-                    + "experimentalMassToCharge=\"" + spectrumFactory.getPrecursorMz(psmKey) + "\" "
-                    + "chargeState=\"" + bestPeptideAssumption.getIdentificationCharge().value + "\" "
-                    + "id=\"" + spectrumIdentificationItemKey + "\">" + System.getProperty("line.separator"));
-            tabCounter++;
+        // add the fragment ion annotation
+        int identificationCharge = bestPeptideAssumption.getIdentificationCharge().value;
+        annotationPreferences.setCurrentSettings(bestPeptideAssumption, true, identificationParameters.getSequenceMatchingPreferences());
 
-            // add the peptide evidence references
-            // get all the possible parent proteins
-            ArrayList<String> possibleProteins = bestPeptideAssumption.getPeptide().getParentProteins(identificationParameters.getSequenceMatchingPreferences());
-            String peptideSequence = bestPeptideAssumption.getPeptide().getSequence();
+        MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumFileName, spectrumTitle);
 
-            // iterate all the possible protein parents for each peptide
-            for (String tempProtein : possibleProteins) {
+        // get all the fragment ion annotations
+        ArrayList<IonMatch> annotations = annotator.getSpectrumAnnotation(annotationPreferences.getIonTypes(),
+                annotationPreferences.getNeutralLosses(),
+                annotationPreferences.getValidatedCharges(),
+                identificationCharge,
+                spectrum, bestPeptide,
+                spectrum.getIntensityLimit(annotationPreferences.getAnnotationIntensityLimit()),
+                annotationPreferences.getFragmentIonAccuracy(), false,
+                annotationPreferences.isHighResolutionAnnotation());
 
-                // get the start indexes and the surrounding amino acids
-                ArrayList<Integer> peptideStarts = sequenceFactory.getProtein(tempProtein).getPeptideStart(
-                        peptideSequence, identificationParameters.getSequenceMatchingPreferences());
+        // organize the fragment ions by ion type
+        HashMap<String, HashMap<Integer, ArrayList<IonMatch>>> allFragmentIons = new HashMap<String, HashMap<Integer, ArrayList<IonMatch>>>();
 
-                for (int start : peptideStarts) {
-                    String pepEvidenceKey = tempProtein + "_" + start + "_" + bestPeptideKey;
-                    String peptideEvidenceId = pepEvidenceIds.get(pepEvidenceKey);
-                    br.write(getCurrentTabSpace() + "<PeptideEvidenceRef peptideEvidence_ref=\"" + peptideEvidenceId + "\"/>" + System.getProperty("line.separator"));
-                }
-            }
+        for (IonMatch ionMatch : annotations) {
 
-            // add the fragment ion annotation
-            int identificationCharge = bestPeptideAssumption.getIdentificationCharge().value;
-            AnnotationPreferences annotationPreferences = identificationParameters.getAnnotationPreferences();
-            annotationPreferences.setCurrentSettings(bestPeptideAssumption, true, identificationParameters.getSequenceMatchingPreferences());
-            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumFileName, spectrumTitle);
-
-            // get all the fragment ion annotations
-            ArrayList<IonMatch> annotations = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationPreferences.getIonTypes(),
-                    annotationPreferences.getNeutralLosses(),
-                    annotationPreferences.getValidatedCharges(),
-                    identificationCharge,
-                    spectrum, bestPeptideAssumption.getPeptide(),
-                    spectrum.getIntensityLimit(annotationPreferences.getAnnotationIntensityLimit()),
-                    annotationPreferences.getFragmentIonAccuracy(), false,
-                    annotationPreferences.isHighResolutionAnnotation());
-
-            // organize the fragment ions by ion type
-            HashMap<String, HashMap<Integer, ArrayList<IonMatch>>> allFragmentIons = new HashMap<String, HashMap<Integer, ArrayList<IonMatch>>>();
-
-            for (IonMatch ionMatch : annotations) {
-
-                if (ionMatch.ion.getType() == IonType.PEPTIDE_FRAGMENT_ION
-                        || ionMatch.ion.getType() == IonType.IMMONIUM_ION) { // @TODO: add PRECURSOR_ION and REPORTER_ION
+            if (ionMatch.ion.getType() == IonType.PEPTIDE_FRAGMENT_ION
+                    || ionMatch.ion.getType() == IonType.IMMONIUM_ION) { // @TODO: add PRECURSOR_ION and REPORTER_ION
 //                    || ionMatch.ion.getType() == IonType.PRECURSOR_ION
 //                    || ionMatch.ion.getType() == IonType.REPORTER_ION) {
 
-                    CvTerm fragmentIonTerm = ionMatch.ion.getPrideCvTerm(); // @TODO: replace by PSI-MS mappings...
-                    Integer charge = ionMatch.charge.value;
+                CvTerm fragmentIonTerm = ionMatch.ion.getPrideCvTerm(); // @TODO: replace by PSI-MS mappings...
+                Integer charge = ionMatch.charge.value;
 
-                    if (fragmentIonTerm != null) {
-                        if (!allFragmentIons.containsKey(fragmentIonTerm.getName())) {
-                            allFragmentIons.put(fragmentIonTerm.getName(), new HashMap<Integer, ArrayList<IonMatch>>());
-                        }
-                        if (!allFragmentIons.get(fragmentIonTerm.getName()).containsKey(charge)) {
-                            allFragmentIons.get(fragmentIonTerm.getName()).put(charge, new ArrayList<IonMatch>());
-                        }
-                        allFragmentIons.get(fragmentIonTerm.getName()).get(charge).add(ionMatch);
+                if (fragmentIonTerm != null) {
+                    HashMap<Integer, ArrayList<IonMatch>> chargeMap = allFragmentIons.get(fragmentIonTerm.getName());
+                    if (chargeMap == null) {
+                        chargeMap = new HashMap<Integer, ArrayList<IonMatch>>();
+                        allFragmentIons.put(fragmentIonTerm.getName(), chargeMap);
+                    }
+                    ArrayList<IonMatch> ionMatches = chargeMap.get(charge);
+                    if (ionMatches == null) {
+                        ionMatches = new ArrayList<IonMatch>();
+                        chargeMap.put(charge, ionMatches);
                     }
+                    ionMatches.add(ionMatch);
                 }
             }
+        }
 
-            if (!allFragmentIons.isEmpty()) {
-
-                br.write(getCurrentTabSpace() + "<Fragmentation>" + System.getProperty("line.separator"));
-                tabCounter++;
+        if (!allFragmentIons.isEmpty()) {
 
-                // add the fragment ions
-                Iterator<String> fragmentTypeIterator = allFragmentIons.keySet().iterator();
+            appendTabs(buffer, tabs);
+            buffer.append("<Fragmentation>").append(LINE_SEPARATOR);
+            tabs++;
 
-                while (fragmentTypeIterator.hasNext()) {
+            StringBuilder indexes = new StringBuilder();
+            StringBuilder mzValues = new StringBuilder();
+            StringBuilder intensityValues = new StringBuilder();
+            StringBuilder errorValues = new StringBuilder();
 
-                    String fragmentType = fragmentTypeIterator.next();
-                    Iterator<Integer> chargeTypeIterator = allFragmentIons.get(fragmentType).keySet().iterator();
+            // add the fragment ions
+            for (HashMap<Integer, ArrayList<IonMatch>> chargeMap : allFragmentIons.values()) {
 
-                    while (chargeTypeIterator.hasNext()) {
+                for (Integer fragmentCharge : chargeMap.keySet()) {
 
-                        Integer fragmentCharge = chargeTypeIterator.next();
-                        ArrayList<IonMatch> ionMatches = allFragmentIons.get(fragmentType).get(fragmentCharge);
-                        CvTerm fragmentIonTerm = ionMatches.get(0).ion.getPrideCvTerm();
+                    ArrayList<IonMatch> ionMatches = chargeMap.get(fragmentCharge);
+                    CvTerm fragmentIonTerm = ionMatches.get(0).ion.getPrideCvTerm();
 
-                        String indexes = "";
-                        String mzValues = "";
-                        String intensityValues = "";
-                        String errorValues = "";
+                    indexes.setLength(0);
+                    mzValues.setLength(0);
+                    intensityValues.setLength(0);
+                    errorValues.setLength(0);
 
-                        // get the fragment ion details
-                        for (IonMatch ionMatch : ionMatches) {
+                    // get the fragment ion details
+                    for (IonMatch ionMatch : ionMatches) {
 
-                            if (ionMatch.ion instanceof PeptideFragmentIon) {
-                                indexes += ((PeptideFragmentIon) ionMatch.ion).getNumber() + " ";
-                            } else if (ionMatch.ion instanceof ImmoniumIon) {
-                                char residue = ImmoniumIon.getResidue(((ImmoniumIon) ionMatch.ion).getSubType());
-                                char[] peptideAsArray = peptideSequence.toCharArray();
-                                for (int i = 0; i < peptideAsArray.length; i++) {
-                                    if (peptideAsArray[i] == residue) {
-                                        indexes += (i + 1) + " ";
-                                    }
+                        if (ionMatch.ion instanceof PeptideFragmentIon) {
+                            appendValue(indexes, ((PeptideFragmentIon) ionMatch.ion).getNumber());
+                        } else if (ionMatch.ion instanceof ImmoniumIon) {
+                            char residue = ImmoniumIon.getResidue(((ImmoniumIon) ionMatch.ion).getSubType());
+                            for (int i = 0; i < peptideSequence.length(); i++) {
+                                if (peptideSequence.charAt(i) == residue) {
+                                    appendValue(indexes, i + 1);
                                 }
-                            } else {
-                                // not yet implemented...
                             }
-
-                            mzValues += ionMatch.peak.mz + " ";
-                            intensityValues += ionMatch.peak.intensity + " ";
-                            errorValues += ionMatch.getAbsoluteError() + " ";
+                        } else {
+                            // not yet implemented...
                         }
 
-                        br.write(getCurrentTabSpace() + "<IonType charge=\"" + fragmentCharge + "\" index=\"" + indexes.trim() + "\">" + System.getProperty("line.separator"));
-                        tabCounter++;
+                        appendValue(mzValues, ionMatch.peak.mz);
+                        appendValue(intensityValues, ionMatch.peak.intensity);
+                        appendValue(errorValues, ionMatch.getAbsoluteError());
+                    }
 
-                        br.write(getCurrentTabSpace() + "<FragmentArray measure_ref=\"Measure_MZ\" values=\"" + mzValues.trim() + "\"/>" + System.getProperty("line.separator"));
-                        br.write(getCurrentTabSpace() + "<FragmentArray measure_ref=\"Measure_Int\" values=\"" + intensityValues.trim() + "\"/>" + System.getProperty("line.separator"));
-                        br.write(getCurrentTabSpace() + "<FragmentArray measure_ref=\"Measure_Error\" values=\"" + errorValues.trim() + "\"/>" + System.getProperty("line.separator"));
+                    appendTabs(buffer, tabs);
+                    buffer.append("<IonType charge=\"").append(fragmentCharge).append("\" index=\"").append(indexes).append("\">").append(LINE_SEPARATOR);
+                    tabs++;
 
-                        writeCvTerm(new CvTerm(fragmentIonTerm.getOntology(), fragmentIonTerm.getAccession(), fragmentIonTerm.getName(), null));
+                    appendTabs(buffer, tabs);
+                    buffer.append("<FragmentArray measure_ref=\"Measure_MZ\" values=\"").append(mzValues).append("\"/>").append(LINE_SEPARATOR);
+                    appendTabs(buffer, tabs);
+                    buffer.append("<FragmentArray measure_ref=\"Measure_Int\" values=\"").append(intensityValues).append("\"/>").append(LINE_SEPARATOR);
+                    appendTabs(buffer, tabs);
+                    buffer.append("<FragmentArray measure_ref=\"Measure_Error\" values=\"").append(errorValues).append("\"/>").append(LINE_SEPARATOR);
 
-                        tabCounter--;
-                        br.write(getCurrentTabSpace() + "</IonType>" + System.getProperty("line.separator"));
-                    }
-                }
+                    appendCvTerm(buffer, tabs, fragmentIonTerm.getOntology(), fragmentIonTerm.getAccession(), fragmentIonTerm.getName(), null);
 
-                tabCounter--;
-                br.write(getCurrentTabSpace() + "</Fragmentation>" + System.getProperty("line.separator"));
+                    tabs--;
+                    appendTabs(buffer, tabs);
+                    buffer.append("</IonType>").append(LINE_SEPARATOR);
+                }
             }
 
-            // add peptide shaker score and confidence
-            writeCvTerm(new CvTerm("PSI-MS", "MS:1002466", "PeptideShaker PSM score", Double.toString(Util.roundDouble(psmParameter.getPsmScore(), CONFIDENCE_DECIMALS))));
-            writeCvTerm(new CvTerm("PSI-MS", "MS:1002467", "PeptideShaker PSM confidence", Double.toString(Util.roundDouble(psmParameter.getPsmConfidence(), CONFIDENCE_DECIMALS))));
+            tabs--;
+            appendTabs(buffer, tabs);
+            buffer.append("</Fragmentation>").append(LINE_SEPARATOR);
+        }
 
-            if (mzidVersion_1_2) {
+        // add peptide shaker score and confidence
+        appendCvTerm(buffer, tabs, "PSI-MS", "MS:1002466", "PeptideShaker PSM score", Double.toString(Util.roundDouble(psmParameter.getPsmScore(), CONFIDENCE_DECIMALS)));
+        appendCvTerm(buffer, tabs, "PSI-MS", "MS:1002467", "PeptideShaker PSM confidence", Double.toString(Util.roundDouble(psmParameter.getPsmConfidence(), CONFIDENCE_DECIMALS)));
 
-                PTMScoringPreferences ptmScoringPreferences = identificationParameters.getPtmScoringPreferences();
-                PeptideMatch peptideMatch = identification.getPeptideMatch(bestPeptideKey);
-                PSPtmScores psPtmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
+        if (mzidVersion_1_2) {
 
-                if (psPtmScores != null) {
+            PTMScoringPreferences ptmScoringPreferences = identificationParameters.getPtmScoringPreferences();
+            PeptideMatch peptideMatch = identification.getPeptideMatch(bestPeptideKey);
+            PSPtmScores psPtmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
 
-                    ArrayList<Integer> ptmIndexesCovered = new ArrayList<Integer>();
+            if (psPtmScores != null) {
 
-                    for (ModificationMatch modMatch : bestPeptideAssumption.getPeptide().getModificationMatches()) {
+                ArrayList<Integer> ptmIndexesCovered = new ArrayList<Integer>();
 
-                        String ptmName = modMatch.getTheoreticPtm();
-                        PTM currentPtm = ptmFactory.getPTM(ptmName);
-                        Double ptmMass = currentPtm.getMass();
-                        Integer ptmIndex = ptmIndexMap.get(ptmMass);
-                        if (ptmIndex == null) {
-                            throw new IllegalArgumentException("No index found for PTM " + ptmName + " of mass " + ptmMass + ".");
-                        }
+                for (ModificationMatch modMatch : bestPeptide.getModificationMatches()) {
 
-                        if (!ptmIndexesCovered.contains(ptmIndex)) {
-
-                            ptmIndexesCovered.add(ptmIndex);
-                            PtmScoring ptmScoring = psPtmScores.getPtmScoring(ptmName);
-
-                            if (ptmScoring != null) {
-                                for (int site = 1; site <= peptideSequence.length(); site++) {
-                                    if (ptmScoringPreferences.isProbabilitsticScoreCalculation()) {
-                                        double score = ptmScoring.getProbabilisticScore(site);
-                                        if (score > 0) {
-                                            String valid = "true";
-                                            if (score < ptmScoringPreferences.getProbabilisticScoreThreshold()) {
-                                                valid = "false";
-                                            }
-
-                                            if (ptmScoringPreferences.getSelectedProbabilisticScore() == PtmScore.AScore) {
-                                                writeCvTerm(new CvTerm("PSI-MS", "MS:1001985", "Ascore:Ascore", ptmIndex + ":" + score + ":" + site + ":" + valid));
-                                            } else if (ptmScoringPreferences.getSelectedProbabilisticScore() == PtmScore.PhosphoRS) {
-                                                writeCvTerm(new CvTerm("PSI-MS", "MS:1001969", "phosphoRS score", ptmIndex + ":" + score + ":" + site + ":" + valid));
-                                            }
-                                        }
-                                    }
+                    String ptmName = modMatch.getTheoreticPtm();
+                    PTM currentPtm = ptmFactory.getPTM(ptmName);
+                    Double ptmMass = currentPtm.getMass();
+                    Integer ptmIndex = ptmIndexMap.get(ptmMass);
+                    if (ptmIndex == null) {
+                        throw new IllegalArgumentException("No index found for PTM " + ptmName + " of mass " + ptmMass + ".");
+                    }
+
+                    if (!ptmIndexesCovered.contains(ptmIndex)) {
+
+                        ptmIndexesCovered.add(ptmIndex);
+                        PtmScoring ptmScoring = psPtmScores.getPtmScoring(ptmName);
 
-                                    double score = ptmScoring.getDeltaScore(site);
+                        if (ptmScoring != null) {
+                            for (int site = 1; site <= peptideSequence.length(); site++) {
+                                if (ptmScoringPreferences.isProbabilitsticScoreCalculation()) {
+                                    double score = ptmScoring.getProbabilisticScore(site);
                                     if (score > 0) {
                                         String valid = "true";
-                                        if (score < dScoreThreshold) {
+                                        if (score < ptmScoringPreferences.getProbabilisticScoreThreshold()) {
                                             valid = "false";
                                         }
-                                        writeCvTerm(new CvTerm("PSI-MS", "MS:1002539", "D-score", ptmIndex + ":" + score + ":" + site + ":" + valid));
+
+                                        if (ptmScoringPreferences.getSelectedProbabilisticScore() == PtmScore.AScore) {
+                                            appendCvTerm(buffer, tabs, "PSI-MS", "MS:1001985", "Ascore:Ascore", ptmIndex + ":" + score + ":" + site + ":" + valid);
+                                        } else if (ptmScoringPreferences.getSelectedProbabilisticScore() == PtmScore.PhosphoRS) {
+                                            appendCvTerm(buffer, tabs, "PSI-MS", "MS:1001969", "phosphoRS score", ptmIndex + ":" + score + ":" + site + ":" + valid);
+                                        }
+                                    }
+                                }
+
+                                double score = ptmScoring.getDeltaScore(site);
+                                if (score > 0) {
+                                    String valid = "true";
+                                    if (score < dScoreThreshold) {
+                                        valid = "false";
                                     }
+                                    appendCvTerm(buffer, tabs, "PSI-MS", "MS:1002539", "D-score", ptmIndex + ":" + score + ":" + site + ":" + valid);
                                 }
                             }
                         }
                     }
                 }
+            }
 
-                PSParameter peptideParameter = (PSParameter) identification.getPeptideMatchParameter(bestPeptideKey, psmParameter);
-                writeCvTerm(new CvTerm("PSI-MS", "MS:1002469", "PeptideShaker peptide confidence", peptideParameter.getPeptideConfidence() + ""));
-                writeCvTerm(new CvTerm("PSI-MS", "MS:1002468", "PeptideShaker peptide score", peptideParameter.getPeptideScore() + ""));
-                writeCvTerm(new CvTerm("PSI-MS", "MS:1002500", "peptide passes threshold", peptideParameter.getMatchValidationLevel().isValidated() + ""));
+            PSParameter peptideParameter = (PSParameter) identification.getPeptideMatchParameter(bestPeptideKey, new PSParameter());
+            appendCvTerm(buffer, tabs, "PSI-MS", "MS:1002469", "PeptideShaker peptide confidence", peptideParameter.getPeptideConfidence() + "");
+            appendCvTerm(buffer, tabs, "PSI-MS", "MS:1002468", "PeptideShaker peptide score", peptideParameter.getPeptideScore() + "");
+            appendCvTerm(buffer, tabs, "PSI-MS", "MS:1002500", "peptide passes threshold", peptideParameter.getMatchValidationLevel().isValidated() + "");
 
-                psPtmScores = (PSPtmScores) peptideMatch.getUrParam(new PSPtmScores());
+            psPtmScores = (PSPtmScores) peptideMatch.getUrParam(new PSPtmScores());
 
-                if (psPtmScores != null) {
+            if (psPtmScores != null) {
 
-                    ArrayList<Integer> ptmIndexesCovered = new ArrayList<Integer>();
+                ArrayList<Integer> ptmIndexesCovered = new ArrayList<Integer>();
 
-                    for (ModificationMatch modMatch : peptideMatch.getTheoreticPeptide().getModificationMatches()) {
+                for (ModificationMatch modMatch : peptideMatch.getTheoreticPeptide().getModificationMatches()) {
 
-                        String ptmName = modMatch.getTheoreticPtm();
-                        PTM currentPtm = ptmFactory.getPTM(ptmName);
-                        Double ptmMass = currentPtm.getMass();
-                        Integer ptmIndex = ptmIndexMap.get(ptmMass);
-                        if (ptmIndex == null) {
-                            throw new IllegalArgumentException("No index found for PTM " + ptmName + " of mass " + ptmMass + ".");
-                        }
+                    String ptmName = modMatch.getTheoreticPtm();
+                    PTM currentPtm = ptmFactory.getPTM(ptmName);
+                    Double ptmMass = currentPtm.getMass();
+                    Integer ptmIndex = ptmIndexMap.get(ptmMass);
+                    if (ptmIndex == null) {
+                        throw new IllegalArgumentException("No index found for PTM " + ptmName + " of mass " + ptmMass + ".");
+                    }
 
-                        if (!ptmIndexesCovered.contains(ptmIndex)) {
-
-                            ptmIndexesCovered.add(ptmIndex);
-                            PtmScoring ptmScoring = psPtmScores.getPtmScoring(modMatch.getTheoreticPtm());
-
-                            if (ptmScoring != null) {
-                                for (int site = 1; site <= peptideSequence.length(); site++) {
-                                    if (ptmScoringPreferences.isProbabilitsticScoreCalculation()) {
-                                        double score = ptmScoring.getProbabilisticScore(site);
-                                        if (score > 0) {
-                                            String valid = "true";
-                                            if (score < ptmScoringPreferences.getProbabilisticScoreThreshold()) {
-                                                valid = "false";
-                                            }
-
-                                            if (ptmScoringPreferences.getSelectedProbabilisticScore() == PtmScore.AScore) {
-                                                writeCvTerm(new CvTerm("PSI-MS", "MS:1002554", "peptide:Ascore", ptmIndex + ":" + score + ":" + site + ":" + valid));
-                                            } else if (ptmScoringPreferences.getSelectedProbabilisticScore() == PtmScore.PhosphoRS) {
-                                                writeCvTerm(new CvTerm("PSI-MS", "MS:1002553", "peptide:phosphoRS score", ptmIndex + ":" + score + ":" + site + ":" + valid));
-                                            }
-                                        }
-                                    }
-                                    double score = ptmScoring.getDeltaScore(site);
+                    if (!ptmIndexesCovered.contains(ptmIndex)) {
+
+                        ptmIndexesCovered.add(ptmIndex);
+                        PtmScoring ptmScoring = psPtmScores.getPtmScoring(modMatch.getTheoreticPtm());
+
+                        if (ptmScoring != null) {
+                            for (int site = 1; site <= peptideSequence.length(); site++) {
+                                if (ptmScoringPreferences.isProbabilitsticScoreCalculation()) {
+                                    double score = ptmScoring.getProbabilisticScore(site);
                                     if (score > 0) {
                                         String valid = "true";
-                                        if (score < dScoreThreshold) {
+                                        if (score < ptmScoringPreferences.getProbabilisticScoreThreshold()) {
                                             valid = "false";
                                         }
-                                        writeCvTerm(new CvTerm("PSI-MS", "MS:1002556", "peptide:D-Score", ptmIndex + ":" + score + ":" + site + ":" + valid));
-                                        //writeCvTerm(new CvTerm("PSI-MS", "MS:1002542", "PeptideShaker PTM confidence type", "???")); // @TODO: can be at both the psm and peptide level...
+
+                                        if (ptmScoringPreferences.getSelectedProbabilisticScore() == PtmScore.AScore) {
+                                            appendCvTerm(buffer, tabs, "PSI-MS", "MS:1002554", "peptide:Ascore", ptmIndex + ":" + score + ":" + site + ":" + valid);
+                                        } else if (ptmScoringPreferences.getSelectedProbabilisticScore() == PtmScore.PhosphoRS) {
+                                            appendCvTerm(buffer, tabs, "PSI-MS", "MS:1002553", "peptide:phosphoRS score", ptmIndex + ":" + score + ":" + site + ":" + valid);
+                                        }
                                     }
                                 }
+                                double score = ptmScoring.getDeltaScore(site);
+                                if (score > 0) {
+                                    String valid = "true";
+                                    if (score < dScoreThreshold) {
+                                        valid = "false";
+                                    }
+                                    appendCvTerm(buffer, tabs, "PSI-MS", "MS:1002556", "peptide:D-Score", ptmIndex + ":" + score + ":" + site + ":" + valid);
+                                    //writeCvTerm(new CvTerm("PSI-MS", "MS:1002542", "PeptideShaker PTM confidence type", "???")); // @TODO: can be at both the psm and peptide level...
+                                }
                             }
                         }
                     }
                 }
             }
+        }
 
-            // add the individual search engine results
-            Double mascotScore = null, msAmandaScore = null;
-            HashMap<Integer, Double> scores = new HashMap<Integer, Double>();
-            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(psmKey);
-            for (Integer tempAdvocate : assumptions.keySet()) {
-                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptions.get(tempAdvocate);
-                for (double eValue : advocateMap.keySet()) {
-                    for (SpectrumIdentificationAssumption currentAssumption : advocateMap.get(eValue)) {
-                        if (currentAssumption instanceof PeptideAssumption) {
-                            PeptideAssumption peptideAssumption = (PeptideAssumption) currentAssumption;
-                            if (peptideAssumption.getPeptide().isSameSequenceAndModificationStatus(
-                                    bestPeptideAssumption.getPeptide(), identificationParameters.getSequenceMatchingPreferences())) {
-                                Double currentMinEvalue = scores.get(tempAdvocate);
-                                if (currentMinEvalue == null || eValue < currentMinEvalue) {
-                                    scores.put(tempAdvocate, eValue);
-
-                                    // save the special advocate scores
-                                    if (tempAdvocate == Advocate.mascot.getIndex()
-                                            && peptideAssumption.getUrParam(new MascotScore()) != null) {
-                                        mascotScore = ((MascotScore) peptideAssumption.getUrParam(new MascotScore())).getScore();
-                                    } else if (tempAdvocate == Advocate.msAmanda.getIndex()
-                                            && peptideAssumption.getUrParam(new MsAmandaScore()) != null) {
-                                        msAmandaScore = ((MsAmandaScore) peptideAssumption.getUrParam(new MsAmandaScore())).getScore();
-                                    }
+        // add the individual search engine results
+        Double mascotScore = null, msAmandaScore = null;
+        HashMap<Integer, Double> scores = new HashMap<Integer, Double>();
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(psmKey);
+        for (Integer tempAdvocate : assumptions.keySet()) {
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptions.get(tempAdvocate);
+            for (double eValue : advocateMap.keySet()) {
+                for (SpectrumIdentificationAssumption currentAssumption : advocateMap.get(eValue)) {
+                    if (currentAssumption instanceof PeptideAssumption) {
+                        PeptideAssumption peptideAssumption = (PeptideAssumption) currentAssumption;
+                        if (peptideAssumption.getPeptide().isSameSequenceAndModificationStatus(
+                                bestPeptide, identificationParameters.getSequenceMatchingPreferences())) {
+                            Double currentMinEvalue = scores.get(tempAdvocate);
+                            if (currentMinEvalue == null || eValue < currentMinEvalue) {
+                                scores.put(tempAdvocate, eValue);
+
+                                // save the special advocate scores
+                                if (tempAdvocate == Advocate.mascot.getIndex()
+                                        && peptideAssumption.getUrParam(new MascotScore()) != null) {
+                                    mascotScore = ((MascotScore) peptideAssumption.getUrParam(new MascotScore())).getScore();
+                                } else if (tempAdvocate == Advocate.msAmanda.getIndex()
+                                        && peptideAssumption.getUrParam(new MsAmandaScore()) != null) {
+                                    msAmandaScore = ((MsAmandaScore) peptideAssumption.getUrParam(new MsAmandaScore())).getScore();
                                 }
                             }
                         }
                     }
                 }
             }
-            ArrayList<Integer> algorithms = new ArrayList<Integer>(scores.keySet());
-            Collections.sort(algorithms);
-            for (int tempAdvocate : algorithms) {
-                double eValue = scores.get(tempAdvocate);
-                if (tempAdvocate == Advocate.msgf.getIndex()) {
-                    writeCvTerm(new CvTerm("PSI-MS", "MS:1002052", "MS-GF:SpecEValue", Double.toString(eValue)));
-                } else if (tempAdvocate == Advocate.mascot.getIndex()) {
-                    writeCvTerm(new CvTerm("PSI-MS", "MS:1001172", "Mascot:expectation value", Double.toString(eValue)));
-                } else if (tempAdvocate == Advocate.omssa.getIndex()) {
-                    writeCvTerm(new CvTerm("PSI-MS", "MS:1001328", "OMSSA:evalue", Double.toString(eValue)));
-                } else if (tempAdvocate == Advocate.xtandem.getIndex()) {
-                    writeCvTerm(new CvTerm("PSI-MS", "MS:1001330", "X!Tandem:expect", Double.toString(eValue)));
-                } else if (tempAdvocate == Advocate.comet.getIndex()) {
-                    writeCvTerm(new CvTerm("PSI-MS", "MS:1002257", "Comet:expectation value", Double.toString(eValue)));
-                } else if (tempAdvocate == Advocate.myriMatch.getIndex()) {
-                    writeCvTerm(new CvTerm("PSI-MS", "MS:1001589", "MyriMatch:MVH", Double.toString(eValue)));
-                } else {
-                    writeUserParam(Advocate.getAdvocate(tempAdvocate).getName() + " e-value", "" + eValue); // @TODO: add Tide if Tide CV term is added
-                }
+        }
+        ArrayList<Integer> algorithms = new ArrayList<Integer>(scores.keySet());
+        Collections.sort(algorithms);
+        for (int tempAdvocate : algorithms) {
+            double eValue = scores.get(tempAdvocate);
+            if (tempAdvocate == Advocate.msgf.getIndex()) {
+                appendCvTerm(buffer, tabs, "PSI-MS", "MS:1002052", "MS-GF:SpecEValue", Double.toString(eValue));
+            } else if (tempAdvocate == Advocate.mascot.getIndex()) {
+                appendCvTerm(buffer, tabs, "PSI-MS", "MS:1001172", "Mascot:expectation value", Double.toString(eValue));
+            } else if (tempAdvocate == Advocate.omssa.getIndex()) {
+                appendCvTerm(buffer, tabs, "PSI-MS", "MS:1001328", "OMSSA:evalue", Double.toString(eValue));
+            } else if (tempAdvocate == Advocate.xtandem.getIndex()) {
+                appendCvTerm(buffer, tabs, "PSI-MS", "MS:1001330", "X!Tandem:expect", Double.toString(eValue));
+            } else if (tempAdvocate == Advocate.comet.getIndex()) {
+                appendCvTerm(buffer, tabs, "PSI-MS", "MS:1002257", "Comet:expectation value", Double.toString(eValue));
+            } else if (tempAdvocate == Advocate.myriMatch.getIndex()) {
+                appendCvTerm(buffer, tabs, "PSI-MS", "MS:1001589", "MyriMatch:MVH", Double.toString(eValue));
+            } else {
+                appendUserParam(buffer, tabs, Advocate.getAdvocate(tempAdvocate).getName() + " e-value", "" + eValue); // @TODO: add Tide if Tide CV term is added
             }
+        }
 
-            // add the additional search engine scores
-            if (mascotScore != null) {
-                writeCvTerm(new CvTerm("PSI-MS", "MS:1001171", "Mascot:score", "" + mascotScore));
-            }
-            if (msAmandaScore != null) {
-                writeCvTerm(new CvTerm("PSI-MS", "MS:1002319", "Amanda:AmandaScore", "" + msAmandaScore));
-            }
+        // add the additional search engine scores
+        if (mascotScore != null) {
+            appendCvTerm(buffer, tabs, "PSI-MS", "MS:1001171", "Mascot:score", "" + mascotScore);
+        }
+        if (msAmandaScore != null) {
+            appendCvTerm(buffer, tabs, "PSI-MS", "MS:1002319", "Amanda:AmandaScore", "" + msAmandaScore);
+        }
 
-            // add other cv and user params
-            writeCvTerm(new CvTerm("PSI-MS", "MS:1001117", "theoretical mass", String.valueOf(bestPeptideAssumption.getTheoreticMass())));
+        // add other cv and user params
+        appendCvTerm(buffer, tabs, "PSI-MS", "MS:1001117", "theoretical mass", String.valueOf(bestPeptideAssumption.getTheoreticMass()));
 
-            // add validation level information
-            writeCvTerm(new CvTerm("PSI-MS", "MS:1002543", "PeptideShaker PSM confidence type", psmParameter.getMatchValidationLevel().getName()));
-            tabCounter--;
-            br.write(getCurrentTabSpace() + "</SpectrumIdentificationItem>" + System.getProperty("line.separator"));
+        // add validation level information
+        appendCvTerm(buffer, tabs, "PSI-MS", "MS:1002543", "PeptideShaker PSM confidence type", psmParameter.getMatchValidationLevel().getName());
+        tabs--;
+        appendTabs(buffer, tabs);
+        buffer.append("</SpectrumIdentificationItem>").append(LINE_SEPARATOR);
 
-            // add the spectrum title
-            writeCvTerm(new CvTerm("PSI-MS", "MS:1000796", "spectrum title", spectrumTitleHtml));
+        // add the spectrum title
+        appendCvTerm(buffer, tabs, "PSI-MS", "MS:1000796", "spectrum title", StringEscapeUtils.escapeHtml4(spectrumTitle));
 
-            // add the precursor retention time
-            Precursor precursor = spectrumFactory.getPrecursor(psmKey);
-            if (precursor != null) {
-                br.write(getCurrentTabSpace() + "<cvParam cvRef=\"PSI-MS\" accession=\"MS:1000894\" name=\"retention time\" value=\"" + String.valueOf(precursor.getRt()) + "\" "
-                        + "unitCvRef=\"UO\" unitAccession=\"UO:0000010\" unitName=\"seconds\"/>" + System.getProperty("line.separator"));
-            }
+        // add the precursor retention time
+        Precursor precursor = spectrumFactory.getPrecursor(psmKey);
+        if (precursor != null) {
+            appendTabs(buffer, tabs);
+            buffer.append("<cvParam cvRef=\"PSI-MS\" accession=\"MS:1000894\" name=\"retention time\" value=\"").append(precursor.getRt()).append("\" ")
+                    .append("unitCvRef=\"UO\" unitAccession=\"UO:0000010\" unitName=\"seconds\"/>").append(LINE_SEPARATOR);
+        }
 
-            tabCounter--;
-            br.write(getCurrentTabSpace() + "</SpectrumIdentificationResult>" + System.getProperty("line.separator"));
+        tabs--;
+        appendTabs(buffer, tabs);
+        buffer.append("</SpectrumIdentificationResult>").append(LINE_SEPARATOR);
+    }
+
+    /**
+     * Returns the key of the given spectrum used in the spectrum
+     * identification result and item IDs: the index of the spectrum file and
+     * the index of the spectrum in the file separated by an underscore. The
+     * key is recomputed when needed instead of being stored for every PSM.
+     *
+     * @param spectrumKey the key of the spectrum
+     *
+     * @return the key of the spectrum used in the IDs
+     */
+    private String getSpectrumIndexKey(String spectrumKey) {
+
+        String spectrumTitle = Spectrum.getSpectrumTitle(spectrumKey);
+        String spectrumFileName = Spectrum.getSpectrumFile(spectrumKey);
+        Integer fileIndex = spectrumFileIndexes.get(spectrumFileName);
+        if (fileIndex == null) {
+            throw new IllegalArgumentException("No index found for spectrum file " + spectrumFileName + ".");
+        }
+        Integer spectrumIndex = spectrumFactory.getSpectrumIndex(spectrumTitle, spectrumFileName);
+        if (spectrumIndex == null) {
+            throw new IllegalArgumentException("No index found for spectrum " + spectrumTitle + " in file " + spectrumFileName + ".");
+        }
+
+        return fileIndex + "_" + spectrumIndex;
+    }
+
+    /**
+     * Writes the content of the given buffer to the file.
+     *
+     * @param buffer the buffer to write
+     *
+     * @throws IOException exception thrown whenever a problem occurred while
+     * writing the file
+     */
+    private void writeBuffer(StringBuilder buffer) throws IOException {
+        int length = buffer.length();
+        for (int start = 0; start < length; start += transferBuffer.length) {
+            int end = Math.min(start + transferBuffer.length, length);
+            buffer.getChars(start, end, transferBuffer, 0);
+            br.write(transferBuffer, 0, end - start);
+        }
+    }
+
+    /**
+     * Returns the formatted chunk of spectrum identification results of the
+     * given future.
+     *
+     * @param future the future of the formatting task
+     *
+     * @return the formatted chunk
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * formatting the chunk
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    private static StringBuilder getChunk(Future<StringBuilder> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("An error occurred while writing the spectrum identification results.", e.getCause());
+        }
+    }
+
+    /**
+     * Callable formatting the spectrum identification results of a chunk of
+     * spectrum matches. The buffer is taken from the pool of reusable buffers
+     * and shall be given back once written. Every callable running uses its
+     * own copy of the annotation preferences.
+     */
+    private class SpectrumIdentificationResultsCallable implements Callable<StringBuilder> {
+
+        /**
+         * The spectrum matches to format.
+         */
+        private final ArrayList<SpectrumMatch> spectrumMatches;
+        /**
+         * The number of tabs at the beginning of the elements.
+         */
+        private final int tabs;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumMatches the spectrum matches to format
+         * @param tabs the number of tabs at the beginning of the elements
+         */
+        public SpectrumIdentificationResultsCallable(ArrayList<SpectrumMatch> spectrumMatches, int tabs) {
+            this.spectrumMatches = spectrumMatches;
+            this.tabs = tabs;
+        }
+
+        @Override
+        public StringBuilder call() throws Exception {
+            StringBuilder buffer = buffers.poll();
+            if (buffer == null) {
+                buffer = new StringBuilder();
+            } else {
+                buffer.setLength(0);
+            }
+            AnnotationPreferences annotationPreferences = annotationPreferencesCopies.poll();
+            if (annotationPreferences == null) {
+                annotationPreferences = (AnnotationPreferences) SerializationCopy.deepCopy(identificationParameters.getAnnotationPreferences());
+            }
+            try {
+                PeptideSpectrumAnnotator annotator = new PeptideSpectrumAnnotator();
+                for (SpectrumMatch spectrumMatch : spectrumMatches) {
+                    if (waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                    appendSpectrumIdentificationResult(buffer, tabs, spectrumMatch, annotationPreferences, annotator);
+                    waitingHandler.increasePrimaryProgressCounter();
+                }
+            } finally {
+                annotationPreferencesCopies.add(annotationPreferences);
+            }
+            return buffer;
         }
     }
 
@@ -1656,35 +1916,35 @@ public class MzIdentMLExport {
      */
     private void writeFragmentationTable() throws IOException {
 
-        br.write(getCurrentTabSpace() + "<FragmentationTable>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<FragmentationTable>" + LINE_SEPARATOR);
         tabCounter++;
 
         // mz
-        br.write(getCurrentTabSpace() + "<Measure id=\"Measure_MZ\">" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Measure id=\"Measure_MZ\">" + LINE_SEPARATOR);
         tabCounter++;
         br.write(getCurrentTabSpace() + "<cvParam unitCvRef=\"PSI-MS\" accession=\"MS:1001225\" cvRef=\"PSI-MS\" unitName=\"m/z\" "
-                + "unitAccession=\"MS:1000040\" name=\"product ion m/z\"/>" + System.getProperty("line.separator"));
+                + "unitAccession=\"MS:1000040\" name=\"product ion m/z\"/>" + LINE_SEPARATOR);
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Measure>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Measure>" + LINE_SEPARATOR);
 
         // intensity
-        br.write(getCurrentTabSpace() + "<Measure id=\"Measure_Int\">" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Measure id=\"Measure_Int\">" + LINE_SEPARATOR);
         tabCounter++;
         br.write(getCurrentTabSpace() + "<cvParam accession=\"MS:1001226\" cvRef=\"PSI-MS\" "
-                + "name=\"product ion intensity\"/>" + System.getProperty("line.separator"));
+                + "name=\"product ion intensity\"/>" + LINE_SEPARATOR);
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Measure>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Measure>" + LINE_SEPARATOR);
 
         // mass error
-        br.write(getCurrentTabSpace() + "<Measure id=\"Measure_Error\">" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Measure id=\"Measure_Error\">" + LINE_SEPARATOR);
         tabCounter++;
         br.write(getCurrentTabSpace() + "<cvParam unitCvRef=\"PSI-MS\" accession=\"MS:1001227\" cvRef=\"PSI-MS\" "
-                + "unitName=\"m/z\" unitAccession=\"MS:1000040\" name=\"product ion m/z error\"/>" + System.getProperty("line.separator"));
+                + "unitName=\"m/z\" unitAccession=\"MS:1000040\" name=\"product ion m/z error\"/>" + LINE_SEPARATOR);
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Measure>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Measure>" + LINE_SEPARATOR);
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</FragmentationTable>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</FragmentationTable>" + LINE_SEPARATOR);
     }
 
     /**
@@ -1695,7 +1955,7 @@ public class MzIdentMLExport {
      */
     private void writeInputFileDetails() throws IOException {
 
-        br.write(getCurrentTabSpace() + "<Inputs>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<Inputs>" + LINE_SEPARATOR);
         tabCounter++;
 
         int sourceFileCounter = 1;
@@ -1703,9 +1963,9 @@ public class MzIdentMLExport {
         // add the search result files
         for (File idFile : projectDetails.getIdentificationFiles()) {
 
-            br.write(getCurrentTabSpace() + "<SourceFile location=\"" + idFile.getAbsolutePath() + "\" id=\"SourceFile_" + sourceFileCounter++ + "\">" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "<SourceFile location=\"" + idFile.getAbsolutePath() + "\" id=\"SourceFile_" + sourceFileCounter++ + "\">" + LINE_SEPARATOR);
             tabCounter++;
-            br.write(getCurrentTabSpace() + "<FileFormat>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "<FileFormat>" + LINE_SEPARATOR);
             tabCounter++;
 
             String idFileName = Util.getFileName(idFile);
@@ -1742,57 +2002,57 @@ public class MzIdentMLExport {
             // @TODO: add children of MS:1000561 - data file checksum type?
 
             tabCounter--;
-            br.write(getCurrentTabSpace() + "</FileFormat>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "</FileFormat>" + LINE_SEPARATOR);
             tabCounter--;
-            br.write(getCurrentTabSpace() + "</SourceFile>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "</SourceFile>" + LINE_SEPARATOR);
         }
 
         // add the database
         File database = identificationParameters.getProteinInferencePreferences().getProteinSequenceDatabase();
         br.write(getCurrentTabSpace() + "<SearchDatabase numDatabaseSequences=\"" + sequenceFactory.getNSequences()
                 + "\" location=\"" + database.getAbsolutePath() + "\" "
-                + "id=\"" + "SearchDB_1\">" + System.getProperty("line.separator"));
+                + "id=\"" + "SearchDB_1\">" + LINE_SEPARATOR);
         tabCounter++;
-        br.write(getCurrentTabSpace() + "<FileFormat>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<FileFormat>" + LINE_SEPARATOR);
         tabCounter++;
         writeCvTerm(new CvTerm("PSI-MS", "MS:1001348", "FASTA format", null));
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</FileFormat>" + System.getProperty("line.separator"));
-        br.write(getCurrentTabSpace() + "<DatabaseName>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</FileFormat>" + LINE_SEPARATOR);
+        br.write(getCurrentTabSpace() + "<DatabaseName>" + LINE_SEPARATOR);
         tabCounter++;
         writeUserParam(database.getName()); // @TODO: add database type? children of MS:1001013 - database name
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</DatabaseName>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</DatabaseName>" + LINE_SEPARATOR);
         writeCvTerm(new CvTerm("PSI-MS", "MS:1001073", "database type amino acid", null));
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</SearchDatabase>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</SearchDatabase>" + LINE_SEPARATOR);
 
         // add the spectra location
         for (String mgfFileName : spectrumFactory.getMgfFileNames()) {
             File mgfFile = projectDetails.getSpectrumFile(mgfFileName);
 
             br.write(getCurrentTabSpace() + "<SpectraData location=\"" + mgfFile.getAbsolutePath() + "\" id=\"" + mgfFileName
-                    + "\" name=\"" + mgfFile.getName() + "\">" + System.getProperty("line.separator"));
+                    + "\" name=\"" + mgfFile.getName() + "\">" + LINE_SEPARATOR);
             tabCounter++;
 
-            br.write(getCurrentTabSpace() + "<FileFormat>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "<FileFormat>" + LINE_SEPARATOR);
             tabCounter++;
             writeCvTerm(new CvTerm("PSI-MS", "MS:1001062", "Mascot MGF file", null));
             tabCounter--;
-            br.write(getCurrentTabSpace() + "</FileFormat>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "</FileFormat>" + LINE_SEPARATOR);
 
-            br.write(getCurrentTabSpace() + "<SpectrumIDFormat>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "<SpectrumIDFormat>" + LINE_SEPARATOR);
             tabCounter++;
             writeCvTerm(new CvTerm("PSI-MS", "MS:1000774", "multiple peak list nativeID format", null));
             tabCounter--;
-            br.write(getCurrentTabSpace() + "</SpectrumIDFormat>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "</SpectrumIDFormat>" + LINE_SEPARATOR);
 
             tabCounter--;
-            br.write(getCurrentTabSpace() + "</SpectraData>" + System.getProperty("line.separator"));
+            br.write(getCurrentTabSpace() + "</SpectraData>" + LINE_SEPARATOR);
         }
 
         tabCounter--;
-        br.write(getCurrentTabSpace() + "</Inputs>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "</Inputs>" + LINE_SEPARATOR);
     }
 
     /**
@@ -1803,21 +2063,21 @@ public class MzIdentMLExport {
      */
     private void writeMzIdentMLStartTag() throws IOException {
         DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'hh:mm:ss");
-        br.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + System.getProperty("line.separator"));
+        br.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + LINE_SEPARATOR);
 
         if (mzidVersion_1_2) {
             br.write("<MzIdentML id=\"PeptideShaker v" + peptideShakerVersion + "\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "
                     + "xsi:schemaLocation=\"http://psidev.info/psi/pi/mzIdentML/1.2 http://www.psidev.info/files/mzIdentML1.2.0.xsd\" "
                     + "xmlns=\"http://psidev.info/psi/pi/mzIdentML/1.2\" version=\"1.2.0\" "
                     + "creationDate=\"" + df.format(new Date()) + "\">"
-                    + System.getProperty("line.separator"));
+                    + LINE_SEPARATOR);
         } else {
             // assumes version 1.1
             br.write("<MzIdentML id=\"PeptideShaker v" + peptideShakerVersion + "\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "
                     + "xsi:schemaLocation=\"http://psidev.info/psi/pi/mzIdentML/1.1 http://www.psidev.info/files/mzIdentML1.1.0.xsd\" "
                     + "xmlns=\"http://psidev.info/psi/pi/mzIdentML/1.1\" version=\"1.1.0\" "
                     + "creationDate=\"" + df.format(new Date()) + "\">"
-                    + System.getProperty("line.separator"));
+                    + LINE_SEPARATOR);
         }
 
         tabCounter++;
@@ -1889,9 +2149,9 @@ public class MzIdentMLExport {
                 + "name=\"" + cvTerm.getName() + "\"");
 
         if (cvTerm.getValue() != null) {
-            br.write(" value=\"" + cvTerm.getValue() + "\"/>" + System.getProperty("line.separator"));
+            br.write(" value=\"" + cvTerm.getValue() + "\"/>" + LINE_SEPARATOR);
         } else {
-            br.write("/>" + System.getProperty("line.separator"));
+            br.write("/>" + LINE_SEPARATOR);
         }
     }
 
@@ -1901,7 +2161,7 @@ public class MzIdentMLExport {
      * @param userParamAsString the user parameter as a string
      */
     private void writeUserParam(String userParamAsString) throws IOException {
-        br.write(getCurrentTabSpace() + "<userParam name=\"" + userParamAsString + "\"/>" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<userParam name=\"" + userParamAsString + "\"/>" + LINE_SEPARATOR);
     }
 
     /**
@@ -1911,6 +2171,79 @@ public class MzIdentMLExport {
      * @param value the value of the user parameter
      */
     private void writeUserParam(String name, String value) throws IOException {
-        br.write(getCurrentTabSpace() + "<userParam name=\"" + name + "\" value=\"" + value + "\" />" + System.getProperty("line.separator"));
+        br.write(getCurrentTabSpace() + "<userParam name=\"" + name + "\" value=\"" + value + "\" />" + LINE_SEPARATOR);
+    }
+
+    /**
+     * Appends the given number of tabs to the buffer.
+     *
+     * @param buffer the buffer
+     * @param tabs the number of tabs
+     */
+    private static void appendTabs(StringBuilder buffer, int tabs) {
+        buffer.append(TABS, 0, Math.min(Math.max(tabs, 0), TABS.length()));
+    }
+
+    /**
+     * Appends a value to a space separated list of values.
+     *
+     * @param buffer the buffer containing the list
+     * @param value the value to append
+     */
+    private static void appendValue(StringBuilder buffer, int value) {
+        if (buffer.length() > 0) {
+            buffer.append(' ');
+        }
+        buffer.append(value);
+    }
+
+    /**
+     * Appends a value to a space separated list of values.
+     *
+     * @param buffer the buffer containing the list
+     * @param value the value to append
+     */
+    private static void appendValue(StringBuilder buffer, double value) {
+        if (buffer.length() > 0) {
+            buffer.append(' ');
+        }
+        buffer.append(value);
+    }
+
+    /**
+     * Convenience method appending a CV Term to a buffer.
+     *
+     * @param buffer the buffer
+     * @param tabs the number of tabs at the beginning of the line
+     * @param ontology the ontology of the term
+     * @param accession the accession of the term
+     * @param name the name of the term
+     * @param value the value of the term, can be null
+     */
+    private static void appendCvTerm(StringBuilder buffer, int tabs, String ontology, String accession, String name, String value) {
+
+        appendTabs(buffer, tabs);
+        buffer.append("<cvParam cvRef=\"").append(ontology)
+                .append("\" accession=\"").append(accession)
+                .append("\" name=\"").append(name).append('"');
+
+        if (value != null) {
+            buffer.append(" value=\"").append(value).append("\"/>").append(LINE_SEPARATOR);
+        } else {
+            buffer.append("/>").append(LINE_SEPARATOR);
+        }
+    }
+
+    /**
+     * Convenience method appending a user parameter to a buffer.
+     *
+     * @param buffer the buffer
+     * @param tabs the number of tabs at the beginning of the line
+     * @param name the name of the user parameter
+     * @param value the value of the user parameter
+     */
+    private static void appendUserParam(StringBuilder buffer, int tabs, String name, String value) {
+        appendTabs(buffer, tabs);
+        buffer.append("<userParam name=\"").append(name).append("\" value=\"").append(value).append("\" />").append(LINE_SEPARATOR);
     }
 }
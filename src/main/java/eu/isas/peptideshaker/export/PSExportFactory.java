@@ -264,6 +264,63 @@ public class PSExportFactory implements ExportFactory {
             String proteinMatchKey, int nSurroundingAA, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
             SpectrumCountingPreferences spectrumCountingPreferences, WaitingHandler waitingHandler)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+        writeExport(exportScheme, destinationFile, exportFormat, experiment, sample, replicateNumber, projectDetails, identification, identificationFeaturesGenerator,
+                proteinKeys, peptideKeys, psmKeys, proteinMatchKey, nSurroundingAA, shotgunProtocol, identificationParameters, spectrumCountingPreferences, 1, waitingHandler);
+    }
+
+    /**
+     * Writes the desired export in text format. If an argument is not needed,
+     * provide null (at your own risks). When using multiple threads, the lines
+     * of the Protein and PSM sections are computed in parallel and written in
+     * order.
+     *
+     * @param exportScheme the scheme of the export
+     * @param destinationFile the destination file
+     * @param exportFormat the format of export to use
+     * @param experiment the experiment corresponding to this project (mandatory
+     * for the Project section)
+     * @param sample the sample of the project (mandatory for the Project
+     * section)
+     * @param replicateNumber the replicate number of the project (mandatory for
+     * the Project section)
+     * @param projectDetails the project details (mandatory for the Project
+     * section)
+     * @param identification the identification (mandatory for the Protein,
+     * Peptide and PSM sections)
+     * @param identificationFeaturesGenerator the identification features
+     * generator (mandatory for the Protein, Peptide and PSM sections)
+     * @param proteinKeys the protein keys to export (mandatory for the Protein
+     * section)
+     * @param peptideKeys the peptide keys to export (mandatory for the Peptide
+     * section)
+     * @param psmKeys the keys of the PSMs to export (mandatory for the PSM
+     * section)
+     * @param proteinMatchKey the protein match key when exporting peptides from
+     * a single protein match (optional for the Peptide sections)
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * (mandatory for the Peptide section)
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * (mandatory for the spectrum counting section)
+     * @param nThreads the number of threads to use to export the Protein and
+     * PSM sections
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws IllegalArgumentException thrown if an IllegalArgumentException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if an ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException occurs
+     * @throws org.apache.commons.math.MathException thrown if an MathException occurs
+     */
+    public static void writeExport(ExportScheme exportScheme, File destinationFile, ExportFormat exportFormat, String experiment, String sample, int replicateNumber,
+            ProjectDetails projectDetails, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ArrayList<String> proteinKeys, ArrayList<String> peptideKeys, ArrayList<String> psmKeys,
+            String proteinMatchKey, int nSurroundingAA, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
+            SpectrumCountingPreferences spectrumCountingPreferences, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
 
         ExportWriter exportWriter = ExportWriter.getExportWriter(exportFormat, destinationFile, exportScheme.getSeparator(), exportScheme.getSeparationLines());
         if (exportWriter instanceof ExcelWriter) {
@@ -294,10 +351,10 @@ public class PSExportFactory implements ExportFactory {
                 section.writeSection(experiment, sample, replicateNumber, projectDetails, waitingHandler);
             } else if (sectionName.equals(PsProteinFeature.type)) {
                 PsProteinSection section = new PsProteinSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
-                section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, psmKeys, nSurroundingAA, exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), waitingHandler);
+                section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, psmKeys, nSurroundingAA, exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), nThreads, waitingHandler);
             } else if (sectionName.equals(PsPsmFeature.type)) {
                 PsPsmSection section = new PsPsmSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
-                section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, psmKeys, "", exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), waitingHandler);
+                section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, psmKeys, "", exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), nThreads, waitingHandler);
             } else if (sectionName.equals(PsIdentificationAlgorithmMatchesFeature.type)) {
                 PsIdentificationAlgorithmMatchesSection section = new PsIdentificationAlgorithmMatchesSection(exportScheme.getExportFeatures(sectionName), exportScheme.isIndexes(), exportScheme.isHeader(), exportWriter);
                 section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, psmKeys, "", waitingHandler);
@@ -323,6 +380,89 @@ public class PSExportFactory implements ExportFactory {
         exportWriter.close();
     }
 
+    /**
+     * Writes the Protein, Peptide and PSM sections of the desired export in
+     * the parquet columnar format, one file per section. The files are named
+     * after the destination file and the section. The sub-sections and the
+     * other sections are not exported. The rows are written as they are
+     * computed and the export is never held in memory.
+     *
+     * @param exportScheme the scheme of the export
+     * @param destinationFile the destination file, the name of every section
+     * is appended to its name
+     * @param identification the identification
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param proteinKeys the protein keys to export, null for all
+     * @param peptideKeys the peptide keys to export, null for all
+     * @param psmKeys the keys of the PSMs to export, null for all
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param nThreads the number of threads to use to export the Protein and
+     * PSM sections
+     * @param waitingHandler the waiting handler
+     *
+     * @return the files written
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws IllegalArgumentException thrown if an IllegalArgumentException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if an ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException occurs
+     * @throws org.apache.commons.math.MathException thrown if an MathException occurs
+     */
+    public static ArrayList<File> writeParquetExport(ExportScheme exportScheme, File destinationFile, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ArrayList<String> proteinKeys, ArrayList<String> peptideKeys, ArrayList<String> psmKeys, int nSurroundingAA, ShotgunProtocol shotgunProtocol,
+            IdentificationParameters identificationParameters, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+
+        ArrayList<File> files = new ArrayList<File>();
+
+        for (String sectionName : exportScheme.getSections()) {
+            if (sectionName.equals(PsProteinFeature.type) || sectionName.equals(PsPeptideFeature.type) || sectionName.equals(PsPsmFeature.type)) {
+                File sectionFile = getParquetFile(destinationFile, sectionName);
+                ParquetExportWriter parquetWriter = new ParquetExportWriter(sectionFile, ParquetExportWriter.DEFAULT_ROW_GROUP_SIZE);
+                try {
+                    if (sectionName.equals(PsProteinFeature.type)) {
+                        PsProteinSection section = new PsProteinSection(exportScheme.getExportFeatures(sectionName), parquetWriter);
+                        section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, proteinKeys, nSurroundingAA, exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), nThreads, waitingHandler);
+                    } else if (sectionName.equals(PsPeptideFeature.type)) {
+                        PsPeptideSection section = new PsPeptideSection(exportScheme.getExportFeatures(sectionName), parquetWriter);
+                        section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideKeys, nSurroundingAA, "", exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), waitingHandler);
+                    } else {
+                        PsPsmSection section = new PsPsmSection(exportScheme.getExportFeatures(sectionName), parquetWriter);
+                        section.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, psmKeys, "", exportScheme.isValidatedOnly(), exportScheme.isIncludeDecoy(), nThreads, waitingHandler);
+                    }
+                } finally {
+                    parquetWriter.close();
+                }
+                files.add(sectionFile);
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Returns the parquet file where to write a given section.
+     *
+     * @param destinationFile the destination file of the export
+     * @param sectionName the name of the section
+     *
+     * @return the parquet file where to write the section
+     */
+    public static File getParquetFile(File destinationFile, String sectionName) {
+        String fileName = destinationFile.getName();
+        int extensionIndex = fileName.lastIndexOf(".");
+        if (extensionIndex > 0) {
+            fileName = fileName.substring(0, extensionIndex);
+        }
+        fileName += "_" + sectionName.replaceAll("[^a-zA-Z0-9]+", "_") + ParquetExportWriter.EXTENSION;
+        return new File(destinationFile.getParentFile(), fileName);
+    }
+
     /**
      * Writes the documentation related to a report.
      *
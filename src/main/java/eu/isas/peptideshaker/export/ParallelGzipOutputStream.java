@@ -0,0 +1,207 @@
+package eu.isas.peptideshaker.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Output stream compressing the data in the gzip format using multiple
+ * threads. The data is cut into blocks which are compressed independently as
+ * gzip members and written in order, the resulting file can be read by any
+ * gzip implementation supporting multiple members. The data of the current
+ * block is compressed when the block is full or when the stream is closed.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    /**
+     * The extension of gzip files.
+     */
+    public static final String EXTENSION = ".gz";
+    /**
+     * The default size of the blocks in bytes.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    /**
+     * The stream where to write the compressed data.
+     */
+    private final OutputStream out;
+    /**
+     * The size of the blocks in bytes.
+     */
+    private final int blockSize;
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+    /**
+     * The pool compressing the blocks.
+     */
+    private final ExecutorService pool;
+    /**
+     * The blocks being compressed in the order they need to be written.
+     */
+    private final LinkedList<Future<ByteArrayOutputStream>> pendingBlocks = new LinkedList<Future<ByteArrayOutputStream>>();
+    /**
+     * The block currently filled.
+     */
+    private byte[] block;
+    /**
+     * The number of bytes in the current block.
+     */
+    private int blockLength = 0;
+    /**
+     * Indicates whether a block was compressed already.
+     */
+    private boolean empty = true;
+    /**
+     * Indicates whether the stream is closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param out the stream where to write the compressed data
+     * @param nThreads the number of threads to use
+     */
+    public ParallelGzipOutputStream(OutputStream out, int nThreads) {
+        this(out, nThreads, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param out the stream where to write the compressed data
+     * @param nThreads the number of threads to use
+     * @param blockSize the size of the blocks in bytes
+     */
+    public ParallelGzipOutputStream(OutputStream out, int nThreads, int blockSize) {
+        this.out = out;
+        this.nThreads = Math.max(nThreads, 1);
+        this.blockSize = blockSize;
+        pool = Executors.newFixedThreadPool(this.nThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                // daemon threads do not keep the application alive if the stream is not closed
+                Thread thread = new Thread(runnable, "ParallelGzipOutputStream");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLength == blockSize) {
+            submitBlock();
+        }
+        block[blockLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (blockLength == blockSize) {
+                submitBlock();
+            }
+            int length = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, length);
+            blockLength += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    /**
+     * Writes the blocks already compressed and flushes the underlying stream.
+     * The current block is not compressed.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the data
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pendingBlocks.isEmpty() && pendingBlocks.getFirst().isDone()) {
+            writeBlock(pendingBlocks.removeFirst());
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (blockLength > 0 || empty) {
+                submitBlock();
+            }
+            while (!pendingBlocks.isEmpty()) {
+                writeBlock(pendingBlocks.removeFirst());
+            }
+            out.flush();
+        } finally {
+            pool.shutdownNow();
+            out.close();
+        }
+    }
+
+    /**
+     * Sends the current block for compression and writes the oldest blocks if
+     * too many are pending.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the data
+     */
+    private void submitBlock() throws IOException {
+
+        final byte[] data = block;
+        final int length = blockLength;
+        pendingBlocks.add(pool.submit(new Callable<ByteArrayOutputStream>() {
+            @Override
+            public ByteArrayOutputStream call() throws Exception {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4 + 64);
+                GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+                gzipOutputStream.write(data, 0, length);
+                gzipOutputStream.close();
+                return compressed;
+            }
+        }));
+        block = new byte[blockSize];
+        blockLength = 0;
+        empty = false;
+
+        while (pendingBlocks.size() >= 2 * nThreads) {
+            writeBlock(pendingBlocks.removeFirst());
+        }
+    }
+
+    /**
+     * Waits for the given block to be compressed and writes it.
+     *
+     * @param future the future of the compression task
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * compressing or writing the data
+     */
+    private void writeBlock(Future<ByteArrayOutputStream> future) throws IOException {
+        try {
+            future.get().writeTo(out);
+        } catch (ExecutionException e) {
+            throw new IOException("An error occurred while compressing the output.", e.getCause());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while compressing the output.");
+        }
+    }
+}
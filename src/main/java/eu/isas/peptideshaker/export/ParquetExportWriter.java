@@ -0,0 +1,592 @@
+package eu.isas.peptideshaker.export;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes tables in the Apache Parquet columnar format. All columns are
+ * exported as required UTF-8 strings, plain encoded and gzip compressed. Rows
+ * are buffered per row group and the row groups are written to the file as
+ * they are completed so that the table is never held in memory. Column names
+ * are converted to snake case identifiers, duplicate names receive a numbered
+ * suffix.
+ */
+public class ParquetExportWriter {
+
+    /**
+     * The extension of parquet files.
+     */
+    public static final String EXTENSION = ".parquet";
+    /**
+     * The default number of rows per row group.
+     */
+    public static final int DEFAULT_ROW_GROUP_SIZE = 10000;
+    /**
+     * The magic number starting and ending parquet files.
+     */
+    private static final byte[] MAGIC = {'P', 'A', 'R', '1'};
+    /**
+     * Parquet type of the columns: BYTE_ARRAY.
+     */
+    private static final int TYPE_BYTE_ARRAY = 6;
+    /**
+     * Parquet converted type of the columns: UTF8.
+     */
+    private static final int CONVERTED_TYPE_UTF8 = 0;
+    /**
+     * Parquet repetition type of the columns: REQUIRED.
+     */
+    private static final int REPETITION_REQUIRED = 0;
+    /**
+     * Parquet encoding of the values: PLAIN.
+     */
+    private static final int ENCODING_PLAIN = 0;
+    /**
+     * Parquet encoding of the levels: RLE.
+     */
+    private static final int ENCODING_RLE = 3;
+    /**
+     * Parquet compression codec: GZIP.
+     */
+    private static final int CODEC_GZIP = 2;
+    /**
+     * Parquet page type: DATA_PAGE.
+     */
+    private static final int PAGE_TYPE_DATA = 0;
+    /**
+     * The stream to the file.
+     */
+    private final OutputStream outputStream;
+    /**
+     * The number of bytes written to the file.
+     */
+    private long position = 0;
+    /**
+     * The number of rows per row group.
+     */
+    private final int rowGroupSize;
+    /**
+     * The names of the columns.
+     */
+    private ArrayList<String> columnNames = null;
+    /**
+     * The plain encoded values of the current row group for every column.
+     */
+    private ByteArrayOutputStream[] columnBuffers;
+    /**
+     * The number of rows in the current row group.
+     */
+    private int nRowsInGroup = 0;
+    /**
+     * The total number of rows.
+     */
+    private long nRows = 0;
+    /**
+     * The metadata of the row groups written.
+     */
+    private ArrayList<RowGroupMetaData> rowGroups = new ArrayList<RowGroupMetaData>();
+
+    /**
+     * Constructor.
+     *
+     * @param destinationFile the file where to write the table
+     * @param rowGroupSize the number of rows per row group
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public ParquetExportWriter(File destinationFile, int rowGroupSize) throws IOException {
+        this.rowGroupSize = rowGroupSize;
+        outputStream = new BufferedOutputStream(new FileOutputStream(destinationFile));
+        write(MAGIC);
+    }
+
+    /**
+     * Sets the names of the columns. Must be called once before writing rows.
+     * The names are converted to snake case identifiers and made unique, see
+     * getColumnNames.
+     *
+     * @param columnNames the names of the columns
+     */
+    public void setColumnNames(ArrayList<String> columnNames) {
+        if (this.columnNames != null) {
+            throw new IllegalArgumentException("Columns already set for this table.");
+        }
+        this.columnNames = getColumnNames(columnNames);
+        columnBuffers = new ByteArrayOutputStream[columnNames.size()];
+        for (int i = 0; i < columnBuffers.length; i++) {
+            columnBuffers[i] = new ByteArrayOutputStream();
+        }
+    }
+
+    /**
+     * Returns the names of the columns as written in the file, null if not
+     * set.
+     *
+     * @return the names of the columns as written in the file
+     */
+    public ArrayList<String> getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * Returns unique snake case identifiers for the given column titles. For
+     * example "Algorithm Score" becomes algorithm_score and the second column
+     * with this title algorithm_score_2.
+     *
+     * @param columnTitles the titles of the columns
+     *
+     * @return the names to use in the file
+     */
+    public static ArrayList<String> getColumnNames(ArrayList<String> columnTitles) {
+        ArrayList<String> result = new ArrayList<String>(columnTitles.size());
+        HashSet<String> usedNames = new HashSet<String>(columnTitles.size());
+        for (String columnTitle : columnTitles) {
+            String name = getColumnName(columnTitle);
+            String uniqueName = name;
+            int suffix = 2;
+            while (!usedNames.add(uniqueName)) {
+                uniqueName = name + "_" + suffix++;
+            }
+            result.add(uniqueName);
+        }
+        return result;
+    }
+
+    /**
+     * Converts a column title to a snake case identifier: lower case letters,
+     * digits and underscores, not starting with a digit.
+     *
+     * @param columnTitle the title of the column
+     *
+     * @return the snake case identifier
+     */
+    public static String getColumnName(String columnTitle) {
+        String name = columnTitle == null ? "" : columnTitle.toLowerCase();
+        name = name.replaceAll("[^a-z0-9]+", "_").replaceAll("^_+|_+$", "");
+        if (name.length() == 0) {
+            return "column";
+        }
+        if (Character.isDigit(name.charAt(0))) {
+            return "_" + name;
+        }
+        return name;
+    }
+
+    /**
+     * Writes a row.
+     *
+     * @param row the values of the row, one per column
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeRow(ArrayList<String> row) throws IOException {
+        if (columnNames == null) {
+            throw new IllegalArgumentException("Columns not set for this table.");
+        }
+        if (row.size() != columnNames.size()) {
+            throw new IllegalArgumentException(row.size() + " values found for " + columnNames.size() + " columns.");
+        }
+        for (int i = 0; i < columnBuffers.length; i++) {
+            String value = row.get(i);
+            byte[] bytes = value == null ? new byte[0] : value.getBytes("UTF-8");
+            ByteArrayOutputStream columnBuffer = columnBuffers[i];
+            writeIntLittleEndian(columnBuffer, bytes.length);
+            columnBuffer.write(bytes);
+        }
+        nRowsInGroup++;
+        if (nRowsInGroup == rowGroupSize) {
+            writeRowGroup();
+        }
+    }
+
+    /**
+     * Writes the remaining rows and the file metadata and closes the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void close() throws IOException {
+        try {
+            if (columnNames == null) {
+                setColumnNames(new ArrayList<String>());
+            }
+            if (nRowsInGroup > 0) {
+                writeRowGroup();
+            }
+            byte[] footer = getFileMetaData();
+            write(footer);
+            ByteArrayOutputStream footerLength = new ByteArrayOutputStream(4);
+            writeIntLittleEndian(footerLength, footer.length);
+            write(footerLength.toByteArray());
+            write(MAGIC);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Writes the buffered rows as a row group, one gzip compressed page per
+     * column.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeRowGroup() throws IOException {
+
+        RowGroupMetaData rowGroup = new RowGroupMetaData(columnBuffers.length, nRowsInGroup);
+
+        for (int i = 0; i < columnBuffers.length; i++) {
+
+            byte[] values = columnBuffers[i].toByteArray();
+            columnBuffers[i].reset();
+
+            ByteArrayOutputStream compressedValues = new ByteArrayOutputStream(values.length / 4 + 32);
+            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressedValues);
+            gzipOutputStream.write(values);
+            gzipOutputStream.close();
+            byte[] compressed = compressedValues.toByteArray();
+
+            ThriftCompactWriter pageHeader = new ThriftCompactWriter();
+            pageHeader.writeI32Field(1, PAGE_TYPE_DATA);
+            pageHeader.writeI32Field(2, values.length);
+            pageHeader.writeI32Field(3, compressed.length);
+            pageHeader.writeStructFieldBegin(5);
+            pageHeader.writeI32Field(1, nRowsInGroup);
+            pageHeader.writeI32Field(2, ENCODING_PLAIN);
+            pageHeader.writeI32Field(3, ENCODING_RLE);
+            pageHeader.writeI32Field(4, ENCODING_RLE);
+            pageHeader.writeStructEnd();
+            pageHeader.writeStructEnd();
+            byte[] header = pageHeader.toByteArray();
+
+            rowGroup.dataPageOffsets[i] = position;
+            rowGroup.uncompressedSizes[i] = header.length + values.length;
+            rowGroup.compressedSizes[i] = header.length + compressed.length;
+
+            write(header);
+            write(compressed);
+        }
+
+        rowGroups.add(rowGroup);
+        nRows += nRowsInGroup;
+        nRowsInGroup = 0;
+    }
+
+    /**
+     * Returns the file metadata serialized using the thrift compact protocol.
+     *
+     * @return the serialized file metadata
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * encoding the metadata
+     */
+    private byte[] getFileMetaData() throws IOException {
+
+        ThriftCompactWriter metaData = new ThriftCompactWriter();
+        metaData.writeI32Field(1, 1);
+
+        metaData.writeListFieldBegin(2, ThriftCompactWriter.TYPE_STRUCT, columnNames.size() + 1);
+        metaData.writeStructBegin();
+        metaData.writeStringField(4, "schema");
+        metaData.writeI32Field(5, columnNames.size());
+        metaData.writeStructEnd();
+        for (String columnName : columnNames) {
+            metaData.writeStructBegin();
+            metaData.writeI32Field(1, TYPE_BYTE_ARRAY);
+            metaData.writeI32Field(3, REPETITION_REQUIRED);
+            metaData.writeStringField(4, columnName);
+            metaData.writeI32Field(6, CONVERTED_TYPE_UTF8);
+            metaData.writeStructEnd();
+        }
+
+        metaData.writeI64Field(3, nRows);
+
+        metaData.writeListFieldBegin(4, ThriftCompactWriter.TYPE_STRUCT, rowGroups.size());
+        for (RowGroupMetaData rowGroup : rowGroups) {
+            metaData.writeStructBegin();
+            metaData.writeListFieldBegin(1, ThriftCompactWriter.TYPE_STRUCT, columnNames.size());
+            long totalSize = 0;
+            for (int i = 0; i < columnNames.size(); i++) {
+                metaData.writeStructBegin();
+                metaData.writeI64Field(2, rowGroup.dataPageOffsets[i]);
+                metaData.writeStructFieldBegin(3);
+                metaData.writeI32Field(1, TYPE_BYTE_ARRAY);
+                metaData.writeListFieldBegin(2, ThriftCompactWriter.TYPE_I32, 2);
+                metaData.writeI32(ENCODING_PLAIN);
+                metaData.writeI32(ENCODING_RLE);
+                metaData.writeListFieldBegin(3, ThriftCompactWriter.TYPE_BINARY, 1);
+                metaData.writeString(columnNames.get(i));
+                metaData.writeI32Field(4, CODEC_GZIP);
+                metaData.writeI64Field(5, rowGroup.nRows);
+                metaData.writeI64Field(6, rowGroup.uncompressedSizes[i]);
+                metaData.writeI64Field(7, rowGroup.compressedSizes[i]);
+                metaData.writeI64Field(9, rowGroup.dataPageOffsets[i]);
+                metaData.writeStructEnd();
+                metaData.writeStructEnd();
+                totalSize += rowGroup.uncompressedSizes[i];
+            }
+            metaData.writeI64Field(2, totalSize);
+            metaData.writeI64Field(3, rowGroup.nRows);
+            metaData.writeStructEnd();
+        }
+
+        metaData.writeStringField(6, "PeptideShaker");
+        metaData.writeStructEnd();
+
+        return metaData.toByteArray();
+    }
+
+    /**
+     * Writes bytes to the file and keeps track of the position.
+     *
+     * @param bytes the bytes to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void write(byte[] bytes) throws IOException {
+        outputStream.write(bytes);
+        position += bytes.length;
+    }
+
+    /**
+     * Writes an integer on four bytes in little endian order.
+     *
+     * @param outputStream the stream where to write
+     * @param value the value to write
+     */
+    private static void writeIntLittleEndian(ByteArrayOutputStream outputStream, int value) {
+        outputStream.write(value & 0xFF);
+        outputStream.write((value >>> 8) & 0xFF);
+        outputStream.write((value >>> 16) & 0xFF);
+        outputStream.write((value >>> 24) & 0xFF);
+    }
+
+    /**
+     * The location and size of the column chunks of a row group.
+     */
+    private static class RowGroupMetaData {
+
+        /**
+         * The number of rows in the row group.
+         */
+        private final int nRows;
+        /**
+         * The offset of the data page of every column.
+         */
+        private final long[] dataPageOffsets;
+        /**
+         * The uncompressed size of every column chunk.
+         */
+        private final long[] uncompressedSizes;
+        /**
+         * The compressed size of every column chunk.
+         */
+        private final long[] compressedSizes;
+
+        /**
+         * Constructor.
+         *
+         * @param nColumns the number of columns
+         * @param nRows the number of rows in the row group
+         */
+        public RowGroupMetaData(int nColumns, int nRows) {
+            this.nRows = nRows;
+            dataPageOffsets = new long[nColumns];
+            uncompressedSizes = new long[nColumns];
+            compressedSizes = new long[nColumns];
+        }
+    }
+
+    /**
+     * Minimal writer for the thrift compact protocol used by the parquet
+     * metadata.
+     */
+    private static class ThriftCompactWriter {
+
+        /**
+         * Compact type of 32 bits integers.
+         */
+        public static final int TYPE_I32 = 5;
+        /**
+         * Compact type of 64 bits integers.
+         */
+        public static final int TYPE_I64 = 6;
+        /**
+         * Compact type of binaries and strings.
+         */
+        public static final int TYPE_BINARY = 8;
+        /**
+         * Compact type of lists.
+         */
+        public static final int TYPE_LIST = 9;
+        /**
+         * Compact type of structs.
+         */
+        public static final int TYPE_STRUCT = 12;
+        /**
+         * The encoded bytes.
+         */
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        /**
+         * The id of the last field written in the current struct.
+         */
+        private int lastFieldId = 0;
+        /**
+         * The ids of the last fields written in the enclosing structs.
+         */
+        private final ArrayList<Integer> lastFieldIds = new ArrayList<Integer>();
+
+        /**
+         * Starts a struct which is an element of a list.
+         */
+        public void writeStructBegin() {
+            lastFieldIds.add(lastFieldId);
+            lastFieldId = 0;
+        }
+
+        /**
+         * Starts a struct field.
+         *
+         * @param fieldId the id of the field
+         */
+        public void writeStructFieldBegin(int fieldId) {
+            writeFieldHeader(fieldId, TYPE_STRUCT);
+            writeStructBegin();
+        }
+
+        /**
+         * Ends the current struct.
+         */
+        public void writeStructEnd() {
+            bytes.write(0);
+            if (!lastFieldIds.isEmpty()) {
+                lastFieldId = lastFieldIds.remove(lastFieldIds.size() - 1);
+            }
+        }
+
+        /**
+         * Writes a 32 bits integer field.
+         *
+         * @param fieldId the id of the field
+         * @param value the value
+         */
+        public void writeI32Field(int fieldId, int value) {
+            writeFieldHeader(fieldId, TYPE_I32);
+            writeI32(value);
+        }
+
+        /**
+         * Writes a 64 bits integer field.
+         *
+         * @param fieldId the id of the field
+         * @param value the value
+         */
+        public void writeI64Field(int fieldId, long value) {
+            writeFieldHeader(fieldId, TYPE_I64);
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Writes a string field.
+         *
+         * @param fieldId the id of the field
+         * @param value the value
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while encoding the string
+         */
+        public void writeStringField(int fieldId, String value) throws IOException {
+            writeFieldHeader(fieldId, TYPE_BINARY);
+            writeString(value);
+        }
+
+        /**
+         * Starts a list field. The elements must be written right after.
+         *
+         * @param fieldId the id of the field
+         * @param elementType the compact type of the elements
+         * @param size the number of elements
+         */
+        public void writeListFieldBegin(int fieldId, int elementType, int size) {
+            writeFieldHeader(fieldId, TYPE_LIST);
+            if (size < 15) {
+                bytes.write((size << 4) | elementType);
+            } else {
+                bytes.write(0xF0 | elementType);
+                writeVarint(size);
+            }
+        }
+
+        /**
+         * Writes a 32 bits integer.
+         *
+         * @param value the value
+         */
+        public void writeI32(int value) {
+            writeVarint(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+        }
+
+        /**
+         * Writes a string.
+         *
+         * @param value the value
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while encoding the string
+         */
+        public void writeString(String value) throws IOException {
+            byte[] stringBytes = value.getBytes("UTF-8");
+            writeVarint(stringBytes.length);
+            bytes.write(stringBytes);
+        }
+
+        /**
+         * Returns the encoded bytes.
+         *
+         * @return the encoded bytes
+         */
+        public byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Writes the header of a field.
+         *
+         * @param fieldId the id of the field
+         * @param type the compact type of the field
+         */
+        private void writeFieldHeader(int fieldId, int type) {
+            int delta = fieldId - lastFieldId;
+            if (delta > 0 && delta <= 15) {
+                bytes.write((delta << 4) | type);
+            } else {
+                bytes.write(type);
+                writeVarint((fieldId << 1) ^ (fieldId >> 31));
+            }
+            lastFieldId = fieldId;
+        }
+
+        /**
+         * Writes an unsigned variable length integer.
+         *
+         * @param value the value
+         */
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                bytes.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            bytes.write((int) value);
+        }
+    }
+}
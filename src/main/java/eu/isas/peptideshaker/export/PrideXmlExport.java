@@ -93,9 +93,10 @@ public class PrideXmlExport {
      */
     private Instrument instrument;
     /**
-     * The fileWriter.
+     * The writer sending the text to the file, possibly through a compressed
+     * stream.
      */
-    private FileWriter r;
+    private Writer r;
     /**
      * The buffered writer which will write the results in the desired file.
      */
@@ -210,6 +211,52 @@ public class PrideXmlExport {
             String experimentTitle, String experimentLabel, String experimentDescription, String experimentProject,
             ReferenceGroup referenceGroup, ContactGroup contactGroup, Sample sample, Protocol protocol, Instrument instrument,
             File outputFolder, String fileName, WaitingHandler waitingHandler) throws FileNotFoundException, IOException, ClassNotFoundException {
+        this(peptideShakerVersion, identification, projectDetails, shotgunProtocol, identificationParameters, spectrumCountingPreferences, identificationFeaturesGenerator,
+                spectrumAnnotator, experimentTitle, experimentLabel, experimentDescription, experimentProject, referenceGroup, contactGroup, sample, protocol, instrument,
+                outputFolder, fileName, false, 1, waitingHandler);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param peptideShakerVersion the PeptideShaker version
+     * @param identification the identification object which can be used to
+     * retrieve identification matches and parameters
+     * @param projectDetails the project details
+     * @param shotgunProtocol information on the protocol
+     * @param identificationParameters the identification parameters
+     * @param experimentTitle Title of the experiment
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param spectrumAnnotator the spectrum annotator to use
+     * @param experimentLabel Label of the experiment
+     * @param experimentDescription Description of the experiment
+     * @param experimentProject project of the experiment
+     * @param referenceGroup References for the experiment
+     * @param contactGroup Contacts for the experiment
+     * @param sample Samples in this experiment
+     * @param protocol Protocol used in this experiment
+     * @param instrument Instruments used in this experiment
+     * @param outputFolder Output folder
+     * @param fileName the file name without extension
+     * @param gzip if true the output is compressed in the gzip format
+     * @param nThreads the number of threads to use for the compression
+     * @param waitingHandler waiting handler used to display progress to the
+     * user and interrupt the process
+     *
+     * @throws FileNotFoundException Exception thrown whenever a file was not
+     * found
+     * @throws IOException Exception thrown whenever an error occurred while
+     * reading/writing a file
+     * @throws ClassNotFoundException Exception thrown whenever an error
+     * occurred while deserializing a pride object
+     */
+    public PrideXmlExport(String peptideShakerVersion, Identification identification, ProjectDetails projectDetails, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
+            SpectrumCountingPreferences spectrumCountingPreferences, IdentificationFeaturesGenerator identificationFeaturesGenerator, PeptideSpectrumAnnotator spectrumAnnotator,
+            String experimentTitle, String experimentLabel, String experimentDescription, String experimentProject,
+            ReferenceGroup referenceGroup, ContactGroup contactGroup, Sample sample, Protocol protocol, Instrument instrument,
+            File outputFolder, String fileName, boolean gzip, int nThreads, WaitingHandler waitingHandler) throws FileNotFoundException, IOException, ClassNotFoundException {
         this.peptideShakerVersion = peptideShakerVersion;
         this.identification = identification;
         this.projectDetails = projectDetails;
@@ -230,7 +277,13 @@ public class PrideXmlExport {
         this.waitingHandler = waitingHandler;
         PrideObjectsFactory prideObjectsFactory = PrideObjectsFactory.getInstance();
         ptmToPrideMap = prideObjectsFactory.getPtmToPrideMap();
-        r = new FileWriter(new File(outputFolder, fileName + ".xml"));
+        OutputStream outputStream;
+        if (gzip) {
+            outputStream = new ParallelGzipOutputStream(new FileOutputStream(new File(outputFolder, fileName + ".xml" + ParallelGzipOutputStream.EXTENSION)), nThreads);
+        } else {
+            outputStream = new FileOutputStream(new File(outputFolder, fileName + ".xml"));
+        }
+        r = new OutputStreamWriter(outputStream);
         br = new BufferedWriter(r);
     }
 
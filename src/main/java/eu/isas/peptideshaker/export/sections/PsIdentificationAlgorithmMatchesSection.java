@@ -21,7 +21,6 @@ import com.compomics.util.experiment.identification.tags.Tag;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
-import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.io.export.ExportFeature;
 import com.compomics.util.io.export.ExportWriter;
 import com.compomics.util.preferences.AnnotationPreferences;
@@ -66,9 +65,9 @@ public class PsIdentificationAlgorithmMatchesSection {
      */
     private ExportWriter writer;
     /**
-     * A peptide spectrum annotator.
+     * The peptide spectrum annotator used when writing the section.
      */
-    private static final PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+    private final PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
 
     /**
      * Constructor.
@@ -197,6 +196,7 @@ public class PsIdentificationAlgorithmMatchesSection {
                 }
 
                 String spectrumKey = spectrumMatch.getKey();
+                PsPsmRowContext rowContext = new PsPsmRowContext(spectrumKey, peptideSpectrumAnnotator);
 
                 HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
 
@@ -231,11 +231,11 @@ public class PsIdentificationAlgorithmMatchesSection {
                                     PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
                                     feature = getPeptideAssumptionFeature(identification, identificationFeaturesGenerator,
                                             shotgunProtocol, identificationParameters, keys, linePrefix,
-                                            peptideAssumption, spectrumKey, psParameter, identificationAlgorithmMatchesFeature, waitingHandler);
+                                            peptideAssumption, rowContext, psParameter, identificationAlgorithmMatchesFeature, waitingHandler);
                                 } else if (assumption instanceof TagAssumption) {
                                     TagAssumption tagAssumption = (TagAssumption) assumption;
                                     feature = getTagAssumptionFeature(identification, identificationFeaturesGenerator, shotgunProtocol,
-                                            identificationParameters, keys, linePrefix, tagAssumption, spectrumKey, psParameter,
+                                            identificationParameters, keys, linePrefix, tagAssumption, rowContext, psParameter,
                                             identificationAlgorithmMatchesFeature, waitingHandler);
                                 } else {
                                     throw new IllegalArgumentException("Spectrum identification assumption of type " + assumption.getClass() + " not supported.");
@@ -343,6 +343,47 @@ public class PsIdentificationAlgorithmMatchesSection {
             PeptideAssumption peptideAssumption, String spectrumKey, PSParameter psParameter, PsIdentificationAlgorithmMatchesFeature exportFeature,
             WaitingHandler waitingHandler) throws IOException, IllegalArgumentException, SQLException,
             ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        return getPeptideAssumptionFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix,
+                peptideAssumption, new PsPsmRowContext(spectrumKey), psParameter, exportFeature, waitingHandler);
+    }
+
+    /**
+     * Writes the feature associated to the match of the given peptide
+     * assumption.
+     *
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param shotgunProtocol information on the shotgun protocol
+     * @param identificationParameters the identification parameters
+     * @param keys the keys of the PSM matches to output
+     * @param linePrefix the line prefix
+     * @param peptideAssumption the assumption for the match to inspect
+     * @param rowContext the objects shared by the columns of the line
+     * @param psParameter the PeptideShaker parameter of the match
+     * @param exportFeature the feature to export
+     * @param waitingHandler the waiting handler
+     *
+     * @return the content corresponding to the given feature of the current
+     * section
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     * @throws IllegalArgumentException thrown if an IllegalArgumentException
+     * occurs
+     * @throws SQLException thrown if a SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    public static String getPeptideAssumptionFeature(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, String linePrefix,
+            PeptideAssumption peptideAssumption, PsPsmRowContext rowContext, PSParameter psParameter, PsIdentificationAlgorithmMatchesFeature exportFeature,
+            WaitingHandler waitingHandler) throws IOException, IllegalArgumentException, SQLException,
+            ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+
+        String spectrumKey = rowContext.getSpectrumKey();
 
         switch (exportFeature) {
             case rank:
@@ -395,7 +436,7 @@ public class PsIdentificationAlgorithmMatchesSection {
                 return result.toString();
             case accessions:
                 result = new StringBuilder();
-                ArrayList<String> accessions = peptideAssumption.getPeptide().getParentProteins(identificationParameters.getSequenceMatchingPreferences());
+                ArrayList<String> accessions = rowContext.getParentProteins(peptideAssumption.getPeptide(), identificationParameters.getSequenceMatchingPreferences());
                 for (String accession : accessions) {
                     if (result.length() > 0) {
                         result.append(", ");
@@ -406,7 +447,7 @@ public class PsIdentificationAlgorithmMatchesSection {
             case protein_description:
                 SequenceFactory sequenceFactory = SequenceFactory.getInstance();
                 StringBuilder descriptions = new StringBuilder();
-                accessions = peptideAssumption.getPeptide().getParentProteins(identificationParameters.getSequenceMatchingPreferences());
+                accessions = rowContext.getParentProteins(peptideAssumption.getPeptide(), identificationParameters.getSequenceMatchingPreferences());
                 Collections.sort(accessions);
                 for (String accession : accessions) {
                     if (descriptions.length() > 0) {
@@ -446,39 +487,36 @@ public class PsIdentificationAlgorithmMatchesSection {
             case identification_charge:
                 return peptideAssumption.getIdentificationCharge().toString();
             case isotope:
-                Precursor precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
+                Precursor precursor = rowContext.getPrecursor();
                 return peptideAssumption.getIsotopeNumber(precursor.getMz()) + "";
             case mz:
-                precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
+                precursor = rowContext.getPrecursor();
                 return precursor.getMz() + "";
             case total_spectrum_intensity:
-                Spectrum spectrum = SpectrumFactory.getInstance().getSpectrum(spectrumKey);
+                Spectrum spectrum = rowContext.getSpectrum();
                 return spectrum.getTotalIntensity() + "";
             case max_intensity:
-                spectrum = SpectrumFactory.getInstance().getSpectrum(spectrumKey);
+                spectrum = rowContext.getSpectrum();
                 return spectrum.getMaxIntensity() + "";
             case intensity_coverage:
-                spectrum = SpectrumFactory.getInstance().getSpectrum(spectrumKey);
+                spectrum = rowContext.getSpectrum();
                 double coveredIntensity = 0;
                 Peptide peptide = peptideAssumption.getPeptide();
                 AnnotationPreferences annotationPreferences = identificationParameters.getAnnotationPreferences();
-                ArrayList<IonMatch> matches = peptideSpectrumAnnotator.getSpectrumAnnotation(
-                        annotationPreferences.getIonTypes(), annotationPreferences.getNeutralLosses(), annotationPreferences.getValidatedCharges(),
-                        peptideAssumption.getIdentificationCharge().value,
-                        (MSnSpectrum) spectrum, peptide, 0, annotationPreferences.getFragmentIonAccuracy(), false, true);
+                ArrayList<IonMatch> matches = rowContext.getSpectrumAnnotation(peptideAssumption, annotationPreferences);
                 for (IonMatch ionMatch : matches) {
                     coveredIntensity += ionMatch.peak.intensity;
                 }
                 double coverage = 100 * coveredIntensity / spectrum.getTotalIntensity();
                 return coverage + "";
             case mz_error_ppm:
-                precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
+                precursor = rowContext.getPrecursor();
                 return peptideAssumption.getDeltaMass(precursor.getMz(), true) + "";
             case mz_error_da:
-                precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
+                precursor = rowContext.getPrecursor();
                 return peptideAssumption.getDeltaMass(precursor.getMz(), false) + "";
             case rt:
-                precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
+                precursor = rowContext.getPrecursor();
                 return precursor.getRt() + "";
             case algorithm_score:
                 int id = peptideAssumption.getAdvocate();
@@ -492,13 +530,13 @@ public class PsIdentificationAlgorithmMatchesSection {
             case modified_sequence:
                 return peptideAssumption.getPeptide().getTaggedModifiedSequence(identificationParameters.getSearchParameters().getModificationProfile(), false, false, true) + "";
             case spectrum_charge:
-                precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
+                precursor = rowContext.getPrecursor();
                 return precursor.getPossibleChargesAsString() + "";
             case spectrum_file:
                 String spectrumFile = Spectrum.getSpectrumFile(spectrumKey);
                 return spectrumFile;
             case spectrum_scan_number:
-                return SpectrumFactory.getInstance().getSpectrum(spectrumKey).getScanNumber();
+                return rowContext.getSpectrum().getScanNumber();
             case spectrum_title:
                 return Spectrum.getSpectrumTitle(spectrumKey);
             case starred:
@@ -514,25 +552,22 @@ public class PsIdentificationAlgorithmMatchesSection {
             case fragment_mz_accuracy_score:
                 annotationPreferences = identificationParameters.getAnnotationPreferences();
                 score = PsmScores.getDecreasingScore(peptideAssumption.getPeptide(),
-                        (MSnSpectrum) SpectrumFactory.getInstance().getSpectrum(spectrumKey),
+                        (MSnSpectrum) rowContext.getSpectrum(),
                         annotationPreferences.getIonTypes(), annotationPreferences.getNeutralLosses(), annotationPreferences.getValidatedCharges(),
                         peptideAssumption.getIdentificationCharge().value, shotgunProtocol, PsmScores.aa_ms2_mz_fidelity.index);
                 return score + "";
             case intensity_score:
                 annotationPreferences = identificationParameters.getAnnotationPreferences();
                 score = PsmScores.getDecreasingScore(peptideAssumption.getPeptide(),
-                        (MSnSpectrum) SpectrumFactory.getInstance().getSpectrum(spectrumKey),
+                        (MSnSpectrum) rowContext.getSpectrum(),
                         annotationPreferences.getIonTypes(), annotationPreferences.getNeutralLosses(), annotationPreferences.getValidatedCharges(),
                         peptideAssumption.getIdentificationCharge().value, shotgunProtocol, PsmScores.aa_intensity.index);
                 return score + "";
             case sequence_coverage:
                 peptide = peptideAssumption.getPeptide();
-                spectrum = SpectrumFactory.getInstance().getSpectrum(spectrumKey);
+                spectrum = rowContext.getSpectrum();
                 annotationPreferences = identificationParameters.getAnnotationPreferences();
-                matches = peptideSpectrumAnnotator.getSpectrumAnnotation(
-                        annotationPreferences.getIonTypes(), annotationPreferences.getNeutralLosses(), annotationPreferences.getValidatedCharges(),
-                        peptideAssumption.getIdentificationCharge().value,
-                        (MSnSpectrum) spectrum, peptide, 0, identificationParameters.getAnnotationPreferences().getFragmentIonAccuracy(), false, true);
+                matches = rowContext.getSpectrumAnnotation(peptideAssumption, annotationPreferences);
                 int sequenceLength = peptide.getSequence().length();
                 boolean[] aaCoverage = new boolean[sequenceLength];
                 for (IonMatch ionMatch : matches) {
@@ -554,10 +589,7 @@ public class PsIdentificationAlgorithmMatchesSection {
             case longest_amino_acid_sequence_annotated:
                 peptide = peptideAssumption.getPeptide();
                 annotationPreferences = identificationParameters.getAnnotationPreferences();
-                matches = peptideSpectrumAnnotator.getSpectrumAnnotation(
-                        annotationPreferences.getIonTypes(), annotationPreferences.getNeutralLosses(), annotationPreferences.getValidatedCharges(),
-                        peptideAssumption.getIdentificationCharge().value,
-                        (MSnSpectrum) SpectrumFactory.getInstance().getSpectrum(spectrumKey), peptide, 0, annotationPreferences.getFragmentIonAccuracy(), false, true);
+                matches = rowContext.getSpectrumAnnotation(peptideAssumption, annotationPreferences);
                 sequence = peptide.getSequence();
                 sequenceLength = sequence.length();
                 boolean[] coverageForward = new boolean[sequenceLength];
@@ -612,10 +644,7 @@ public class PsIdentificationAlgorithmMatchesSection {
             case longest_amino_acid_sequence_annotated_single_serie:
                 peptide = peptideAssumption.getPeptide();
                 annotationPreferences = identificationParameters.getAnnotationPreferences();
-                matches = peptideSpectrumAnnotator.getSpectrumAnnotation(
-                        annotationPreferences.getIonTypes(), annotationPreferences.getNeutralLosses(), annotationPreferences.getValidatedCharges(),
-                        peptideAssumption.getIdentificationCharge().value,
-                        (MSnSpectrum) SpectrumFactory.getInstance().getSpectrum(spectrumKey), peptide, 0, annotationPreferences.getFragmentIonAccuracy(), false, true);
+                matches = rowContext.getSpectrumAnnotation(peptideAssumption, annotationPreferences);
                 sequence = peptide.getSequence();
                 sequenceLength = sequence.length();
                 HashMap<Integer, boolean[]> ionCoverage = new HashMap<Integer, boolean[]>(6);
@@ -754,12 +783,9 @@ public class PsIdentificationAlgorithmMatchesSection {
                 return longestTag;
             case amino_acids_annotated:
                 peptide = peptideAssumption.getPeptide();
-                spectrum = SpectrumFactory.getInstance().getSpectrum(spectrumKey);
+                spectrum = rowContext.getSpectrum();
                 annotationPreferences = identificationParameters.getAnnotationPreferences();
-                matches = peptideSpectrumAnnotator.getSpectrumAnnotation(
-                        annotationPreferences.getIonTypes(), annotationPreferences.getNeutralLosses(), annotationPreferences.getValidatedCharges(),
-                        peptideAssumption.getIdentificationCharge().value,
-                        (MSnSpectrum) spectrum, peptide, 0, annotationPreferences.getFragmentIonAccuracy(), false, true);
+                matches = rowContext.getSpectrumAnnotation(peptideAssumption, annotationPreferences);
                 sequence = peptide.getSequence();
                 sequenceLength = sequence.length();
                 coverageForward = new boolean[sequenceLength];
@@ -850,6 +876,45 @@ public class PsIdentificationAlgorithmMatchesSection {
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, String linePrefix,
             TagAssumption tagAssumption, String spectrumKey, PSParameter psParameter, PsIdentificationAlgorithmMatchesFeature exportFeature,
             WaitingHandler waitingHandler) throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        return getTagAssumptionFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix,
+                tagAssumption, new PsPsmRowContext(spectrumKey), psParameter, exportFeature, waitingHandler);
+    }
+
+    /**
+     * Writes the feature associated to the match of the given tag assumption.
+     *
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param shotgunProtocol information on the protocol
+     * @param identificationParameters the identification parameters
+     * @param keys the keys of the PSM matches to output
+     * @param linePrefix the line prefix
+     * @param rowContext the objects shared by the columns of the line
+     * @param tagAssumption the assumption for the match to inspect
+     * @param psParameter the PeptideShaker parameter of the match
+     * @param exportFeature the feature to export
+     * @param waitingHandler the waiting handler
+     *
+     * @return the content corresponding to the given feature of the current
+     * section
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     * @throws IllegalArgumentException thrown if an IllegalArgumentException
+     * occurs
+     * @throws SQLException thrown if a SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    public static String getTagAssumptionFeature(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, String linePrefix,
+            TagAssumption tagAssumption, PsPsmRowContext rowContext, PSParameter psParameter, PsIdentificationAlgorithmMatchesFeature exportFeature,
+            WaitingHandler waitingHandler) throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+
+        String spectrumKey = rowContext.getSpectrumKey();
 
         switch (exportFeature) {
             case rank:
@@ -875,22 +940,22 @@ public class PsIdentificationAlgorithmMatchesSection {
             case identification_charge:
                 return tagAssumption.getIdentificationCharge().toString();
             case isotope:
-                Precursor precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
+                Precursor precursor = rowContext.getPrecursor();
                 return tagAssumption.getIsotopeNumber(precursor.getMz()) + "";
             case mz:
-                precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
+                precursor = rowContext.getPrecursor();
                 return precursor.getMz() + "";
             case total_spectrum_intensity:
-                Spectrum spectrum = SpectrumFactory.getInstance().getSpectrum(spectrumKey);
+                Spectrum spectrum = rowContext.getSpectrum();
                 return spectrum.getTotalIntensity() + "";
             case max_intensity:
-                spectrum = SpectrumFactory.getInstance().getSpectrum(spectrumKey);
+                spectrum = rowContext.getSpectrum();
                 return spectrum.getMaxIntensity() + "";
             case mz_error_ppm:
-                precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
+                precursor = rowContext.getPrecursor();
                 return tagAssumption.getDeltaMass(precursor.getMz(), true) + "";
             case rt:
-                precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
+                precursor = rowContext.getPrecursor();
                 return precursor.getRt() + "";
             case algorithm_score:
                 int id = tagAssumption.getAdvocate();
@@ -903,13 +968,13 @@ public class PsIdentificationAlgorithmMatchesSection {
             case modified_sequence:
                 return tagAssumption.getTag().getTaggedModifiedSequence(identificationParameters.getSearchParameters().getModificationProfile(), false, false, true, false);
             case spectrum_charge:
-                precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
+                precursor = rowContext.getPrecursor();
                 return precursor.getPossibleChargesAsString() + "";
             case spectrum_file:
                 String spectrumFile = Spectrum.getSpectrumFile(spectrumKey);
                 return spectrumFile;
             case spectrum_scan_number:
-                return SpectrumFactory.getInstance().getSpectrum(spectrumKey).getScanNumber();
+                return rowContext.getSpectrum().getScanNumber();
             case spectrum_title:
                 return Spectrum.getSpectrumTitle(spectrumKey);
             case starred:
@@ -14,6 +14,7 @@ import com.compomics.util.preferences.ModificationProfile;
 import com.compomics.util.io.export.ExportFeature;
 import com.compomics.util.io.export.ExportWriter;
 import com.compomics.util.preferences.IdentificationParameters;
+import eu.isas.peptideshaker.export.ParquetExportWriter;
 import eu.isas.peptideshaker.export.exportfeatures.PsFragmentFeature;
 import eu.isas.peptideshaker.export.exportfeatures.PsIdentificationAlgorithmMatchesFeature;
 import eu.isas.peptideshaker.export.exportfeatures.PsPeptideFeature;
@@ -56,6 +57,11 @@ public class PsPeptideSection {
      * The writer used to send the output to file.
      */
     private ExportWriter writer;
+    /**
+     * The parquet writer used instead of the export writer when the section
+     * is exported in the parquet format, null otherwise.
+     */
+    private ParquetExportWriter parquetWriter = null;
 
     /**
      * Constructor.
@@ -85,6 +91,19 @@ public class PsPeptideSection {
         this.writer = writer;
     }
 
+    /**
+     * Constructor for an export in the parquet format. The PSM and fragment
+     * features cannot be flattened in the peptide table and are ignored.
+     *
+     * @param exportFeatures the features to export in this section
+     * @param parquetWriter the parquet writer which will write to the file
+     */
+    public PsPeptideSection(ArrayList<ExportFeature> exportFeatures, ParquetExportWriter parquetWriter) {
+        this(exportFeatures, false, true, null);
+        psmSection = null;
+        this.parquetWriter = parquetWriter;
+    }
+
     /**
      * Writes the desired section.
      *
@@ -166,26 +185,12 @@ public class PsPeptideSection {
 
                 if (decoys || !peptideMatch.getTheoreticPeptide().isDecoy(identificationParameters.getSequenceMatchingPreferences())) {
 
-                    boolean first = true;
-
-                    if (indexes) {
-                        if (linePrefix != null) {
-                            writer.write(linePrefix);
-                        }
-                        writer.write(line + "");
-                        first = false;
+                    ArrayList<String> row = new ArrayList<String>(peptideFeatures.size());
+                    for (PsPeptideFeature peptideFeature : peptideFeatures) {
+                        row.add(getfeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAA, linePrefix, peptideMatch, psParameter, peptideFeature, validatedOnly, decoys, waitingHandler));
                     }
+                    writeRow(row, linePrefix, line);
 
-                    for (ExportFeature exportFeature : peptideFeatures) {
-                        if (!first) {
-                            writer.addSeparator();
-                        } else {
-                            first = false;
-                        }
-                        PsPeptideFeature peptideFeature = (PsPeptideFeature) exportFeature;
-                        writer.write(getfeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAA, linePrefix, peptideMatch, psParameter, peptideFeature, validatedOnly, decoys, waitingHandler));
-                    }
-                    writer.newLine();
                     if (psmSection != null) {
                         String psmSectionPrefix = "";
                         if (linePrefix != null) {
@@ -208,6 +213,43 @@ public class PsPeptideSection {
         }
     }
 
+    /**
+     * Writes a line of the section.
+     *
+     * @param row the features of the line
+     * @param linePrefix the line prefix
+     * @param line the index of the line
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeRow(ArrayList<String> row, String linePrefix, int line) throws IOException {
+
+        if (parquetWriter != null) {
+            parquetWriter.writeRow(row);
+            return;
+        }
+
+        boolean first = true;
+
+        if (indexes) {
+            if (linePrefix != null) {
+                writer.write(linePrefix);
+            }
+            writer.write(line + "");
+            first = false;
+        }
+        for (String feature : row) {
+            if (!first) {
+                writer.addSeparator();
+            } else {
+                first = false;
+            }
+            writer.write(feature);
+        }
+        writer.newLine();
+    }
+
     /**
      * Returns the component of the section corresponding to the given feature.
      *
@@ -607,6 +649,14 @@ public class PsPeptideSection {
      * writing the file
      */
     public void writeHeader() throws IOException {
+        if (parquetWriter != null) {
+            ArrayList<String> columnNames = new ArrayList<String>();
+            for (ExportFeature exportFeature : peptideFeatures) {
+                columnNames.add(exportFeature.getTitle());
+            }
+            parquetWriter.setColumnNames(columnNames);
+            return;
+        }
         if (indexes) {
             writer.writeHeaderText("");
             writer.addSeparator();
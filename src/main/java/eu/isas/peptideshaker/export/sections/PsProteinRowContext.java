@@ -0,0 +1,136 @@
+package eu.isas.peptideshaker.export.sections;
+
+import com.compomics.util.experiment.annotation.gene.GeneFactory;
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.SequenceFactory;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.protein.Header;
+import eu.isas.peptideshaker.myparameters.PSParameter;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * The objects needed by the different columns of a line of a protein level
+ * export. The objects are loaded when first needed and reused for the other
+ * columns of the line.
+ */
+public class PsProteinRowContext {
+
+    /**
+     * The key of the protein match.
+     */
+    private final String proteinKey;
+    /**
+     * The protein match.
+     */
+    private final ProteinMatch proteinMatch;
+    /**
+     * The PeptideShaker parameter of the protein match.
+     */
+    private final PSParameter psParameter;
+    /**
+     * The main protein of the match.
+     */
+    private Protein protein = null;
+    /**
+     * The header of the main protein of the match.
+     */
+    private Header header = null;
+    /**
+     * Boolean indicating whether the gene name was looked up.
+     */
+    private boolean geneNameLoaded = false;
+    /**
+     * The gene name of the main protein of the match, null if not found.
+     */
+    private String geneName = null;
+
+    /**
+     * Constructor.
+     *
+     * @param proteinKey the key of the protein match
+     * @param proteinMatch the protein match, can be null if not needed
+     * @param psParameter the PeptideShaker parameter of the protein match,
+     * can be null if not needed
+     */
+    public PsProteinRowContext(String proteinKey, ProteinMatch proteinMatch, PSParameter psParameter) {
+        this.proteinKey = proteinKey;
+        this.proteinMatch = proteinMatch;
+        this.psParameter = psParameter;
+    }
+
+    /**
+     * Returns the key of the protein match.
+     *
+     * @return the key of the protein match
+     */
+    public String getProteinKey() {
+        return proteinKey;
+    }
+
+    /**
+     * Returns the PeptideShaker parameter of the protein match.
+     *
+     * @return the PeptideShaker parameter of the protein match
+     */
+    public PSParameter getPsParameter() {
+        return psParameter;
+    }
+
+    /**
+     * Returns the protein match.
+     *
+     * @return the protein match
+     */
+    public ProteinMatch getProteinMatch() {
+        return proteinMatch;
+    }
+
+    /**
+     * Returns the main protein of the match.
+     *
+     * @return the main protein of the match
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     */
+    public Protein getProtein() throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        if (protein == null) {
+            protein = SequenceFactory.getInstance().getProtein(proteinMatch.getMainMatch());
+        }
+        return protein;
+    }
+
+    /**
+     * Returns the header of the main protein of the match.
+     *
+     * @return the header of the main protein of the match
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     */
+    public Header getHeader() throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        if (header == null) {
+            header = SequenceFactory.getInstance().getHeader(proteinMatch.getMainMatch());
+        }
+        return header;
+    }
+
+    /**
+     * Returns the gene name of the main protein of the match, null if not
+     * found.
+     *
+     * @return the gene name of the main protein of the match
+     */
+    public String getGeneName() {
+        if (!geneNameLoaded) {
+            geneName = GeneFactory.getInstance().getGeneNameForUniProtProtein(proteinMatch.getMainMatch());
+            geneNameLoaded = true;
+        }
+        return geneName;
+    }
+}
@@ -4,7 +4,6 @@ import com.compomics.util.Util;
 import com.compomics.util.experiment.ShotgunProtocol;
 import com.compomics.util.experiment.annotation.gene.GeneFactory;
 import com.compomics.util.experiment.annotation.go.GOFactory;
-import com.compomics.util.experiment.biology.Protein;
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.SequenceFactory;
 import com.compomics.util.experiment.identification.matches.ProteinMatch;
@@ -14,6 +13,8 @@ import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.io.export.ExportFeature;
 import com.compomics.util.io.export.ExportWriter;
 import com.compomics.util.preferences.IdentificationParameters;
+import eu.isas.peptideshaker.PeptideShaker;
+import eu.isas.peptideshaker.export.ParquetExportWriter;
 import eu.isas.peptideshaker.export.exportfeatures.PsFragmentFeature;
 import eu.isas.peptideshaker.export.exportfeatures.PsIdentificationAlgorithmMatchesFeature;
 import eu.isas.peptideshaker.export.exportfeatures.PsPeptideFeature;
@@ -29,7 +30,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.util.FastMath;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
@@ -62,6 +69,11 @@ public class PsProteinSection {
      * The writer used to send the output to file.
      */
     private ExportWriter writer;
+    /**
+     * The parquet writer used instead of the export writer when the section
+     * is exported in the parquet format, null otherwise.
+     */
+    private ParquetExportWriter parquetWriter = null;
 
     /**
      * Constructor.
@@ -93,6 +105,20 @@ public class PsProteinSection {
         this.writer = writer;
     }
 
+    /**
+     * Constructor for an export in the parquet format. The peptide, PSM and
+     * fragment features cannot be flattened in the protein table and are
+     * ignored.
+     *
+     * @param exportFeatures the features to export in this section
+     * @param parquetWriter the parquet writer which will write to the file
+     */
+    public PsProteinSection(ArrayList<ExportFeature> exportFeatures, ParquetExportWriter parquetWriter) {
+        this(exportFeatures, false, true, null);
+        peptideSection = null;
+        this.parquetWriter = parquetWriter;
+    }
+
     /**
      * Writes the desired section.
      *
@@ -125,6 +151,46 @@ public class PsProteinSection {
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys,
             int nSurroundingAas, boolean validatedOnly, boolean decoys, WaitingHandler waitingHandler)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+        writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAas, validatedOnly, decoys, 1, waitingHandler);
+    }
+
+    /**
+     * Writes the desired section. When using multiple threads, the lines are
+     * computed in chunks by the different threads and written in order. The
+     * threads share the identification features generator, which supports
+     * concurrent access to the features of the matches. The peptide subsection
+     * is always written using a single thread.
+     *
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param shotgunProtocol information on the shotgun protocol
+     * @param identificationParameters the identification parameters
+     * @param keys the keys of the protein matches to output. if null all
+     * proteins will be exported.
+     * @param nSurroundingAas in case a peptide export is included with
+     * surrounding amino-acids, the number of surrounding amino acids to use
+     * @param validatedOnly whether only validated matches should be exported
+     * @param decoys whether decoy matches should be exported as well
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     * @throws IllegalArgumentException thrown if an IllegalArgumentException
+     * occurs
+     * @throws SQLException thrown if a SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     * @throws org.apache.commons.math.MathException thrown if an MathException
+     * occurs
+     */
+    public void writeSection(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys,
+            int nSurroundingAas, boolean validatedOnly, boolean decoys, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
 
         if (waitingHandler != null) {
             waitingHandler.setSecondaryProgressCounterIndeterminate(true);
@@ -151,62 +217,204 @@ public class PsProteinSection {
         ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(
                 keys, parameters, peptideSection != null, parameters, peptideSection != null, parameters, waitingHandler); // @TODO: find a better way to know if we need psms
 
-        while (proteinMatchesIterator.hasNext()) {
+        ArrayList<ProteinColumn> columns = compileColumns(identificationFeaturesGenerator, shotgunProtocol, identificationParameters);
 
-            if (waitingHandler != null) {
-                if (waitingHandler.isRunCanceled()) {
-                    return;
+        ExecutorService pool = null;
+        LinkedList<Future<ArrayList<ArrayList<String>>>> pendingChunks = null;
+        ArrayList<ProteinMatch> chunk = null;
+        if (nThreads > 1 && peptideSection == null) {
+            pool = Executors.newFixedThreadPool(nThreads);
+            pendingChunks = new LinkedList<Future<ArrayList<ArrayList<String>>>>();
+            chunk = new ArrayList<ProteinMatch>(PeptideShaker.PARALLEL_CHUNK_SIZE);
+        }
+
+        try {
+            while (proteinMatchesIterator.hasNext()) {
+
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+
+                if (waitingHandler != null) {
+                    waitingHandler.setDisplayProgress(false);
+                }
+                ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                if (waitingHandler != null) {
+                    waitingHandler.setDisplayProgress(true);
+                }
+
+                if (pool != null) {
+
+                    chunk.add(proteinMatch);
+
+                    if (chunk.size() == PeptideShaker.PARALLEL_CHUNK_SIZE) {
+                        pendingChunks.add(pool.submit(new ProteinRowsCallable(chunk, identification, columns, validatedOnly, decoys, waitingHandler)));
+                        chunk = new ArrayList<ProteinMatch>(PeptideShaker.PARALLEL_CHUNK_SIZE);
+                        if (pendingChunks.size() >= 2 * nThreads) {
+                            line = writeRows(getChunk(pendingChunks.removeFirst()), line);
+                        }
+                    }
+
+                } else {
+
+                    ArrayList<String> row = getRow(identification, columns, proteinMatch, psParameter, validatedOnly, decoys);
+
+                    if (row != null) {
+                        writeRow(row, line);
+                        if (peptideSection != null) {
+                            writer.increaseDepth();
+                            if (waitingHandler != null) {
+                                waitingHandler.setDisplayProgress(false);
+                            }
+                            peptideSection.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, proteinMatch.getPeptideMatchesKeys(), nSurroundingAas, line + ".", validatedOnly, decoys, waitingHandler);
+                            if (waitingHandler != null) {
+                                waitingHandler.setDisplayProgress(true);
+                            }
+                            writer.decreseDepth();
+                        }
+                        line++;
+                    }
                 }
-                waitingHandler.increaseSecondaryProgressCounter();
             }
 
-            if (waitingHandler != null) {
-                waitingHandler.setDisplayProgress(false);
+            if (pool != null) {
+                if (!chunk.isEmpty()) {
+                    pendingChunks.add(pool.submit(new ProteinRowsCallable(chunk, identification, columns, validatedOnly, decoys, waitingHandler)));
+                }
+                while (!pendingChunks.isEmpty()) {
+                    line = writeRows(getChunk(pendingChunks.removeFirst()), line);
+                }
             }
-            ProteinMatch proteinMatch = proteinMatchesIterator.next();
-            if (waitingHandler != null) {
-                waitingHandler.setDisplayProgress(true);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
             }
+        }
+    }
 
-            String proteinKey = proteinMatch.getKey();
+    /**
+     * Returns the features of the line corresponding to the given protein
+     * match, null if the match shall not be exported.
+     *
+     * @param identification the identification of the project
+     * @param columns the compiled columns of the section
+     * @param proteinMatch the protein match
+     * @param psParameter a PeptideShaker parameter used to retrieve the one of
+     * the match
+     * @param validatedOnly whether only validated matches should be exported
+     * @param decoys whether decoy matches should be exported as well
+     *
+     * @return the features of the line
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a file
+     * @throws IllegalArgumentException thrown if an IllegalArgumentException
+     * occurs
+     * @throws SQLException thrown if a SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     * @throws org.apache.commons.math.MathException thrown if an MathException
+     * occurs
+     */
+    private ArrayList<String> getRow(Identification identification, ArrayList<ProteinColumn> columns,
+            ProteinMatch proteinMatch, PSParameter psParameter, boolean validatedOnly, boolean decoys)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
 
-            if (decoys || !ProteinMatch.isDecoy(proteinKey)) {
+        String proteinKey = proteinMatch.getKey();
 
-                psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+        if (!decoys && ProteinMatch.isDecoy(proteinKey)) {
+            return null;
+        }
 
-                if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
 
-                    boolean first = true;
+        if (validatedOnly && !psParameter.getMatchValidationLevel().isValidated()) {
+            return null;
+        }
 
-                    if (indexes) {
-                        writer.write(line + "");
-                        first = false;
-                    }
+        ArrayList<String> row = new ArrayList<String>(columns.size());
+        PsProteinRowContext rowContext = new PsProteinRowContext(proteinKey, proteinMatch, psParameter);
+        for (ProteinColumn column : columns) {
+            row.add(column.getValue(rowContext));
+        }
+        return row;
+    }
 
-                    for (ExportFeature exportFeature : proteinFeatures) {
-                        if (!first) {
-                            writer.addSeparator();
-                        } else {
-                            first = false;
-                        }
-                        PsProteinFeature tempProteinFeatures = (PsProteinFeature) exportFeature;
-                        writer.write(getFeature(identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, nSurroundingAas, proteinKey, proteinMatch, psParameter, tempProteinFeatures, waitingHandler));
-                    }
-                    writer.newLine();
-                    if (peptideSection != null) {
-                        writer.increaseDepth();
-                        if (waitingHandler != null) {
-                            waitingHandler.setDisplayProgress(false);
-                        }
-                        peptideSection.writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, proteinMatch.getPeptideMatchesKeys(), nSurroundingAas, line + ".", validatedOnly, decoys, waitingHandler);
-                        if (waitingHandler != null) {
-                            waitingHandler.setDisplayProgress(true);
-                        }
-                        writer.decreseDepth();
-                    }
-                    line++;
-                }
+    /**
+     * Writes a line.
+     *
+     * @param row the features of the line
+     * @param line the line number
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeRow(ArrayList<String> row, int line) throws IOException {
+
+        if (parquetWriter != null) {
+            parquetWriter.writeRow(row);
+            return;
+        }
+
+        boolean first = true;
+
+        if (indexes) {
+            writer.write(line + "");
+            first = false;
+        }
+        for (String feature : row) {
+            if (!first) {
+                writer.addSeparator();
+            } else {
+                first = false;
             }
+            writer.write(feature);
+        }
+        writer.newLine();
+    }
+
+    /**
+     * Writes the lines of a chunk, lines set to null are skipped.
+     *
+     * @param rows the features of the lines
+     * @param line the number of the first line
+     *
+     * @return the number of the next line
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private int writeRows(ArrayList<ArrayList<String>> rows, int line) throws IOException {
+        for (ArrayList<String> row : rows) {
+            if (row != null) {
+                writeRow(row, line);
+                line++;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Waits for a chunk of lines to be computed and returns it.
+     *
+     * @param future the future of the chunk
+     *
+     * @return the features of the lines of the chunk
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * computing the lines
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     */
+    private static ArrayList<ArrayList<String>> getChunk(Future<ArrayList<ArrayList<String>>> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("An error occurred while exporting the proteins.", e.getCause());
         }
     }
 
@@ -245,241 +453,458 @@ public class PsProteinSection {
     public static String getFeature(IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, int nSurroundingAas, String proteinKey, ProteinMatch proteinMatch, PSParameter psParameter, PsProteinFeature tempProteinFeatures, WaitingHandler waitingHandler)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+        ProteinColumn column = compileColumn(tempProteinFeatures, identificationFeaturesGenerator, shotgunProtocol, identificationParameters);
+        return column.getValue(new PsProteinRowContext(proteinKey, proteinMatch, psParameter));
+    }
 
-        switch (tempProteinFeatures) {
+    /**
+     * Compiles the columns of the protein features of this section.
+     *
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param shotgunProtocol information on the shotgun protocol
+     * @param identificationParameters the identification parameters
+     *
+     * @return the columns of the protein features in the order of the
+     * features
+     */
+    ArrayList<ProteinColumn> compileColumns(IdentificationFeaturesGenerator identificationFeaturesGenerator, ShotgunProtocol shotgunProtocol,
+            IdentificationParameters identificationParameters) {
+        ArrayList<ProteinColumn> columns = new ArrayList<ProteinColumn>(proteinFeatures.size());
+        for (PsProteinFeature proteinFeature : proteinFeatures) {
+            columns.add(compileColumn(proteinFeature, identificationFeaturesGenerator, shotgunProtocol, identificationParameters));
+        }
+        return columns;
+    }
+
+    /**
+     * Compiles the column of the given protein feature. The objects which do
+     * not depend on the line are resolved once here, the objects of the line
+     * are taken from the row context.
+     *
+     * @param proteinFeature the protein feature
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param shotgunProtocol information on the shotgun protocol
+     * @param identificationParameters the identification parameters
+     *
+     * @return the column of the feature
+     */
+    static ProteinColumn compileColumn(PsProteinFeature proteinFeature, final IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            final ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters) {
+
+        switch (proteinFeature) {
             case accession:
-                return proteinMatch.getMainMatch();
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        return rowContext.getProteinMatch().getMainMatch();
+                    }
+                };
             case protein_description:
-                return SequenceFactory.getInstance().getHeader(proteinMatch.getMainMatch()).getSimpleProteinDescription();
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        return rowContext.getHeader().getSimpleProteinDescription();
+                    }
+                };
             case ensembl_gene_id:
-                if (!proteinMatch.isDecoy()) {
-                    GeneFactory geneFactory = GeneFactory.getInstance();
-                    String geneName = geneFactory.getGeneNameForUniProtProtein(proteinMatch.getMainMatch());
-                    if (geneName != null) {
-                        String ensemblId = geneFactory.getGeneEnsemblId(geneName);
-                        if (ensemblId != null) {
-                            return ensemblId;
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        if (!rowContext.getProteinMatch().isDecoy()) {
+                            String geneName = rowContext.getGeneName();
+                            if (geneName != null) {
+                                String ensemblId = GeneFactory.getInstance().getGeneEnsemblId(geneName);
+                                if (ensemblId != null) {
+                                    return ensemblId;
+                                }
+                            }
                         }
+                        return "";
                     }
-                }
-                return "";
+                };
             case gene_name:
-                if (!proteinMatch.isDecoy()) {
-                    GeneFactory geneFactory = GeneFactory.getInstance();
-                    String geneName = geneFactory.getGeneNameForUniProtProtein(proteinMatch.getMainMatch());
-                    if (geneName != null) {
-                        return geneName;
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        if (!rowContext.getProteinMatch().isDecoy()) {
+                            String geneName = rowContext.getGeneName();
+                            if (geneName != null) {
+                                return geneName;
+                            }
+                        }
+                        return "";
                     }
-                }
-                return "";
+                };
             case chromosome:
-                if (!proteinMatch.isDecoy()) {
-                    GeneFactory geneFactory = GeneFactory.getInstance();
-                    String geneName = geneFactory.getGeneNameForUniProtProtein(proteinMatch.getMainMatch());
-                    if (geneName != null) {
-                        String chromosome = geneFactory.getChromosomeForGeneName(geneName);
-                        if (chromosome != null) {
-                            return chromosome;
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        if (!rowContext.getProteinMatch().isDecoy()) {
+                            String geneName = rowContext.getGeneName();
+                            if (geneName != null) {
+                                String chromosome = GeneFactory.getInstance().getChromosomeForGeneName(geneName);
+                                if (chromosome != null) {
+                                    return chromosome;
+                                }
+                            }
                         }
+                        return "";
                     }
-                }
-                return "";
+                };
             case go_accession:
-                StringBuilder result = new StringBuilder();
-                if (!proteinMatch.isDecoy()) {
-                    ArrayList<String> goTermaccessions = GOFactory.getInstance().getProteinGoAccessions(proteinKey);
-                    if (goTermaccessions != null) {
-                        for (String accession : goTermaccessions) {
-                            if (result.length() > 0) {
-                                result.append(", ");
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        StringBuilder result = new StringBuilder();
+                        if (!rowContext.getProteinMatch().isDecoy()) {
+                            ArrayList<String> goTermaccessions = GOFactory.getInstance().getProteinGoAccessions(rowContext.getProteinKey());
+                            if (goTermaccessions != null) {
+                                for (String accession : goTermaccessions) {
+                                    if (result.length() > 0) {
+                                        result.append(", ");
+                                    }
+                                    result.append(accession);
+                                }
                             }
-                            result.append(accession);
                         }
+                        return result.toString();
                     }
-                }
-                return result.toString();
+                };
             case go_description:
-                result = new StringBuilder();
-                if (!proteinMatch.isDecoy()) {
-                    ArrayList<String> goTermDescriptions = GOFactory.getInstance().getProteinGoDescriptions(proteinKey);
-                    if (goTermDescriptions != null) {
-                        boolean first = true;
-                        for (String description : goTermDescriptions) {
-                            if (result.length() > 0) {
-                                result.append(", ");
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        StringBuilder result = new StringBuilder();
+                        if (!rowContext.getProteinMatch().isDecoy()) {
+                            ArrayList<String> goTermDescriptions = GOFactory.getInstance().getProteinGoDescriptions(rowContext.getProteinKey());
+                            if (goTermDescriptions != null) {
+                                for (String description : goTermDescriptions) {
+                                    if (result.length() > 0) {
+                                        result.append(", ");
+                                    }
+                                    result.append(description);
+                                }
                             }
-                            result.append(description);
                         }
+                        return result.toString();
                     }
-                }
-                return result.toString();
+                };
             case other_proteins:
-                String mainAccession = proteinMatch.getMainMatch();
-                result = new StringBuilder();
-                List<String> otherAccessions = Arrays.asList(ProteinMatch.getAccessions(proteinKey));
-                Collections.sort(otherAccessions);
-                for (String accession : otherAccessions) {
-                    if (!accession.equals(mainAccession)) {
-                        if (result.length() > 0) {
-                            result.append(", ");
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        String mainAccession = rowContext.getProteinMatch().getMainMatch();
+                        StringBuilder result = new StringBuilder();
+                        List<String> otherAccessions = Arrays.asList(ProteinMatch.getAccessions(rowContext.getProteinKey()));
+                        Collections.sort(otherAccessions);
+                        for (String accession : otherAccessions) {
+                            if (!accession.equals(mainAccession)) {
+                                if (result.length() > 0) {
+                                    result.append(", ");
+                                }
+                                result.append(accession);
+                            }
                         }
-                        result.append(accession);
+                        return result.toString();
                     }
-                }
-                return result.toString();
+                };
             case protein_group:
-                StringBuilder completeProteinGroup = new StringBuilder();
-                List<String> allAccessions = Arrays.asList(ProteinMatch.getAccessions(proteinKey));
-                Collections.sort(allAccessions);
-                for (String accession : allAccessions) {
-                    if (completeProteinGroup.length() > 0) {
-                        completeProteinGroup.append(", ");
-                    }
-                    completeProteinGroup.append(accession);
-                }
-                return completeProteinGroup.toString();
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        StringBuilder completeProteinGroup = new StringBuilder();
+                        List<String> allAccessions = Arrays.asList(ProteinMatch.getAccessions(rowContext.getProteinKey()));
+                        Collections.sort(allAccessions);
+                        for (String accession : allAccessions) {
+                            if (completeProteinGroup.length() > 0) {
+                                completeProteinGroup.append(", ");
+                            }
+                            completeProteinGroup.append(accession);
+                        }
+                        return completeProteinGroup.toString();
+                    }
+                };
             case descriptions:
-                StringBuilder descriptions = new StringBuilder();
-                allAccessions = Arrays.asList(ProteinMatch.getAccessions(proteinKey));
-                Collections.sort(allAccessions);
-                for (String accession : allAccessions) {
-                    if (descriptions.length() > 0) {
-                        descriptions.append(", ");
-                    }
-                    descriptions.append(SequenceFactory.getInstance().getHeader(accession).getSimpleProteinDescription());
-                }
-                return descriptions.toString();
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        StringBuilder descriptions = new StringBuilder();
+                        List<String> allAccessions = Arrays.asList(ProteinMatch.getAccessions(rowContext.getProteinKey()));
+                        Collections.sort(allAccessions);
+                        for (String accession : allAccessions) {
+                            if (descriptions.length() > 0) {
+                                descriptions.append(", ");
+                            }
+                            descriptions.append(SequenceFactory.getInstance().getHeader(accession).getSimpleProteinDescription());
+                        }
+                        return descriptions.toString();
+                    }
+                };
             case confidence:
-                return psParameter.getProteinConfidence() + "";
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        return rowContext.getPsParameter().getProteinConfidence() + "";
+                    }
+                };
             case confident_modification_sites:
-                mainAccession = proteinMatch.getMainMatch();
-                Protein protein = SequenceFactory.getInstance().getProtein(mainAccession);
-                String sequence = protein.getSequence();
-                return identificationFeaturesGenerator.getConfidentPtmSites(proteinMatch, sequence);
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        String sequence = rowContext.getProtein().getSequence();
+                        return identificationFeaturesGenerator.getConfidentPtmSites(rowContext.getProteinMatch(), sequence);
+                    }
+                };
             case confident_modification_sites_number:
-                return identificationFeaturesGenerator.getConfidentPtmSitesNumber(proteinMatch);
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        return identificationFeaturesGenerator.getConfidentPtmSitesNumber(rowContext.getProteinMatch());
+                    }
+                };
             case ambiguous_modification_sites:
-                mainAccession = proteinMatch.getMainMatch();
-                protein = SequenceFactory.getInstance().getProtein(mainAccession);
-                sequence = protein.getSequence();
-                return identificationFeaturesGenerator.getAmbiguousPtmSites(proteinMatch, sequence);
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        String sequence = rowContext.getProtein().getSequence();
+                        return identificationFeaturesGenerator.getAmbiguousPtmSites(rowContext.getProteinMatch(), sequence);
+                    }
+                };
             case ambiguous_modification_sites_number:
-                return identificationFeaturesGenerator.getAmbiguousPtmSiteNumber(proteinMatch);
-            case confident_phosphosites:
-                ArrayList<String> modifications = new ArrayList<String>();
-                for (String ptm : identificationParameters.getSearchParameters().getModificationProfile().getAllNotFixedModifications()) {
-                    if (ptm.contains("phospho")) {
-                        modifications.add(ptm);
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        return identificationFeaturesGenerator.getAmbiguousPtmSiteNumber(rowContext.getProteinMatch());
                     }
-                }
-                mainAccession = proteinMatch.getMainMatch();
-                protein = SequenceFactory.getInstance().getProtein(mainAccession);
-                sequence = protein.getSequence();
-                return identificationFeaturesGenerator.getConfidentPtmSites(proteinMatch, sequence, modifications);
-            case confident_phosphosites_number:
-                modifications = new ArrayList<String>();
-                for (String ptm : identificationParameters.getSearchParameters().getModificationProfile().getAllNotFixedModifications()) {
-                    if (ptm.contains("phospho")) {
-                        modifications.add(ptm);
+                };
+            case confident_phosphosites: {
+                final ArrayList<String> modifications = getPhosphorylations(identificationParameters);
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        String sequence = rowContext.getProtein().getSequence();
+                        return identificationFeaturesGenerator.getConfidentPtmSites(rowContext.getProteinMatch(), sequence, modifications);
                     }
-                }
-                return identificationFeaturesGenerator.getConfidentPtmSitesNumber(proteinMatch, modifications);
-            case ambiguous_phosphosites:
-                mainAccession = proteinMatch.getMainMatch();
-                protein = SequenceFactory.getInstance().getProtein(mainAccession);
-                sequence = protein.getSequence();
-                modifications = new ArrayList<String>();
-                for (String ptm : identificationParameters.getSearchParameters().getModificationProfile().getAllNotFixedModifications()) {
-                    if (ptm.contains("phospho")) {
-                        modifications.add(ptm);
+                };
+            }
+            case confident_phosphosites_number: {
+                final ArrayList<String> modifications = getPhosphorylations(identificationParameters);
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        return identificationFeaturesGenerator.getConfidentPtmSitesNumber(rowContext.getProteinMatch(), modifications);
                     }
-                }
-                return identificationFeaturesGenerator.getAmbiguousPtmSites(proteinMatch, sequence, modifications);
-            case ambiguous_phosphosites_number:
-                modifications = new ArrayList<String>();
-                for (String ptm : identificationParameters.getSearchParameters().getModificationProfile().getAllNotFixedModifications()) {
-                    if (ptm.contains("phospho")) {
-                        modifications.add(ptm);
+                };
+            }
+            case ambiguous_phosphosites: {
+                final ArrayList<String> modifications = getPhosphorylations(identificationParameters);
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        String sequence = rowContext.getProtein().getSequence();
+                        return identificationFeaturesGenerator.getAmbiguousPtmSites(rowContext.getProteinMatch(), sequence, modifications);
                     }
-                }
-                return identificationFeaturesGenerator.getAmbiguousPtmSiteNumber(proteinMatch, modifications);
+                };
+            }
+            case ambiguous_phosphosites_number: {
+                final ArrayList<String> modifications = getPhosphorylations(identificationParameters);
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        return identificationFeaturesGenerator.getAmbiguousPtmSiteNumber(rowContext.getProteinMatch(), modifications);
+                    }
+                };
+            }
             case coverage:
-                HashMap<Integer, Double> sequenceCoverage = identificationFeaturesGenerator.getSequenceCoverage(proteinKey);
-                Double sequenceCoverageConfident = 100 * sequenceCoverage.get(MatchValidationLevel.confident.getIndex());
-                Double sequenceCoverageDoubtful = 100 * sequenceCoverage.get(MatchValidationLevel.doubtful.getIndex());
-                Double validatedCoverage = sequenceCoverageConfident + sequenceCoverageDoubtful;
-                Double value = 100 * validatedCoverage;
-                return Util.roundDouble(value, 2) + ""; // @TODO: this number can get bigger than 100%!!!
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        HashMap<Integer, Double> sequenceCoverage = identificationFeaturesGenerator.getSequenceCoverage(rowContext.getProteinKey());
+                        Double sequenceCoverageConfident = 100 * sequenceCoverage.get(MatchValidationLevel.confident.getIndex());
+                        Double sequenceCoverageDoubtful = 100 * sequenceCoverage.get(MatchValidationLevel.doubtful.getIndex());
+                        Double validatedCoverage = sequenceCoverageConfident + sequenceCoverageDoubtful;
+                        Double value = 100 * validatedCoverage;
+                        return Util.roundDouble(value, 2) + ""; // @TODO: this number can get bigger than 100%!!!
+                    }
+                };
             case possible_coverage:
-                value = 100 * identificationFeaturesGenerator.getObservableCoverage(proteinKey);
-                return Util.roundDouble(value, 2) + "";
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        Double value = 100 * identificationFeaturesGenerator.getObservableCoverage(rowContext.getProteinKey());
+                        return Util.roundDouble(value, 2) + "";
+                    }
+                };
             case decoy:
-                if (ProteinMatch.isDecoy(proteinKey)) {
-                    return 1 + "";
-                } else {
-                    return 0 + "";
-                }
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        if (ProteinMatch.isDecoy(rowContext.getProteinKey())) {
+                            return 1 + "";
+                        } else {
+                            return 0 + "";
+                        }
+                    }
+                };
             case hidden:
-                if (psParameter.isHidden()) {
-                    return 1 + "";
-                } else {
-                    return 0 + "";
-                }
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        if (rowContext.getPsParameter().isHidden()) {
+                            return 1 + "";
+                        } else {
+                            return 0 + "";
+                        }
+                    }
+                };
             case mw:
-                Double proteinMW = SequenceFactory.getInstance().computeMolecularWeight(proteinMatch.getMainMatch());
-                return proteinMW.toString();
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        Double proteinMW = SequenceFactory.getInstance().computeMolecularWeight(rowContext.getProteinMatch().getMainMatch());
+                        return proteinMW.toString();
+                    }
+                };
             case non_enzymatic:
-                ArrayList<String> nonEnzymatic = identificationFeaturesGenerator.getNonEnzymatic(proteinKey, shotgunProtocol.getEnzyme());
-                return nonEnzymatic.size() + "";
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        ArrayList<String> nonEnzymatic = identificationFeaturesGenerator.getNonEnzymatic(rowContext.getProteinKey(), shotgunProtocol.getEnzyme());
+                        return nonEnzymatic.size() + "";
+                    }
+                };
             case pi:
-                return psParameter.getProteinInferenceClassAsString();
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        return rowContext.getPsParameter().getProteinInferenceClassAsString();
+                    }
+                };
             case peptides:
-                return proteinMatch.getPeptideCount() + "";
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        return rowContext.getProteinMatch().getPeptideCount() + "";
+                    }
+                };
             case psms:
-                int nHits = identificationFeaturesGenerator.getNSpectra(proteinKey);
-                return nHits + "";
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        int nHits = identificationFeaturesGenerator.getNSpectra(rowContext.getProteinKey());
+                        return nHits + "";
+                    }
+                };
             case validated_peptides:
-                nHits = identificationFeaturesGenerator.getNValidatedPeptides(proteinKey);
-                return nHits + "";
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        int nHits = identificationFeaturesGenerator.getNValidatedPeptides(rowContext.getProteinKey());
+                        return nHits + "";
+                    }
+                };
             case unique_peptides:
-                nHits = identificationFeaturesGenerator.getNUniquePeptides(proteinKey);
-                return nHits + "";
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        int nHits = identificationFeaturesGenerator.getNUniquePeptides(rowContext.getProteinKey());
+                        return nHits + "";
+                    }
+                };
             case validated_psms:
-                nHits = identificationFeaturesGenerator.getNValidatedSpectra(proteinKey);
-                return nHits + "";
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        int nHits = identificationFeaturesGenerator.getNValidatedSpectra(rowContext.getProteinKey());
+                        return nHits + "";
+                    }
+                };
             case score:
-                return -10 * FastMath.log10(psParameter.getProteinProbabilityScore()) + "";
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        return -10 * FastMath.log10(rowContext.getPsParameter().getProteinProbabilityScore()) + "";
+                    }
+                };
             case raw_score:
-                return psParameter.getProteinProbabilityScore() + "";
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        return rowContext.getPsParameter().getProteinProbabilityScore() + "";
+                    }
+                };
             case spectrum_counting_nsaf:
-                try {
-                    return identificationFeaturesGenerator.getSpectrumCounting(proteinKey,
-                            SpectrumCountingPreferences.SpectralCountingMethod.NSAF) + "";
-                } catch (Exception e) {
-                    return "error: " + e.getLocalizedMessage();
-                }
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        try {
+                            return identificationFeaturesGenerator.getSpectrumCounting(rowContext.getProteinKey(),
+                                    SpectrumCountingPreferences.SpectralCountingMethod.NSAF) + "";
+                        } catch (Exception e) {
+                            return "error: " + e.getLocalizedMessage();
+                        }
+                    }
+                };
             case spectrum_counting_empai:
-                try {
-                    return identificationFeaturesGenerator.getSpectrumCounting(proteinKey,
-                            SpectrumCountingPreferences.SpectralCountingMethod.EMPAI) + "";
-                } catch (Exception e) {
-                    return "error: " + e.getLocalizedMessage();
-                }
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        try {
+                            return identificationFeaturesGenerator.getSpectrumCounting(rowContext.getProteinKey(),
+                                    SpectrumCountingPreferences.SpectralCountingMethod.EMPAI) + "";
+                        } catch (Exception e) {
+                            return "error: " + e.getLocalizedMessage();
+                        }
+                    }
+                };
             case starred:
-                if (psParameter.isStarred()) {
-                    return 1 + "";
-                } else {
-                    return 0 + "";
-                }
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        if (rowContext.getPsParameter().isStarred()) {
+                            return 1 + "";
+                        } else {
+                            return 0 + "";
+                        }
+                    }
+                };
             case validated:
-                result = new StringBuilder();
-                result.append(psParameter.getMatchValidationLevel().toString());
-                return result.toString();
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException {
+                        return rowContext.getPsParameter().getMatchValidationLevel().toString();
+                    }
+                };
             default:
-                return "Not implemented";
+                return new ProteinColumn() {
+                    @Override
+                    public String getValue(PsProteinRowContext rowContext) {
+                        return "Not implemented";
+                    }
+                };
         }
     }
 
+    /**
+     * Returns the phosphorylations among the variable modifications of the
+     * search.
+     *
+     * @param identificationParameters the identification parameters
+     *
+     * @return the names of the phosphorylations
+     */
+    private static ArrayList<String> getPhosphorylations(IdentificationParameters identificationParameters) {
+        ArrayList<String> modifications = new ArrayList<String>();
+        for (String ptm : identificationParameters.getSearchParameters().getModificationProfile().getAllNotFixedModifications()) {
+            if (ptm.contains("phospho")) {
+                modifications.add(ptm);
+            }
+        }
+        return modifications;
+    }
+
     /**
      * Writes the header of the protein section.
      *
@@ -487,6 +912,14 @@ public class PsProteinSection {
      * writing the file
      */
     public void writeHeader() throws IOException {
+        if (parquetWriter != null) {
+            ArrayList<String> columnNames = new ArrayList<String>();
+            for (ExportFeature exportFeature : proteinFeatures) {
+                columnNames.add(exportFeature.getTitle());
+            }
+            parquetWriter.setColumnNames(columnNames);
+            return;
+        }
         if (indexes) {
             writer.writeHeaderText("");
             writer.addSeparator();
@@ -502,4 +935,96 @@ public class PsProteinSection {
         }
         writer.newLine();
     }
+
+    /**
+     * A column of the protein section compiled for a feature.
+     */
+    interface ProteinColumn {
+
+        /**
+         * Returns the content of the column for the given line.
+         *
+         * @param rowContext the objects of the line
+         *
+         * @return the content of the column
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading a file
+         * @throws SQLException thrown if a SQLException occurs
+         * @throws ClassNotFoundException thrown if a ClassNotFoundException
+         * occurs
+         * @throws InterruptedException thrown if an InterruptedException
+         * occurs
+         * @throws MzMLUnmarshallerException thrown if an
+         * MzMLUnmarshallerException occurs
+         * @throws org.apache.commons.math.MathException thrown if an
+         * MathException occurs
+         */
+        public String getValue(PsProteinRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException, MathException;
+    }
+
+    /**
+     * Callable computing the lines of a chunk of protein matches.
+     */
+    private class ProteinRowsCallable implements Callable<ArrayList<ArrayList<String>>> {
+
+        /**
+         * The protein matches of the chunk.
+         */
+        private final ArrayList<ProteinMatch> proteinMatches;
+        /**
+         * The identification of the project.
+         */
+        private final Identification identification;
+        /**
+         * The compiled columns of the section.
+         */
+        private final ArrayList<ProteinColumn> columns;
+        /**
+         * Whether only validated matches should be exported.
+         */
+        private final boolean validatedOnly;
+        /**
+         * Whether decoy matches should be exported as well.
+         */
+        private final boolean decoys;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param proteinMatches the protein matches of the chunk
+         * @param identification the identification of the project
+         * @param columns the compiled columns of the section
+         * @param validatedOnly whether only validated matches should be
+         * exported
+         * @param decoys whether decoy matches should be exported as well
+         * @param waitingHandler the waiting handler
+         */
+        public ProteinRowsCallable(ArrayList<ProteinMatch> proteinMatches, Identification identification, ArrayList<ProteinColumn> columns,
+                boolean validatedOnly, boolean decoys, WaitingHandler waitingHandler) {
+            this.proteinMatches = proteinMatches;
+            this.identification = identification;
+            this.columns = columns;
+            this.validatedOnly = validatedOnly;
+            this.decoys = decoys;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public ArrayList<ArrayList<String>> call() throws Exception {
+            PSParameter psParameter = new PSParameter();
+            ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>(proteinMatches.size());
+            for (ProteinMatch proteinMatch : proteinMatches) {
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    break;
+                }
+                rows.add(getRow(identification, columns, proteinMatch, psParameter, validatedOnly, decoys));
+            }
+            return rows;
+        }
+    }
 }
@@ -0,0 +1,243 @@
+package eu.isas.peptideshaker.export.sections;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.PeptideAssumption;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.preferences.AnnotationPreferences;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import eu.isas.peptideshaker.myparameters.PSParameter;
+import eu.isas.peptideshaker.myparameters.PSPtmScores;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * The objects needed by the different columns of a line of a spectrum level
+ * export. The objects are loaded when first needed and reused for the other
+ * columns of the line.
+ */
+public class PsPsmRowContext {
+
+    /**
+     * The key of the spectrum.
+     */
+    private final String spectrumKey;
+    /**
+     * The spectrum match of the line, null if not set.
+     */
+    private final SpectrumMatch spectrumMatch;
+    /**
+     * The PeptideShaker parameter of the spectrum match, null if not set.
+     */
+    private final PSParameter psParameter;
+    /**
+     * Boolean indicating whether the PTM scores of the spectrum match were
+     * loaded.
+     */
+    private boolean ptmScoresLoaded = false;
+    /**
+     * The PTM scores of the spectrum match, null if none.
+     */
+    private PSPtmScores ptmScores = null;
+    /**
+     * The spectrum annotator, created when needed if null.
+     */
+    private PeptideSpectrumAnnotator peptideSpectrumAnnotator;
+    /**
+     * The precursor of the spectrum.
+     */
+    private Precursor precursor = null;
+    /**
+     * The spectrum.
+     */
+    private Spectrum spectrum = null;
+    /**
+     * The peptide assumption of the current spectrum annotation.
+     */
+    private PeptideAssumption annotatedAssumption = null;
+    /**
+     * The spectrum annotation of the annotated assumption.
+     */
+    private ArrayList<IonMatch> spectrumAnnotation = null;
+    /**
+     * The peptide of the current parent proteins.
+     */
+    private Peptide parentProteinsPeptide = null;
+    /**
+     * The parent proteins of the peptide.
+     */
+    private ArrayList<String> parentProteins = null;
+
+    /**
+     * Constructor.
+     *
+     * @param spectrumKey the key of the spectrum
+     */
+    public PsPsmRowContext(String spectrumKey) {
+        this(spectrumKey, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param peptideSpectrumAnnotator the spectrum annotator to use, can be
+     * null. The annotator should not be used by other threads.
+     */
+    public PsPsmRowContext(String spectrumKey, PeptideSpectrumAnnotator peptideSpectrumAnnotator) {
+        this.spectrumKey = spectrumKey;
+        this.spectrumMatch = null;
+        this.psParameter = null;
+        this.peptideSpectrumAnnotator = peptideSpectrumAnnotator;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param spectrumMatch the spectrum match of the line
+     * @param psParameter the PeptideShaker parameter of the spectrum match
+     * @param peptideSpectrumAnnotator the spectrum annotator to use, can be
+     * null. The annotator should not be used by other threads.
+     */
+    public PsPsmRowContext(SpectrumMatch spectrumMatch, PSParameter psParameter, PeptideSpectrumAnnotator peptideSpectrumAnnotator) {
+        this.spectrumKey = spectrumMatch.getKey();
+        this.spectrumMatch = spectrumMatch;
+        this.psParameter = psParameter;
+        this.peptideSpectrumAnnotator = peptideSpectrumAnnotator;
+    }
+
+    /**
+     * Returns the key of the spectrum.
+     *
+     * @return the key of the spectrum
+     */
+    public String getSpectrumKey() {
+        return spectrumKey;
+    }
+
+    /**
+     * Returns the spectrum match of the line, null if not set.
+     *
+     * @return the spectrum match of the line
+     */
+    public SpectrumMatch getSpectrumMatch() {
+        return spectrumMatch;
+    }
+
+    /**
+     * Returns the PeptideShaker parameter of the spectrum match, null if not
+     * set.
+     *
+     * @return the PeptideShaker parameter of the spectrum match
+     */
+    public PSParameter getPsParameter() {
+        return psParameter;
+    }
+
+    /**
+     * Returns the PTM scores of the spectrum match, null if none.
+     *
+     * @return the PTM scores of the spectrum match
+     */
+    public PSPtmScores getPtmScores() {
+        if (!ptmScoresLoaded) {
+            ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
+            ptmScoresLoaded = true;
+        }
+        return ptmScores;
+    }
+
+    /**
+     * Returns the precursor of the spectrum.
+     *
+     * @return the precursor of the spectrum
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    public Precursor getPrecursor() throws IOException, MzMLUnmarshallerException {
+        if (precursor == null) {
+            if (spectrum != null) {
+                precursor = spectrum.getPrecursor();
+            } else {
+                precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
+            }
+        }
+        return precursor;
+    }
+
+    /**
+     * Returns the spectrum.
+     *
+     * @return the spectrum
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    public Spectrum getSpectrum() throws IOException, MzMLUnmarshallerException {
+        if (spectrum == null) {
+            spectrum = SpectrumFactory.getInstance().getSpectrum(spectrumKey);
+        }
+        return spectrum;
+    }
+
+    /**
+     * Returns the annotation of the spectrum for the given peptide assumption
+     * at the identification charge and without reporter ions.
+     *
+     * @param peptideAssumption the peptide assumption
+     * @param annotationPreferences the annotation preferences
+     *
+     * @return the annotation of the spectrum
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     */
+    public ArrayList<IonMatch> getSpectrumAnnotation(PeptideAssumption peptideAssumption, AnnotationPreferences annotationPreferences)
+            throws IOException, MzMLUnmarshallerException, InterruptedException {
+        if (spectrumAnnotation == null || annotatedAssumption != peptideAssumption) {
+            if (peptideSpectrumAnnotator == null) {
+                peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+            }
+            spectrumAnnotation = peptideSpectrumAnnotator.getSpectrumAnnotation(
+                    annotationPreferences.getIonTypes(), annotationPreferences.getNeutralLosses(), annotationPreferences.getValidatedCharges(),
+                    peptideAssumption.getIdentificationCharge().value,
+                    (MSnSpectrum) getSpectrum(), peptideAssumption.getPeptide(), 0, annotationPreferences.getFragmentIonAccuracy(), false, true);
+            annotatedAssumption = peptideAssumption;
+        }
+        return spectrumAnnotation;
+    }
+
+    /**
+     * Returns the parent proteins of the given peptide.
+     *
+     * @param peptide the peptide
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     *
+     * @return the parent proteins of the peptide
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     */
+    public ArrayList<String> getParentProteins(Peptide peptide, SequenceMatchingPreferences sequenceMatchingPreferences)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        if (parentProteins == null || parentProteinsPeptide != peptide) {
+            parentProteins = peptide.getParentProteins(sequenceMatchingPreferences);
+            parentProteinsPeptide = peptide;
+        }
+        return parentProteins;
+    }
+}
@@ -10,12 +10,15 @@ import com.compomics.util.experiment.identification.SpectrumIdentificationAssump
 import com.compomics.util.experiment.identification.TagAssumption;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
+import com.compomics.util.experiment.identification.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.io.export.ExportFeature;
 import com.compomics.util.io.export.ExportWriter;
 import com.compomics.util.preferences.IdentificationParameters;
+import eu.isas.peptideshaker.PeptideShaker;
+import eu.isas.peptideshaker.export.ParquetExportWriter;
 import eu.isas.peptideshaker.export.exportfeatures.PsFragmentFeature;
 import eu.isas.peptideshaker.export.exportfeatures.PsIdentificationAlgorithmMatchesFeature;
 import eu.isas.peptideshaker.export.exportfeatures.PsPsmFeature;
@@ -28,6 +31,12 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -61,6 +70,16 @@ public class PsPsmSection {
      * The writer used to send the output to file.
      */
     private ExportWriter writer;
+    /**
+     * The parquet writer used instead of the export writer when the section
+     * is exported in the parquet format, null otherwise.
+     */
+    private ParquetExportWriter parquetWriter = null;
+    /**
+     * The peptide spectrum annotator used when writing the section using a
+     * single thread.
+     */
+    private final PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
 
     /**
      * Constructor.
@@ -93,6 +112,19 @@ public class PsPsmSection {
         this.writer = writer;
     }
 
+    /**
+     * Constructor for an export in the parquet format. The fragment features
+     * cannot be flattened in the PSM table and are ignored.
+     *
+     * @param exportFeatures the features to export in this section
+     * @param parquetWriter the parquet writer which will write to the file
+     */
+    public PsPsmSection(ArrayList<ExportFeature> exportFeatures, ParquetExportWriter parquetWriter) {
+        this(exportFeatures, false, true, null);
+        fragmentSection = null;
+        this.parquetWriter = parquetWriter;
+    }
+
     /**
      * Writes the desired section.
      *
@@ -120,6 +152,42 @@ public class PsPsmSection {
     public void writeSection(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, String linePrefix, boolean validatedOnly, boolean decoys, WaitingHandler waitingHandler) throws IOException, IllegalArgumentException, SQLException,
             ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        writeSection(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, validatedOnly, decoys, 1, waitingHandler);
+    }
+
+    /**
+     * Writes the desired section. When using multiple threads, the lines are
+     * computed in chunks by the different threads and written in order. The
+     * threads share the identification features generator, which supports
+     * concurrent access to the features of the matches. The fragment subsection
+     * is always written using a single thread.
+     *
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param shotgunProtocol information on the shotgun protocol
+     * @param identificationParameters the identification parameters
+     * @param keys the keys of the PSM matches to output
+     * @param linePrefix the line prefix
+     * @param validatedOnly whether only validated matches should be exported
+     * @param decoys whether decoy matches should be exported as well
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     * @throws IllegalArgumentException thrown if an IllegalArgumentException
+     * occurs
+     * @throws SQLException thrown if a SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    public void writeSection(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, String linePrefix, boolean validatedOnly, boolean decoys,
+            int nThreads, WaitingHandler waitingHandler) throws IOException, IllegalArgumentException, SQLException,
+            ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
         if (waitingHandler != null) {
             waitingHandler.setSecondaryProgressCounterIndeterminate(true);
@@ -161,87 +229,239 @@ public class PsPsmSection {
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(psParameter);
 
-        for (String spectrumFile : psmMap.keySet()) {
+        ArrayList<PsmColumn> columns = compileColumns(identification, identificationFeaturesGenerator, identificationParameters);
+
+        ExecutorService pool = null;
+        LinkedList<Future<ArrayList<ArrayList<String>>>> pendingChunks = null;
+        ArrayList<SpectrumMatch> chunk = null;
+        if (nThreads > 1 && fragmentSection == null) {
+            pool = Executors.newFixedThreadPool(nThreads);
+            pendingChunks = new LinkedList<Future<ArrayList<ArrayList<String>>>>();
+            chunk = new ArrayList<SpectrumMatch>(PeptideShaker.PARALLEL_CHUNK_SIZE);
+        }
 
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFile, psmMap.get(spectrumFile), parameters, !identificationAlgorithmMatchesFeatures.isEmpty(), waitingHandler);
+        try {
+            for (String spectrumFile : psmMap.keySet()) {
 
-            while (psmIterator.hasNext()) {
+                PsmIterator psmIterator = identification.getPsmIterator(spectrumFile, psmMap.get(spectrumFile), parameters, !identificationAlgorithmMatchesFeatures.isEmpty(), waitingHandler);
 
-                if (waitingHandler != null) {
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
+                while (psmIterator.hasNext()) {
+
+                    if (waitingHandler != null) {
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter();
                     }
-                    waitingHandler.increaseSecondaryProgressCounter();
-                }
 
-                if (waitingHandler != null) {
-                    waitingHandler.setDisplayProgress(false);
-                }
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                if (waitingHandler != null) {
-                    waitingHandler.setDisplayProgress(true);
-                }
+                    if (waitingHandler != null) {
+                        waitingHandler.setDisplayProgress(false);
+                    }
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    if (waitingHandler != null) {
+                        waitingHandler.setDisplayProgress(true);
+                    }
+
+                    if (pool != null) {
 
-                String spectrumKey = spectrumMatch.getKey();
+                        chunk.add(spectrumMatch);
 
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                        if (chunk.size() == PeptideShaker.PARALLEL_CHUNK_SIZE) {
+                            pendingChunks.add(pool.submit(new PsmRowsCallable(chunk, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, columns, validatedOnly, decoys, waitingHandler)));
+                            chunk = new ArrayList<SpectrumMatch>(PeptideShaker.PARALLEL_CHUNK_SIZE);
+                            if (pendingChunks.size() >= 2 * nThreads) {
+                                line = writeRows(getChunk(pendingChunks.removeFirst()), linePrefix, line);
+                            }
+                        }
 
-                if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+                    } else {
 
-                    PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+                        ArrayList<String> row = getRow(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, columns, spectrumMatch, psParameter, peptideSpectrumAnnotator, validatedOnly, decoys, waitingHandler);
 
-                    if (decoys || peptideAssumption == null || !peptideAssumption.getPeptide().isDecoy(identificationParameters.getSequenceMatchingPreferences())) {
+                        if (row != null) {
 
-                        boolean first = true;
+                            writeRow(row, linePrefix, line);
 
-                        if (indexes) {
-                            if (linePrefix != null) {
-                                writer.write(linePrefix);
-                            }
-                            writer.write(line + "");
-                            first = false;
-                        }
-                        for (PsIdentificationAlgorithmMatchesFeature identificationAlgorithmMatchesFeature : identificationAlgorithmMatchesFeatures) {
-                            if (!first) {
-                                writer.addSeparator();
-                            } else {
-                                first = false;
-                            }
-                            String feature;
-                            if (peptideAssumption != null) {
-                                peptideAssumption = spectrumMatch.getBestPeptideAssumption();
-                                feature = PsIdentificationAlgorithmMatchesSection.getPeptideAssumptionFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, peptideAssumption, spectrumMatch.getKey(), psParameter, identificationAlgorithmMatchesFeature, waitingHandler);
-                            } else if (spectrumMatch.getBestTagAssumption() != null) {
-                                TagAssumption tagAssumption = spectrumMatch.getBestTagAssumption();
-                                feature = PsIdentificationAlgorithmMatchesSection.getTagAssumptionFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, tagAssumption, spectrumMatch.getKey(), psParameter, identificationAlgorithmMatchesFeature, waitingHandler);
-                            } else {
-                                throw new IllegalArgumentException("No best match found for spectrum " + spectrumMatch.getKey() + ".");
-                            }
-                            writer.write(feature);
-                        }
-                        for (PsPsmFeature psmFeature : psmFeatures) {
-                            if (!first) {
-                                writer.addSeparator();
-                            } else {
-                                first = false;
-                            }
-                            writer.write(getFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, spectrumMatch, psParameter, psmFeature, validatedOnly, decoys, waitingHandler));
-                        }
-                        writer.newLine();
-                        if (fragmentSection != null) {
-                            String fractionPrefix = "";
-                            if (linePrefix != null) {
-                                fractionPrefix += linePrefix;
+                            if (fragmentSection != null) {
+                                String fractionPrefix = "";
+                                if (linePrefix != null) {
+                                    fractionPrefix += linePrefix;
+                                }
+                                fractionPrefix += line + ".";
+                                writer.increaseDepth();
+                                fragmentSection.writeSection(spectrumMatch, shotgunProtocol, identificationParameters, fractionPrefix, null);
+                                writer.decreseDepth();
                             }
-                            fractionPrefix += line + ".";
-                            writer.increaseDepth();
-                            fragmentSection.writeSection(spectrumMatch, shotgunProtocol, identificationParameters, fractionPrefix, null);
-                            writer.decreseDepth();
+                            line++;
                         }
-                        line++;
                     }
                 }
             }
+
+            if (pool != null) {
+                if (!chunk.isEmpty()) {
+                    pendingChunks.add(pool.submit(new PsmRowsCallable(chunk, identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, columns, validatedOnly, decoys, waitingHandler)));
+                }
+                while (!pendingChunks.isEmpty()) {
+                    line = writeRows(getChunk(pendingChunks.removeFirst()), linePrefix, line);
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Returns the features of the line corresponding to the given spectrum
+     * match, null if the match shall not be exported.
+     *
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param shotgunProtocol information on the shotgun protocol
+     * @param identificationParameters the identification parameters
+     * @param keys the keys of the PSM matches to output
+     * @param linePrefix the line prefix
+     * @param columns the compiled columns of the PSM features
+     * @param spectrumMatch the spectrum match
+     * @param psParameter a PeptideShaker parameter used to retrieve the one of
+     * the match
+     * @param peptideSpectrumAnnotator the spectrum annotator to use for this
+     * line
+     * @param validatedOnly whether only validated matches should be exported
+     * @param decoys whether decoy matches should be exported as well
+     * @param waitingHandler the waiting handler
+     *
+     * @return the features of the line
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a file
+     * @throws IllegalArgumentException thrown if an IllegalArgumentException
+     * occurs
+     * @throws SQLException thrown if a SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    private ArrayList<String> getRow(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, String linePrefix, ArrayList<PsmColumn> columns,
+            SpectrumMatch spectrumMatch, PSParameter psParameter, PeptideSpectrumAnnotator peptideSpectrumAnnotator, boolean validatedOnly, boolean decoys, WaitingHandler waitingHandler) throws IOException, IllegalArgumentException, SQLException,
+            ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+
+        String spectrumKey = spectrumMatch.getKey();
+
+        psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+
+        if (validatedOnly && !psParameter.getMatchValidationLevel().isValidated()) {
+            return null;
+        }
+
+        PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+
+        if (!decoys && peptideAssumption != null && peptideAssumption.getPeptide().isDecoy(identificationParameters.getSequenceMatchingPreferences())) {
+            return null;
+        }
+
+        ArrayList<String> row = new ArrayList<String>(identificationAlgorithmMatchesFeatures.size() + columns.size());
+        PsPsmRowContext rowContext = new PsPsmRowContext(spectrumMatch, psParameter, peptideSpectrumAnnotator);
+
+        for (PsIdentificationAlgorithmMatchesFeature identificationAlgorithmMatchesFeature : identificationAlgorithmMatchesFeatures) {
+            String feature;
+            if (peptideAssumption != null) {
+                feature = PsIdentificationAlgorithmMatchesSection.getPeptideAssumptionFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, peptideAssumption, rowContext, psParameter, identificationAlgorithmMatchesFeature, waitingHandler);
+            } else if (spectrumMatch.getBestTagAssumption() != null) {
+                TagAssumption tagAssumption = spectrumMatch.getBestTagAssumption();
+                feature = PsIdentificationAlgorithmMatchesSection.getTagAssumptionFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, tagAssumption, rowContext, psParameter, identificationAlgorithmMatchesFeature, waitingHandler);
+            } else {
+                throw new IllegalArgumentException("No best match found for spectrum " + spectrumKey + ".");
+            }
+            row.add(feature);
+        }
+        for (PsmColumn column : columns) {
+            row.add(column.getValue(rowContext));
+        }
+
+        return row;
+    }
+
+    /**
+     * Writes a line.
+     *
+     * @param row the features of the line
+     * @param linePrefix the line prefix
+     * @param line the line number
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeRow(ArrayList<String> row, String linePrefix, int line) throws IOException {
+
+        if (parquetWriter != null) {
+            parquetWriter.writeRow(row);
+            return;
+        }
+
+        boolean first = true;
+
+        if (indexes) {
+            if (linePrefix != null) {
+                writer.write(linePrefix);
+            }
+            writer.write(line + "");
+            first = false;
+        }
+        for (String feature : row) {
+            if (!first) {
+                writer.addSeparator();
+            } else {
+                first = false;
+            }
+            writer.write(feature);
+        }
+        writer.newLine();
+    }
+
+    /**
+     * Writes the lines of a chunk, lines set to null are skipped.
+     *
+     * @param rows the features of the lines
+     * @param linePrefix the line prefix
+     * @param line the number of the first line
+     *
+     * @return the number of the next line
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private int writeRows(ArrayList<ArrayList<String>> rows, String linePrefix, int line) throws IOException {
+        for (ArrayList<String> row : rows) {
+            if (row != null) {
+                writeRow(row, linePrefix, line);
+                line++;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Waits for a chunk of lines to be computed and returns it.
+     *
+     * @param future the future of the chunk
+     *
+     * @return the features of the lines of the chunk
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * computing the lines
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     */
+    private static ArrayList<ArrayList<String>> getChunk(Future<ArrayList<ArrayList<String>>> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("An error occurred while exporting the PSMs.", e.getCause());
         }
     }
 
@@ -279,242 +499,382 @@ public class PsPsmSection {
     public static String getFeature(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, String linePrefix, SpectrumMatch spectrumMatch, PSParameter psParameter, PsPsmFeature psmFeature, boolean validatedOnly, boolean decoys, WaitingHandler waitingHandler) throws IOException, IllegalArgumentException, SQLException,
             ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        PsmColumn column = compileColumn(psmFeature, identification, identificationFeaturesGenerator, identificationParameters);
+        return column.getValue(new PsPsmRowContext(spectrumMatch, psParameter, null));
+    }
+
+    /**
+     * Compiles the columns of the PSM features of this section.
+     *
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param identificationParameters the identification parameters
+     *
+     * @return the columns of the PSM features in the order of the features
+     */
+    ArrayList<PsmColumn> compileColumns(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            IdentificationParameters identificationParameters) {
+        ArrayList<PsmColumn> columns = new ArrayList<PsmColumn>(psmFeatures.size());
+        for (PsPsmFeature psmFeature : psmFeatures) {
+            columns.add(compileColumn(psmFeature, identification, identificationFeaturesGenerator, identificationParameters));
+        }
+        return columns;
+    }
+
+    /**
+     * Compiles the column of the given PSM feature. The objects which do not
+     * depend on the line are resolved once here, the objects of the line are
+     * taken from the row context.
+     *
+     * @param psmFeature the PSM feature
+     * @param identification the identification of the project
+     * @param identificationFeaturesGenerator the identification features
+     * generator of the project
+     * @param identificationParameters the identification parameters
+     *
+     * @return the column of the feature
+     */
+    static PsmColumn compileColumn(PsPsmFeature psmFeature, final Identification identification, final IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            final IdentificationParameters identificationParameters) {
 
         switch (psmFeature) {
             case probabilistic_score:
-                if (spectrumMatch.getBestPeptideAssumption() != null) {
-                    PSPtmScores ptmScores = new PSPtmScores();
-                    ptmScores = (PSPtmScores) spectrumMatch.getUrParam(ptmScores);
-                    if (ptmScores != null) {
-                        StringBuilder result = new StringBuilder();
-                        ArrayList<String> modList = new ArrayList<String>(ptmScores.getScoredPTMs());
-                        Collections.sort(modList);
-                        for (String mod : modList) {
-                            PtmScoring ptmScoring = ptmScores.getPtmScoring(mod);
-                            ArrayList<Integer> sites = new ArrayList<Integer>(ptmScoring.getProbabilisticSites());
-                            if (!sites.isEmpty()) {
-                                Collections.sort(sites);
-                                if (result.length() > 0) {
-                                    result.append(", ");
-                                }
-                                result.append(mod).append(" (");
-                                boolean firstSite = true;
-                                for (int site : sites) {
-                                    if (firstSite) {
-                                        firstSite = false;
-                                    } else {
-                                        result.append(", ");
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        SpectrumMatch spectrumMatch = rowContext.getSpectrumMatch();
+                        if (spectrumMatch.getBestPeptideAssumption() != null) {
+                            PSPtmScores ptmScores = rowContext.getPtmScores();
+                            if (ptmScores != null) {
+                                StringBuilder result = new StringBuilder();
+                                ArrayList<String> modList = new ArrayList<String>(ptmScores.getScoredPTMs());
+                                Collections.sort(modList);
+                                for (String mod : modList) {
+                                    PtmScoring ptmScoring = ptmScores.getPtmScoring(mod);
+                                    ArrayList<Integer> sites = new ArrayList<Integer>(ptmScoring.getProbabilisticSites());
+                                    if (!sites.isEmpty()) {
+                                        Collections.sort(sites);
+                                        if (result.length() > 0) {
+                                            result.append(", ");
+                                        }
+                                        result.append(mod).append(" (");
+                                        boolean firstSite = true;
+                                        for (int site : sites) {
+                                            if (firstSite) {
+                                                firstSite = false;
+                                            } else {
+                                                result.append(", ");
+                                            }
+                                            result.append(site).append(": ").append(ptmScoring.getProbabilisticScore(site));
+                                        }
+                                        result.append(")");
                                     }
-                                    result.append(site).append(": ").append(ptmScoring.getProbabilisticScore(site));
                                 }
-                                result.append(")");
+                                return result.toString();
                             }
                         }
-                        return result.toString();
+                        return "";
                     }
-                }
-                return "";
+                };
             case d_score:
-                if (spectrumMatch.getBestPeptideAssumption() != null) {
-                    StringBuilder result = new StringBuilder();
-                    PSPtmScores ptmScores = new PSPtmScores();
-                    ptmScores = (PSPtmScores) spectrumMatch.getUrParam(ptmScores);
-                    if (ptmScores != null) {
-                        ArrayList<String> modList = new ArrayList<String>(ptmScores.getScoredPTMs());
-                        Collections.sort(modList);
-                        for (String mod : modList) {
-                            PtmScoring ptmScoring = ptmScores.getPtmScoring(mod);
-                            ArrayList<Integer> sites = new ArrayList<Integer>(ptmScoring.getDSites());
-                            if (!sites.isEmpty()) {
-                                Collections.sort(sites);
-                                if (result.length() > 0) {
-                                    result.append(", ");
-                                }
-                                result.append(mod).append(" (");
-                                boolean firstSite = true;
-                                for (int site : sites) {
-                                    if (firstSite) {
-                                        firstSite = false;
-                                    } else {
-                                        result.append(", ");
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        SpectrumMatch spectrumMatch = rowContext.getSpectrumMatch();
+                        if (spectrumMatch.getBestPeptideAssumption() != null) {
+                            StringBuilder result = new StringBuilder();
+                            PSPtmScores ptmScores = rowContext.getPtmScores();
+                            if (ptmScores != null) {
+                                ArrayList<String> modList = new ArrayList<String>(ptmScores.getScoredPTMs());
+                                Collections.sort(modList);
+                                for (String mod : modList) {
+                                    PtmScoring ptmScoring = ptmScores.getPtmScoring(mod);
+                                    ArrayList<Integer> sites = new ArrayList<Integer>(ptmScoring.getDSites());
+                                    if (!sites.isEmpty()) {
+                                        Collections.sort(sites);
+                                        if (result.length() > 0) {
+                                            result.append(", ");
+                                        }
+                                        result.append(mod).append(" (");
+                                        boolean firstSite = true;
+                                        for (int site : sites) {
+                                            if (firstSite) {
+                                                firstSite = false;
+                                            } else {
+                                                result.append(", ");
+                                            }
+                                            result.append(site).append(": ").append(ptmScoring.getDeltaScore(site));
+                                        }
+                                        result.append(")");
                                     }
-                                    result.append(site).append(": ").append(ptmScoring.getDeltaScore(site));
                                 }
-                                result.append(")");
                             }
+                            return result.toString();
                         }
+                        return "";
                     }
-                    return result.toString();
-                }
-                return "";
+                };
             case localization_confidence:
-                if (spectrumMatch.getBestPeptideAssumption() != null) {
-                    PSPtmScores ptmScores = new PSPtmScores();
-                    ptmScores = (PSPtmScores) spectrumMatch.getUrParam(ptmScores);
-                    if (ptmScores != null) {
-                        StringBuilder result = new StringBuilder();
-                        ArrayList<String> modList = ptmScores.getScoredPTMs();
-                        Collections.sort(modList);
-                        for (String mod : modList) {
-
-                            PTM ptm = PTMFactory.getInstance().getPTM(mod);
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        SpectrumMatch spectrumMatch = rowContext.getSpectrumMatch();
+                        if (spectrumMatch.getBestPeptideAssumption() != null) {
+                            PSPtmScores ptmScores = rowContext.getPtmScores();
+                            if (ptmScores != null) {
+                                StringBuilder result = new StringBuilder();
+                                ArrayList<String> modList = ptmScores.getScoredPTMs();
+                                Collections.sort(modList);
+                                for (String mod : modList) {
 
-                            if (ptm.getType() == PTM.MODAA) {
+                                    PTM ptm = PTMFactory.getInstance().getPTM(mod);
 
-                                if (result.length() > 0) {
-                                    result.append(", ");
-                                }
-                                result.append(mod);
+                                    if (ptm.getType() == PTM.MODAA) {
 
-                                result.append(" (");
-                                PtmScoring ptmScoring = ptmScores.getPtmScoring(mod);
-                                boolean firstSite = true;
+                                        if (result.length() > 0) {
+                                            result.append(", ");
+                                        }
+                                        result.append(mod);
 
-                                ArrayList<Integer> sites = ptmScoring.getOrderedPtmLocations();
-                                if (sites.isEmpty()) {
-                                    result.append("Not Scored");
-                                } else {
-                                    for (int site : ptmScoring.getOrderedPtmLocations()) {
+                                        result.append(" (");
+                                        PtmScoring ptmScoring = ptmScores.getPtmScoring(mod);
+                                        boolean firstSite = true;
 
-                                        if (firstSite) {
-                                            firstSite = false;
+                                        ArrayList<Integer> sites = ptmScoring.getOrderedPtmLocations();
+                                        if (sites.isEmpty()) {
+                                            result.append("Not Scored");
                                         } else {
-                                            result.append(", ");
-                                        }
-                                        int ptmConfidence = ptmScoring.getLocalizationConfidence(site);
-
-                                        if (ptmConfidence == PtmScoring.NOT_FOUND) {
-                                            result.append(site).append(": Not Scored");
-                                        } else if (ptmConfidence == PtmScoring.RANDOM) {
-                                            result.append(site).append(": Random");
-                                        } else if (ptmConfidence == PtmScoring.DOUBTFUL) {
-                                            result.append(site).append(": Doubtfull");
-                                        } else if (ptmConfidence == PtmScoring.CONFIDENT) {
-                                            result.append(site).append(": Confident");
-                                        } else if (ptmConfidence == PtmScoring.VERY_CONFIDENT) {
-                                            result.append(site).append(": Very Confident");
+                                            for (int site : ptmScoring.getOrderedPtmLocations()) {
+
+                                                if (firstSite) {
+                                                    firstSite = false;
+                                                } else {
+                                                    result.append(", ");
+                                                }
+                                                int ptmConfidence = ptmScoring.getLocalizationConfidence(site);
+
+                                                if (ptmConfidence == PtmScoring.NOT_FOUND) {
+                                                    result.append(site).append(": Not Scored");
+                                                } else if (ptmConfidence == PtmScoring.RANDOM) {
+                                                    result.append(site).append(": Random");
+                                                } else if (ptmConfidence == PtmScoring.DOUBTFUL) {
+                                                    result.append(site).append(": Doubtfull");
+                                                } else if (ptmConfidence == PtmScoring.CONFIDENT) {
+                                                    result.append(site).append(": Confident");
+                                                } else if (ptmConfidence == PtmScoring.VERY_CONFIDENT) {
+                                                    result.append(site).append(": Very Confident");
+                                                }
+                                            }
                                         }
+
+                                        result.append(")");
                                     }
                                 }
-
-                                result.append(")");
+                                return result.toString();
                             }
                         }
-                        return result.toString();
+                        return "";
                     }
-                }
-                return "";
+                };
             case algorithm_score:
-                HashMap<Integer, Double> scoreMap = new HashMap<Integer, Double>();
-                if (spectrumMatch.getBestPeptideAssumption() != null) {
-                    HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumMatch.getKey());
-                    for (Integer id : assumptionsMap.keySet()) {
-                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> algorithmAssumptions = assumptionsMap.get(id);
-                        for (ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore : algorithmAssumptions.values()) {
-                            for (SpectrumIdentificationAssumption spectrumIdentificationAssumption : assumptionsAtScore) {
-                                if (spectrumIdentificationAssumption instanceof PeptideAssumption) {
-                                    PeptideAssumption peptideAssumption = (PeptideAssumption) spectrumIdentificationAssumption;
-                                    if (peptideAssumption.getPeptide().isSameSequenceAndModificationStatus(spectrumMatch.getBestPeptideAssumption().getPeptide(), identificationParameters.getSequenceMatchingPreferences())) {
-                                        double score = peptideAssumption.getScore();
-                                        Double currentScore = scoreMap.get(id);
-                                        if (currentScore == null || score < currentScore) {
-                                            scoreMap.put(id, score);
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        SpectrumMatch spectrumMatch = rowContext.getSpectrumMatch();
+                        HashMap<Integer, Double> scoreMap = new HashMap<Integer, Double>();
+                        if (spectrumMatch.getBestPeptideAssumption() != null) {
+                            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumMatch.getKey());
+                            for (Integer id : assumptionsMap.keySet()) {
+                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> algorithmAssumptions = assumptionsMap.get(id);
+                                for (ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore : algorithmAssumptions.values()) {
+                                    for (SpectrumIdentificationAssumption spectrumIdentificationAssumption : assumptionsAtScore) {
+                                        if (spectrumIdentificationAssumption instanceof PeptideAssumption) {
+                                            PeptideAssumption peptideAssumption = (PeptideAssumption) spectrumIdentificationAssumption;
+                                            if (peptideAssumption.getPeptide().isSameSequenceAndModificationStatus(spectrumMatch.getBestPeptideAssumption().getPeptide(), identificationParameters.getSequenceMatchingPreferences())) {
+                                                double score = peptideAssumption.getScore();
+                                                Double currentScore = scoreMap.get(id);
+                                                if (currentScore == null || score < currentScore) {
+                                                    scoreMap.put(id, score);
+                                                }
+                                            }
                                         }
                                     }
                                 }
                             }
                         }
+                        ArrayList<Integer> ids = new ArrayList<Integer>(scoreMap.keySet());
+                        Collections.sort(ids);
+                        StringBuilder result = new StringBuilder();
+                        for (int id : ids) {
+                            if (result.length() != 0) {
+                                result.append(", ");
+                            }
+                            result.append(Advocate.getAdvocate(id).getName()).append(" (").append(scoreMap.get(id)).append(")");
+                        }
+                        return result.toString();
                     }
-                }
-                ArrayList<Integer> ids = new ArrayList<Integer>(scoreMap.keySet());
-                Collections.sort(ids);
-                StringBuilder result = new StringBuilder();
-                for (int id : ids) {
-                    if (result.length() != 0) {
-                        result.append(", ");
-                    }
-                    result.append(Advocate.getAdvocate(id).getName()).append(" (").append(scoreMap.get(id)).append(")");
-                }
-                return result.toString();
+                };
             case confidence:
-                return psParameter.getPsmConfidence() + "";
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        return rowContext.getPsParameter().getPsmConfidence() + "";
+                    }
+                };
             case score:
-                return psParameter.getPsmScore() + "";
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        return rowContext.getPsParameter().getPsmScore() + "";
+                    }
+                };
             case raw_score:
-                return psParameter.getPsmProbabilityScore() + "";
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        return rowContext.getPsParameter().getPsmProbabilityScore() + "";
+                    }
+                };
             case validated:
-                return psParameter.getMatchValidationLevel().toString();
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        return rowContext.getPsParameter().getMatchValidationLevel().toString();
+                    }
+                };
             case starred:
-                if (psParameter.isStarred()) {
-                    return "1";
-                } else {
-                    return "0";
-                }
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        if (rowContext.getPsParameter().isStarred()) {
+                            return "1";
+                        } else {
+                            return "0";
+                        }
+                    }
+                };
             case hidden:
-                if (psParameter.isHidden()) {
-                    return "1";
-                } else {
-                    return "0";
-                }
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        if (rowContext.getPsParameter().isHidden()) {
+                            return "1";
+                        } else {
+                            return "0";
+                        }
+                    }
+                };
             case confident_modification_sites:
-                if (spectrumMatch.getBestPeptideAssumption() != null) {
-                    String sequence = spectrumMatch.getBestPeptideAssumption().getPeptide().getSequence();
-                    return identificationFeaturesGenerator.getConfidentPtmSites(spectrumMatch, sequence);
-                }
-                return "";
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        SpectrumMatch spectrumMatch = rowContext.getSpectrumMatch();
+                        if (spectrumMatch.getBestPeptideAssumption() != null) {
+                            String sequence = spectrumMatch.getBestPeptideAssumption().getPeptide().getSequence();
+                            return identificationFeaturesGenerator.getConfidentPtmSites(spectrumMatch, sequence);
+                        }
+                        return "";
+                    }
+                };
             case confident_modification_sites_number:
-                return identificationFeaturesGenerator.getConfidentPtmSitesNumber(spectrumMatch);
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        return identificationFeaturesGenerator.getConfidentPtmSitesNumber(rowContext.getSpectrumMatch());
+                    }
+                };
             case ambiguous_modification_sites:
-                if (spectrumMatch.getBestPeptideAssumption() != null) {
-                    String sequence = spectrumMatch.getBestPeptideAssumption().getPeptide().getSequence();
-                    return identificationFeaturesGenerator.getAmbiguousPtmSites(spectrumMatch, sequence);
-                }
-                return "";
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        SpectrumMatch spectrumMatch = rowContext.getSpectrumMatch();
+                        if (spectrumMatch.getBestPeptideAssumption() != null) {
+                            String sequence = spectrumMatch.getBestPeptideAssumption().getPeptide().getSequence();
+                            return identificationFeaturesGenerator.getAmbiguousPtmSites(spectrumMatch, sequence);
+                        }
+                        return "";
+                    }
+                };
             case ambiguous_modification_sites_number:
-                return identificationFeaturesGenerator.getAmbiguousPtmSiteNumber(spectrumMatch);
-            case confident_phosphosites:
-                if (spectrumMatch.getBestPeptideAssumption() != null) {
-                    String sequence = spectrumMatch.getBestPeptideAssumption().getPeptide().getSequence();
-                    ArrayList<String> modifications = new ArrayList<String>();
-                    for (String ptm : identificationParameters.getSearchParameters().getModificationProfile().getAllNotFixedModifications()) {
-                        if (ptm.contains("phospho")) {
-                            modifications.add(ptm);
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        return identificationFeaturesGenerator.getAmbiguousPtmSiteNumber(rowContext.getSpectrumMatch());
+                    }
+                };
+            case confident_phosphosites: {
+                final ArrayList<String> modifications = getPhosphorylations(identificationParameters);
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        SpectrumMatch spectrumMatch = rowContext.getSpectrumMatch();
+                        if (spectrumMatch.getBestPeptideAssumption() != null) {
+                            String sequence = spectrumMatch.getBestPeptideAssumption().getPeptide().getSequence();
+                            return identificationFeaturesGenerator.getConfidentPtmSites(spectrumMatch, sequence, modifications);
                         }
+                        return "";
                     }
-                    return identificationFeaturesGenerator.getConfidentPtmSites(spectrumMatch, sequence, modifications);
-                }
-                return "";
-            case confident_phosphosites_number:
-                ArrayList<String> modifications = new ArrayList<String>();
-                for (String ptm : identificationParameters.getSearchParameters().getModificationProfile().getAllNotFixedModifications()) {
-                    if (ptm.contains("phospho")) {
-                        modifications.add(ptm);
+                };
+            }
+            case confident_phosphosites_number: {
+                final ArrayList<String> modifications = getPhosphorylations(identificationParameters);
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        return identificationFeaturesGenerator.getConfidentPtmSitesNumber(rowContext.getSpectrumMatch(), modifications);
                     }
-                }
-                return identificationFeaturesGenerator.getConfidentPtmSitesNumber(spectrumMatch, modifications);
-            case ambiguous_phosphosites:
-                if (spectrumMatch.getBestPeptideAssumption() != null) {
-                    String sequence = spectrumMatch.getBestPeptideAssumption().getPeptide().getSequence();
-                    modifications = new ArrayList<String>();
-                    for (String ptm : identificationParameters.getSearchParameters().getModificationProfile().getAllNotFixedModifications()) {
-                        if (ptm.contains("phospho")) {
-                            modifications.add(ptm);
+                };
+            }
+            case ambiguous_phosphosites: {
+                final ArrayList<String> modifications = getPhosphorylations(identificationParameters);
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        SpectrumMatch spectrumMatch = rowContext.getSpectrumMatch();
+                        if (spectrumMatch.getBestPeptideAssumption() != null) {
+                            String sequence = spectrumMatch.getBestPeptideAssumption().getPeptide().getSequence();
+                            return identificationFeaturesGenerator.getAmbiguousPtmSites(spectrumMatch, sequence, modifications);
                         }
+                        return "";
                     }
-                    return identificationFeaturesGenerator.getAmbiguousPtmSites(spectrumMatch, sequence, modifications);
-                }
-                return "";
-            case ambiguous_phosphosites_number:
-                modifications = new ArrayList<String>();
-                for (String ptm : identificationParameters.getSearchParameters().getModificationProfile().getAllNotFixedModifications()) {
-                    if (ptm.contains("phospho")) {
-                        modifications.add(ptm);
+                };
+            }
+            case ambiguous_phosphosites_number: {
+                final ArrayList<String> modifications = getPhosphorylations(identificationParameters);
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+                        return identificationFeaturesGenerator.getAmbiguousPtmSiteNumber(rowContext.getSpectrumMatch(), modifications);
                     }
-                }
-                return identificationFeaturesGenerator.getAmbiguousPtmSiteNumber(spectrumMatch, modifications);
+                };
+            }
             default:
-                return "Not implemented";
+                return new PsmColumn() {
+                    @Override
+                    public String getValue(PsPsmRowContext rowContext) {
+                        return "Not implemented";
+                    }
+                };
+        }
+    }
+
+    /**
+     * Returns the phosphorylations among the variable modifications of the
+     * search.
+     *
+     * @param identificationParameters the identification parameters
+     *
+     * @return the names of the phosphorylations
+     */
+    private static ArrayList<String> getPhosphorylations(IdentificationParameters identificationParameters) {
+        ArrayList<String> modifications = new ArrayList<String>();
+        for (String ptm : identificationParameters.getSearchParameters().getModificationProfile().getAllNotFixedModifications()) {
+            if (ptm.contains("phospho")) {
+                modifications.add(ptm);
+            }
         }
+        return modifications;
     }
 
     /**
@@ -524,6 +884,17 @@ public class PsPsmSection {
      * writing the file
      */
     public void writeHeader() throws IOException {
+        if (parquetWriter != null) {
+            ArrayList<String> columnNames = new ArrayList<String>();
+            for (ExportFeature exportFeature : identificationAlgorithmMatchesFeatures) {
+                columnNames.add(exportFeature.getTitle());
+            }
+            for (ExportFeature exportFeature : psmFeatures) {
+                columnNames.add(exportFeature.getTitle());
+            }
+            parquetWriter.setColumnNames(columnNames);
+            return;
+        }
         if (indexes) {
             writer.writeHeaderText("");
             writer.addSeparator();
@@ -547,4 +918,127 @@ public class PsPsmSection {
         }
         writer.newLine();
     }
+
+    /**
+     * A column of the PSM section compiled for a feature.
+     */
+    interface PsmColumn {
+
+        /**
+         * Returns the content of the column for the given line.
+         *
+         * @param rowContext the objects of the line
+         *
+         * @return the content of the column
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading a file
+         * @throws SQLException thrown if a SQLException occurs
+         * @throws ClassNotFoundException thrown if a ClassNotFoundException
+         * occurs
+         * @throws InterruptedException thrown if an InterruptedException
+         * occurs
+         * @throws MzMLUnmarshallerException thrown if an
+         * MzMLUnmarshallerException occurs
+         */
+        public String getValue(PsPsmRowContext rowContext) throws IOException, SQLException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException;
+    }
+
+    /**
+     * Callable computing the lines of a chunk of spectrum matches.
+     */
+    private class PsmRowsCallable implements Callable<ArrayList<ArrayList<String>>> {
+
+        /**
+         * The spectrum matches of the chunk.
+         */
+        private final ArrayList<SpectrumMatch> spectrumMatches;
+        /**
+         * The identification of the project.
+         */
+        private final Identification identification;
+        /**
+         * The identification features generator of the project.
+         */
+        private final IdentificationFeaturesGenerator identificationFeaturesGenerator;
+        /**
+         * Information on the shotgun protocol.
+         */
+        private final ShotgunProtocol shotgunProtocol;
+        /**
+         * The identification parameters.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The keys of the PSM matches to output.
+         */
+        private final ArrayList<String> keys;
+        /**
+         * The line prefix.
+         */
+        private final String linePrefix;
+        /**
+         * The compiled columns of the PSM features.
+         */
+        private final ArrayList<PsmColumn> columns;
+        /**
+         * Whether only validated matches should be exported.
+         */
+        private final boolean validatedOnly;
+        /**
+         * Whether decoy matches should be exported as well.
+         */
+        private final boolean decoys;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumMatches the spectrum matches of the chunk
+         * @param identification the identification of the project
+         * @param identificationFeaturesGenerator the identification features
+         * generator of the project
+         * @param shotgunProtocol information on the shotgun protocol
+         * @param identificationParameters the identification parameters
+         * @param keys the keys of the PSM matches to output
+         * @param linePrefix the line prefix
+         * @param columns the compiled columns of the PSM features
+         * @param validatedOnly whether only validated matches should be
+         * exported
+         * @param decoys whether decoy matches should be exported as well
+         * @param waitingHandler the waiting handler
+         */
+        public PsmRowsCallable(ArrayList<SpectrumMatch> spectrumMatches, Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+                ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, ArrayList<String> keys, String linePrefix,
+                ArrayList<PsmColumn> columns, boolean validatedOnly, boolean decoys, WaitingHandler waitingHandler) {
+            this.spectrumMatches = spectrumMatches;
+            this.identification = identification;
+            this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+            this.shotgunProtocol = shotgunProtocol;
+            this.identificationParameters = identificationParameters;
+            this.keys = keys;
+            this.linePrefix = linePrefix;
+            this.columns = columns;
+            this.validatedOnly = validatedOnly;
+            this.decoys = decoys;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public ArrayList<ArrayList<String>> call() throws Exception {
+            PSParameter psParameter = new PSParameter();
+            PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+            ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>(spectrumMatches.size());
+            for (SpectrumMatch spectrumMatch : spectrumMatches) {
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    break;
+                }
+                rows.add(getRow(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, keys, linePrefix, columns, spectrumMatch, psParameter, peptideSpectrumAnnotator, validatedOnly, decoys, waitingHandler));
+            }
+            return rows;
+        }
+    }
 }
@@ -13,6 +13,7 @@ import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.PTMScoringPreferences;
 import com.compomics.util.preferences.ProcessingPreferences;
 import eu.isas.peptideshaker.PeptideShaker;
+import eu.isas.peptideshaker.export.CpsArchiveSnapshot;
 import eu.isas.peptideshaker.myparameters.PSSettings;
 import eu.isas.peptideshaker.myparameters.PeptideShakerSettings;
 import java.io.File;
@@ -80,7 +81,9 @@ public class CpsFileImporter {
 
         try {
             TarUtils.extractFile(cpsFile, matchFolderParent, "resources", waitingHandler);
+            CpsArchiveSnapshot.register(cpsFile, CpsArchiveSnapshot.getFiles(matchFolder));
         } catch (ArchiveException e) {
+            CpsArchiveSnapshot.clear();
             //Most likely an old project
             experimentFile = cpsFile;
             e.printStackTrace();
@@ -698,6 +698,9 @@ public class FileImporter {
                             try {
                                 if (!peptideMapper.isCanceled()) {
                                     peptideMapper.mapPeptides(fileReader.getPeptidesMap(), processingPreferences.getnThreads(), waitingHandler);
+                                    waitingHandler.appendReport(peptideMapper.getnPeptides() + " peptides mapped in " + Util.roundDouble(peptideMapper.getMappingTime() / 1000.0, 1)
+                                            + " s (" + Util.roundDouble(peptideMapper.getPeptidesPerSecond(), 1) + " peptides/s, " + peptideMapper.getnBatches() + " batches, "
+                                            + peptideMapper.getnCacheFlushes() + " cache flushes).", true, true);
                                 }
                                 if (peptideMapper.isCanceled()) {
                                     fileReader.clearPeptidesMap();
@@ -719,6 +722,8 @@ public class FileImporter {
                         PsmImporter psmImporter = new PsmImporter(peptideShaker.getCache(), shotgunProtocol, identificationParameters, processingPreferences, fileReader, idFile, identification,
                                 inputMap, proteinCount, singleProteinList, exceptionHandler);
                         psmImporter.importPsms(idFileSpectrumMatches, processingPreferences.getnThreads(), waitingHandler);
+                        waitingHandler.appendReport(psmImporter.getnMatchesImported() + " spectrum matches imported in " + Util.roundDouble(psmImporter.getImportTime() / 1000.0, 1)
+                                + " s (" + Util.roundDouble(psmImporter.getMatchesPerSecond(), 1) + " spectrum matches/s).", true, true);
 
                         nPSMs += psmImporter.getnPSMs();
                         nSecondary += psmImporter.getnSecondary();
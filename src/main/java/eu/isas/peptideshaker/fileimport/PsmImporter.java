@@ -48,10 +48,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -182,6 +186,39 @@ public class PsmImporter {
      * The identification parameters.
      */
     private IdentificationParameters identificationParameters;
+    /**
+     * The default number of spectrum matches which can wait in the queue for
+     * import when using multiple threads.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+    /**
+     * The number of spectrum matches which can wait in the queue for import
+     * when using multiple threads.
+     */
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    /**
+     * The time in milliseconds to wait for the queue before checking whether
+     * the import was canceled.
+     */
+    private static final long QUEUE_TIMEOUT = 100;
+    /**
+     * The default number of spectrum matches imported in a single task when
+     * using multiple threads.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+    /**
+     * The number of spectrum matches imported in a single task when using
+     * multiple threads.
+     */
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    /**
+     * The number of spectrum matches imported.
+     */
+    private AtomicLong nMatchesImported = new AtomicLong();
+    /**
+     * The time spent importing the PSMs in milliseconds.
+     */
+    private long importTime = 0;
 
     /**
      * Constructor.
@@ -218,7 +255,8 @@ public class PsmImporter {
     }
 
     /**
-     * Imports PSMs.
+     * Imports PSMs. The matches are removed from the given list as they are
+     * imported.
      *
      * @param idFileSpectrumMatches the PSMs to import
      * @param nThreads the number of threads to use
@@ -235,15 +273,41 @@ public class PsmImporter {
      */
     public void importPsms(LinkedList<SpectrumMatch> idFileSpectrumMatches, int nThreads, WaitingHandler waitingHandler)
             throws IOException, SQLException, FileNotFoundException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
+        importPsms(getDrainingIterator(idFileSpectrumMatches), nThreads, waitingHandler);
+    }
+
+    /**
+     * Imports PSMs. The matches are pulled from the given iterator only when
+     * the import threads are ready to process them, the iterator can
+     * therefore produce the matches while they are imported.
+     *
+     * @param spectrumMatches iterator of the PSMs to import
+     * @param nThreads the number of threads to use
+     * @param waitingHandler waiting handler to display progress and allow
+     * canceling the import
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws FileNotFoundException thrown if a FileNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    public void importPsms(Iterator<SpectrumMatch> spectrumMatches, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, SQLException, FileNotFoundException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
+        long start = System.currentTimeMillis();
         if (nThreads == 1) {
-            importPsmsSingleThread(idFileSpectrumMatches, waitingHandler);
+            importPsmsSingleThread(spectrumMatches, waitingHandler);
         } else {
-            importPsmsMultipleThreads(idFileSpectrumMatches, nThreads, waitingHandler);
+            importPsmsMultipleThreads(spectrumMatches, nThreads, waitingHandler);
         }
+        importTime += System.currentTimeMillis() - start;
     }
 
     /**
-     * Imports PSMs using multiple threads.
+     * Imports PSMs using multiple threads. The matches are removed from the
+     * given list as they are queued.
      *
      * @param idFileSpectrumMatches the PSMs to import
      * @param nThreads the number of threads to use
@@ -260,17 +324,63 @@ public class PsmImporter {
      */
     public void importPsmsMultipleThreads(LinkedList<SpectrumMatch> idFileSpectrumMatches, int nThreads, WaitingHandler waitingHandler)
             throws IOException, SQLException, FileNotFoundException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
+        importPsmsMultipleThreads(getDrainingIterator(idFileSpectrumMatches), nThreads, waitingHandler);
+    }
 
+    /**
+     * Imports PSMs using multiple threads. The matches are pulled from the
+     * given iterator by chunks which are handed over to the import threads via
+     * a queue of bounded capacity. When the queue is full, no more matches are
+     * pulled until the import threads have processed a chunk, so that at most
+     * the queue capacity plus one chunk per thread are pending import.
+     *
+     * @param spectrumMatches iterator of the PSMs to import
+     * @param nThreads the number of threads to use
+     * @param waitingHandler waiting handler to display progress and allow
+     * canceling the import
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws FileNotFoundException thrown if a FileNotFoundException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    public void importPsmsMultipleThreads(Iterator<SpectrumMatch> spectrumMatches, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, SQLException, FileNotFoundException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
+
+        int queueCapacity = Math.max(queueSize / chunkSize, 1);
+        ArrayBlockingQueue<ArrayList<SpectrumMatch>> queue = new ArrayBlockingQueue<ArrayList<SpectrumMatch>>(queueCapacity);
+        ArrayList<PsmImporterRunnable> importers = new ArrayList<PsmImporterRunnable>(nThreads);
         ExecutorService pool = Executors.newFixedThreadPool(nThreads);
-        while (!idFileSpectrumMatches.isEmpty()) {
-            SpectrumMatch match = idFileSpectrumMatches.pollLast();
-            PsmImporterRunnable psmImporterRunnable = new PsmImporterRunnable(match, waitingHandler);
+        for (int i = 0; i < nThreads; i++) {
+            PsmImporterRunnable psmImporterRunnable = new PsmImporterRunnable(queue, waitingHandler);
+            importers.add(psmImporterRunnable);
             pool.submit(psmImporterRunnable);
+        }
+
+        ArrayList<SpectrumMatch> chunk = new ArrayList<SpectrumMatch>(chunkSize);
+        while (spectrumMatches.hasNext()) {
+            chunk.add(spectrumMatches.next());
+            if (chunk.size() == chunkSize || !spectrumMatches.hasNext()) {
+                while (!queue.offer(chunk, QUEUE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    if (waitingHandler.isRunCanceled()) {
+                        pool.shutdownNow();
+                        return;
+                    }
+                }
+                chunk = new ArrayList<SpectrumMatch>(chunkSize);
+            }
             if (waitingHandler.isRunCanceled()) {
                 pool.shutdownNow();
                 return;
             }
         }
+        for (PsmImporterRunnable psmImporterRunnable : importers) {
+            psmImporterRunnable.setInputFinished();
+        }
+
         pool.shutdown();
         if (!pool.awaitTermination(12, TimeUnit.HOURS)) {
             throw new InterruptedException("PSM import timed out. Please contact the developers.");
@@ -280,7 +390,7 @@ public class PsmImporter {
     /**
      * Imports PSMs using a single thread
      *
-     * @param idFileSpectrumMatches the PSMs to import
+     * @param spectrumMatches iterator of the PSMs to import
      * @param waitingHandler waiting handler to display progress and allow
      * canceling the import
      *
@@ -292,19 +402,57 @@ public class PsmImporter {
      * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
      * occurs
      */
-    private void importPsmsSingleThread(LinkedList<SpectrumMatch> idFileSpectrumMatches, WaitingHandler waitingHandler)
+    private void importPsmsSingleThread(Iterator<SpectrumMatch> spectrumMatches, WaitingHandler waitingHandler)
             throws IOException, SQLException, FileNotFoundException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
-        while (!idFileSpectrumMatches.isEmpty()) {
-            SpectrumMatch match = idFileSpectrumMatches.pollLast();
-            importPsm(match, waitingHandler);
+        PrecursorStatistics precursorStatistics = new PrecursorStatistics();
+        while (spectrumMatches.hasNext()) {
+            SpectrumMatch match = spectrumMatches.next();
+            importPsm(match, inputMap, precursorStatistics, waitingHandler);
+            nMatchesImported.incrementAndGet();
         }
+        mergePrecursorStatistics(precursorStatistics);
+    }
+
+    /**
+     * Returns an iterator removing the matches from the given list as they
+     * are returned, starting from the end of the list.
+     *
+     * @param spectrumMatches the list of spectrum matches
+     *
+     * @return an iterator draining the list
+     */
+    private static Iterator<SpectrumMatch> getDrainingIterator(final LinkedList<SpectrumMatch> spectrumMatches) {
+        return new Iterator<SpectrumMatch>() {
+
+            @Override
+            public boolean hasNext() {
+                return !spectrumMatches.isEmpty();
+            }
+
+            @Override
+            public SpectrumMatch next() {
+                if (spectrumMatches.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                return spectrumMatches.pollLast();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("The matches are removed when returned.");
+            }
+        };
     }
 
     /**
      * Imports a PSM.
      *
      * @param spectrumMatch the spectrum match to import
+     * @param threadInputMap the input map where to store the scores, can be
+     * specific to the importing thread
+     * @param precursorStatistics the precursor statistics of the importing
+     * thread
      * @param waitingHandler waiting handler to display progress and allow
      * canceling the import
      *
@@ -316,7 +464,7 @@ public class PsmImporter {
      * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
      * occurs
      */
-    private void importPsm(SpectrumMatch spectrumMatch, WaitingHandler waitingHandler)
+    private void importPsm(SpectrumMatch spectrumMatch, InputMap threadInputMap, PrecursorStatistics precursorStatistics, WaitingHandler waitingHandler)
             throws IOException, SQLException, FileNotFoundException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
         IdFilter idFilter = identificationParameters.getIdFilter();
@@ -809,8 +957,8 @@ public class PsmImporter {
                             firstPeptideHit = BestMatchSelection.getBestHit(spectrumKey, firstHits, proteinCount, sequenceMatchingPreferences, shotgunProtocol, identificationParameters);
                         }
                         if (firstPeptideHit != null) {
-                            inputMap.addEntry(advocateId, spectrumFileName, firstPeptideHit.getScore(), firstPeptideHit.getPeptide().isDecoy(sequenceMatchingPreferences));
-                            checkPeptidesMassErrorsAndCharges(spectrumKey, firstPeptideHit); //@TODO: Not sure whether this is the right place to do it?
+                            threadInputMap.addEntry(advocateId, spectrumFileName, firstPeptideHit.getScore(), firstPeptideHit.getPeptide().isDecoy(sequenceMatchingPreferences));
+                            checkPeptidesMassErrorsAndCharges(spectrumKey, firstPeptideHit, precursorStatistics); //@TODO: Not sure whether this is the right place to do it?
                             identification.addSpectrumMatch(spectrumMatch);
                             nRetained++;
                             break;
@@ -824,7 +972,7 @@ public class PsmImporter {
                                 if (assumption instanceof TagAssumption) {
                                     TagAssumption tagAssumption = (TagAssumption) assumption;
                                     firstTagHit = tagAssumption;
-                                    checkTagMassErrorsAndCharge(spectrumKey, tagAssumption);
+                                    checkTagMassErrorsAndCharge(spectrumKey, tagAssumption, precursorStatistics);
                                     identification.addSpectrumMatch(spectrumMatch);
                                     nRetained++;
                                     break;
@@ -849,10 +997,13 @@ public class PsmImporter {
     }
 
     /**
-     * Saves the peptide maximal mass error and found charge.
+     * Saves the peptide maximal mass error and found charge in the precursor
+     * statistics of the importing thread, and updates the protein count.
      *
      * @param spectrumKey the key of the spectrum match
      * @param peptideAssumption the peptide assumption
+     * @param precursorStatistics the precursor statistics of the importing
+     * thread
      *
      * @throws IOException thrown if an IOException occurs
      * @throws SQLException thrown if an SQLException occurs
@@ -861,75 +1012,95 @@ public class PsmImporter {
      * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
      * occurs
      */
-    private synchronized void checkPeptidesMassErrorsAndCharges(String spectrumKey, PeptideAssumption peptideAssumption)
+    private void checkPeptidesMassErrorsAndCharges(String spectrumKey, PeptideAssumption peptideAssumption, PrecursorStatistics precursorStatistics)
             throws IOException, InterruptedException, SQLException, ClassNotFoundException, MzMLUnmarshallerException {
 
         double precursorMz = spectrumFactory.getPrecursorMz(spectrumKey);
         double error = Math.abs(peptideAssumption.getDeltaMass(precursorMz, true));
 
-        if (error > maxPeptideErrorPpm) {
-            maxPeptideErrorPpm = error;
+        if (error > precursorStatistics.maxPeptideErrorPpm) {
+            precursorStatistics.maxPeptideErrorPpm = error;
         }
 
         error = Math.abs(peptideAssumption.getDeltaMass(precursorMz, false));
 
-        if (error > maxPeptideErrorDa) {
-            maxPeptideErrorDa = error;
+        if (error > precursorStatistics.maxPeptideErrorDa) {
+            precursorStatistics.maxPeptideErrorDa = error;
         }
 
-        int currentCharge = peptideAssumption.getIdentificationCharge().value;
-
-        if (!charges.contains(currentCharge)) {
-            charges.add(currentCharge);
-        }
+        precursorStatistics.charges.add(peptideAssumption.getIdentificationCharge().value);
 
         ArrayList<String> accessions = peptideAssumption.getPeptide().getParentProteins(identificationParameters.getSequenceMatchingPreferences());
-        for (String protein : accessions) {
-            Integer count = proteinCount.get(protein);
-            if (count != null) {
-                proteinCount.put(protein, count + 1);
-            } else {
-                boolean oneHitWonder = singleProteinList.contains(protein);
-                if (oneHitWonder) {
-                    singleProteinList.remove(protein);
-                    proteinCount.put(protein, 2);
+        synchronized (proteinCount) {
+            for (String protein : accessions) {
+                Integer count = proteinCount.get(protein);
+                if (count != null) {
+                    proteinCount.put(protein, count + 1);
                 } else {
-                    singleProteinList.add(protein);
+                    boolean oneHitWonder = singleProteinList.contains(protein);
+                    if (oneHitWonder) {
+                        singleProteinList.remove(protein);
+                        proteinCount.put(protein, 2);
+                    } else {
+                        singleProteinList.add(protein);
+                    }
                 }
             }
         }
     }
 
     /**
-     * Saves the maximal precursor error and charge.
+     * Saves the maximal precursor error and charge in the precursor statistics
+     * of the importing thread.
      *
      * @param spectrumKey the key of the spectrum match
      * @param tagAssumption the tag assumption
+     * @param precursorStatistics the precursor statistics of the importing
+     * thread
      *
      * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
      * occurs
      * @throws IOException thrown if an IOException occurs
      */
-    private synchronized void checkTagMassErrorsAndCharge(String spectrumKey, TagAssumption tagAssumption) throws MzMLUnmarshallerException, IOException {
+    private void checkTagMassErrorsAndCharge(String spectrumKey, TagAssumption tagAssumption, PrecursorStatistics precursorStatistics) throws MzMLUnmarshallerException, IOException {
 
         double precursorMz = spectrumFactory.getPrecursorMz(spectrumKey);
         double error = Math.abs(tagAssumption.getDeltaMass(precursorMz, true));
 
-        if (error > maxTagErrorPpm) {
-            maxTagErrorPpm = error;
+        if (error > precursorStatistics.maxTagErrorPpm) {
+            precursorStatistics.maxTagErrorPpm = error;
         }
 
         error = Math.abs(tagAssumption.getDeltaMass(precursorMz, false));
 
-        if (error > maxTagErrorDa) {
-            maxTagErrorDa = error;
+        if (error > precursorStatistics.maxTagErrorDa) {
+            precursorStatistics.maxTagErrorDa = error;
         }
 
-        int currentCharge = tagAssumption.getIdentificationCharge().value;
+        precursorStatistics.charges.add(tagAssumption.getIdentificationCharge().value);
+    }
 
-        if (!charges.contains(currentCharge)) {
-            charges.add(currentCharge);
+    /**
+     * Merges the precursor statistics gathered by an importing thread into
+     * the statistics of this importer.
+     *
+     * @param precursorStatistics the precursor statistics of an importing
+     * thread
+     */
+    private synchronized void mergePrecursorStatistics(PrecursorStatistics precursorStatistics) {
+        if (precursorStatistics.maxPeptideErrorPpm > maxPeptideErrorPpm) {
+            maxPeptideErrorPpm = precursorStatistics.maxPeptideErrorPpm;
+        }
+        if (precursorStatistics.maxPeptideErrorDa > maxPeptideErrorDa) {
+            maxPeptideErrorDa = precursorStatistics.maxPeptideErrorDa;
+        }
+        if (precursorStatistics.maxTagErrorPpm > maxTagErrorPpm) {
+            maxTagErrorPpm = precursorStatistics.maxTagErrorPpm;
         }
+        if (precursorStatistics.maxTagErrorDa > maxTagErrorDa) {
+            maxTagErrorDa = precursorStatistics.maxTagErrorDa;
+        }
+        charges.addAll(precursorStatistics.charges);
     }
 
     /**
@@ -1126,15 +1297,110 @@ public class PsmImporter {
     }
 
     /**
-     * Private runnable to import PSMs.
+     * Returns the number of spectrum matches which can wait in the queue for
+     * import when using multiple threads.
+     *
+     * @return the number of spectrum matches which can wait in the queue for
+     * import
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Sets the number of spectrum matches which can wait in the queue for
+     * import when using multiple threads. The memory used by the matches
+     * pending import is proportional to this number.
+     *
+     * @param queueSize the number of spectrum matches which can wait in the
+     * queue for import
+     */
+    public void setQueueSize(int queueSize) {
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("The import queue size must be strictly positive.");
+        }
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Returns the number of spectrum matches imported in a single task when
+     * using multiple threads.
+     *
+     * @return the number of spectrum matches imported in a single task
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the number of spectrum matches imported in a single task when
+     * using multiple threads.
+     *
+     * @param chunkSize the number of spectrum matches imported in a single
+     * task
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The import chunk size must be strictly positive.");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns the number of spectrum matches imported.
+     *
+     * @return the number of spectrum matches imported
+     */
+    public long getnMatchesImported() {
+        return nMatchesImported.get();
+    }
+
+    /**
+     * Returns the time spent importing PSMs in milliseconds.
+     *
+     * @return the time spent importing PSMs in milliseconds
+     */
+    public long getImportTime() {
+        return importTime;
+    }
+
+    /**
+     * Returns the number of spectrum matches imported per second, 0 if no
+     * import was conducted.
+     *
+     * @return the number of spectrum matches imported per second
+     */
+    public double getMatchesPerSecond() {
+        if (importTime == 0) {
+            return 0;
+        }
+        return 1000.0 * nMatchesImported.get() / importTime;
+    }
+
+    /**
+     * Private runnable to import PSMs. The runnable imports the chunks of
+     * matches from the queue until the input is finished and the queue is
+     * empty.
      */
     private class PsmImporterRunnable implements Runnable {
 
         /**
-         * The spectrum match to import.
+         * The queue of chunks of spectrum matches to import.
          */
-        private SpectrumMatch spectrumMatch;
-
+        private ArrayBlockingQueue<ArrayList<SpectrumMatch>> queue;
+        /**
+         * Boolean indicating whether all matches to import were queued.
+         */
+        private volatile boolean inputFinished = false;
+        /**
+         * The precursor statistics gathered by this thread.
+         */
+        private PrecursorStatistics precursorStatistics = new PrecursorStatistics();
+        /**
+         * The input map filled by this thread, merged into the input map of
+         * the importer when the thread is done.
+         */
+        private InputMap threadInputMap = new InputMap();
         /**
          * The waiting handler.
          */
@@ -1143,27 +1409,95 @@ public class PsmImporter {
         /**
          * Constructor.
          *
-         * @param spectrumMatch the match to import
+         * @param queue the queue of chunks of spectrum matches to import
          * @param waitingHandler a waiting handler to display progress and allow
          * canceling the process
          */
-        public PsmImporterRunnable(SpectrumMatch spectrumMatch, WaitingHandler waitingHandler) {
-            this.spectrumMatch = spectrumMatch;
+        public PsmImporterRunnable(ArrayBlockingQueue<ArrayList<SpectrumMatch>> queue, WaitingHandler waitingHandler) {
+            this.queue = queue;
             this.waitingHandler = waitingHandler;
         }
 
+        /**
+         * Indicates that no more matches will be added to the queue.
+         */
+        public void setInputFinished() {
+            inputFinished = true;
+        }
+
         @Override
         public void run() {
 
             try {
-                if (!waitingHandler.isRunCanceled()) {
-                    importPsm(spectrumMatch, waitingHandler);
+                importChunks();
+            } finally {
+                mergePrecursorStatistics(precursorStatistics);
+                inputMap.addAll(threadInputMap);
+            }
+        }
+
+        /**
+         * Imports the chunks of matches from the queue until the input is
+         * finished and the queue is empty.
+         */
+        private void importChunks() {
+
+            while (!waitingHandler.isRunCanceled()) {
+                ArrayList<SpectrumMatch> chunk;
+                try {
+                    chunk = queue.poll(QUEUE_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
                 }
-            } catch (Exception e) {
-                if (!waitingHandler.isRunCanceled()) {
-                    exceptionHandler.catchException(e);
+                if (chunk == null) {
+                    if (inputFinished && queue.isEmpty()) {
+                        return;
+                    }
+                } else {
+                    for (SpectrumMatch spectrumMatch : chunk) {
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                        try {
+                            importPsm(spectrumMatch, threadInputMap, precursorStatistics, waitingHandler);
+                        } catch (Exception e) {
+                            if (!waitingHandler.isRunCanceled()) {
+                                exceptionHandler.catchException(e);
+                            }
+                        }
+                        nMatchesImported.incrementAndGet();
+                    }
                 }
             }
         }
     }
+
+    /**
+     * Precursor mass errors and charges gathered by a single importing thread.
+     * The statistics of every thread are merged into the importer at the end
+     * of the import.
+     */
+    private static class PrecursorStatistics {
+
+        /**
+         * The maximal peptide mass error found in ppm.
+         */
+        private double maxPeptideErrorPpm = 0;
+        /**
+         * The maximal peptide mass error found in Da.
+         */
+        private double maxPeptideErrorDa = 0;
+        /**
+         * The maximal tag mass error found in ppm.
+         */
+        private double maxTagErrorPpm = 0;
+        /**
+         * The maximal tag mass error found in Da.
+         */
+        private double maxTagErrorDa = 0;
+        /**
+         * List of charges found.
+         */
+        private HashSet<Integer> charges = new HashSet<Integer>();
+    }
 }
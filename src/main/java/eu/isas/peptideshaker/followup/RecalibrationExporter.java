@@ -6,13 +6,23 @@ import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.preferences.AnnotationPreferences;
+import eu.isas.peptideshaker.PeptideShaker;
 import eu.isas.peptideshaker.recalibration.RunMzDeviation;
 import eu.isas.peptideshaker.recalibration.SpectrumRecalibrator;
+import eu.isas.peptideshaker.utils.SilentWaitingHandler;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -58,6 +68,41 @@ public class RecalibrationExporter {
     public static void writeRecalibratedSpectra(boolean recalibratePrecursors, boolean recalibrateFragmentIons, File folder,
             Identification identification, AnnotationPreferences annotationPreferences, WaitingHandler waitingHandler)
             throws IOException, MzMLUnmarshallerException, SQLException, ClassNotFoundException, InterruptedException {
+        writeRecalibratedSpectra(recalibratePrecursors, recalibrateFragmentIons, folder, identification, annotationPreferences, 1, waitingHandler);
+    }
+
+    /**
+     * Writes the recalibrated spectra in files named according to
+     * getRecalibratedFileName in the given folder. When using multiple threads,
+     * the files are processed in parallel and the spectra of a file are
+     * recalibrated in chunks written in the original order.
+     *
+     * @param recalibratePrecursors boolean indicating whether precursor ions
+     * shall be recalibrated
+     * @param recalibrateFragmentIons boolean indicating whether fragment ions
+     * shall be recalibrated
+     * @param folder folder where recalibrated files shall be written
+     * @param identification identification of the project
+     * @param annotationPreferences the spectrum annotation preferences
+     * @param nThreads the number of threads to use
+     * @param waitingHandler waiting handler displaying progress and used to
+     * cancel the process. Can be null. The method does not call RunFinished.
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    public static void writeRecalibratedSpectra(boolean recalibratePrecursors, boolean recalibrateFragmentIons, File folder,
+            Identification identification, AnnotationPreferences annotationPreferences, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, MzMLUnmarshallerException, SQLException, ClassNotFoundException, InterruptedException {
+
+        if (nThreads > 1) {
+            writeRecalibratedSpectraMultipleThreads(recalibratePrecursors, recalibrateFragmentIons, folder, identification, annotationPreferences, nThreads, waitingHandler);
+            return;
+        }
 
         SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
         SpectrumRecalibrator spectrumRecalibrator = new SpectrumRecalibrator();
@@ -79,57 +124,8 @@ public class RecalibrationExporter {
 
             spectrumRecalibrator.estimateErrors(fileName, identification, annotationPreferences, waitingHandler);
 
-            // Debug part
             if (debug) {
-
-                RunMzDeviation runMzDeviation = spectrumRecalibrator.getRunMzDeviations(fileName);
-
-                File debugFile = new File(folder, "debug" + getRecalibratedFileName(fileName) + "_precursors.txt");
-                BufferedWriter debugWriter = new BufferedWriter(new FileWriter(debugFile));
-                debugWriter.write("rt\tgrade\toffset");
-                debugWriter.newLine();
-
-                for (double key : runMzDeviation.getPrecursorRTList()) {
-
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        break;
-                    }
-
-                    debugWriter.write(key + "\t");
-                    debugWriter.write(runMzDeviation.getSlope(key) + "\t");
-                    debugWriter.write(runMzDeviation.getOffset(key) + "\t");
-                    debugWriter.newLine();
-                }
-
-                debugWriter.flush();
-                debugWriter.close();
-
-                debugFile = new File(folder, getRecalibratedFileName(fileName) + "_fragments.txt");
-                debugWriter = new BufferedWriter(new FileWriter(debugFile));
-
-                for (double rtKey : runMzDeviation.getPrecursorRTList()) {
-
-                    debugWriter.write(rtKey + "\nm/z");
-
-                    for (double mzKey : runMzDeviation.getFragmentMZList(rtKey)) {
-
-                        debugWriter.write("\t" + mzKey);
-
-                    }
-                    debugWriter.newLine();
-                    debugWriter.write("Error");
-
-                    for (double mzKey : runMzDeviation.getFragmentMZList(rtKey)) {
-
-                        debugWriter.write("\t" + runMzDeviation.getFragmentMzError(rtKey, mzKey));
-
-                    }
-
-                    debugWriter.newLine();
-                }
-                debugWriter.flush();
-                debugWriter.close();
-                // End of debug part
+                writeDebugFiles(folder, fileName, spectrumRecalibrator.getRunMzDeviations(fileName), waitingHandler);
             }
 
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
@@ -158,7 +154,7 @@ public class RecalibrationExporter {
                     if (waitingHandler.isRunCanceled()) {
                         break;
                     }
-                    waitingHandler.increasePrimaryProgressCounter();
+                    waitingHandler.increaseSecondaryProgressCounter();
                 }
             }
 
@@ -167,6 +163,186 @@ public class RecalibrationExporter {
         }
     }
 
+    /**
+     * Writes the recalibrated spectra using multiple threads. The files are
+     * processed in parallel, the spectra of every file are recalibrated in
+     * chunks by a shared pool and written in their original order.
+     *
+     * @param recalibratePrecursors boolean indicating whether precursor ions
+     * shall be recalibrated
+     * @param recalibrateFragmentIons boolean indicating whether fragment ions
+     * shall be recalibrated
+     * @param folder folder where recalibrated files shall be written
+     * @param identification identification of the project
+     * @param annotationPreferences the spectrum annotation preferences
+     * @param nThreads the number of threads to use
+     * @param waitingHandler waiting handler displaying progress and used to
+     * cancel the process. Can be null
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     */
+    private static void writeRecalibratedSpectraMultipleThreads(boolean recalibratePrecursors, boolean recalibrateFragmentIons, File folder,
+            Identification identification, AnnotationPreferences annotationPreferences, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException {
+
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        SpectrumRecalibrator spectrumRecalibrator = new SpectrumRecalibrator();
+        ArrayList<String> fileNames = spectrumFactory.getMgfFileNames();
+
+        if (waitingHandler != null) {
+            int nSpectra = 0;
+            for (String fileName : fileNames) {
+                nSpectra += spectrumFactory.getNSpectra(fileName);
+            }
+            waitingHandler.setWaitingText("Recalibrating Spectra. Please Wait...");
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(nSpectra + fileNames.size());
+        }
+
+        ExecutorService filePool = Executors.newFixedThreadPool(Math.max(Math.min(nThreads, fileNames.size()), 1));
+        ExecutorService spectrumPool = Executors.newFixedThreadPool(nThreads);
+
+        try {
+            ArrayList<Future<Object>> fileFutures = new ArrayList<Future<Object>>(fileNames.size());
+            for (String fileName : fileNames) {
+                FileRecalibrationCallable callable = new FileRecalibrationCallable(fileName, recalibratePrecursors, recalibrateFragmentIons, folder,
+                        identification, annotationPreferences, spectrumRecalibrator, spectrumPool, nThreads, waitingHandler);
+                fileFutures.add(filePool.submit(callable));
+            }
+            for (int i = 0; i < fileNames.size(); i++) {
+                try {
+                    fileFutures.get(i).get();
+                } catch (ExecutionException e) {
+                    throw new IOException("An error occurred while recalibrating " + fileNames.get(i) + ".", e.getCause());
+                }
+            }
+        } finally {
+            filePool.shutdownNow();
+            spectrumPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the recalibrated spectra of a file. The spectra are recalibrated
+     * in chunks by the given pool and written in their original order.
+     *
+     * @param fileName the name of the spectrum file
+     * @param recalibratePrecursors boolean indicating whether precursor ions
+     * shall be recalibrated
+     * @param recalibrateFragmentIons boolean indicating whether fragment ions
+     * shall be recalibrated
+     * @param folder folder where recalibrated files shall be written
+     * @param spectrumRecalibrator the spectrum recalibrator where the errors
+     * of this file are estimated
+     * @param spectrumPool the pool where to recalibrate the spectra
+     * @param maxPendingChunks the maximal number of chunks waiting to be
+     * written
+     * @param waitingHandler waiting handler displaying progress and used to
+     * cancel the process. Can be null
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws ExecutionException thrown if an exception occurred while
+     * recalibrating the spectra
+     */
+    private static void writeRecalibratedFile(String fileName, boolean recalibratePrecursors, boolean recalibrateFragmentIons, File folder,
+            SpectrumRecalibrator spectrumRecalibrator, ExecutorService spectrumPool, int maxPendingChunks, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ExecutionException {
+
+        ArrayList<String> spectrumTitles = SpectrumFactory.getInstance().getSpectrumTitles(fileName);
+        File file = new File(folder, getRecalibratedFileName(fileName));
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+
+        try {
+            LinkedList<Future<String>> pendingChunks = new LinkedList<Future<String>>();
+
+            for (int start = 0; start < spectrumTitles.size(); start += PeptideShaker.PARALLEL_CHUNK_SIZE) {
+
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+
+                int end = Math.min(start + PeptideShaker.PARALLEL_CHUNK_SIZE, spectrumTitles.size());
+                SpectrumChunkCallable callable = new SpectrumChunkCallable(fileName, new ArrayList<String>(spectrumTitles.subList(start, end)),
+                        recalibratePrecursors, recalibrateFragmentIons, spectrumRecalibrator, waitingHandler);
+                pendingChunks.add(spectrumPool.submit(callable));
+
+                if (pendingChunks.size() >= maxPendingChunks) {
+                    writer.write(pendingChunks.removeFirst().get());
+                }
+            }
+
+            while (!pendingChunks.isEmpty()) {
+                writer.write(pendingChunks.removeFirst().get());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the debug files of a file.
+     *
+     * @param folder folder where recalibrated files shall be written
+     * @param fileName the name of the spectrum file
+     * @param runMzDeviation the m/z deviations of the file
+     * @param waitingHandler waiting handler displaying progress and used to
+     * cancel the process. Can be null
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    private static void writeDebugFiles(File folder, String fileName, RunMzDeviation runMzDeviation, WaitingHandler waitingHandler) throws IOException {
+
+
+        File debugFile = new File(folder, "debug" + getRecalibratedFileName(fileName) + "_precursors.txt");
+        BufferedWriter debugWriter = new BufferedWriter(new FileWriter(debugFile));
+        debugWriter.write("rt\tgrade\toffset");
+        debugWriter.newLine();
+
+        for (double key : runMzDeviation.getPrecursorRTList()) {
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
+
+            debugWriter.write(key + "\t");
+            debugWriter.write(runMzDeviation.getSlope(key) + "\t");
+            debugWriter.write(runMzDeviation.getOffset(key) + "\t");
+            debugWriter.newLine();
+        }
+
+        debugWriter.flush();
+        debugWriter.close();
+
+        debugFile = new File(folder, getRecalibratedFileName(fileName) + "_fragments.txt");
+        debugWriter = new BufferedWriter(new FileWriter(debugFile));
+
+        for (double rtKey : runMzDeviation.getPrecursorRTList()) {
+
+            debugWriter.write(rtKey + "\nm/z");
+
+            for (double mzKey : runMzDeviation.getFragmentMZList(rtKey)) {
+
+                debugWriter.write("\t" + mzKey);
+
+            }
+            debugWriter.newLine();
+            debugWriter.write("Error");
+
+            for (double mzKey : runMzDeviation.getFragmentMZList(rtKey)) {
+
+                debugWriter.write("\t" + runMzDeviation.getFragmentMzError(rtKey, mzKey));
+
+            }
+
+            debugWriter.newLine();
+        }
+        debugWriter.flush();
+        debugWriter.close();
+    }
+
     /**
      * Returns the name of the recalibrated file.
      *
@@ -176,4 +352,187 @@ public class RecalibrationExporter {
     public static String getRecalibratedFileName(String fileName) {
         return Util.appendSuffix(fileName, recalibrated);
     }
+
+    /**
+     * Callable estimating the errors of a spectrum file and writing its
+     * recalibrated spectra.
+     */
+    private static class FileRecalibrationCallable implements Callable<Object> {
+
+        /**
+         * The name of the spectrum file.
+         */
+        private final String fileName;
+        /**
+         * Boolean indicating whether precursor ions shall be recalibrated.
+         */
+        private final boolean recalibratePrecursors;
+        /**
+         * Boolean indicating whether fragment ions shall be recalibrated.
+         */
+        private final boolean recalibrateFragmentIons;
+        /**
+         * Folder where recalibrated files shall be written.
+         */
+        private final File folder;
+        /**
+         * The identification of the project.
+         */
+        private final Identification identification;
+        /**
+         * The spectrum annotation preferences.
+         */
+        private final AnnotationPreferences annotationPreferences;
+        /**
+         * The spectrum recalibrator, shared between the files.
+         */
+        private final SpectrumRecalibrator spectrumRecalibrator;
+        /**
+         * The pool where to recalibrate the spectra.
+         */
+        private final ExecutorService spectrumPool;
+        /**
+         * The maximal number of chunks waiting to be written.
+         */
+        private final int maxPendingChunks;
+        /**
+         * The waiting handler, can be null.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param fileName the name of the spectrum file
+         * @param recalibratePrecursors boolean indicating whether precursor
+         * ions shall be recalibrated
+         * @param recalibrateFragmentIons boolean indicating whether fragment
+         * ions shall be recalibrated
+         * @param folder folder where recalibrated files shall be written
+         * @param identification the identification of the project
+         * @param annotationPreferences the spectrum annotation preferences
+         * @param spectrumRecalibrator the spectrum recalibrator, shared
+         * between the files
+         * @param spectrumPool the pool where to recalibrate the spectra
+         * @param maxPendingChunks the maximal number of chunks waiting to be
+         * written
+         * @param waitingHandler the waiting handler, can be null
+         */
+        public FileRecalibrationCallable(String fileName, boolean recalibratePrecursors, boolean recalibrateFragmentIons, File folder,
+                Identification identification, AnnotationPreferences annotationPreferences, SpectrumRecalibrator spectrumRecalibrator,
+                ExecutorService spectrumPool, int maxPendingChunks, WaitingHandler waitingHandler) {
+            this.fileName = fileName;
+            this.recalibratePrecursors = recalibratePrecursors;
+            this.recalibrateFragmentIons = recalibrateFragmentIons;
+            this.folder = folder;
+            this.identification = identification;
+            this.annotationPreferences = annotationPreferences;
+            this.spectrumRecalibrator = spectrumRecalibrator;
+            this.spectrumPool = spectrumPool;
+            this.maxPendingChunks = maxPendingChunks;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public Object call() throws Exception {
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return null;
+            }
+
+            spectrumRecalibrator.estimateErrors(fileName, identification, annotationPreferences, new SilentWaitingHandler(waitingHandler));
+
+            if (waitingHandler != null) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
+
+            if (debug) {
+                writeDebugFiles(folder, fileName, spectrumRecalibrator.getRunMzDeviations(fileName), waitingHandler);
+            }
+
+            writeRecalibratedFile(fileName, recalibratePrecursors, recalibrateFragmentIons, folder, spectrumRecalibrator, spectrumPool, maxPendingChunks, waitingHandler);
+
+            spectrumRecalibrator.clearErrors(fileName);
+
+            return null;
+        }
+    }
+
+    /**
+     * Callable recalibrating a chunk of spectra and returning them in the mgf
+     * format.
+     */
+    private static class SpectrumChunkCallable implements Callable<String> {
+
+        /**
+         * The name of the spectrum file.
+         */
+        private final String fileName;
+        /**
+         * The titles of the spectra to recalibrate.
+         */
+        private final ArrayList<String> spectrumTitles;
+        /**
+         * Boolean indicating whether precursor ions shall be recalibrated.
+         */
+        private final boolean recalibratePrecursors;
+        /**
+         * Boolean indicating whether fragment ions shall be recalibrated.
+         */
+        private final boolean recalibrateFragmentIons;
+        /**
+         * The spectrum recalibrator.
+         */
+        private final SpectrumRecalibrator spectrumRecalibrator;
+        /**
+         * The waiting handler, can be null.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param fileName the name of the spectrum file
+         * @param spectrumTitles the titles of the spectra to recalibrate
+         * @param recalibratePrecursors boolean indicating whether precursor
+         * ions shall be recalibrated
+         * @param recalibrateFragmentIons boolean indicating whether fragment
+         * ions shall be recalibrated
+         * @param spectrumRecalibrator the spectrum recalibrator
+         * @param waitingHandler the waiting handler, can be null
+         */
+        public SpectrumChunkCallable(String fileName, ArrayList<String> spectrumTitles, boolean recalibratePrecursors, boolean recalibrateFragmentIons,
+                SpectrumRecalibrator spectrumRecalibrator, WaitingHandler waitingHandler) {
+            this.fileName = fileName;
+            this.spectrumTitles = spectrumTitles;
+            this.recalibratePrecursors = recalibratePrecursors;
+            this.recalibrateFragmentIons = recalibrateFragmentIons;
+            this.spectrumRecalibrator = spectrumRecalibrator;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public String call() throws Exception {
+
+            StringWriter stringWriter = new StringWriter();
+            BufferedWriter writer = new BufferedWriter(stringWriter);
+
+            for (String spectrumTitle : spectrumTitles) {
+
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    break;
+                }
+
+                MSnSpectrum recalibratedSpectrum = spectrumRecalibrator.recalibrateSpectrum(fileName, spectrumTitle, recalibratePrecursors, recalibrateFragmentIons);
+                recalibratedSpectrum.writeMgf(writer);
+
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+
+            writer.close();
+            return stringWriter.toString();
+        }
+    }
 }
@@ -2,7 +2,12 @@ package eu.isas.peptideshaker.myparameters;
 
 import com.compomics.util.experiment.personalization.UrParameter;
 import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
@@ -14,6 +19,10 @@ import org.apache.commons.math.util.FastMath;
  * them, indicate the estimated posterior error probability associated and flag
  * whether they have been validated or not.
  *
+ * The maps are only allocated when used and the intermediate scores are
+ * stored in a primitive array. The serialized form is unchanged, see
+ * serialPersistentFields.
+ *
  * @author Marc Vaudel
  */
 public class PSParameter implements UrParameter {
@@ -22,6 +31,42 @@ public class PSParameter implements UrParameter {
      * Serial version UID for post-serialization compatibility.
      */
     static final long serialVersionUID = 2846587135366515967L;
+    /**
+     * The fields as serialized in the cps files.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("searchEngineProbability", double.class),
+        new ObjectStreamField("algorithmDeltaPEP", Double.class),
+        new ObjectStreamField("deltaPEP", Double.class),
+        new ObjectStreamField("psmProbabilityScore", double.class),
+        new ObjectStreamField("psmProbability", double.class),
+        new ObjectStreamField("peptideProbabilityScore", double.class),
+        new ObjectStreamField("peptideProbability", double.class),
+        new ObjectStreamField("proteinProbabilityScore", double.class),
+        new ObjectStreamField("proteinProbability", double.class),
+        new ObjectStreamField("validated", boolean.class),
+        new ObjectStreamField("matchValidationLevel", MatchValidationLevel.class),
+        new ObjectStreamField("manualValidation", Boolean.class),
+        new ObjectStreamField("reasonDoubtful", String.class),
+        new ObjectStreamField("hidden", boolean.class),
+        new ObjectStreamField("starred", boolean.class),
+        new ObjectStreamField("secificMapKey", String.class),
+        new ObjectStreamField("groupClass", int.class),
+        new ObjectStreamField("fractionPEP", HashMap.class),
+        new ObjectStreamField("fractionScore", HashMap.class),
+        new ObjectStreamField("validatedPeptidesPerFraction", HashMap.class),
+        new ObjectStreamField("validatedSpectraPerFraction", HashMap.class),
+        new ObjectStreamField("precursorIntensityPerFraction", HashMap.class),
+        new ObjectStreamField("precursorIntensityAveragePerFraction", HashMap.class),
+        new ObjectStreamField("precursorIntensitySummedPerFraction", HashMap.class),
+        new ObjectStreamField("qcFilters", HashMap.class),
+        new ObjectStreamField("intermediateScores", HashMap.class)
+    };
+    /**
+     * Shared empty map of QC results, used for matches where QC filters were
+     * implemented but no result was set yet.
+     */
+    private static final HashMap<String, Boolean> NO_QC_RESULTS = new HashMap<String, Boolean>(0);
     /**
      * Posterior error probability estimated for the search engine results.
      */
@@ -29,13 +74,15 @@ public class PSParameter implements UrParameter {
     /**
      * The difference in identification algorithm level PEP with the next best
      * peptide assumption with sequence difference for a given search engine.
+     * NaN if not set.
      */
-    private Double algorithmDeltaPEP;
+    private double algorithmDeltaPEP = Double.NaN;
     /**
      * The difference in identification algorithm level PEP with the next best
      * peptide assumption with sequence difference across all search engines.
+     * NaN if not set.
      */
-    private Double deltaPEP;
+    private double deltaPEP = Double.NaN;
     /**
      * Probabilistic score for a peptide to spectrum match in the dataset.
      */
@@ -75,7 +122,7 @@ public class PSParameter implements UrParameter {
      * Boolean indicating whether the validation confidence was manually
      * updated.
      */
-    private Boolean manualValidation = false;
+    private boolean manualValidation = false;
     /**
      * The reason why a match is flagged as doubtful.
      */
@@ -134,41 +181,43 @@ public class PSParameter implements UrParameter {
      */
     public static final int ISOFORMS_UNRELATED = 2;
     /**
-     * The fraction confidence map.
+     * The fraction confidence map. Null if empty.
      */
-    private HashMap<String, Double> fractionPEP = new HashMap<String, Double>();
+    private HashMap<String, Double> fractionPEP = null;
     /**
-     * The fraction confidence map.
+     * The fraction confidence map. Null if empty.
      */
-    private HashMap<String, Double> fractionScore = new HashMap<String, Double>();
+    private HashMap<String, Double> fractionScore = null;
     /**
-     * The number of validated peptides per fraction.
+     * The number of validated peptides per fraction. Null if empty.
      */
-    private HashMap<String, Integer> validatedPeptidesPerFraction = new HashMap<String, Integer>();
+    private HashMap<String, Integer> validatedPeptidesPerFraction = null;
     /**
-     * The number of validated spectra per fraction.
+     * The number of validated spectra per fraction. Null if empty.
      */
-    private HashMap<String, Integer> validatedSpectraPerFraction = new HashMap<String, Integer>();
+    private HashMap<String, Integer> validatedSpectraPerFraction = null;
     /**
-     * The precursor intensity per fraction.
+     * The precursor intensity per fraction. Null if empty.
      */
-    private HashMap<String, ArrayList<Double>> precursorIntensityPerFraction = new HashMap<String, ArrayList<Double>>();
+    private HashMap<String, ArrayList<Double>> precursorIntensityPerFraction = null;
     /**
-     * The average precursor intensity per fraction.
+     * The average precursor intensity per fraction. Null if empty.
      */
-    private HashMap<String, Double> precursorIntensityAveragePerFraction = new HashMap<String, Double>();
+    private HashMap<String, Double> precursorIntensityAveragePerFraction = null;
     /**
-     * The summed precursor intensity per fraction.
+     * The summed precursor intensity per fraction. Null if empty.
      */
-    private HashMap<String, Double> precursorIntensitySummedPerFraction = new HashMap<String, Double>();
+    private HashMap<String, Double> precursorIntensitySummedPerFraction = null;
     /**
-     * The results of the validation quality filters.
+     * The results of the validation quality filters. Null if the filters were
+     * not implemented when the match was validated.
      */
-    private HashMap<String, Boolean> qcFilters = new HashMap<String, Boolean>();
+    private HashMap<String, Boolean> qcFilters = NO_QC_RESULTS;
     /**
-     * Map of the intermediate scores. Score index &gt; value
+     * The intermediate scores indexed by score index, NaN if not set. Null if
+     * no intermediate score was set.
      */
-    private HashMap<Integer, Double> intermediateScores;
+    private double[] intermediateScores;
 
     /**
      * Constructor.
@@ -349,6 +398,9 @@ public class PSParameter implements UrParameter {
      * search engine
      */
     public Double getAlgorithmDeltaPEP() {
+        if (Double.isNaN(algorithmDeltaPEP)) {
+            return null;
+        }
         return algorithmDeltaPEP;
     }
 
@@ -362,7 +414,7 @@ public class PSParameter implements UrParameter {
      * search engine
      */
     public void setAlgorithmDeltaPEP(Double deltaPEP) {
-        this.algorithmDeltaPEP = deltaPEP;
+        this.algorithmDeltaPEP = deltaPEP == null ? Double.NaN : deltaPEP;
     }
 
     /**
@@ -375,6 +427,9 @@ public class PSParameter implements UrParameter {
      * engines
      */
     public Double getDeltaPEP() {
+        if (Double.isNaN(deltaPEP)) {
+            return null;
+        }
         return deltaPEP;
     }
 
@@ -388,7 +443,7 @@ public class PSParameter implements UrParameter {
      * search engines
      */
     public void setDeltaPEP(Double deltaPEP) {
-        this.deltaPEP = deltaPEP;
+        this.deltaPEP = deltaPEP == null ? Double.NaN : deltaPEP;
     }
 
     /**
@@ -647,6 +702,9 @@ public class PSParameter implements UrParameter {
      * @param confidence the confidence
      */
     public void setFractionScore(String fraction, double confidence) {
+        if (fractionScore == null) {
+            fractionScore = new HashMap<String, Double>();
+        }
         fractionScore.put(fraction, confidence);
     }
 
@@ -680,6 +738,9 @@ public class PSParameter implements UrParameter {
      * @param confidence the confidence
      */
     public void setFractionPEP(String fraction, double confidence) {
+        if (fractionPEP == null) {
+            fractionPEP = new HashMap<String, Double>();
+        }
         fractionPEP.put(fraction, confidence);
     }
 
@@ -700,7 +761,7 @@ public class PSParameter implements UrParameter {
      * @return the fraction confidence
      */
     public double getFractionConfidence(String fraction) {
-        return 100 * (1 - fractionPEP.get(fraction));
+        return 100 * (1 - getFractionPEP(fraction));
     }
 
     /**
@@ -772,6 +833,16 @@ public class PSParameter implements UrParameter {
     public void setPrecursorIntensityPerFraction(HashMap<String, ArrayList<Double>> precursorIntensityPerFraction) {
         this.precursorIntensityPerFraction = precursorIntensityPerFraction;
 
+        if (precursorIntensityPerFraction.isEmpty()) {
+            return;
+        }
+        if (precursorIntensitySummedPerFraction == null) {
+            precursorIntensitySummedPerFraction = new HashMap<String, Double>(precursorIntensityPerFraction.size());
+        }
+        if (precursorIntensityAveragePerFraction == null) {
+            precursorIntensityAveragePerFraction = new HashMap<String, Double>(precursorIntensityPerFraction.size());
+        }
+
         // calculate the average precursor intensities
         for (String fraction : precursorIntensityPerFraction.keySet()) {
 
@@ -781,9 +852,7 @@ public class PSParameter implements UrParameter {
                 sum += intensity;
             }
 
-            if (precursorIntensitySummedPerFraction != null) {
-                precursorIntensitySummedPerFraction.put(fraction, sum);
-            }
+            precursorIntensitySummedPerFraction.put(fraction, sum);
 
             if (sum > 0) {
                 precursorIntensityAveragePerFraction.put(fraction, sum / precursorIntensityPerFraction.get(fraction).size());
@@ -850,9 +919,6 @@ public class PSParameter implements UrParameter {
      * inspected
      */
     public Boolean isManualValidation() {
-        if (manualValidation == null) {
-            manualValidation = false;
-        }
         return manualValidation;
     }
 
@@ -863,7 +929,7 @@ public class PSParameter implements UrParameter {
      * was manually inspected
      */
     public void setManualValidation(Boolean manualValidation) {
-        this.manualValidation = manualValidation;
+        this.manualValidation = manualValidation != null && manualValidation;
     }
 
     /**
@@ -873,7 +939,7 @@ public class PSParameter implements UrParameter {
      * @param validated boolean indicating whether the test was passed
      */
     public void setQcResult(String criterion, boolean validated) {
-        if (qcFilters == null) {
+        if (qcFilters == null || qcFilters == NO_QC_RESULTS) {
             qcFilters = new HashMap<String, Boolean>();
         }
         qcFilters.put(criterion, validated);
@@ -899,7 +965,7 @@ public class PSParameter implements UrParameter {
      * @return the list of qc checks made for this match in a set
      */
     public Set<String> getQcCriteria() {
-        if (qcFilters == null) {
+        if (qcFilters == null || qcFilters == NO_QC_RESULTS) {
             return new HashSet<String>();
         }
         return qcFilters.keySet();
@@ -909,10 +975,11 @@ public class PSParameter implements UrParameter {
      * Resets the results of the QC filters.
      */
     public void resetQcResults() {
-        if (qcFilters == null) {
-            qcFilters = new HashMap<String, Boolean>();
+        if (qcFilters == null || qcFilters == NO_QC_RESULTS) {
+            qcFilters = NO_QC_RESULTS;
+        } else {
+            qcFilters.clear();
         }
-        qcFilters.clear();
     }
 
     /**
@@ -926,16 +993,24 @@ public class PSParameter implements UrParameter {
     }
 
     /**
-     * Adds an intermediate score.
+     * Adds an intermediate score. NaN scores are considered as not set.
      *
      * @param scoreId the index of the score
      * @param score the value of the score
      */
     public void setIntermediateScore(int scoreId, double score) {
+        if (scoreId < 0) {
+            throw new IllegalArgumentException("Negative score index " + scoreId + ".");
+        }
         if (intermediateScores == null) {
-            intermediateScores = new HashMap<Integer, Double>();
+            intermediateScores = new double[scoreId + 1];
+            Arrays.fill(intermediateScores, Double.NaN);
+        } else if (scoreId >= intermediateScores.length) {
+            int oldLength = intermediateScores.length;
+            intermediateScores = Arrays.copyOf(intermediateScores, scoreId + 1);
+            Arrays.fill(intermediateScores, oldLength, scoreId, Double.NaN);
         }
-        intermediateScores.put(scoreId, score);
+        intermediateScores[scoreId] = score;
     }
 
     /**
@@ -946,10 +1021,152 @@ public class PSParameter implements UrParameter {
      * @return the intermediate score
      */
     public Double getIntermediateScore(int scoreId) {
-        if (intermediateScores == null) {
+        if (intermediateScores == null || scoreId < 0 || scoreId >= intermediateScores.length || Double.isNaN(intermediateScores[scoreId])) {
+            return null;
+        }
+        return intermediateScores[scoreId];
+    }
+
+    /**
+     * Writes the parameter in the same form as the previous versions, where
+     * all maps were allocated and the intermediate scores were stored in a
+     * map, so that projects remain readable by these versions.
+     *
+     * @param out the stream where to write the parameter
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the parameter
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("searchEngineProbability", searchEngineProbability);
+        fields.put("algorithmDeltaPEP", getAlgorithmDeltaPEP());
+        fields.put("deltaPEP", getDeltaPEP());
+        fields.put("psmProbabilityScore", psmProbabilityScore);
+        fields.put("psmProbability", psmProbability);
+        fields.put("peptideProbabilityScore", peptideProbabilityScore);
+        fields.put("peptideProbability", peptideProbability);
+        fields.put("proteinProbabilityScore", proteinProbabilityScore);
+        fields.put("proteinProbability", proteinProbability);
+        fields.put("validated", validated);
+        fields.put("matchValidationLevel", matchValidationLevel);
+        fields.put("manualValidation", Boolean.valueOf(manualValidation));
+        fields.put("reasonDoubtful", reasonDoubtful);
+        fields.put("hidden", hidden);
+        fields.put("starred", starred);
+        fields.put("secificMapKey", secificMapKey);
+        fields.put("groupClass", groupClass);
+        fields.put("fractionPEP", emptyIfNull(fractionPEP));
+        fields.put("fractionScore", emptyIfNull(fractionScore));
+        fields.put("validatedPeptidesPerFraction", emptyIfNull(validatedPeptidesPerFraction));
+        fields.put("validatedSpectraPerFraction", emptyIfNull(validatedSpectraPerFraction));
+        fields.put("precursorIntensityPerFraction", emptyIfNull(precursorIntensityPerFraction));
+        fields.put("precursorIntensityAveragePerFraction", emptyIfNull(precursorIntensityAveragePerFraction));
+        fields.put("precursorIntensitySummedPerFraction", emptyIfNull(precursorIntensitySummedPerFraction));
+        fields.put("qcFilters", qcFilters == NO_QC_RESULTS ? new HashMap<String, Boolean>(0) : qcFilters);
+
+        HashMap<Integer, Double> intermediateScoresMap = null;
+        if (intermediateScores != null) {
+            intermediateScoresMap = new HashMap<Integer, Double>(intermediateScores.length);
+            for (int scoreId = 0; scoreId < intermediateScores.length; scoreId++) {
+                if (!Double.isNaN(intermediateScores[scoreId])) {
+                    intermediateScoresMap.put(scoreId, intermediateScores[scoreId]);
+                }
+            }
+        }
+        fields.put("intermediateScores", intermediateScoresMap);
+
+        out.writeFields();
+    }
+
+    /**
+     * Reads a parameter written by this or a previous version. Empty maps are
+     * dropped and the intermediate scores are moved to an array.
+     *
+     * @param in the stream where to read the parameter
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the parameter
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the parameter
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+
+        ObjectInputStream.GetField fields = in.readFields();
+        searchEngineProbability = fields.get("searchEngineProbability", 0.0);
+        setAlgorithmDeltaPEP((Double) fields.get("algorithmDeltaPEP", null));
+        setDeltaPEP((Double) fields.get("deltaPEP", null));
+        psmProbabilityScore = fields.get("psmProbabilityScore", 0.0);
+        psmProbability = fields.get("psmProbability", 0.0);
+        peptideProbabilityScore = fields.get("peptideProbabilityScore", 0.0);
+        peptideProbability = fields.get("peptideProbability", 0.0);
+        proteinProbabilityScore = fields.get("proteinProbabilityScore", 0.0);
+        proteinProbability = fields.get("proteinProbability", 0.0);
+        validated = fields.get("validated", false);
+        matchValidationLevel = (MatchValidationLevel) fields.get("matchValidationLevel", null);
+        setManualValidation((Boolean) fields.get("manualValidation", null));
+        reasonDoubtful = (String) fields.get("reasonDoubtful", null);
+        hidden = fields.get("hidden", false);
+        starred = fields.get("starred", false);
+        secificMapKey = (String) fields.get("secificMapKey", null);
+        groupClass = fields.get("groupClass", NOT_GROUP);
+        fractionPEP = nullIfEmpty((HashMap<String, Double>) fields.get("fractionPEP", null));
+        fractionScore = nullIfEmpty((HashMap<String, Double>) fields.get("fractionScore", null));
+        validatedPeptidesPerFraction = nullIfEmpty((HashMap<String, Integer>) fields.get("validatedPeptidesPerFraction", null));
+        validatedSpectraPerFraction = nullIfEmpty((HashMap<String, Integer>) fields.get("validatedSpectraPerFraction", null));
+        precursorIntensityPerFraction = nullIfEmpty((HashMap<String, ArrayList<Double>>) fields.get("precursorIntensityPerFraction", null));
+        precursorIntensityAveragePerFraction = nullIfEmpty((HashMap<String, Double>) fields.get("precursorIntensityAveragePerFraction", null));
+        precursorIntensitySummedPerFraction = nullIfEmpty((HashMap<String, Double>) fields.get("precursorIntensitySummedPerFraction", null));
+
+        qcFilters = (HashMap<String, Boolean>) fields.get("qcFilters", null);
+        if (qcFilters != null && qcFilters.isEmpty()) {
+            qcFilters = NO_QC_RESULTS;
+        }
+
+        intermediateScores = null;
+        HashMap<Integer, Double> intermediateScoresMap = (HashMap<Integer, Double>) fields.get("intermediateScores", null);
+        if (intermediateScoresMap != null) {
+            for (Integer scoreId : intermediateScoresMap.keySet()) {
+                Double score = intermediateScoresMap.get(scoreId);
+                if (score != null) {
+                    setIntermediateScore(scoreId, score);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the given map, a new empty map if null.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @param map the map
+     *
+     * @return the given map, a new empty map if null
+     */
+    private static <K, V> HashMap<K, V> emptyIfNull(HashMap<K, V> map) {
+        if (map == null) {
+            return new HashMap<K, V>(0);
+        }
+        return map;
+    }
+
+    /**
+     * Returns the given map, null if empty.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @param map the map
+     *
+     * @return the given map, null if empty
+     */
+    private static <K, V> HashMap<K, V> nullIfEmpty(HashMap<K, V> map) {
+        if (map == null || map.isEmpty()) {
             return null;
         }
-        return intermediateScores.get(scoreId);
+        return map;
     }
 
     @Override
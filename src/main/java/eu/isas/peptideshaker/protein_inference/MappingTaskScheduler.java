@@ -0,0 +1,140 @@
+package eu.isas.peptideshaker.protein_inference;
+
+import com.compomics.util.waiting.WaitingHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Executes mapping tasks of heterogeneous sizes on multiple threads. The tasks
+ * are sorted by decreasing size and placed in a queue shared by all threads.
+ * Every thread takes the next task as soon as it is done with the previous
+ * one, so that the largest tasks are started first and the small ones fill in
+ * the gaps. The threads are reused for all the calls to execute, shutdown must
+ * be called when the scheduler is no longer needed.
+ */
+public class MappingTaskScheduler {
+
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+    /**
+     * The waiting handler used to cancel the process.
+     */
+    private final WaitingHandler waitingHandler;
+    /**
+     * The pool executing the tasks.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * Constructor.
+     *
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the waiting handler used to cancel the process
+     */
+    public MappingTaskScheduler(int nThreads, WaitingHandler waitingHandler) {
+        this.nThreads = nThreads;
+        this.waitingHandler = waitingHandler;
+        pool = Executors.newFixedThreadPool(nThreads);
+    }
+
+    /**
+     * Executes the given tasks and returns when all tasks are completed or the
+     * process is canceled.
+     *
+     * @param tasks the tasks to execute
+     *
+     * @throws InterruptedException exception thrown if the threads are
+     * interrupted
+     * @throws ExecutionException exception thrown if an exception is thrown
+     * by a task
+     */
+    public void execute(ArrayList<? extends MappingTask> tasks) throws InterruptedException, ExecutionException {
+
+        ArrayList<MappingTask> sortedTasks = new ArrayList<MappingTask>(tasks);
+        Collections.sort(sortedTasks, new Comparator<MappingTask>() {
+            @Override
+            public int compare(MappingTask o1, MappingTask o2) {
+                return o2.getSize() - o1.getSize();
+            }
+        });
+        final ConcurrentLinkedQueue<MappingTask> queue = new ConcurrentLinkedQueue<MappingTask>(sortedTasks);
+
+        int nWorkers = Math.min(nThreads, sortedTasks.size());
+        ArrayList<Future> futures = new ArrayList<Future>(nWorkers);
+        try {
+            for (int i = 0; i < nWorkers; i++) {
+                futures.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        MappingTask task;
+                        while (!waitingHandler.isRunCanceled() && (task = queue.poll()) != null) {
+                            task.run();
+                        }
+                    }
+                }));
+            }
+            for (Future future : futures) {
+                future.get();
+            }
+        } finally {
+            // stop the other workers if one failed, the pool is kept for the next tasks
+            queue.clear();
+            for (Future future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Shuts down the threads of the scheduler. Running tasks are interrupted.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Splits a list of items in chunks of at most the given size.
+     *
+     * @param <T> the type of items
+     * @param items the items to split
+     * @param maxSize the maximal number of items per chunk
+     *
+     * @return the chunks
+     */
+    public static <T> ArrayList<ArrayList<T>> split(Iterable<T> items, int maxSize) {
+        ArrayList<ArrayList<T>> chunks = new ArrayList<ArrayList<T>>();
+        ArrayList<T> chunk = new ArrayList<T>(maxSize);
+        for (T item : items) {
+            if (chunk.size() == maxSize) {
+                chunks.add(chunk);
+                chunk = new ArrayList<T>(maxSize);
+            }
+            chunk.add(item);
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * A mapping task of a given size.
+     */
+    public interface MappingTask extends Runnable {
+
+        /**
+         * Returns the size of the task, typically the number of items to map.
+         *
+         * @return the size of the task
+         */
+        public int getSize();
+    }
+}
@@ -10,17 +10,21 @@ import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class can be used to map peptides to proteins.
+ * This class can be used to map peptides to proteins. The peptides are mapped
+ * in batches, the memory consumption is inspected between batches and the
+ * size of the batches adapted accordingly. Note that the batch size is a
+ * number of peptides used as a rough estimate of the memory needed by a batch,
+ * it does not bound the memory used during the mapping.
  *
  * @author Marc Vaudel
  */
@@ -35,9 +39,56 @@ public class PeptideMapper {
      */
     private final WaitingHandler waitingHandler;
     /**
-     * Boolean indicating whether the mapping was canceled for memory issues.
+     * Boolean indicating whether the mapping was canceled because of an
+     * error.
      */
-    private boolean canceled = false;
+    private volatile boolean canceled = false;
+    /**
+     * The default number of peptides to map per batch. This is a number of
+     * peptides, not a memory budget: the memory needed to map a peptide
+     * depends on its sequence and on the database.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    /**
+     * The minimal number of peptides to map per batch.
+     */
+    public static final int MIN_BATCH_SIZE = 100;
+    /**
+     * The share of the memory used above which the caches are halved and the
+     * batch size reduced.
+     */
+    public static final double MEMORY_THRESHOLD = 0.8;
+    /**
+     * The share of the memory used below which the batch size is increased
+     * back.
+     */
+    public static final double MEMORY_LOW_THRESHOLD = 0.5;
+    /**
+     * The maximal number of peptides mapped in a single task when using
+     * multiple threads. Larger keys are split in several tasks.
+     */
+    public static final int MAX_TASK_SIZE = 100;
+    /**
+     * The current number of peptides to map per batch.
+     */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    /**
+     * The number of peptides mapped during the last mapping.
+     */
+    private AtomicLong nPeptides = new AtomicLong();
+    /**
+     * The number of batches mapped during the last mapping.
+     */
+    private long nBatches = 0;
+    /**
+     * The number of times the caches were reduced because of memory
+     * consumption during the last mapping.
+     */
+    private long nCacheFlushes = 0;
+    /**
+     * The time spent during the last mapping in milliseconds.
+     */
+    private long mappingTime = 0;
     /**
      * The sequence factory.
      */
@@ -81,48 +132,61 @@ public class PeptideMapper {
      */
     public void mapPeptides(HashMap<String, LinkedList<Peptide>> peptideMap, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException, SQLException,
             ClassNotFoundException, ExecutionException {
+        nPeptides.set(0);
+        nBatches = 0;
+        nCacheFlushes = 0;
+        long start = System.currentTimeMillis();
         if (nThreads == 1) {
             mapPeptidesSingleThreaded(peptideMap, waitingHandler);
         } else {
             mapPeptidesThreadingPerKey(peptideMap, nThreads, waitingHandler);
         }
+        mappingTime = System.currentTimeMillis() - start;
     }
 
     /**
-     * Maps the peptides found to the proteins.
+     * Returns the keys of the next batch of peptides to map. The keys are
+     * removed from the iterated collection.
      *
      * @param peptideMap a map of the peptides to map: start of the sequence
      * &gt; list of peptides
-     * @param sequenceMatchingPreferences The sequence matching preferences
-     * @param idFilter The import filter
-     * @param waitingHandler A waiting handler
+     * @param keys an iterator on the keys remaining to map
      *
-     * @throws IOException exception thrown whenever an error occurred while
-     * reading or writing a file
-     * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while mapping the peptides to the proteins
-     * @throws SQLException exception thrown whenever an error occurred while
-     * interacting with the database
-     * @throws ClassNotFoundException exception thrown whenever an error
-     * occurred while deserializing an object from the database
+     * @return the keys of the next batch
      */
-    private void mapPeptidesSingleThreaded(HashMap<String, LinkedList<Peptide>> peptideMap, WaitingHandler waitingHandler)
-            throws IOException, InterruptedException, SQLException, ClassNotFoundException {
+    private ArrayList<String> getBatch(HashMap<String, LinkedList<Peptide>> peptideMap, Iterator<String> keys) {
+        ArrayList<String> batch = new ArrayList<String>();
+        int nPeptidesInBatch = 0;
+        while (keys.hasNext() && nPeptidesInBatch < batchSize) {
+            String key = keys.next();
+            keys.remove();
+            batch.add(key);
+            nPeptidesInBatch += peptideMap.get(key).size();
+        }
+        nBatches++;
+        return batch;
+    }
 
-        if (peptideMap != null && !peptideMap.isEmpty()) {
-            waitingHandler.resetSecondaryProgressCounter();
-            waitingHandler.setMaxSecondaryProgressCounter(peptideMap.size());
-            waitingHandler.appendReport("Mapping peptides to proteins.", true, true);
-            HashSet<String> keys = new HashSet<String>(peptideMap.keySet());
-            for (String key : keys) {
-                LinkedList<Peptide> peptides = peptideMap.get(key);
-                Iterator<Peptide> peptideIterator = peptides.iterator();
-                while (peptideIterator.hasNext()) {
-                    Peptide peptide = peptideIterator.next();
-                    mapPeptide(peptide, !peptideIterator.hasNext());
-                }
-                peptideMap.remove(key);
+    /**
+     * Inspects the memory consumption after a batch. If the memory used
+     * exceeds the threshold, the protein tree and sequence caches are halved
+     * and, if this is not sufficient, the size of the next batches reduced.
+     * When the memory consumption is low, the batch size is increased back.
+     */
+    private void checkMemory() {
+        if (MemoryConsumptionStatus.memoryUsed() > MEMORY_THRESHOLD) {
+            if (!ProteinTreeComponentsFactory.getInstance().getCache().isEmpty()) {
+                ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(0.5, null);
+            }
+            if (sequenceFactory.getNodesInCache() > 0) {
+                sequenceFactory.reduceNodeCacheSize(0.5);
             }
+            nCacheFlushes++;
+            if (MemoryConsumptionStatus.memoryUsed() > MEMORY_THRESHOLD) {
+                batchSize = Math.max(batchSize / 2, MIN_BATCH_SIZE);
+            }
+        } else if (MemoryConsumptionStatus.memoryUsed() < MEMORY_LOW_THRESHOLD) {
+            batchSize = Math.min(2 * batchSize, DEFAULT_BATCH_SIZE);
         }
     }
 
@@ -132,9 +196,8 @@ public class PeptideMapper {
      * @param peptideMap a map of the peptides to map: start of the sequence
      * &gt; list of peptides
      * @param sequenceMatchingPreferences The sequence matching preferences
-     * @param idFilter the import filter
-     * @param nThreads the number of threads to use
-     * @param waitingHandler a waiting handler
+     * @param idFilter The import filter
+     * @param waitingHandler A waiting handler
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file
@@ -145,38 +208,36 @@ public class PeptideMapper {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database
      */
-    private void mapPeptidesThreadingPerKey(HashMap<String, LinkedList<Peptide>> peptideMap, int nThreads,
-            WaitingHandler waitingHandler) throws IOException, InterruptedException, SQLException, ClassNotFoundException, ExecutionException {
+    private void mapPeptidesSingleThreaded(HashMap<String, LinkedList<Peptide>> peptideMap, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, SQLException, ClassNotFoundException {
 
         if (peptideMap != null && !peptideMap.isEmpty()) {
             waitingHandler.resetSecondaryProgressCounter();
             waitingHandler.setMaxSecondaryProgressCounter(peptideMap.size());
             waitingHandler.appendReport("Mapping peptides to proteins.", true, true);
-            HashSet<String> keys = new HashSet<String>(peptideMap.keySet());
-            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
-            for (String key : keys) {
-                LinkedList<Peptide> peptides = peptideMap.get(key);
-                PeptideListMapperRunnable peptideMapperRunnable = new PeptideListMapperRunnable(peptides);
-                pool.submit(peptideMapperRunnable);
-                if (canceled || waitingHandler.isRunCanceled()) {
-                    pool.shutdownNow();
-                    return;
-                }
-                peptideMap.remove(key);
-                if (canceled || waitingHandler.isRunCanceled()) {
-                    pool.shutdownNow();
-                    return;
+            Iterator<String> keys = new HashSet<String>(peptideMap.keySet()).iterator();
+            while (keys.hasNext()) {
+                for (String key : getBatch(peptideMap, keys)) {
+                    LinkedList<Peptide> peptides = peptideMap.get(key);
+                    Iterator<Peptide> peptideIterator = peptides.iterator();
+                    while (peptideIterator.hasNext()) {
+                        Peptide peptide = peptideIterator.next();
+                        mapPeptide(peptide, !peptideIterator.hasNext());
+                    }
+                    peptideMap.remove(key);
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
                 }
-            }
-            pool.shutdown();
-            if (!pool.awaitTermination(1, TimeUnit.HOURS)) {
-                waitingHandler.appendReport("Mapping peptides timed out. Please contact the developers.", true, true);
+                checkMemory();
             }
         }
     }
 
     /**
-     * Maps the peptides found to the proteins.
+     * Maps the peptides found to the proteins using multiple threads. The
+     * peptides of large keys are split in several tasks and the tasks are
+     * balanced between the threads.
      *
      * @param peptideMap a map of the peptides to map: start of the sequence
      * &gt; list of peptides
@@ -194,35 +255,34 @@ public class PeptideMapper {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database
      */
-    private void mapPeptidesThreadingPerPeptide(HashMap<String, LinkedList<Peptide>> peptideMap, int nThreads,
+    private void mapPeptidesThreadingPerKey(HashMap<String, LinkedList<Peptide>> peptideMap, int nThreads,
             WaitingHandler waitingHandler) throws IOException, InterruptedException, SQLException, ClassNotFoundException, ExecutionException {
 
         if (peptideMap != null && !peptideMap.isEmpty()) {
+            waitingHandler.resetSecondaryProgressCounter();
             waitingHandler.setMaxSecondaryProgressCounter(peptideMap.size());
             waitingHandler.appendReport("Mapping peptides to proteins.", true, true);
-            HashSet<String> keys = new HashSet<String>(peptideMap.keySet());
-            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
-            for (String key : keys) {
-                LinkedList<Peptide> peptides = peptideMap.get(key);
-                Iterator<Peptide> peptideIterator = peptides.iterator();
-                while (peptideIterator.hasNext()) {
-                    Peptide peptide = peptideIterator.next();
-                    PeptideMapperRunnable peptideMapperRunnable = new PeptideMapperRunnable(peptide, !peptideIterator.hasNext());
-                    pool.submit(peptideMapperRunnable);
+            Iterator<String> keys = new HashSet<String>(peptideMap.keySet()).iterator();
+            MappingTaskScheduler scheduler = new MappingTaskScheduler(nThreads, waitingHandler);
+            try {
+                while (keys.hasNext()) {
+                    ArrayList<PeptideListMapperRunnable> tasks = new ArrayList<PeptideListMapperRunnable>();
+                    for (String key : getBatch(peptideMap, keys)) {
+                        LinkedList<Peptide> peptides = peptideMap.remove(key);
+                        ArrayList<ArrayList<Peptide>> chunks = MappingTaskScheduler.split(peptides, MAX_TASK_SIZE);
+                        AtomicInteger remainingChunks = new AtomicInteger(chunks.size());
+                        for (ArrayList<Peptide> chunk : chunks) {
+                            tasks.add(new PeptideListMapperRunnable(chunk, remainingChunks));
+                        }
+                    }
+                    scheduler.execute(tasks);
                     if (canceled || waitingHandler.isRunCanceled()) {
-                        pool.shutdownNow();
                         return;
                     }
+                    checkMemory();
                 }
-                peptideMap.remove(key);
-                if (canceled || waitingHandler.isRunCanceled()) {
-                    pool.shutdownNow();
-                    return;
-                }
-            }
-            pool.shutdown();
-            if (!pool.awaitTermination(1, TimeUnit.HOURS)) {
-                waitingHandler.appendReport("Mapping peptides timed out. Please contact the developers.", true, true);
+            } finally {
+                scheduler.shutdown();
             }
         }
     }
@@ -236,6 +296,56 @@ public class PeptideMapper {
         return canceled;
     }
 
+    /**
+     * Returns the number of peptides mapped during the last mapping.
+     *
+     * @return the number of peptides mapped during the last mapping
+     */
+    public long getnPeptides() {
+        return nPeptides.get();
+    }
+
+    /**
+     * Returns the number of batches mapped during the last mapping.
+     *
+     * @return the number of batches mapped during the last mapping
+     */
+    public long getnBatches() {
+        return nBatches;
+    }
+
+    /**
+     * Returns the number of times the protein tree and sequence caches were
+     * reduced because of memory consumption during the last mapping.
+     *
+     * @return the number of times the caches were reduced
+     */
+    public long getnCacheFlushes() {
+        return nCacheFlushes;
+    }
+
+    /**
+     * Returns the time spent during the last mapping in milliseconds.
+     *
+     * @return the time spent during the last mapping in milliseconds
+     */
+    public long getMappingTime() {
+        return mappingTime;
+    }
+
+    /**
+     * Returns the number of peptides mapped per second during the last
+     * mapping, 0 if no mapping was conducted.
+     *
+     * @return the number of peptides mapped per second
+     */
+    public double getPeptidesPerSecond() {
+        if (mappingTime == 0) {
+            return 0;
+        }
+        return 1000.0 * nPeptides.get() / mappingTime;
+    }
+
     /**
      * Maps a list of peptides.
      *
@@ -262,108 +372,61 @@ public class PeptideMapper {
                         + "- When using in house databases make sure that the format is recognized by search engines and PeptideShaker (more details at https://code.google.com/p/searchgui/wiki/DatabaseHelp)." + System.getProperty("line.separator"));
             }
         }
+        nPeptides.incrementAndGet();
         if (increaseProgressBar) {
             waitingHandler.increaseSecondaryProgressCounter();
         }
-        // free memory if needed
-        if (MemoryConsumptionStatus.memoryUsed() > 0.8 && !ProteinTreeComponentsFactory.getInstance().getCache().isEmpty()) {
-            ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(0.5, null);
-        }
-        if (!MemoryConsumptionStatus.halfGbFree() && sequenceFactory.getNodesInCache() > 0) {
-            sequenceFactory.reduceNodeCacheSize(0.5);
-        }
-        if (MemoryConsumptionStatus.memoryUsed() > 0.8) {
-            Runtime.getRuntime().gc();
-            if (MemoryConsumptionStatus.memoryUsed() > 0.8) {
-                // all peptides/protein mappings cannot be kept in memory at the same time, abort
-                canceled = true;
-            }
-        }
     }
 
     /**
      * Private runnable to map peptides from a list.
      */
-    private class PeptideListMapperRunnable implements Runnable {
+    private class PeptideListMapperRunnable implements MappingTaskScheduler.MappingTask {
 
         /**
          * The peptides to map.
          */
-        private LinkedList<Peptide> peptideList;
+        private ArrayList<Peptide> peptideList;
+        /**
+         * The number of lists of the same key which remain to be mapped,
+         * shared between the runnables of the key. The progress bar is
+         * increased when the last list of the key is mapped.
+         */
+        private AtomicInteger remainingChunks;
 
         /**
          * Constructor.
          *
          * @param peptideList the peptides to map
+         * @param remainingChunks the number of lists of the same key which
+         * remain to be mapped, shared between the runnables of the key
          */
-        public PeptideListMapperRunnable(LinkedList<Peptide> peptideList) {
+        public PeptideListMapperRunnable(ArrayList<Peptide> peptideList, AtomicInteger remainingChunks) {
             this.peptideList = peptideList;
+            this.remainingChunks = remainingChunks;
         }
 
         @Override
-        public void run() {
-
-            try {
-                Iterator<Peptide> peptideIterator = peptideList.iterator();
-                while (peptideIterator.hasNext()) {
-                    Peptide peptide = peptideIterator.next();
-                    if (!canceled && !waitingHandler.isRunCanceled()) {
-                        mapPeptide(peptide, !peptideIterator.hasNext());
-                    }
-                }
-            } catch (Exception e) {
-                if (!canceled && !waitingHandler.isRunCanceled()) {
-                    exceptionHandler.catchException(e);
-                }
-            }
-        }
-    }
-
-    /**
-     * Private runnable to map a peptide.
-     */
-    private class PeptideMapperRunnable implements Runnable {
-
-        /**
-         * The peptide to map.
-         */
-        private Peptide peptide;
-
-        /**
-         * Boolean indicating whether the progress bar should be increased.
-         */
-        private boolean increaseProgressBar;
-
-        /**
-         * Constructor.
-         */
-        public PeptideMapperRunnable() {
-
-        }
-
-        /**
-         * Constructor.
-         *
-         * @param peptide the peptide to map
-         * @param increaseProgressBar boolean indicating whether the progress
-         * bar should be increased after mapping the peptide
-         */
-        public PeptideMapperRunnable(Peptide peptide, boolean increaseProgressBar) {
-            this.peptide = peptide;
-            this.increaseProgressBar = increaseProgressBar;
+        public int getSize() {
+            return peptideList.size();
         }
 
         @Override
         public void run() {
 
             try {
-                if (!canceled && !waitingHandler.isRunCanceled()) {
-                    mapPeptide(peptide, increaseProgressBar);
+                for (Peptide peptide : peptideList) {
+                    if (!canceled && !waitingHandler.isRunCanceled()) {
+                        mapPeptide(peptide, false);
+                    }
+                }
+                if (remainingChunks.decrementAndGet() == 0 && !canceled && !waitingHandler.isRunCanceled()) {
+                    waitingHandler.increaseSecondaryProgressCounter();
                 }
             } catch (Exception e) {
                 if (!canceled && !waitingHandler.isRunCanceled()) {
-                    exceptionHandler.catchException(e);
                     canceled = true;
+                    exceptionHandler.catchException(e);
                 }
             }
         }
@@ -41,9 +41,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -77,6 +75,11 @@ public class TagMapper {
      * The sequence factory.
      */
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+    /**
+     * The maximal number of spectrum matches processed in a single task when
+     * using multiple threads. Larger keys are split in several tasks.
+     */
+    public static final int MAX_TASK_SIZE = 10;
 
     /**
      * Constructor.
@@ -148,47 +151,11 @@ public class TagMapper {
     }
 
     /**
-     * Maps tags in the protein database.
-     *
-     * @param idfileReader the id file reader
-     *
-     * @throws IOException
-     * @throws InterruptedException
-     * @throws ClassNotFoundException
-     * @throws SQLException
-     * @throws MzMLUnmarshallerException
-     */
-    private void mapTagsThreadingPerMatch(IdfileReader idfileReader, WaitingHandler waitingHandler, int nThreads) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException {
-
-        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
-        HashMap<String, LinkedList<SpectrumMatch>> tagMap = idfileReader.getTagsMap();
-        if (tagMap != null && !tagMap.isEmpty()) {
-            waitingHandler.setMaxSecondaryProgressCounter(tagMap.size());
-            waitingHandler.appendReport("Mapping de novo tags to peptides.", true, true);
-            ModificationProfile modificationProfile = identificationParameters.getSearchParameters().getModificationProfile();
-            for (String key : tagMap.keySet()) {
-                TagMatcher tagMatcher = new TagMatcher(modificationProfile.getFixedModifications(), modificationProfile.getAllNotFixedModifications(), identificationParameters.getSequenceMatchingPreferences());
-                tagMatcher.setSynchronizedIndexing(true);
-                Iterator<SpectrumMatch> matchIterator = tagMap.get(key).iterator();
-                while (matchIterator.hasNext()) {
-                    SpectrumMatch spectrumMatch = matchIterator.next();
-                    SpectrumMatchTagMapperRunnable tagMapperRunnable = new SpectrumMatchTagMapperRunnable(spectrumMatch, tagMatcher, key, waitingHandler, !matchIterator.hasNext());
-                    pool.submit(tagMapperRunnable);
-                    if (waitingHandler.isRunCanceled()) {
-                        pool.shutdownNow();
-                        return;
-                    }
-                }
-            }
-        }
-        pool.shutdown();
-        if (!pool.awaitTermination(1, TimeUnit.DAYS)) {
-            waitingHandler.appendReport("Mapping tags timed out. Please contact the developers.", true, true);
-        }
-    }
-
-    /**
-     * Maps tags in the protein database.
+     * Maps tags in the protein database using multiple threads. The spectrum
+     * matches of large keys are split in several tasks sharing the tag matcher
+     * of the key and the tasks are balanced between the threads. The tag
+     * matcher of a key is created by the first task of the key to run and
+     * released when all the tasks of the key are completed.
      *
      * @param idfileReader the id file reader
      *
@@ -200,25 +167,27 @@ public class TagMapper {
      */
     private void mapTagsThreadingPerKey(IdfileReader idfileReader, WaitingHandler waitingHandler, int nThreads) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException {
 
-        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
         HashMap<String, LinkedList<SpectrumMatch>> tagMap = idfileReader.getTagsMap();
         if (tagMap != null && !tagMap.isEmpty()) {
             waitingHandler.setMaxSecondaryProgressCounter(tagMap.size());
             waitingHandler.appendReport("Mapping de novo tags to peptides.", true, true);
             ModificationProfile modificationProfile = identificationParameters.getSearchParameters().getModificationProfile();
+            ArrayList<KeyTagMapperRunnable> tasks = new ArrayList<KeyTagMapperRunnable>();
             for (String key : tagMap.keySet()) {
-                LinkedList<SpectrumMatch> spectrumMatches = tagMap.get(key);
-                KeyTagMapperRunnable tagMapperRunnable = new KeyTagMapperRunnable(spectrumMatches, modificationProfile.getFixedModifications(), modificationProfile.getAllNotFixedModifications(), identificationParameters.getSequenceMatchingPreferences(), key, waitingHandler);
-                pool.submit(tagMapperRunnable);
-                if (waitingHandler.isRunCanceled()) {
-                    pool.shutdownNow();
-                    return;
+                ArrayList<ArrayList<SpectrumMatch>> chunks = MappingTaskScheduler.split(tagMap.get(key), MAX_TASK_SIZE);
+                KeyTagMatcher keyTagMatcher = new KeyTagMatcher(modificationProfile, chunks.size());
+                for (int i = 0; i < chunks.size(); i++) {
+                    tasks.add(new KeyTagMapperRunnable(chunks.get(i), keyTagMatcher, key, waitingHandler, i == chunks.size() - 1));
                 }
             }
-        }
-        pool.shutdown();
-        if (!pool.awaitTermination(1, TimeUnit.DAYS)) {
-            waitingHandler.appendReport("Mapping tags timed out. Please contact the developers.", true, true);
+            MappingTaskScheduler scheduler = new MappingTaskScheduler(nThreads, waitingHandler);
+            try {
+                scheduler.execute(tasks);
+            } catch (ExecutionException e) {
+                throw new IOException("An error occurred while mapping tags.", e.getCause());
+            } finally {
+                scheduler.shutdown();
+            }
         }
     }
 
@@ -437,14 +406,14 @@ public class TagMapper {
     }
 
     /**
-     * Private runnable to map tags of all spectrum matches of a key.
+     * Private runnable to map tags of spectrum matches of a key.
      */
-    private class KeyTagMapperRunnable implements Runnable {
+    private class KeyTagMapperRunnable implements MappingTaskScheduler.MappingTask {
 
         /**
          * The spectrum matches to process.
          */
-        private final LinkedList<SpectrumMatch> spectrumMatches;
+        private final ArrayList<SpectrumMatch> spectrumMatches;
 
         /**
          * The tree key.
@@ -456,34 +425,52 @@ public class TagMapper {
          */
         private final WaitingHandler waitingHandler;
         /**
-         * The tag to protein matcher.
+         * The provider of the tag matcher of the key.
+         */
+        private final KeyTagMatcher keyTagMatcher;
+        /**
+         * Boolean indicating whether the spectrum matches are the last ones
+         * of the key, in which case the progress bar is increased after
+         * processing them.
          */
-        private final TagMatcher tagMatcher;
+        private final boolean lastOfKey;
 
         /**
          * Constructor.
          *
          * @param spectrumMatches the spectrum matches to process
+         * @param keyTagMatcher the provider of the tag matcher of the key
          * @param key the key of tags to map
          * @param waitingHandler waiting handler to display progress and cancel
          * the process
+         * @param lastOfKey boolean indicating whether the spectrum matches are
+         * the last ones of the key
          */
-        public KeyTagMapperRunnable(LinkedList<SpectrumMatch> spectrumMatches, ArrayList<String> fixedModifications, ArrayList<String> variableModifications, SequenceMatchingPreferences sequenceMatchingPreferences, String key, WaitingHandler waitingHandler) {
+        public KeyTagMapperRunnable(ArrayList<SpectrumMatch> spectrumMatches, KeyTagMatcher keyTagMatcher, String key, WaitingHandler waitingHandler, boolean lastOfKey) {
             this.spectrumMatches = spectrumMatches;
             this.key = key;
             this.waitingHandler = waitingHandler;
-            this.tagMatcher = new TagMatcher(fixedModifications, variableModifications, sequenceMatchingPreferences);
+            this.keyTagMatcher = keyTagMatcher;
+            this.lastOfKey = lastOfKey;
+        }
+
+        @Override
+        public int getSize() {
+            return spectrumMatches.size();
         }
 
         @Override
         public void run() {
 
             try {
-                Iterator<SpectrumMatch> matchIterator = spectrumMatches.iterator();
-                while (matchIterator.hasNext()) {
-                    SpectrumMatch spectrumMatch = matchIterator.next();
-                    if (!waitingHandler.isRunCanceled()) {
-                        mapTagsForSpectrumMatch(spectrumMatch, tagMatcher, key, waitingHandler, !matchIterator.hasNext());
+                if (!waitingHandler.isRunCanceled()) {
+                    TagMatcher tagMatcher = keyTagMatcher.getTagMatcher();
+                    Iterator<SpectrumMatch> matchIterator = spectrumMatches.iterator();
+                    while (matchIterator.hasNext()) {
+                        SpectrumMatch spectrumMatch = matchIterator.next();
+                        if (!waitingHandler.isRunCanceled()) {
+                            mapTagsForSpectrumMatch(spectrumMatch, tagMatcher, key, waitingHandler, lastOfKey && !matchIterator.hasNext());
+                        }
                     }
                 }
             } catch (Exception e) {
@@ -491,67 +478,71 @@ public class TagMapper {
                     exceptionHandler.catchException(e);
                     waitingHandler.setRunCanceled();
                 }
+            } finally {
+                keyTagMatcher.taskCompleted();
             }
         }
     }
 
     /**
-     * Private runnable to map tags of a spectrum match.
+     * Provides the tag matcher of a key to the tasks of this key. The tag
+     * matcher is created when first needed and released when all the tasks of
+     * the key are completed.
      */
-    private class SpectrumMatchTagMapperRunnable implements Runnable {
+    private class KeyTagMatcher {
 
         /**
-         * The spectrum match to process.
+         * The modification profile of the search.
          */
-        private final SpectrumMatch spectrumMatch;
-
+        private final ModificationProfile modificationProfile;
         /**
-         * The tree key.
+         * The number of tasks using this tag matcher.
          */
-        private final String key;
-
+        private final int nTasks;
         /**
-         * The waiting handler to display progress and cancel the process.
+         * The number of tasks completed.
          */
-        private final WaitingHandler waitingHandler;
+        private int nTasksCompleted = 0;
         /**
-         * boolean indicating whether the progress bar should be increased.
+         * The tag matcher, null if not created or released.
          */
-        private final boolean increaseProgress;
-        /**
-         * The tag to protein matcher.
-         */
-        private final TagMatcher tagMatcher;
+        private TagMatcher tagMatcher = null;
 
         /**
          * Constructor.
          *
-         * @param spectrumMatch the spectrum match to process
-         * @param key the key of tags to map
-         * @param waitingHandler waiting handler to display progress and cancel
-         * the process
+         * @param modificationProfile the modification profile of the search
+         * @param nTasks the number of tasks using this tag matcher
          */
-        public SpectrumMatchTagMapperRunnable(SpectrumMatch spectrumMatch, TagMatcher tagMatcher, String key, WaitingHandler waitingHandler, boolean increaseProgress) {
-            this.spectrumMatch = spectrumMatch;
-            this.key = key;
-            this.waitingHandler = waitingHandler;
-            this.increaseProgress = increaseProgress;
-            this.tagMatcher = tagMatcher;
+        public KeyTagMatcher(ModificationProfile modificationProfile, int nTasks) {
+            this.modificationProfile = modificationProfile;
+            this.nTasks = nTasks;
         }
 
-        @Override
-        public void run() {
-
-            try {
-                if (!waitingHandler.isRunCanceled()) {
-                    mapTagsForSpectrumMatch(spectrumMatch, tagMatcher, key, waitingHandler, increaseProgress);
-                }
-            } catch (Exception e) {
-                if (!waitingHandler.isRunCanceled()) {
-                    exceptionHandler.catchException(e);
-                    waitingHandler.setRunCanceled();
+        /**
+         * Returns the tag matcher of the key, creates it if needed.
+         *
+         * @return the tag matcher of the key
+         */
+        public synchronized TagMatcher getTagMatcher() {
+            if (tagMatcher == null) {
+                tagMatcher = new TagMatcher(modificationProfile.getFixedModifications(), modificationProfile.getAllNotFixedModifications(), identificationParameters.getSequenceMatchingPreferences());
+                if (nTasks > 1) {
+                    tagMatcher.setSynchronizedIndexing(true);
                 }
             }
+            return tagMatcher;
+        }
+
+        /**
+         * Notifies that a task of the key is completed. The tag matcher is
+         * released when all tasks are completed.
+         */
+        public synchronized void taskCompleted() {
+            nTasksCompleted++;
+            if (nTasksCompleted == nTasks) {
+                tagMatcher = null;
+            }
         }
     }
 }
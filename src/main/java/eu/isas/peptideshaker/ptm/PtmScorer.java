@@ -42,6 +42,7 @@ import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.SerializationCopy;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.SQLException;
@@ -49,6 +50,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -83,6 +85,11 @@ public class PtmScorer {
      * null.
      */
     public static final Integer ptmScoreScale = 10;
+    /**
+     * Lock used to check and update peptide keys atomically when scoring
+     * peptides in parallel.
+     */
+    private final Object peptideKeysLock = new Object();
 
     /**
      * Constructor.
@@ -236,15 +243,18 @@ public class PtmScorer {
      * @param spectrumMatch the spectrum match studied, the A-score will be
      * calculated for the best assumption
      * @param identificationParameters the identification parameters
-     * @param peptideSpectrumAnnotator the peptide spectrum annotator
+     * @param annotationPreferences the annotation preferences of the scoring
+     * thread, the current settings will be changed
+     * @param peptideSpectrumAnnotator the peptide spectrum annotator of the
+     * scoring thread
      *
      * @throws Exception exception thrown whenever an error occurred while
      * computing the score
      */
-    private synchronized void attachProbabilisticScore(Identification identification, SpectrumMatch spectrumMatch, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws Exception {
+    private void attachProbabilisticScore(Identification identification, SpectrumMatch spectrumMatch, IdentificationParameters identificationParameters,
+            AnnotationPreferences annotationPreferences, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws Exception {
 
         SearchParameters searchParameters = identificationParameters.getSearchParameters();
-        AnnotationPreferences annotationPreferences = identificationParameters.getAnnotationPreferences();
         PTMScoringPreferences scoringPreferences = identificationParameters.getPtmScoringPreferences();
         SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
 
@@ -364,13 +374,17 @@ public class PtmScorer {
      * @param identificationParameters the parameters used for identification
      * @param waitingHandler waiting handler to display progress and allow
      * canceling
-     * @param peptideSpectrumAnnotator the spectrum annotator
+     * @param annotationPreferences the annotation preferences to use, the
+     * current settings will be changed. When scoring in parallel, every thread
+     * needs its own copy
+     * @param peptideSpectrumAnnotator the spectrum annotator, when scoring in
+     * parallel every thread needs its own annotator
      *
      * @throws Exception exception thrown whenever an error occurred while
      * reading/writing the an identification match
      */
     public void scorePTMs(Identification identification, SpectrumMatch spectrumMatch, IdentificationParameters identificationParameters,
-            WaitingHandler waitingHandler, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws Exception {
+            WaitingHandler waitingHandler, AnnotationPreferences annotationPreferences, PeptideSpectrumAnnotator peptideSpectrumAnnotator) throws Exception {
 
         SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
         attachDeltaScore(identification, spectrumMatch, sequenceMatchingPreferences);
@@ -378,7 +392,7 @@ public class PtmScorer {
         PTMScoringPreferences scoringPreferences = identificationParameters.getPtmScoringPreferences();
 
         if (scoringPreferences.isProbabilitsticScoreCalculation()) {
-            attachProbabilisticScore(identification, spectrumMatch, identificationParameters, peptideSpectrumAnnotator);
+            attachProbabilisticScore(identification, spectrumMatch, identificationParameters, annotationPreferences, peptideSpectrumAnnotator);
         }
 
         PSPtmScores ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
@@ -814,10 +828,12 @@ public class PtmScorer {
 
             String newKey = peptide.getMatchingKey(sequenceMatchingPreferences);
             if (!newKey.equals(originalKey)) {
-                if (identification.getPeptideIdentification().contains(newKey)) {
-                    throw new IllegalArgumentException("Attempting to create duplicate peptide key: " + newKey + ".");
+                synchronized (peptideKeysLock) {
+                    if (identification.getPeptideIdentification().contains(newKey)) {
+                        throw new IllegalArgumentException("Attempting to create duplicate peptide key: " + newKey + ".");
+                    }
+                    identification.updatePeptideMatch(originalKey, newKey, peptideMatch);
                 }
-                identification.updatePeptideMatch(originalKey, newKey, peptideMatch);
             } else {
                 identification.updatePeptideMatch(peptideMatch);
             }
@@ -1255,7 +1271,8 @@ public class PtmScorer {
             PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, null, true, null);
             for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
                 PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
-                PsmPtmScorerRunnable runnable = new PsmPtmScorerRunnable(psmIterator, peptideSpectrumAnnotator, identification, identificationParameters, waitingHandler, exceptionHandler);
+                AnnotationPreferences annotationPreferences = (AnnotationPreferences) SerializationCopy.deepCopy(identificationParameters.getAnnotationPreferences());
+                PsmPtmScorerRunnable runnable = new PsmPtmScorerRunnable(psmIterator, annotationPreferences, peptideSpectrumAnnotator, identification, identificationParameters, waitingHandler, exceptionHandler);
                 pool.submit(runnable);
             }
             if (waitingHandler.isRunCanceled()) {
@@ -1277,11 +1294,16 @@ public class PtmScorer {
      * matches
      * @param waitingHandler the handler displaying feedback to the user
      * @param identificationParameters the identification parameters
+     * @param processingPreferences the processing preferences, the peptides
+     * are scored in parallel using the number of threads set there
+     * @param exceptionHandler handler for exceptions occurring in the scoring
+     * threads
      *
      * @throws Exception exception thrown whenever a problem occurred while
      * deserializing a match
      */
-    public void scorePeptidePtms(Identification identification, WaitingHandler waitingHandler, IdentificationParameters identificationParameters) throws Exception {
+    public void scorePeptidePtms(Identification identification, WaitingHandler waitingHandler, IdentificationParameters identificationParameters,
+            ProcessingPreferences processingPreferences, ExceptionHandler exceptionHandler) throws Exception {
 
         waitingHandler.setWaitingText("Scoring Peptide PTMs. Please Wait...");
 
@@ -1292,10 +1314,32 @@ public class PtmScorer {
         identification.loadPeptideMatches(null);
 
         ArrayList<String> peptideKeys = new ArrayList<String>(identification.getPeptideIdentification());
-        for (String peptideKey : peptideKeys) {
-            PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
-            scorePTMs(identification, peptideMatch, identificationParameters);
-            waitingHandler.increaseSecondaryProgressCounter();
+        int nThreads = processingPreferences.getnThreads();
+
+        if (nThreads == 1) {
+            for (String peptideKey : peptideKeys) {
+                PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+                scorePTMs(identification, peptideMatch, identificationParameters);
+                waitingHandler.increaseSecondaryProgressCounter();
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            }
+        } else {
+            Iterator<String> peptideKeysIterator = peptideKeys.iterator();
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                PeptidePtmScorerRunnable runnable = new PeptidePtmScorerRunnable(peptideKeysIterator, identification, identificationParameters, waitingHandler, exceptionHandler);
+                pool.submit(runnable);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Peptide PTM scoring timed out. Please contact the developers.");
+            }
             if (waitingHandler.isRunCanceled()) {
                 return;
             }
@@ -1317,11 +1361,16 @@ public class PtmScorer {
      * @param identificationParameters the identification parameters
      * @param identificationFeaturesGenerator identification features generator
      * used to generate metrics which will be stored for later reuse
+     * @param processingPreferences the processing preferences, the proteins
+     * are scored in parallel using the number of threads set there
+     * @param exceptionHandler handler for exceptions occurring in the scoring
+     * threads
      *
      * @throws Exception exception thrown whenever a problem occurred while
      * deserializing a match
      */
-    public void scoreProteinPtms(Identification identification, Metrics metrics, WaitingHandler waitingHandler, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator) throws Exception {
+    public void scoreProteinPtms(Identification identification, Metrics metrics, WaitingHandler waitingHandler, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator, ProcessingPreferences processingPreferences, ExceptionHandler exceptionHandler) throws Exception {
 
         waitingHandler.setWaitingText("Scoring Protein PTMs. Please Wait...");
 
@@ -1329,47 +1378,51 @@ public class PtmScorer {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(max);
 
-        // If needed, while we are iterating proteins, we will take the maximal spectrum counting value and number of validated proteins as well.
-        int nValidatedProteins = 0;
-        int nConfidentProteins = 0;
-        double tempSpectrumCounting, maxSpectrumCounting = 0;
-
         PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(psParameter);
         ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, true, parameters, waitingHandler);
 
-        while (proteinMatchesIterator.hasNext()) {
-            
-            waitingHandler.setDisplayProgress(false);
-            ProteinMatch proteinMatch = proteinMatchesIterator.next();
-            waitingHandler.setDisplayProgress(true);
-            
-            String proteinKey = proteinMatch.getKey();
-
-            scorePTMs(identification, proteinMatch, identificationParameters, false);
-
-            if (metrics != null) {
-                psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
-                if (psParameter.getMatchValidationLevel().isValidated()) {
-                    nValidatedProteins++;
-                    if (psParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                        nConfidentProteins++;
-                    }
-                }
-                if (identificationFeaturesGenerator != null) {
-                    tempSpectrumCounting = identificationFeaturesGenerator.getNormalizedSpectrumCounting(proteinKey);
-                    if (tempSpectrumCounting > maxSpectrumCounting) {
-                        maxSpectrumCounting = tempSpectrumCounting;
-                    }
-                }
+        // If needed, while we are iterating proteins, we will take the maximal spectrum counting value and number of validated proteins as well.
+        int nThreads = processingPreferences.getnThreads();
+        ArrayList<ProteinPtmScorerRunnable> runnables = new ArrayList<ProteinPtmScorerRunnable>(nThreads);
+
+        if (nThreads == 1) {
+            ProteinPtmScorerRunnable runnable = new ProteinPtmScorerRunnable(proteinMatchesIterator, identification, metrics, identificationParameters, identificationFeaturesGenerator, waitingHandler, exceptionHandler);
+            runnables.add(runnable);
+            runnable.scoreProteins();
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                ProteinPtmScorerRunnable runnable = new ProteinPtmScorerRunnable(proteinMatchesIterator, identification, metrics, identificationParameters, identificationFeaturesGenerator, waitingHandler, exceptionHandler);
+                runnables.add(runnable);
+                pool.submit(runnable);
             }
-            waitingHandler.increaseSecondaryProgressCounter();
             if (waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
                 return;
             }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Protein PTM scoring timed out. Please contact the developers.");
+            }
+        }
+
+        if (waitingHandler.isRunCanceled()) {
+            return;
         }
+
         if (metrics != null) {
+            int nValidatedProteins = 0;
+            int nConfidentProteins = 0;
+            double maxSpectrumCounting = 0;
+            for (ProteinPtmScorerRunnable runnable : runnables) {
+                nValidatedProteins += runnable.getnValidatedProteins();
+                nConfidentProteins += runnable.getnConfidentProteins();
+                if (runnable.getMaxSpectrumCounting() > maxSpectrumCounting) {
+                    maxSpectrumCounting = runnable.getMaxSpectrumCounting();
+                }
+            }
             metrics.setMaxSpectrumCounting(maxSpectrumCounting);
             metrics.setnValidatedProteins(nValidatedProteins);
             metrics.setnConfidentProteins(nConfidentProteins);
@@ -1975,7 +2028,11 @@ public class PtmScorer {
          */
         private ExceptionHandler exceptionHandler;
         /**
-         * The peptide spectrum annotator.
+         * The annotation preferences of this thread.
+         */
+        private AnnotationPreferences annotationPreferences;
+        /**
+         * The peptide spectrum annotator of this thread.
          */
         private PeptideSpectrumAnnotator peptideSpectrumAnnotator;
 
@@ -1983,13 +2040,20 @@ public class PtmScorer {
          * Constructor.
          *
          * @param psmIterator a PSM iterator
+         * @param annotationPreferences the annotation preferences to be used
+         * by this thread only
+         * @param peptideSpectrumAnnotator the peptide spectrum annotator to be
+         * used by this thread only
+         * @param identification the identification
+         * @param identificationParameters the identification parameters
          * @param waitingHandler a waiting handler to display progress and allow
          * canceling the process
          * @param exceptionHandler handler for exceptions
          */
-        public PsmPtmScorerRunnable(PsmIterator psmIterator, PeptideSpectrumAnnotator peptideSpectrumAnnotator, Identification identification,
+        public PsmPtmScorerRunnable(PsmIterator psmIterator, AnnotationPreferences annotationPreferences, PeptideSpectrumAnnotator peptideSpectrumAnnotator, Identification identification,
                 IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
             this.psmIterator = psmIterator;
+            this.annotationPreferences = annotationPreferences;
             this.identification = identification;
             this.identificationParameters = identificationParameters;
             this.waitingHandler = waitingHandler;
@@ -2003,12 +2067,237 @@ public class PtmScorer {
                 while (psmIterator.hasNext() && !waitingHandler.isRunCanceled()) {
                     SpectrumMatch spectrumMatch = psmIterator.next();
                     if (spectrumMatch != null && spectrumMatch.getBestPeptideAssumption() != null) {
-                        scorePTMs(identification, spectrumMatch, identificationParameters, waitingHandler, peptideSpectrumAnnotator);
+                        scorePTMs(identification, spectrumMatch, identificationParameters, waitingHandler, annotationPreferences, peptideSpectrumAnnotator);
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+            }
+        }
+    }
+
+    /**
+     * Runnable scoring peptide PTMs.
+     */
+    private class PeptidePtmScorerRunnable implements Runnable {
+
+        /**
+         * An iterator for the keys of the peptides to score, shared between
+         * the threads.
+         */
+        private final Iterator<String> peptideKeysIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param peptideKeysIterator an iterator for the keys of the peptides
+         * to score shared between the threads
+         * @param identification the identification
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PeptidePtmScorerRunnable(Iterator<String> peptideKeysIterator, Identification identification, IdentificationParameters identificationParameters,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.peptideKeysIterator = peptideKeysIterator;
+            this.identification = identification;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!waitingHandler.isRunCanceled()) {
+                    String peptideKey;
+                    synchronized (peptideKeysIterator) {
+                        if (!peptideKeysIterator.hasNext()) {
+                            break;
+                        }
+                        peptideKey = peptideKeysIterator.next();
                     }
+                    PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+                    scorePTMs(identification, peptideMatch, identificationParameters);
+                    waitingHandler.increaseSecondaryProgressCounter();
                 }
             } catch (Exception e) {
                 exceptionHandler.catchException(e);
             }
         }
     }
+
+    /**
+     * Runnable scoring protein PTMs. The metrics on the proteins scored are
+     * gathered for every runnable and summed when all proteins are scored.
+     */
+    private class ProteinPtmScorerRunnable implements Runnable {
+
+        /**
+         * An iterator for the proteins to score, shared between the threads.
+         */
+        private final ProteinMatchesIterator proteinMatchesIterator;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The metrics, null if metrics should not be gathered.
+         */
+        private Metrics metrics;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The identification features generator, can be null.
+         */
+        private IdentificationFeaturesGenerator identificationFeaturesGenerator;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The number of validated proteins scored by this runnable.
+         */
+        private int nValidatedProteins = 0;
+        /**
+         * The number of confident proteins scored by this runnable.
+         */
+        private int nConfidentProteins = 0;
+        /**
+         * The maximal spectrum counting of the proteins scored by this
+         * runnable.
+         */
+        private double maxSpectrumCounting = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param proteinMatchesIterator an iterator for the proteins to score
+         * shared between the threads
+         * @param identification the identification
+         * @param metrics the metrics, null if metrics should not be gathered
+         * @param identificationParameters the identification parameters
+         * @param identificationFeaturesGenerator the identification features
+         * generator, can be null
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public ProteinPtmScorerRunnable(ProteinMatchesIterator proteinMatchesIterator, Identification identification, Metrics metrics, IdentificationParameters identificationParameters,
+                IdentificationFeaturesGenerator identificationFeaturesGenerator, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.identification = identification;
+            this.metrics = metrics;
+            this.identificationParameters = identificationParameters;
+            this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                scoreProteins();
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+            }
+        }
+
+        /**
+         * Scores the proteins from the iterator until no protein is left.
+         *
+         * @throws Exception exception thrown whenever a problem occurred while
+         * deserializing a match
+         */
+        public void scoreProteins() throws Exception {
+
+            PSParameter psParameter = new PSParameter();
+
+            while (!waitingHandler.isRunCanceled()) {
+
+                ProteinMatch proteinMatch;
+                synchronized (proteinMatchesIterator) {
+                    if (!proteinMatchesIterator.hasNext()) {
+                        break;
+                    }
+                    waitingHandler.setDisplayProgress(false);
+                    proteinMatch = proteinMatchesIterator.next();
+                    waitingHandler.setDisplayProgress(true);
+                }
+
+                String proteinKey = proteinMatch.getKey();
+
+                scorePTMs(identification, proteinMatch, identificationParameters, false);
+
+                if (metrics != null) {
+                    psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+                    if (psParameter.getMatchValidationLevel().isValidated()) {
+                        nValidatedProteins++;
+                        if (psParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
+                            nConfidentProteins++;
+                        }
+                    }
+                    if (identificationFeaturesGenerator != null) {
+                        double tempSpectrumCounting = identificationFeaturesGenerator.getNormalizedSpectrumCounting(proteinKey);
+                        if (tempSpectrumCounting > maxSpectrumCounting) {
+                            maxSpectrumCounting = tempSpectrumCounting;
+                        }
+                    }
+                }
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
+        }
+
+        /**
+         * Returns the number of validated proteins scored by this runnable.
+         *
+         * @return the number of validated proteins scored by this runnable
+         */
+        public int getnValidatedProteins() {
+            return nValidatedProteins;
+        }
+
+        /**
+         * Returns the number of confident proteins scored by this runnable.
+         *
+         * @return the number of confident proteins scored by this runnable
+         */
+        public int getnConfidentProteins() {
+            return nConfidentProteins;
+        }
+
+        /**
+         * Returns the maximal spectrum counting of the proteins scored by this
+         * runnable.
+         *
+         * @return the maximal spectrum counting of the proteins scored by this
+         * runnable
+         */
+        public double getMaxSpectrumCounting() {
+            return maxSpectrumCounting;
+        }
+    }
 }
@@ -14,8 +14,10 @@ import com.compomics.util.preferences.AnnotationPreferences;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -46,6 +48,27 @@ public class RunMzDeviation {
      * theoretic (identification) value.
      */
     private HashMap<Double, HashMap<Double, Double>> fragmentsRtDeviations = new HashMap<Double, HashMap<Double, Double>>();
+    /**
+     * The precursor retention time bins sorted in ascending order.
+     */
+    private double[] precursorRTs;
+    /**
+     * The precursor slopes indexed by retention time bin.
+     */
+    private double[] precursorSlopeValues;
+    /**
+     * The precursor offsets indexed by retention time bin.
+     */
+    private double[] precursorOffsetValues;
+    /**
+     * The fragment m/z bins sorted in ascending order indexed by retention
+     * time bin.
+     */
+    private double[][] fragmentMzs;
+    /**
+     * The fragment errors indexed by retention time bin and fragment m/z bin.
+     */
+    private double[][] fragmentErrors;
     /**
      * The bin size used for ms2 correction.
      */
@@ -111,29 +134,11 @@ public class RunMzDeviation {
      */
     public double getPrecursorMzCorrection(Double precursorMz, Double precursorRT) {
 
-        double key1 = precursorRTList.get(0);
-        double key2 = key1;
-
-        if (precursorRT > key1) {
-            key1 = precursorRTList.get(precursorRTList.size() - 1);
-            key2 = key1;
-            if (precursorRT < key1) {
-                for (int i = 0; i < precursorRTList.size() - 1; i++) {
-                    key1 = precursorRTList.get(i);
-                    if (precursorRT == key1) {
-                        key2 = precursorRT;
-                        break;
-                    }
-                    key2 = precursorRTList.get(i + 1);
-                    if (key1 < precursorRT && precursorRT < key2) {
-                        break;
-                    }
-                }
-            }
-        }
+        int rtIndex1 = getLowerBin(precursorRTs, precursorRT);
+        int rtIndex2 = getUpperBin(precursorRTs, rtIndex1, precursorRT);
 
-        double grade = (precursorSlopes.get(key1) + precursorSlopes.get(key2)) / 2;
-        double offset = (precursorOffsets.get(key1) + precursorOffsets.get(key2)) / 2;
+        double grade = (precursorSlopeValues[rtIndex1] + precursorSlopeValues[rtIndex2]) / 2;
+        double offset = (precursorOffsetValues[rtIndex1] + precursorOffsetValues[rtIndex2]) / 2;
         return grade * precursorMz + offset;
     }
 
@@ -146,84 +151,86 @@ public class RunMzDeviation {
      */
     public Double getFragmentMzError(double precursorRT, double fragmentMZ) {
 
-        double rtKey1 = precursorRTList.get(0);
-        double rtKey2 = rtKey1;
-
-        if (precursorRT > rtKey1) {
-            rtKey1 = precursorRTList.get(precursorRTList.size() - 1);
-            rtKey2 = rtKey1;
-            if (precursorRT < rtKey1) {
-                for (int i = 0; i < precursorRTList.size() - 1; i++) {
-                    rtKey1 = precursorRTList.get(i);
-                    if (precursorRT == rtKey1) {
-                        rtKey2 = precursorRT;
-                        break;
-                    }
-                    rtKey2 = precursorRTList.get(i + 1);
-                    if (rtKey1 < precursorRT && precursorRT < rtKey2) {
-                        break;
-                    }
-                }
-            }
-        }
-
-        ArrayList<Double> mzList = new ArrayList<Double>(fragmentsRtDeviations.get(rtKey1).keySet());
-        Collections.sort(mzList);
-        double mzKey1 = mzList.get(0);
-        double mzKey2 = mzKey1;
-
-        if (fragmentMZ > mzKey1) {
-            mzKey1 = mzList.get(mzList.size() - 1);
-            mzKey2 = mzKey1;
-            if (fragmentMZ < mzKey1) {
-                for (int i = 0; i < mzList.size() - 1; i++) {
-                    mzKey1 = mzList.get(i);
-                    if (fragmentMZ == mzKey1) {
-                        mzKey2 = fragmentMZ;
-                        break;
-                    }
-                    mzKey2 = mzList.get(i + 1);
-                    if (mzKey1 < fragmentMZ && fragmentMZ < mzKey2) {
-                        break;
-                    }
-                }
-            }
-        }
+        int rtIndex1 = getLowerBin(precursorRTs, precursorRT);
+        int rtIndex2 = getUpperBin(precursorRTs, rtIndex1, precursorRT);
 
-        double correction11 = fragmentsRtDeviations.get(rtKey1).get(mzKey1);
-        double correction12 = fragmentsRtDeviations.get(rtKey1).get(mzKey2);
-        double correction1 = correction11 * mzKey1 / (mzKey1 + mzKey2) + correction12 * mzKey2 / (mzKey1 + mzKey2);
-
-        mzList = new ArrayList<Double>(fragmentsRtDeviations.get(rtKey2).keySet());
-        Collections.sort(mzList);
-        mzKey1 = mzList.get(0);
-        mzKey2 = mzKey1;
-
-        if (fragmentMZ > mzKey1) {
-            mzKey1 = mzList.get(mzList.size() - 1);
-            mzKey2 = mzKey1;
-            if (fragmentMZ < mzKey1) {
-                for (int i = 0; i < mzList.size() - 1; i++) {
-                    mzKey1 = mzList.get(i);
-                    if (fragmentMZ == mzKey1) {
-                        mzKey2 = fragmentMZ;
-                        break;
-                    }
-                    mzKey2 = mzList.get(i + 1);
-                    if (mzKey1 < fragmentMZ && fragmentMZ < mzKey2) {
-                        break;
-                    }
-                }
-            }
-        }
+        return getFragmentMzError(rtIndex1, rtIndex2, fragmentMZ);
+    }
 
-        double correction21 = fragmentsRtDeviations.get(rtKey2).get(mzKey1);
-        double correction22 = fragmentsRtDeviations.get(rtKey2).get(mzKey2);
-        double correction2 = correction21 * mzKey1 / (mzKey1 + mzKey2) + correction22 * mzKey2 / (mzKey1 + mzKey2);
+    /**
+     * Returns the fragment error at the given retention time bins and fragment
+     * m/z.
+     *
+     * @param rtIndex1 the index of the lower retention time bin
+     * @param rtIndex2 the index of the upper retention time bin
+     * @param fragmentMZ the fragment m/z
+     *
+     * @return the error found
+     */
+    private double getFragmentMzError(int rtIndex1, int rtIndex2, double fragmentMZ) {
+
+        double rtKey1 = precursorRTs[rtIndex1];
+        double rtKey2 = precursorRTs[rtIndex2];
+
+        double[] mzBins = fragmentMzs[rtIndex1];
+        double[] errors = fragmentErrors[rtIndex1];
+        int mzIndex1 = getLowerBin(mzBins, fragmentMZ);
+        int mzIndex2 = getUpperBin(mzBins, mzIndex1, fragmentMZ);
+        double mzKey1 = mzBins[mzIndex1];
+        double mzKey2 = mzBins[mzIndex2];
+        double correction1 = errors[mzIndex1] * mzKey1 / (mzKey1 + mzKey2) + errors[mzIndex2] * mzKey2 / (mzKey1 + mzKey2);
+
+        mzBins = fragmentMzs[rtIndex2];
+        errors = fragmentErrors[rtIndex2];
+        mzIndex1 = getLowerBin(mzBins, fragmentMZ);
+        mzIndex2 = getUpperBin(mzBins, mzIndex1, fragmentMZ);
+        mzKey1 = mzBins[mzIndex1];
+        mzKey2 = mzBins[mzIndex2];
+        double correction2 = errors[mzIndex1] * mzKey1 / (mzKey1 + mzKey2) + errors[mzIndex2] * mzKey2 / (mzKey1 + mzKey2);
 
         return correction1 * rtKey1 / (rtKey1 + rtKey2) + correction2 * rtKey2 / (rtKey1 + rtKey2);
     }
 
+    /**
+     * Returns the index of the bin directly below or equal to the given value.
+     * If the value is below the first bin, the index of the first bin is
+     * returned.
+     *
+     * @param bins the bins sorted in ascending order
+     * @param value the value of interest
+     *
+     * @return the index of the bin directly below or equal to the given value
+     */
+    static int getLowerBin(double[] bins, double value) {
+        int index = Arrays.binarySearch(bins, value);
+        if (index >= 0) {
+            return index;
+        }
+        index = -index - 2;
+        if (index < 0) {
+            return 0;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index of the bin directly above the given value. If the value
+     * matches the lower bin or is outside the range of the bins, the lower bin
+     * is returned.
+     *
+     * @param bins the bins sorted in ascending order
+     * @param lowerBin the index of the lower bin as given by getLowerBin
+     * @param value the value of interest
+     *
+     * @return the index of the bin directly above the given value
+     */
+    static int getUpperBin(double[] bins, int lowerBin, double value) {
+        if (lowerBin == bins.length - 1 || value <= bins[lowerBin]) {
+            return lowerBin;
+        }
+        return lowerBin + 1;
+    }
+
     /**
      * Recalibrate a peak list.
      *
@@ -234,10 +241,14 @@ public class RunMzDeviation {
     public HashMap<Double, Peak> recalibratePeakList(double precursorRT, HashMap<Double, Peak> originalPeakList) {
         HashMap<Double, Peak> recalibratedPeakList = new HashMap<Double, Peak>(originalPeakList.size());
 
-        for (double mz : originalPeakList.keySet()) {
-            double correction = getFragmentMzError(precursorRT, mz);
+        int rtIndex1 = getLowerBin(precursorRTs, precursorRT);
+        int rtIndex2 = getUpperBin(precursorRTs, rtIndex1, precursorRT);
+
+        for (Map.Entry<Double, Peak> entry : originalPeakList.entrySet()) {
+            double mz = entry.getKey();
+            double correction = getFragmentMzError(rtIndex1, rtIndex2, mz);
             double newMz = mz - correction;
-            Peak peak = new Peak(newMz, originalPeakList.get(mz).intensity);
+            Peak peak = new Peak(newMz, entry.getValue().intensity);
             recalibratedPeakList.put(newMz, peak);
         }
         return recalibratedPeakList;
@@ -405,7 +416,7 @@ public class RunMzDeviation {
                 cpt1 += errors.size();
             }
 
-            if (cpt1 > rtBinSize && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+            if (cpt1 > rtBinSize && (waitingHandler == null || !waitingHandler.isRunCanceled())) {
 
                 ArrayList<Double> rtList = new ArrayList<Double>(precursorTempMap.keySet());
                 Collections.sort(rtList);
@@ -771,5 +782,46 @@ public class RunMzDeviation {
 
         precursorRTList = new ArrayList<Double>(precursorSlopes.keySet());
         Collections.sort(precursorRTList);
+        buildLookupArrays();
+    }
+
+    /**
+     * Builds the sorted arrays used to look up the precursor and fragment
+     * corrections.
+     */
+    private void buildLookupArrays() {
+
+        int nRt = precursorRTList.size();
+        precursorRTs = new double[nRt];
+        precursorSlopeValues = new double[nRt];
+        precursorOffsetValues = new double[nRt];
+        fragmentMzs = new double[nRt][];
+        fragmentErrors = new double[nRt][];
+
+        for (int i = 0; i < nRt; i++) {
+
+            Double rt = precursorRTList.get(i);
+            precursorRTs[i] = rt;
+            precursorSlopeValues[i] = precursorSlopes.get(rt);
+            precursorOffsetValues[i] = precursorOffsets.get(rt);
+
+            HashMap<Double, Double> mzErrors = fragmentsRtDeviations.get(rt);
+            if (mzErrors != null) {
+                ArrayList<Double> mzList = new ArrayList<Double>(mzErrors.keySet());
+                Collections.sort(mzList);
+                double[] mzs = new double[mzList.size()];
+                double[] errors = new double[mzList.size()];
+                for (int j = 0; j < mzList.size(); j++) {
+                    Double mz = mzList.get(j);
+                    mzs[j] = mz;
+                    errors[j] = mzErrors.get(mz);
+                }
+                fragmentMzs[i] = mzs;
+                fragmentErrors[i] = errors;
+            } else {
+                fragmentMzs[i] = new double[0];
+                fragmentErrors[i] = new double[0];
+            }
+        }
     }
 }
@@ -41,7 +41,9 @@ public class SpectrumRecalibrator {
      * @param spectrumFileName the spectrum file name
      */
     public void clearErrors(String spectrumFileName) {
-        runMzDeviationMap.remove(spectrumFileName);
+        synchronized (runMzDeviationMap) {
+            runMzDeviationMap.remove(spectrumFileName);
+        }
     }
 
     /**
@@ -52,7 +54,9 @@ public class SpectrumRecalibrator {
      * @return the mz deviation statistics
      */
     public RunMzDeviation getRunMzDeviations(String spectrumFileName) {
-        return runMzDeviationMap.get(spectrumFileName);
+        synchronized (runMzDeviationMap) {
+            return runMzDeviationMap.get(spectrumFileName);
+        }
     }
 
     /**
@@ -80,7 +84,9 @@ public class SpectrumRecalibrator {
     public void estimateErrors(String spectrumFileName, Identification identification, AnnotationPreferences annotationPreferences, WaitingHandler waitingHandler)
             throws IOException, MzMLUnmarshallerException, SQLException, ClassNotFoundException, InterruptedException {
         RunMzDeviation fileErrors = new RunMzDeviation(spectrumFileName, identification, annotationPreferences, waitingHandler);
-        runMzDeviationMap.put(spectrumFileName, fileErrors);
+        synchronized (runMzDeviationMap) {
+            runMzDeviationMap.put(spectrumFileName, fileErrors);
+        }
     }
 
     /**
@@ -100,7 +106,7 @@ public class SpectrumRecalibrator {
      */
     public MSnSpectrum recalibrateSpectrum(String fileName, String spectrumTitle, boolean recalibratePrecursor, boolean recalibrateFragmentIons) throws IOException, MzMLUnmarshallerException {
 
-        RunMzDeviation runError = runMzDeviationMap.get(fileName);
+        RunMzDeviation runError = getRunMzDeviations(fileName);
         if (runError == null) {
             throw new IllegalArgumentException("No m/z deviation statistics found for spectrum file " + fileName + ".");
         }
@@ -0,0 +1,114 @@
+package eu.isas.peptideshaker.scoring;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the fractions, i.e. spectrum files, of a project. Every fraction
+ * receives a dense index starting at 0 in the order of registration, which
+ * allows indexing per fraction information with arrays. The registry also
+ * keeps a single instance of every fraction name.
+ */
+public class FractionRegistry implements Serializable {
+
+    /**
+     * Serial version UID for post-serialization compatibility.
+     */
+    static final long serialVersionUID = -2740128398514613406L;
+    /**
+     * The fraction names indexed by fraction index.
+     */
+    private volatile String[] fractionNames = new String[0];
+    /**
+     * The fraction indexes indexed by fraction name.
+     */
+    private final ConcurrentHashMap<String, Integer> fractionIndexes = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Constructor.
+     */
+    public FractionRegistry() {
+    }
+
+    /**
+     * Constructor registering the given fractions in the given order.
+     *
+     * @param fractionNames the names of the fractions
+     */
+    public FractionRegistry(Iterable<String> fractionNames) {
+        for (String fractionName : fractionNames) {
+            register(fractionName);
+        }
+    }
+
+    /**
+     * Registers a fraction if not done already and returns its index.
+     *
+     * @param fractionName the name of the fraction
+     *
+     * @return the index of the fraction
+     */
+    public int register(String fractionName) {
+        Integer index = fractionIndexes.get(fractionName);
+        if (index != null) {
+            return index;
+        }
+        synchronized (this) {
+            index = fractionIndexes.get(fractionName);
+            if (index == null) {
+                index = fractionNames.length;
+                String[] newNames = Arrays.copyOf(fractionNames, index + 1);
+                newNames[index] = fractionName;
+                fractionNames = newNames;
+                fractionIndexes.put(fractionName, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Returns the index of the given fraction, -1 if not registered.
+     *
+     * @param fractionName the name of the fraction
+     *
+     * @return the index of the given fraction
+     */
+    public int getIndex(String fractionName) {
+        Integer index = fractionIndexes.get(fractionName);
+        if (index == null) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the name of the fraction at the given index.
+     *
+     * @param index the index of the fraction
+     *
+     * @return the name of the fraction
+     */
+    public String getName(int index) {
+        return fractionNames[index];
+    }
+
+    /**
+     * Returns the number of fractions registered.
+     *
+     * @return the number of fractions registered
+     */
+    public int size() {
+        return fractionNames.length;
+    }
+
+    /**
+     * Returns the names of the fractions in the order of their indexes.
+     *
+     * @return the names of the fractions
+     */
+    public ArrayList<String> getNames() {
+        return new ArrayList<String>(Arrays.asList(fractionNames));
+    }
+}
@@ -261,6 +261,100 @@ public class InputMap implements Serializable {
         targetDecoyMap.put(eValue, isDecoy);
     }
 
+    /**
+     * Adds the entries, intermediate scores and advocate contributions of
+     * another input map to this map. Threads can fill their own input map
+     * without contention and merge it in the shared map once done.
+     *
+     * @param otherMap the input map to add to this map
+     */
+    public synchronized void addAll(InputMap otherMap) {
+        for (Integer advocateId : otherMap.inputMap.keySet()) {
+            TargetDecoyMap targetDecoyMap = inputMap.get(advocateId);
+            if (targetDecoyMap == null) {
+                targetDecoyMap = new TargetDecoyMap();
+                inputMap.put(advocateId, targetDecoyMap);
+            }
+            targetDecoyMap.addAll(otherMap.inputMap.get(advocateId));
+        }
+        for (Integer advocateId : otherMap.inputSpecificMap.keySet()) {
+            HashMap<String, TargetDecoyMap> algorithmMap = inputSpecificMap.get(advocateId);
+            if (algorithmMap == null) {
+                algorithmMap = new HashMap<String, TargetDecoyMap>();
+                inputSpecificMap.put(advocateId, algorithmMap);
+            }
+            HashMap<String, TargetDecoyMap> otherAlgorithmMap = otherMap.inputSpecificMap.get(advocateId);
+            for (String fileName : otherAlgorithmMap.keySet()) {
+                TargetDecoyMap targetDecoyMap = algorithmMap.get(fileName);
+                if (targetDecoyMap == null) {
+                    targetDecoyMap = new TargetDecoyMap();
+                    algorithmMap.put(fileName, targetDecoyMap);
+                }
+                targetDecoyMap.addAll(otherAlgorithmMap.get(fileName));
+            }
+        }
+        for (String fileName : otherMap.intermediateScores.keySet()) {
+            HashMap<Integer, HashMap<Integer, TargetDecoyMap>> advocateMap = intermediateScores.get(fileName);
+            if (advocateMap == null) {
+                advocateMap = new HashMap<Integer, HashMap<Integer, TargetDecoyMap>>();
+                intermediateScores.put(fileName, advocateMap);
+            }
+            HashMap<Integer, HashMap<Integer, TargetDecoyMap>> otherAdvocateMap = otherMap.intermediateScores.get(fileName);
+            for (Integer advocateIndex : otherAdvocateMap.keySet()) {
+                HashMap<Integer, TargetDecoyMap> scoreMap = advocateMap.get(advocateIndex);
+                if (scoreMap == null) {
+                    scoreMap = new HashMap<Integer, TargetDecoyMap>();
+                    advocateMap.put(advocateIndex, scoreMap);
+                }
+                HashMap<Integer, TargetDecoyMap> otherScoreMap = otherAdvocateMap.get(advocateIndex);
+                for (Integer scoreIndex : otherScoreMap.keySet()) {
+                    TargetDecoyMap targetDecoyMap = scoreMap.get(scoreIndex);
+                    if (targetDecoyMap == null) {
+                        targetDecoyMap = new TargetDecoyMap();
+                        scoreMap.put(scoreIndex, targetDecoyMap);
+                    }
+                    targetDecoyMap.addAll(otherScoreMap.get(scoreIndex));
+                }
+            }
+        }
+        if (otherMap.advocateContribution != null) {
+            if (advocateContribution == null) {
+                advocateContribution = new HashMap<Integer, HashMap<String, Integer>>();
+            }
+            addContributions(advocateContribution, otherMap.advocateContribution);
+        }
+        if (otherMap.advocateUniqueContribution != null) {
+            if (advocateUniqueContribution == null) {
+                advocateUniqueContribution = new HashMap<Integer, HashMap<String, Integer>>();
+            }
+            addContributions(advocateUniqueContribution, otherMap.advocateUniqueContribution);
+        }
+    }
+
+    /**
+     * Adds the contributions of a contribution map to another one.
+     *
+     * @param contributions the contributions map to complete
+     * @param otherContributions the contributions to add
+     */
+    private static void addContributions(HashMap<Integer, HashMap<String, Integer>> contributions, HashMap<Integer, HashMap<String, Integer>> otherContributions) {
+        for (Integer advocateId : otherContributions.keySet()) {
+            HashMap<String, Integer> advocateContributions = contributions.get(advocateId);
+            if (advocateContributions == null) {
+                advocateContributions = new HashMap<String, Integer>();
+                contributions.put(advocateId, advocateContributions);
+            }
+            HashMap<String, Integer> otherAdvocateContributions = otherContributions.get(advocateId);
+            for (String fileName : otherAdvocateContributions.keySet()) {
+                Integer contribution = advocateContributions.get(fileName);
+                if (contribution == null) {
+                    contribution = 0;
+                }
+                advocateContributions.put(fileName, contribution + otherAdvocateContributions.get(fileName));
+            }
+        }
+    }
+
     /**
      * Returns the number of entries.
      *
@@ -100,7 +100,8 @@ public class PeptideSpecificMap implements Serializable {
     }
 
     /**
-     * Adds a point in the peptide specific map.
+     * Adds a point in the peptide specific map. This method can be called
+     * concurrently.
      *
      * @param probabilityScore The estimated peptide probabilistic score
      * @param peptideMatch The corresponding peptide match
@@ -116,10 +117,15 @@ public class PeptideSpecificMap implements Serializable {
     public void addPoint(double probabilityScore, PeptideMatch peptideMatch, SequenceMatchingPreferences sequenceMatchingPreferences) 
             throws IOException, InterruptedException, SQLException, ClassNotFoundException {
         String key = getKey(peptideMatch);
-        if (!peptideMaps.containsKey(key)) {
-            peptideMaps.put(key, new TargetDecoyMap());
+        boolean decoy = peptideMatch.getTheoreticPeptide().isDecoy(sequenceMatchingPreferences);
+        synchronized (peptideMaps) {
+            TargetDecoyMap targetDecoyMap = peptideMaps.get(key);
+            if (targetDecoyMap == null) {
+                targetDecoyMap = new TargetDecoyMap();
+                peptideMaps.put(key, targetDecoyMap);
+            }
+            targetDecoyMap.put(probabilityScore, decoy);
         }
-        peptideMaps.get(key).put(probabilityScore, peptideMatch.getTheoreticPeptide().isDecoy(sequenceMatchingPreferences));
     }
 
     /**
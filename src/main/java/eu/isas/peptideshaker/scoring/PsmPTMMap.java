@@ -98,7 +98,7 @@ public class PsmPTMMap implements Serializable {
      * @param spectrumMatch the spectrum match of interest
      * @param conflict boolean indicating whether the two scores are conflicting
      */
-    public void addPoint(double ptmMass, double probabilityScore, SpectrumMatch spectrumMatch, boolean conflict) {
+    public synchronized void addPoint(double ptmMass, double probabilityScore, SpectrumMatch spectrumMatch, boolean conflict) {
         if (!psmMaps.containsKey(ptmMass)) {
             psmMaps.put(ptmMass, new HashMap<Integer, TargetDecoyMap>());
             grouping.put(ptmMass, new HashMap<Integer, Integer>());
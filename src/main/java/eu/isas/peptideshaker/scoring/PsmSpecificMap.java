@@ -7,6 +7,7 @@ import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.filtering.PsmFilter;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -56,6 +57,17 @@ public class PsmSpecificMap implements Serializable {
      * @deprecated use ValidationQCPreferences instead
      */
     private HashMap<Integer, HashMap<String, ArrayList<PsmFilter>>> doubtfulMatchesFiltersSpecificMap = null;
+    /**
+     * The registry of the spectrum files. Not saved with the project, rebuilt
+     * from the file specific maps when the map is loaded.
+     */
+    private transient FractionRegistry fractionRegistry = new FractionRegistry();
+    /**
+     * The target/decoy maps to use for every charge and spectrum file indexed
+     * by charge and fraction index. Built on demand and reset whenever the
+     * maps change.
+     */
+    private transient volatile TargetDecoyMap[][] fractionMapsTable = null;
 
     /**
      * Constructor.
@@ -108,31 +120,25 @@ public class PsmSpecificMap implements Serializable {
      * @return the probability of the given spectrum match at the given score
      */
     public double getProbability(String file, int charge, double score) {
-        boolean groupedFile = false;
-        if (fileSpecificGrouping != null) {
-            ArrayList<String> groupedFiles = fileSpecificGrouping.get(charge);
-            if (groupedFiles != null && groupedFiles.contains(file)) {
-                groupedFile = true;
-            }
-        } else {
-            groupedFile = true;
-        }
-        if (groupedFile) {
-            Integer key = grouping.get(charge);
-            if (key == null) {
-                key = charge;
-            }
-            TargetDecoyMap targetDecoyMap = psmsMaps.get(key);
-            if (targetDecoyMap == null) {
-                return 1;
-            }
-            return targetDecoyMap.getProbability(score);
-        }
-        HashMap<String, TargetDecoyMap> specificMap = fileSpecificPsmsMaps.get(charge);
-        if (specificMap == null) {
+        return getProbability(getFractionRegistry().getIndex(file), charge, score);
+    }
+
+    /**
+     * Returns the probability of a spectrum match at the given score.
+     *
+     * @param fractionIndex the index of the spectrum file in the fraction
+     * registry, -1 if the file is not registered
+     * @param charge the charge scored
+     * @param score the corresponding score
+     *
+     * @return the probability of the spectrum match at the given score
+     */
+    public double getProbability(int fractionIndex, int charge, double score) {
+        if (fileSpecificGrouping != null && (fractionIndex < 0 || !fileSpecificPsmsMaps.containsKey(charge))) {
+            // no file specific map and the file is not grouped
             return 1;
         }
-        TargetDecoyMap targetDecoyMap = specificMap.get(file);
+        TargetDecoyMap targetDecoyMap = getTargetDecoyMap(charge, fractionIndex);
         if (targetDecoyMap == null) {
             return 1;
         }
@@ -156,6 +162,29 @@ public class PsmSpecificMap implements Serializable {
      */
     public void addPoint(double probabilityScore, SpectrumMatch spectrumMatch, SequenceMatchingPreferences sequenceMatchingPreferences) 
             throws IOException, InterruptedException, SQLException, ClassNotFoundException {
+        int fractionIndex = getFractionRegistry().register(Spectrum.getSpectrumFile(spectrumMatch.getKey()));
+        addPoint(probabilityScore, spectrumMatch, fractionIndex, sequenceMatchingPreferences);
+    }
+
+    /**
+     * Adds a point representing the corresponding spectrum match at a given
+     * score.
+     *
+     * @param probabilityScore the estimated score
+     * @param spectrumMatch the spectrum match of interest
+     * @param fractionIndex the index of the spectrum file of the match in the
+     * fraction registry
+     * @param sequenceMatchingPreferences The sequence matching preferences
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws IllegalArgumentException thrown if an IllegalArgumentException
+     * occurs
+     */
+    public synchronized void addPoint(double probabilityScore, SpectrumMatch spectrumMatch, int fractionIndex, SequenceMatchingPreferences sequenceMatchingPreferences) 
+            throws IOException, InterruptedException, SQLException, ClassNotFoundException {
 
         int charge = spectrumMatch.getBestPeptideAssumption().getIdentificationCharge().value;
         HashMap<String, TargetDecoyMap> fileMapping = fileSpecificPsmsMaps.get(charge);
@@ -163,11 +192,12 @@ public class PsmSpecificMap implements Serializable {
             fileMapping = new HashMap<String, TargetDecoyMap>();
             fileSpecificPsmsMaps.put(charge, fileMapping);
         }
-        String file = Spectrum.getSpectrumFile(spectrumMatch.getKey());
+        String file = getFractionRegistry().getName(fractionIndex);
         TargetDecoyMap targetDecoyMap = fileMapping.get(file);
         if (targetDecoyMap == null) {
             targetDecoyMap = new TargetDecoyMap();
             fileMapping.put(file, targetDecoyMap);
+            fractionMapsTable = null;
         }
         targetDecoyMap.put(probabilityScore, spectrumMatch.getBestPeptideAssumption().getPeptide().isDecoy(sequenceMatchingPreferences));
     }
@@ -218,6 +248,7 @@ public class PsmSpecificMap implements Serializable {
                 }
             }
         }
+        fractionMapsTable = null;
     }
 
     /**
@@ -245,6 +276,93 @@ public class PsmSpecificMap implements Serializable {
         return psmsMaps.get(correctedCharge);
     }
 
+    /**
+     * Returns the desired target decoy map.
+     *
+     * @param charge the identified charge of the PSM
+     * @param fractionIndex the index of the spectrum file in the fraction
+     * registry, -1 if the file is not registered
+     *
+     * @return the corresponding target decoy map
+     */
+    public TargetDecoyMap getTargetDecoyMap(int charge, int fractionIndex) {
+        if (fractionIndex < 0) {
+            // file without specific map
+            if (fileSpecificGrouping != null && fileSpecificPsmsMaps != null && fileSpecificPsmsMaps.containsKey(charge)) {
+                return null;
+            }
+            Integer correctedCharge = grouping.get(charge);
+            if (correctedCharge == null) {
+                correctedCharge = charge;
+            }
+            return psmsMaps.get(correctedCharge);
+        }
+        TargetDecoyMap[][] table = getFractionMapsTable();
+        if (charge >= 0 && charge < table.length && fractionIndex < table[charge].length) {
+            return table[charge][fractionIndex];
+        }
+        return getTargetDecoyMap(charge, getFractionRegistry().getName(fractionIndex));
+    }
+
+    /**
+     * Returns the table of the target decoy maps indexed by charge and fraction
+     * index, builds it if needed.
+     *
+     * @return the table of the target decoy maps
+     */
+    private TargetDecoyMap[][] getFractionMapsTable() {
+        TargetDecoyMap[][] table = fractionMapsTable;
+        if (table == null) {
+            synchronized (this) {
+                table = fractionMapsTable;
+                if (table == null) {
+                    FractionRegistry registry = getFractionRegistry();
+                    int nFractions = registry.size();
+                    int maxCharge = getMaxCharge();
+                    table = new TargetDecoyMap[maxCharge + 1][nFractions];
+                    for (int charge = 0; charge <= maxCharge; charge++) {
+                        for (int fractionIndex = 0; fractionIndex < nFractions; fractionIndex++) {
+                            table[charge][fractionIndex] = getTargetDecoyMap(charge, registry.getName(fractionIndex));
+                        }
+                    }
+                    fractionMapsTable = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Returns the registry of the spectrum files used to index the file
+     * specific maps.
+     *
+     * @return the registry of the spectrum files
+     */
+    public FractionRegistry getFractionRegistry() {
+        return fractionRegistry;
+    }
+
+    /**
+     * Reads the map and registers the spectrum files of the file specific
+     * maps.
+     *
+     * @param in the input stream
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        fractionRegistry = new FractionRegistry();
+        if (fileSpecificPsmsMaps != null) {
+            for (HashMap<String, TargetDecoyMap> chargeMapping : fileSpecificPsmsMaps.values()) {
+                for (String file : chargeMapping.keySet()) {
+                    fractionRegistry.register(file);
+                }
+            }
+        }
+    }
+
     /**
      * Indicates whether the given file was grouped for the given charge.
      *
@@ -1,5 +1,6 @@
 package eu.isas.peptideshaker.scoring.psm_scoring;
 
+import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.ShotgunProtocol;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.identification.Advocate;
@@ -19,17 +20,22 @@ import com.compomics.util.memory.MemoryConsumptionStatus;
 import com.compomics.util.preferences.AnnotationPreferences;
 import com.compomics.util.preferences.IdFilter;
 import com.compomics.util.preferences.IdentificationParameters;
+import com.compomics.util.preferences.ProcessingPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.myparameters.PSParameter;
 import eu.isas.peptideshaker.scoring.InputMap;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.SerializationCopy;
 import eu.isas.peptideshaker.validation.MatchesValidator;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -88,6 +94,8 @@ public class BestMatchSelection {
      * @param waitingHandler the handler displaying feedback to the user
      * @param shotgunProtocol information about the protocol
      * @param identificationParameters the identification parameters
+     * @param processingPreferences the processing preferences
+     * @param exceptionHandler handler for exceptions
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with the back-end database
@@ -101,18 +109,14 @@ public class BestMatchSelection {
      * whenever an error occurred while reading an mzML file
      */
     public void selectBestHitAndFillPsmMap(InputMap inputMap, WaitingHandler waitingHandler, ShotgunProtocol shotgunProtocol,
-            IdentificationParameters identificationParameters) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+            IdentificationParameters identificationParameters, ProcessingPreferences processingPreferences, ExceptionHandler exceptionHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
 
-        PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
         boolean multiSE = inputMap.isMultipleAlgorithms();
-
-        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        AnnotationPreferences annotationPreferences = identificationParameters.getAnnotationPreferences();
-
-        IdFilter idFilter = identificationParameters.getIdFilter();
+        int nThreads = processingPreferences.getnThreads();
 
         // Keep a map of the spectrum keys grouped by peptide
         HashMap<String, ArrayList<String>> orderedPsmMap = null;
@@ -120,247 +124,353 @@ public class BestMatchSelection {
             orderedPsmMap = new HashMap<String, ArrayList<String>>(identification.getSpectrumIdentificationMap().size());
         }
 
-        PSParameter psParameter = new PSParameter();
-
         for (String spectrumFileName : identification.getSpectrumFiles()) {
 
+            int fractionIndex = matchesValidator.getPsmMap().getFractionRegistry().register(spectrumFileName);
             HashMap<String, ArrayList<String>> keysMap = null;
             if (orderedPsmMap != null) {
                 keysMap = new HashMap<String, ArrayList<String>>();
             }
 
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, null, true, waitingHandler);
+            if (nThreads == 1) {
 
-            while (psmIterator.hasNext()) {
+                PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
+                AnnotationPreferences annotationPreferences = identificationParameters.getAnnotationPreferences();
+                PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, null, true, waitingHandler);
 
-                waitingHandler.setDisplayProgress(false);
-                SpectrumMatch advocateMatch = psmIterator.next();
-                waitingHandler.setDisplayProgress(true);
-                
-                String spectrumKey = advocateMatch.getKey();
+                while (psmIterator.hasNext()) {
 
-                // map of the peptide first hits for this spectrum: score -> max protein count -> max search engine votes -> amino acids annotated -> min mass deviation -> peptide sequence
-                HashMap<Double, HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>> peptideAssumptions
-                        = new HashMap<Double, HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>>();
+                    waitingHandler.setDisplayProgress(false);
+                    SpectrumMatch advocateMatch = psmIterator.next();
+                    waitingHandler.setDisplayProgress(true);
 
-                // map of the tag first hits: score -> assumptions
-                HashMap<Double, ArrayList<TagAssumption>> tagAssumptions = new HashMap<Double, ArrayList<TagAssumption>>();
+                    selectBestHit(advocateMatch, fractionIndex, keysMap, multiSE, spectrumAnnotator, annotationPreferences, shotgunProtocol, identificationParameters);
 
-                ArrayList<String> identifications = new ArrayList<String>();
+                    waitingHandler.increaseSecondaryProgressCounter();
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                }
 
-                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+            } else {
 
-                for (int searchEngine1 : assumptions.keySet()) {
+                PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, null, true, null);
+                ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+                ArrayList<BestMatchSelectionRunnable> runnables = new ArrayList<BestMatchSelectionRunnable>(nThreads);
 
-                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate1Map = assumptions.get(searchEngine1);
+                for (int i = 1; i <= nThreads; i++) {
+                    // the annotation settings are updated for every assumption, every thread hence needs its own copy
+                    AnnotationPreferences annotationPreferences = (AnnotationPreferences) SerializationCopy.deepCopy(identificationParameters.getAnnotationPreferences());
+                    HashMap<String, ArrayList<String>> threadKeysMap = null;
+                    if (keysMap != null) {
+                        threadKeysMap = new HashMap<String, ArrayList<String>>();
+                    }
+                    BestMatchSelectionRunnable runnable = new BestMatchSelectionRunnable(psmIterator, fractionIndex, threadKeysMap, multiSE, annotationPreferences,
+                            shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler);
+                    runnables.add(runnable);
+                    pool.submit(runnable);
+                }
 
-                    double bestEvalue = Collections.min(advocate1Map.keySet());
+                pool.shutdown();
+                if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                    throw new InterruptedException("Best match selection timed out. Please contact the developers.");
+                }
 
-                    for (SpectrumIdentificationAssumption assumption1 : advocate1Map.get(bestEvalue)) {
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
 
-                        if (assumption1 instanceof PeptideAssumption) {
+                if (keysMap != null) {
+                    for (BestMatchSelectionRunnable runnable : runnables) {
+                        HashMap<String, ArrayList<String>> threadKeysMap = runnable.getKeysMap();
+                        for (String peptideKey : threadKeysMap.keySet()) {
+                            ArrayList<String> threadSpectrumKeys = threadKeysMap.get(peptideKey);
+                            ArrayList<String> spectrumKeys = keysMap.get(peptideKey);
+                            if (spectrumKeys == null) {
+                                keysMap.put(peptideKey, threadSpectrumKeys);
+                            } else {
+                                spectrumKeys.addAll(threadSpectrumKeys);
+                            }
+                        }
+                    }
+                }
+            }
 
-                            PeptideAssumption peptideAssumption1 = (PeptideAssumption) assumption1;
-                            String id = peptideAssumption1.getPeptide().getKey();
+            if (orderedPsmMap != null) {
+                ArrayList<String> orderedKeys = new ArrayList<String>(identification.getSpectrumIdentification(spectrumFileName).size());
+                for (ArrayList<String> keys : keysMap.values()) {
+                    orderedKeys.addAll(keys);
+                }
+                orderedPsmMap.put(spectrumFileName, orderedKeys);
 
-                            if (!identifications.contains(id)) {
+                if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
+                    orderedPsmMap = null;
+                }
+            }
+        }
 
-                                psParameter = (PSParameter) peptideAssumption1.getUrParam(psParameter);
-                                double p;
+        if (orderedPsmMap != null) {
+            metrics.setGroupedSpectrumKeys(orderedPsmMap);
+        }
 
-                                if (multiSE && sequenceFactory.concatenatedTargetDecoy()) {
-                                    p = psParameter.getSearchEngineProbability();
-                                } else {
-                                    p = peptideAssumption1.getScore();
-                                }
+        // the protein count map is no longer needed
+        proteinCount.clear();
 
-                                int nSE = 1;
-                                int proteinMax = 1;
-                                for (String protein : peptideAssumption1.getPeptide().getParentProteins(sequenceMatchingPreferences)) {
-                                    Integer tempCount = proteinCount.get(protein);
-                                    if (tempCount != null && tempCount > proteinMax) {
-                                        proteinMax = tempCount;
-                                    }
-                                }
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
 
-                                for (int searchEngine2 : assumptions.keySet()) {
+    /**
+     * Selects the best hit of a spectrum, adds it to the PSM specific map and
+     * saves it in the identification.
+     *
+     * @param advocateMatch the spectrum match as imported from the search
+     * engines
+     * @param fractionIndex the index of the spectrum file of the match in the
+     * fraction registry
+     * @param keysMap map where to store the spectrum keys grouped by peptide,
+     * can be null
+     * @param multiSE indicates whether multiple search engines were used
+     * @param spectrumAnnotator the spectrum annotator to use
+     * @param annotationPreferences the annotation preferences to use, will be
+     * modified
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with the back-end database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading an external file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file
+     */
+    private void selectBestHit(SpectrumMatch advocateMatch, int fractionIndex, HashMap<String, ArrayList<String>> keysMap, boolean multiSE, PeptideSpectrumAnnotator spectrumAnnotator,
+            AnnotationPreferences annotationPreferences, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
-                                    if (searchEngine1 != searchEngine2) {
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        IdFilter idFilter = identificationParameters.getIdFilter();
+        PSParameter psParameter = new PSParameter();
 
-                                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate2Map = assumptions.get(searchEngine2);
+        String spectrumKey = advocateMatch.getKey();
 
-                                        boolean found = false;
-                                        ArrayList<Double> eValues2 = new ArrayList<Double>(advocate2Map.keySet());
-                                        Collections.sort(eValues2);
+        // map of the peptide first hits for this spectrum: score -> max protein count -> max search engine votes -> amino acids annotated -> min mass deviation -> peptide sequence
+        HashMap<Double, HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>> peptideAssumptions
+                = new HashMap<Double, HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>>();
 
-                                        for (double eValue2 : eValues2) {
-                                            for (SpectrumIdentificationAssumption assumption2 : advocate2Map.get(eValue2)) {
+        // map of the tag first hits: score -> assumptions
+        HashMap<Double, ArrayList<TagAssumption>> tagAssumptions = new HashMap<Double, ArrayList<TagAssumption>>();
 
-                                                if (assumption2 instanceof PeptideAssumption) {
+        ArrayList<String> identifications = new ArrayList<String>();
 
-                                                    PeptideAssumption peptideAssumption2 = (PeptideAssumption) assumption2;
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
 
-                                                    if (peptideAssumption1.getPeptide().isSameSequenceAndModificationStatus(peptideAssumption2.getPeptide(),
-                                                            sequenceMatchingPreferences)) {
-                                                        PSParameter psParameter2 = (PSParameter) peptideAssumption2.getUrParam(psParameter);
-                                                        p = p * psParameter2.getSearchEngineProbability();
-                                                        nSE++;
-                                                        found = true;
-                                                        break;
-                                                    }
-                                                }
-                                            }
-                                            if (found) {
+        for (int searchEngine1 : assumptions.keySet()) {
+
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate1Map = assumptions.get(searchEngine1);
+
+            double bestEvalue = Collections.min(advocate1Map.keySet());
+
+            for (SpectrumIdentificationAssumption assumption1 : advocate1Map.get(bestEvalue)) {
+
+                if (assumption1 instanceof PeptideAssumption) {
+
+                    PeptideAssumption peptideAssumption1 = (PeptideAssumption) assumption1;
+                    String id = peptideAssumption1.getPeptide().getKey();
+
+                    if (!identifications.contains(id)) {
+
+                        psParameter = (PSParameter) peptideAssumption1.getUrParam(psParameter);
+                        double p;
+
+                        if (multiSE && sequenceFactory.concatenatedTargetDecoy()) {
+                            p = psParameter.getSearchEngineProbability();
+                        } else {
+                            p = peptideAssumption1.getScore();
+                        }
+
+                        int nSE = 1;
+                        int proteinMax = 1;
+                        for (String protein : peptideAssumption1.getPeptide().getParentProteins(sequenceMatchingPreferences)) {
+                            Integer tempCount = proteinCount.get(protein);
+                            if (tempCount != null && tempCount > proteinMax) {
+                                proteinMax = tempCount;
+                            }
+                        }
+
+                        for (int searchEngine2 : assumptions.keySet()) {
+
+                            if (searchEngine1 != searchEngine2) {
+
+                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocate2Map = assumptions.get(searchEngine2);
+
+                                boolean found = false;
+                                ArrayList<Double> eValues2 = new ArrayList<Double>(advocate2Map.keySet());
+                                Collections.sort(eValues2);
+
+                                for (double eValue2 : eValues2) {
+                                    for (SpectrumIdentificationAssumption assumption2 : advocate2Map.get(eValue2)) {
+
+                                        if (assumption2 instanceof PeptideAssumption) {
+
+                                            PeptideAssumption peptideAssumption2 = (PeptideAssumption) assumption2;
+
+                                            if (peptideAssumption1.getPeptide().isSameSequenceAndModificationStatus(peptideAssumption2.getPeptide(),
+                                                    sequenceMatchingPreferences)) {
+                                                PSParameter psParameter2 = (PSParameter) peptideAssumption2.getUrParam(psParameter);
+                                                p = p * psParameter2.getSearchEngineProbability();
+                                                nSE++;
+                                                found = true;
                                                 break;
                                             }
                                         }
                                     }
+                                    if (found) {
+                                        break;
+                                    }
                                 }
+                            }
+                        }
 
-                                identifications.add(id);
-
-                                HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>> pMap = peptideAssumptions.get(p);
-                                if (pMap == null) {
-                                    pMap = new HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>(advocate1Map.size());
-                                    peptideAssumptions.put(p, pMap);
-                                }
+                        identifications.add(id);
 
-                                HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>> proteinMaxMap = pMap.get(proteinMax);
-                                if (proteinMaxMap == null) {
-                                    proteinMaxMap = new HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>(1);
-                                    pMap.put(proteinMax, proteinMaxMap);
-                                }
+                        HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>> pMap = peptideAssumptions.get(p);
+                        if (pMap == null) {
+                            pMap = new HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>>(advocate1Map.size());
+                            peptideAssumptions.put(p, pMap);
+                        }
 
-                                HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>> nSeMap = proteinMaxMap.get(nSE);
-                                if (nSeMap == null) {
-                                    nSeMap = new HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>(1);
-                                    proteinMaxMap.put(nSE, nSeMap);
-                                    HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = new HashMap<Double, HashMap<String, PeptideAssumption>>(1);
-                                    nSeMap.put(-1, coverageMap);
-                                    HashMap<String, PeptideAssumption> assumptionMap = new HashMap<String, PeptideAssumption>(1);
-                                    coverageMap.put(-1.0, assumptionMap);
-                                    assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
-                                } else {
-                                    MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
-                                    double mzTolerance = shotgunProtocol.getMs2Resolution();
-                                    boolean isPpm = false; //@TODO change this as soon as search engine support fragment ion tolerance in ppm
-
-                                    HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = nSeMap.get(-1);
-                                    if (coverageMap != null) {
-                                        HashMap<String, PeptideAssumption> assumptionMap = coverageMap.get(-1.0);
-                                        for (PeptideAssumption tempAssumption : assumptionMap.values()) { // There should be only one
-                                            Peptide peptide = tempAssumption.getPeptide();
-                                            int precursorCharge = tempAssumption.getIdentificationCharge().value;
-                                            annotationPreferences.setCurrentSettings(tempAssumption, true, sequenceMatchingPreferences);
-                                            HashMap<Integer, ArrayList<IonMatch>> coveredAminoAcids
-                                                    = spectrumAnnotator.getCoveredAminoAcids(annotationPreferences.getIonTypes(),
-                                                            annotationPreferences.getNeutralLosses(), annotationPreferences.getValidatedCharges(), precursorCharge,
-                                                            spectrum, peptide, 0, mzTolerance, isPpm, annotationPreferences.isHighResolutionAnnotation());
-                                            int nIons = coveredAminoAcids.size();
-                                            nSeMap.put(nIons, coverageMap);
-                                        }
-                                        nSeMap.remove(-1);
-                                    }
+                        HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>> proteinMaxMap = pMap.get(proteinMax);
+                        if (proteinMaxMap == null) {
+                            proteinMaxMap = new HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>(1);
+                            pMap.put(proteinMax, proteinMaxMap);
+                        }
 
-                                    Peptide peptide = peptideAssumption1.getPeptide();
-                                    int precursorCharge = peptideAssumption1.getIdentificationCharge().value;
-                                    annotationPreferences.setCurrentSettings(peptideAssumption1, true, sequenceMatchingPreferences);
+                        HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>> nSeMap = proteinMaxMap.get(nSE);
+                        if (nSeMap == null) {
+                            nSeMap = new HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>(1);
+                            proteinMaxMap.put(nSE, nSeMap);
+                            HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = new HashMap<Double, HashMap<String, PeptideAssumption>>(1);
+                            nSeMap.put(-1, coverageMap);
+                            HashMap<String, PeptideAssumption> assumptionMap = new HashMap<String, PeptideAssumption>(1);
+                            coverageMap.put(-1.0, assumptionMap);
+                            assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
+                        } else {
+                            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
+                            double mzTolerance = shotgunProtocol.getMs2Resolution();
+                            boolean isPpm = false; //@TODO change this as soon as search engine support fragment ion tolerance in ppm
+
+                            HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = nSeMap.get(-1);
+                            if (coverageMap != null) {
+                                HashMap<String, PeptideAssumption> assumptionMap = coverageMap.get(-1.0);
+                                for (PeptideAssumption tempAssumption : assumptionMap.values()) { // There should be only one
+                                    Peptide peptide = tempAssumption.getPeptide();
+                                    int precursorCharge = tempAssumption.getIdentificationCharge().value;
+                                    annotationPreferences.setCurrentSettings(tempAssumption, true, sequenceMatchingPreferences);
                                     HashMap<Integer, ArrayList<IonMatch>> coveredAminoAcids
                                             = spectrumAnnotator.getCoveredAminoAcids(annotationPreferences.getIonTypes(),
                                                     annotationPreferences.getNeutralLosses(), annotationPreferences.getValidatedCharges(), precursorCharge,
                                                     spectrum, peptide, 0, mzTolerance, isPpm, annotationPreferences.isHighResolutionAnnotation());
                                     int nIons = coveredAminoAcids.size();
+                                    nSeMap.put(nIons, coverageMap);
+                                }
+                                nSeMap.remove(-1);
+                            }
 
-                                    coverageMap = nSeMap.get(nIons);
-                                    if (coverageMap == null) {
-                                        coverageMap = new HashMap<Double, HashMap<String, PeptideAssumption>>(1);
-                                        HashMap<String, PeptideAssumption> assumptionMap = new HashMap<String, PeptideAssumption>(1);
-                                        assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
-                                        coverageMap.put(-1.0, assumptionMap);
-                                        nSeMap.put(nIons, coverageMap);
-                                    } else {
-                                        HashMap<String, PeptideAssumption> assumptionMap = coverageMap.get(-1.0);
-                                        if (assumptionMap != null) {
-                                            for (PeptideAssumption tempAssumption : assumptionMap.values()) { // There should be only one
-                                                double massError = Math.abs(tempAssumption.getDeltaMass(spectrum.getPrecursor().getMz(), shotgunProtocol.isMs1ResolutionPpm()));
-                                                coverageMap.put(massError, assumptionMap);
-                                            }
-                                            coverageMap.remove(-1.0);
-                                        }
-
-                                        double massError = Math.abs(peptideAssumption1.getDeltaMass(spectrum.getPrecursor().getMz(), shotgunProtocol.isMs1ResolutionPpm()));
-                                        assumptionMap = coverageMap.get(massError);
-                                        if (assumptionMap == null) {
-                                            assumptionMap = new HashMap<String, PeptideAssumption>(1);
-                                            coverageMap.put(massError, assumptionMap);
-                                        }
-                                        assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
+                            Peptide peptide = peptideAssumption1.getPeptide();
+                            int precursorCharge = peptideAssumption1.getIdentificationCharge().value;
+                            annotationPreferences.setCurrentSettings(peptideAssumption1, true, sequenceMatchingPreferences);
+                            HashMap<Integer, ArrayList<IonMatch>> coveredAminoAcids
+                                    = spectrumAnnotator.getCoveredAminoAcids(annotationPreferences.getIonTypes(),
+                                            annotationPreferences.getNeutralLosses(), annotationPreferences.getValidatedCharges(), precursorCharge,
+                                            spectrum, peptide, 0, mzTolerance, isPpm, annotationPreferences.isHighResolutionAnnotation());
+                            int nIons = coveredAminoAcids.size();
+
+                            coverageMap = nSeMap.get(nIons);
+                            if (coverageMap == null) {
+                                coverageMap = new HashMap<Double, HashMap<String, PeptideAssumption>>(1);
+                                HashMap<String, PeptideAssumption> assumptionMap = new HashMap<String, PeptideAssumption>(1);
+                                assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
+                                coverageMap.put(-1.0, assumptionMap);
+                                nSeMap.put(nIons, coverageMap);
+                            } else {
+                                HashMap<String, PeptideAssumption> assumptionMap = coverageMap.get(-1.0);
+                                if (assumptionMap != null) {
+                                    for (PeptideAssumption tempAssumption : assumptionMap.values()) { // There should be only one
+                                        double massError = Math.abs(tempAssumption.getDeltaMass(spectrum.getPrecursor().getMz(), shotgunProtocol.isMs1ResolutionPpm()));
+                                        coverageMap.put(massError, assumptionMap);
                                     }
+                                    coverageMap.remove(-1.0);
                                 }
+
+                                double massError = Math.abs(peptideAssumption1.getDeltaMass(spectrum.getPrecursor().getMz(), shotgunProtocol.isMs1ResolutionPpm()));
+                                assumptionMap = coverageMap.get(massError);
+                                if (assumptionMap == null) {
+                                    assumptionMap = new HashMap<String, PeptideAssumption>(1);
+                                    coverageMap.put(massError, assumptionMap);
+                                }
+                                assumptionMap.put(peptideAssumption1.getPeptide().getSequenceWithLowerCasePtms(), peptideAssumption1);
                             }
-                        } else if (assumption1 instanceof TagAssumption) {
-                            TagAssumption tagAssumption = (TagAssumption) assumption1;
-                            ArrayList<TagAssumption> assumptionList = tagAssumptions.get(bestEvalue);
-                            if (assumptionList == null) {
-                                assumptionList = new ArrayList<TagAssumption>();
-                                tagAssumptions.put(bestEvalue, assumptionList);
-                            }
-                            assumptionList.add(tagAssumption);
                         }
                     }
+                } else if (assumption1 instanceof TagAssumption) {
+                    TagAssumption tagAssumption = (TagAssumption) assumption1;
+                    ArrayList<TagAssumption> assumptionList = tagAssumptions.get(bestEvalue);
+                    if (assumptionList == null) {
+                        assumptionList = new ArrayList<TagAssumption>();
+                        tagAssumptions.put(bestEvalue, assumptionList);
+                    }
+                    assumptionList.add(tagAssumption);
                 }
+            }
+        }
 
-                SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
-                if (!peptideAssumptions.isEmpty()) {
+        SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
+        if (!peptideAssumptions.isEmpty()) {
 
-                    PeptideAssumption bestPeptideAssumption = null;
-                    ArrayList<Double> ps = new ArrayList<Double>(peptideAssumptions.keySet());
-                    Collections.sort(ps);
-                    double retainedP = 0;
+            PeptideAssumption bestPeptideAssumption = null;
+            ArrayList<Double> ps = new ArrayList<Double>(peptideAssumptions.keySet());
+            Collections.sort(ps);
+            double retainedP = 0;
 
-                    for (double p : ps) {
+            for (double p : ps) {
 
-                        retainedP = p;
-                        HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>> pMap = peptideAssumptions.get(p);
-                        ArrayList<Integer> proteinMaxs = new ArrayList<Integer>(pMap.keySet());
-                        Collections.sort(proteinMaxs, Collections.reverseOrder());
+                retainedP = p;
+                HashMap<Integer, HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>>> pMap = peptideAssumptions.get(p);
+                ArrayList<Integer> proteinMaxs = new ArrayList<Integer>(pMap.keySet());
+                Collections.sort(proteinMaxs, Collections.reverseOrder());
 
-                        for (int proteinMax : proteinMaxs) {
+                for (int proteinMax : proteinMaxs) {
 
-                            HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>> proteinMaxMap = pMap.get(proteinMax);
-                            ArrayList<Integer> nSEs = new ArrayList<Integer>(proteinMaxMap.keySet());
-                            Collections.sort(nSEs, Collections.reverseOrder());
+                    HashMap<Integer, HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>>> proteinMaxMap = pMap.get(proteinMax);
+                    ArrayList<Integer> nSEs = new ArrayList<Integer>(proteinMaxMap.keySet());
+                    Collections.sort(nSEs, Collections.reverseOrder());
 
-                            for (int nSE : nSEs) {
+                    for (int nSE : nSEs) {
 
-                                HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>> nSeMap = proteinMaxMap.get(nSE);
-                                ArrayList<Integer> coverages = new ArrayList<Integer>(nSeMap.keySet());
-                                Collections.sort(coverages, Collections.reverseOrder());
+                        HashMap<Integer, HashMap<Double, HashMap<String, PeptideAssumption>>> nSeMap = proteinMaxMap.get(nSE);
+                        ArrayList<Integer> coverages = new ArrayList<Integer>(nSeMap.keySet());
+                        Collections.sort(coverages, Collections.reverseOrder());
 
-                                for (Integer coverage : coverages) {
+                        for (Integer coverage : coverages) {
 
-                                    HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = nSeMap.get(coverage);
-                                    ArrayList<Double> minErrors = new ArrayList<Double>(coverageMap.keySet());
-                                    Collections.sort(minErrors);
+                            HashMap<Double, HashMap<String, PeptideAssumption>> coverageMap = nSeMap.get(coverage);
+                            ArrayList<Double> minErrors = new ArrayList<Double>(coverageMap.keySet());
+                            Collections.sort(minErrors);
 
-                                    for (double minError : minErrors) {
+                            for (double minError : minErrors) {
 
-                                        HashMap<String, PeptideAssumption> bestPeptideAssumptions = coverageMap.get(minError);
-                                        ArrayList<String> sequences = new ArrayList<String>(bestPeptideAssumptions.keySet());
-                                        Collections.sort(sequences);
+                                HashMap<String, PeptideAssumption> bestPeptideAssumptions = coverageMap.get(minError);
+                                ArrayList<String> sequences = new ArrayList<String>(bestPeptideAssumptions.keySet());
+                                Collections.sort(sequences);
 
-                                        for (String sequence : sequences) {
-                                            PeptideAssumption peptideAssumption = bestPeptideAssumptions.get(sequence);
-                                            if (idFilter.validateProteins(peptideAssumption.getPeptide(), sequenceMatchingPreferences)) {
-                                                bestPeptideAssumption = peptideAssumption;
-                                                break;
-                                            }
-                                        }
-                                        if (bestPeptideAssumption != null) {
-                                            break;
-                                        }
-                                    }
-                                    if (bestPeptideAssumption != null) {
+                                for (String sequence : sequences) {
+                                    PeptideAssumption peptideAssumption = bestPeptideAssumptions.get(sequence);
+                                    if (idFilter.validateProteins(peptideAssumption.getPeptide(), sequenceMatchingPreferences)) {
+                                        bestPeptideAssumption = peptideAssumption;
                                         break;
                                     }
                                 }
@@ -377,167 +487,195 @@ public class BestMatchSelection {
                         }
                     }
                     if (bestPeptideAssumption != null) {
+                        break;
+                    }
+                }
+                if (bestPeptideAssumption != null) {
+                    break;
+                }
+            }
+            if (bestPeptideAssumption != null) {
 
-                        if (multiSE) {
+                if (multiSE) {
 
-                            // try to find the most likely modification localization based on the search engine results
-                            HashMap<PeptideAssumption, ArrayList<Double>> assumptionPEPs = new HashMap<PeptideAssumption, ArrayList<Double>>();
-                            String bestAssumptionKey = bestPeptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences);
+                    // try to find the most likely modification localization based on the search engine results
+                    HashMap<PeptideAssumption, ArrayList<Double>> assumptionPEPs = new HashMap<PeptideAssumption, ArrayList<Double>>();
+                    String bestAssumptionKey = bestPeptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences);
 
-                            for (int searchEngine : assumptions.keySet()) {
+                    for (int searchEngine : assumptions.keySet()) {
 
-                                boolean found = false;
-                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptions.get(searchEngine);
-                                ArrayList<Double> eValues = new ArrayList<Double>(advocateMap.keySet());
-                                Collections.sort(eValues);
+                        boolean found = false;
+                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptions.get(searchEngine);
+                        ArrayList<Double> eValues = new ArrayList<Double>(advocateMap.keySet());
+                        Collections.sort(eValues);
 
-                                for (double eValue : eValues) {
-                                    for (SpectrumIdentificationAssumption assumption : advocateMap.get(eValue)) {
+                        for (double eValue : eValues) {
+                            for (SpectrumIdentificationAssumption assumption : advocateMap.get(eValue)) {
 
-                                        if (assumption instanceof PeptideAssumption) {
+                                if (assumption instanceof PeptideAssumption) {
 
-                                            PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                                    PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
 
-                                            if (peptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences).equals(bestAssumptionKey)) {
+                                    if (peptideAssumption.getPeptide().getMatchingKey(sequenceMatchingPreferences).equals(bestAssumptionKey)) {
 
-                                                found = true;
-                                                boolean found2 = false;
-
-                                                for (PeptideAssumption assumption1 : assumptionPEPs.keySet()) {
-                                                    if (assumption1.getPeptide().sameModificationsAs(peptideAssumption.getPeptide())) {
-                                                        found2 = true;
-                                                        psParameter = (PSParameter) assumption.getUrParam(psParameter);
-                                                        ArrayList<Double> peps = assumptionPEPs.get(assumption1);
-                                                        peps.add(psParameter.getSearchEngineProbability());
-                                                        break;
-                                                    }
-                                                }
-
-                                                if (!found2) {
-                                                    ArrayList<Double> peps = new ArrayList<Double>(1);
-                                                    assumptionPEPs.put(peptideAssumption, peps);
-                                                    psParameter = (PSParameter) assumption.getUrParam(psParameter);
-                                                    peps.add(psParameter.getSearchEngineProbability());
-                                                }
+                                        found = true;
+                                        boolean found2 = false;
+
+                                        for (PeptideAssumption assumption1 : assumptionPEPs.keySet()) {
+                                            if (assumption1.getPeptide().sameModificationsAs(peptideAssumption.getPeptide())) {
+                                                found2 = true;
+                                                psParameter = (PSParameter) assumption.getUrParam(psParameter);
+                                                ArrayList<Double> peps = assumptionPEPs.get(assumption1);
+                                                peps.add(psParameter.getSearchEngineProbability());
+                                                break;
                                             }
                                         }
-                                    }
 
-                                    if (found) {
-                                        break;
+                                        if (!found2) {
+                                            ArrayList<Double> peps = new ArrayList<Double>(1);
+                                            assumptionPEPs.put(peptideAssumption, peps);
+                                            psParameter = (PSParameter) assumption.getUrParam(psParameter);
+                                            peps.add(psParameter.getSearchEngineProbability());
+                                        }
                                     }
                                 }
                             }
 
-                            Double bestSeP = null;
-                            int nSe = -1;
-
-                            for (PeptideAssumption peptideAssumption : assumptionPEPs.keySet()) {
-
-                                ArrayList<Double> peps = assumptionPEPs.get(peptideAssumption);
-                                Double sep = Collections.min(peps);
-
-                                if (bestSeP == null || bestSeP > sep) {
-                                    bestSeP = sep;
-                                    nSe = peps.size();
-                                    bestPeptideAssumption = peptideAssumption;
-                                } else if (peps.size() > nSe) {
-                                    if (sep != null && (Math.abs(sep - bestSeP) <= 1e-10)) {
-                                        nSe = peps.size();
-                                        bestPeptideAssumption = peptideAssumption;
-                                    }
-                                }
+                            if (found) {
+                                break;
                             }
                         }
+                    }
 
-                        // create a PeptideShaker match based on the best search engine match
-                        Peptide sePeptide = bestPeptideAssumption.getPeptide();
-                        ArrayList<String> psProteins = new ArrayList<String>(sePeptide.getParentProteins(sequenceMatchingPreferences));
-                        ArrayList<ModificationMatch> psModificationMatches = new ArrayList<ModificationMatch>();
-
-                        for (ModificationMatch seModMatch : sePeptide.getModificationMatches()) {
-                            psModificationMatches.add(new ModificationMatch(seModMatch.getTheoreticPtm(), seModMatch.isVariable(), seModMatch.getModificationSite()));
-                        }
+                    Double bestSeP = null;
+                    int nSe = -1;
 
-                        Peptide psPeptide = new Peptide(sePeptide.getSequence(), psModificationMatches);
-                        psPeptide.setParentProteins(psProteins);
-                        PeptideAssumption psAssumption = new PeptideAssumption(psPeptide, 1, Advocate.peptideShaker.getIndex(), bestPeptideAssumption.getIdentificationCharge(), retainedP);
+                    for (PeptideAssumption peptideAssumption : assumptionPEPs.keySet()) {
 
-                        spectrumMatch.setBestPeptideAssumption(psAssumption);
+                        ArrayList<Double> peps = assumptionPEPs.get(peptideAssumption);
+                        Double sep = Collections.min(peps);
 
-                        if (orderedPsmMap != null) {
-                            String peptideKey = psPeptide.getMatchingKey(sequenceMatchingPreferences);
-                            ArrayList<String> spectrumKeys = keysMap.get(peptideKey);
-                            if (spectrumKeys == null) {
-                                spectrumKeys = new ArrayList<String>();
-                                keysMap.put(peptideKey, spectrumKeys);
+                        if (bestSeP == null || bestSeP > sep) {
+                            bestSeP = sep;
+                            nSe = peps.size();
+                            bestPeptideAssumption = peptideAssumption;
+                        } else if (peps.size() > nSe) {
+                            if (sep != null && (Math.abs(sep - bestSeP) <= 1e-10)) {
+                                nSe = peps.size();
+                                bestPeptideAssumption = peptideAssumption;
                             }
-                            spectrumKeys.add(spectrumKey);
                         }
+                    }
+                }
 
-                        psParameter = new PSParameter();
-                        psParameter.setSpectrumProbabilityScore(retainedP);
+                // create a PeptideShaker match based on the best search engine match
+                Peptide sePeptide = bestPeptideAssumption.getPeptide();
+                ArrayList<String> psProteins = new ArrayList<String>(sePeptide.getParentProteins(sequenceMatchingPreferences));
+                ArrayList<ModificationMatch> psModificationMatches = new ArrayList<ModificationMatch>();
 
-                        PSParameter matchParameter = (PSParameter) bestPeptideAssumption.getUrParam(psParameter);
-                        psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
-                        psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
-                        psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
+                for (ModificationMatch seModMatch : sePeptide.getModificationMatches()) {
+                    psModificationMatches.add(new ModificationMatch(seModMatch.getTheoreticPtm(), seModMatch.isVariable(), seModMatch.getModificationSite()));
+                }
 
-                        matchesValidator.getPsmMap().addPoint(psParameter.getPsmProbabilityScore(), spectrumMatch, sequenceMatchingPreferences);
-                        psParameter.setSpecificMapKey(spectrumMatch.getBestPeptideAssumption().getIdentificationCharge().value + "");
-                        identification.addSpectrumMatchParameter(spectrumKey, psParameter);
-                        identification.updateSpectrumMatch(spectrumMatch);
+                Peptide psPeptide = new Peptide(sePeptide.getSequence(), psModificationMatches);
+                psPeptide.setParentProteins(psProteins);
+                PeptideAssumption psAssumption = new PeptideAssumption(psPeptide, 1, Advocate.peptideShaker.getIndex(), bestPeptideAssumption.getIdentificationCharge(), retainedP);
 
-                    } else {
-                        throw new IllegalArgumentException("No best assumption found for spectrum " + spectrumKey + ".");
-                    }
-                }
-                if (!tagAssumptions.isEmpty()) {
-                    ArrayList<Double> evalues = new ArrayList<Double>(tagAssumptions.keySet());
-                    Double bestEvalue = Collections.min(evalues);
-                    TagAssumption bestAssumption = tagAssumptions.get(bestEvalue).get(0);
-                    spectrumMatch.setBestTagAssumption(bestAssumption);
-                    identification.updateSpectrumMatch(spectrumMatch);
-                    if (spectrumMatch.getBestPeptideAssumption() == null) {
-                        psParameter = new PSParameter();
-                        if (!multiSE) {
-                            psParameter.setSpectrumProbabilityScore(bestEvalue);
-                        }
-                        PSParameter matchParameter = (PSParameter) bestAssumption.getUrParam(psParameter);
-                        psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
-                        psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
-                        psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
-                        psParameter.setSpecificMapKey(spectrumMatch.getBestTagAssumption().getIdentificationCharge().value + "");
-                        identification.addSpectrumMatchParameter(spectrumKey, psParameter);
+                spectrumMatch.setBestPeptideAssumption(psAssumption);
+
+                if (keysMap != null) {
+                    String peptideKey = psPeptide.getMatchingKey(sequenceMatchingPreferences);
+                    ArrayList<String> spectrumKeys = keysMap.get(peptideKey);
+                    if (spectrumKeys == null) {
+                        spectrumKeys = new ArrayList<String>();
+                        keysMap.put(peptideKey, spectrumKeys);
                     }
+                    spectrumKeys.add(spectrumKey);
                 }
-                waitingHandler.increaseSecondaryProgressCounter();
-                if (waitingHandler.isRunCanceled()) {
-                    return;
-                }
-            }
 
-            if (orderedPsmMap != null) {
-                ArrayList<String> orderedKeys = new ArrayList<String>(identification.getSpectrumIdentification(spectrumFileName).size());
-                for (ArrayList<String> keys : keysMap.values()) {
-                    orderedKeys.addAll(keys);
-                }
-                orderedPsmMap.put(spectrumFileName, orderedKeys);
+                psParameter = new PSParameter();
+                psParameter.setSpectrumProbabilityScore(retainedP);
 
-                if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
-                    orderedPsmMap = null;
+                PSParameter matchParameter = (PSParameter) bestPeptideAssumption.getUrParam(psParameter);
+                psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
+                psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
+                psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
+
+                matchesValidator.getPsmMap().addPoint(psParameter.getPsmProbabilityScore(), spectrumMatch, fractionIndex, sequenceMatchingPreferences);
+                psParameter.setSpecificMapKey(spectrumMatch.getBestPeptideAssumption().getIdentificationCharge().value + "");
+                identification.addSpectrumMatchParameter(spectrumKey, psParameter);
+                identification.updateSpectrumMatch(spectrumMatch);
+
+            } else {
+                throw new IllegalArgumentException("No best assumption found for spectrum " + spectrumKey + ".");
+            }
+        }
+        if (!tagAssumptions.isEmpty()) {
+            ArrayList<Double> evalues = new ArrayList<Double>(tagAssumptions.keySet());
+            Double bestEvalue = Collections.min(evalues);
+            TagAssumption bestAssumption = tagAssumptions.get(bestEvalue).get(0);
+            spectrumMatch.setBestTagAssumption(bestAssumption);
+            identification.updateSpectrumMatch(spectrumMatch);
+            if (spectrumMatch.getBestPeptideAssumption() == null) {
+                psParameter = new PSParameter();
+                if (!multiSE) {
+                    psParameter.setSpectrumProbabilityScore(bestEvalue);
                 }
+                PSParameter matchParameter = (PSParameter) bestAssumption.getUrParam(psParameter);
+                psParameter.setSearchEngineProbability(matchParameter.getSearchEngineProbability());
+                psParameter.setAlgorithmDeltaPEP(matchParameter.getAlgorithmDeltaPEP());
+                psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
+                psParameter.setSpecificMapKey(spectrumMatch.getBestTagAssumption().getIdentificationCharge().value + "");
+                identification.addSpectrumMatchParameter(spectrumKey, psParameter);
             }
         }
+    }
 
-        if (orderedPsmMap != null) {
-            metrics.setGroupedSpectrumKeys(orderedPsmMap);
-        }
+    /**
+     * Selects a first hit in a list of equally scoring peptide matches. The
+     * selection is made based on: 1 - The occurrence of the protein detection
+     * as given in the proteinCount map 2 - The sequence coverage by fragment
+     * ions 3 - The precursor mass error.
+     *
+     * If no best hit is found, the first one sorted alphabetically is retained.
+     *
+     * This method uses the annotation preferences of the identification
+     * parameters, the selection is therefore synchronized when more than one
+     * hit is given. Concurrent callers should use the method taking annotation
+     * preferences confined to the calling thread.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param firstHits list of equally scoring peptide matches
+     * @param proteinCount map of the number of peptides for every protein
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param shotgunProtocol the shotgun protocol
+     * @param identificationParameters the identification parameters
+     *
+     * @return a first hit from the list of equally scoring peptide matches
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while remapping the proteins or getting the spectrum
+     * @throws InterruptedException exception thrown whenever an interrupted
+     * exception occurred while remapping the proteins or getting the spectrum
+     * @throws SQLException exception thrown whenever an SQL exception occurred
+     * while interacting with the protein tree
+     * @throws ClassNotFoundException exception thrown whenever an exception
+     * occurred while deserializing an object
+     * @throws MzMLUnmarshallerException exception thrown whenever an exception
+     * occurred while reading an mzML file
+     */
+    public static PeptideAssumption getBestHit(String spectrumKey, ArrayList<PeptideAssumption> firstHits, HashMap<String, Integer> proteinCount,
+            SequenceMatchingPreferences sequenceMatchingPreferences, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters)
+            throws IOException, InterruptedException, SQLException, ClassNotFoundException, MzMLUnmarshallerException {
 
-        // the protein count map is no longer needed
-        proteinCount.clear();
+        if (firstHits.size() == 1) {
+            return firstHits.get(0);
+        }
 
-        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        synchronized (BestMatchSelection.class) {
+            return getBestHit(spectrumKey, firstHits, proteinCount, sequenceMatchingPreferences, shotgunProtocol, identificationParameters,
+                    identificationParameters.getAnnotationPreferences(), null);
+        }
     }
 
     /**
@@ -554,6 +692,9 @@ public class BestMatchSelection {
      * @param sequenceMatchingPreferences the sequence matching preferences
      * @param shotgunProtocol the shotgun protocol
      * @param identificationParameters the identification parameters
+     * @param annotationPreferences the annotation preferences to use, they
+     * are modified and should therefore not be shared between threads
+     * @param spectrumAnnotator the spectrum annotator to use, can be null
      *
      * @return a first hit from the list of equally scoring peptide matches
      *
@@ -568,8 +709,9 @@ public class BestMatchSelection {
      * @throws MzMLUnmarshallerException exception thrown whenever an exception
      * occurred while reading an mzML file
      */
-    public synchronized static PeptideAssumption getBestHit(String spectrumKey, ArrayList<PeptideAssumption> firstHits, HashMap<String, Integer> proteinCount,
-            SequenceMatchingPreferences sequenceMatchingPreferences, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters)
+    private static PeptideAssumption getBestHit(String spectrumKey, ArrayList<PeptideAssumption> firstHits, HashMap<String, Integer> proteinCount,
+            SequenceMatchingPreferences sequenceMatchingPreferences, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
+            AnnotationPreferences annotationPreferences, PeptideSpectrumAnnotator spectrumAnnotator)
             throws IOException, InterruptedException, SQLException, ClassNotFoundException, MzMLUnmarshallerException {
 
         if (firstHits.size() == 1) {
@@ -603,10 +745,11 @@ public class BestMatchSelection {
 
         MSnSpectrum spectrum = (MSnSpectrum) SpectrumFactory.getInstance().getSpectrum(spectrumKey);
         double mzTolerance = shotgunProtocol.getMs2Resolution();
-        PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
+        if (spectrumAnnotator == null) {
+            spectrumAnnotator = new PeptideSpectrumAnnotator();
+        }
         boolean isPpm = false; //@TODO change this as soon as search engine support fragment ion tolerance in ppm
         int maxCoveredAminoAcids = 0;
-        AnnotationPreferences annotationPreferences = identificationParameters.getAnnotationPreferences();
 
         for (PeptideAssumption peptideAssumption : firstHits) {
             Peptide peptide = peptideAssumption.getPeptide();
@@ -664,4 +807,110 @@ public class BestMatchSelection {
         Collections.sort(sequences);
         return sequenceToPeptideAssumptionsMap.get(sequences.get(0));
     }
+
+    /**
+     * Runnable selecting the best hits of the spectrum matches of a file.
+     */
+    private class BestMatchSelectionRunnable implements Runnable {
+
+        /**
+         * An iterator for the PSMs, shared between the runnables.
+         */
+        private final PsmIterator psmIterator;
+        /**
+         * The index of the spectrum file iterated in the fraction registry.
+         */
+        private final int fractionIndex;
+        /**
+         * The spectrum keys grouped by peptide by this runnable, can be null.
+         */
+        private final HashMap<String, ArrayList<String>> keysMap;
+        /**
+         * Indicates whether multiple search engines were used.
+         */
+        private final boolean multiSE;
+        /**
+         * The annotation preferences, confined to this runnable.
+         */
+        private final AnnotationPreferences annotationPreferences;
+        /**
+         * The spectrum annotator used by this runnable.
+         */
+        private final PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
+        /**
+         * Information about the protocol.
+         */
+        private final ShotgunProtocol shotgunProtocol;
+        /**
+         * The identification parameters.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param psmIterator an iterator for the PSMs, shared between the
+         * runnables
+         * @param fractionIndex the index of the spectrum file iterated in the
+         * fraction registry
+         * @param keysMap map where to store the spectrum keys grouped by
+         * peptide, can be null
+         * @param multiSE indicates whether multiple search engines were used
+         * @param annotationPreferences the annotation preferences, not shared
+         * with other threads
+         * @param shotgunProtocol information about the protocol
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler the waiting handler
+         * @param exceptionHandler handler for the exceptions
+         */
+        public BestMatchSelectionRunnable(PsmIterator psmIterator, int fractionIndex, HashMap<String, ArrayList<String>> keysMap, boolean multiSE,
+                AnnotationPreferences annotationPreferences, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
+                WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.psmIterator = psmIterator;
+            this.fractionIndex = fractionIndex;
+            this.keysMap = keysMap;
+            this.multiSE = multiSE;
+            this.annotationPreferences = annotationPreferences;
+            this.shotgunProtocol = shotgunProtocol;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!waitingHandler.isRunCanceled()) {
+                    SpectrumMatch advocateMatch;
+                    synchronized (psmIterator) {
+                        if (!psmIterator.hasNext()) {
+                            break;
+                        }
+                        advocateMatch = psmIterator.next();
+                    }
+                    selectBestHit(advocateMatch, fractionIndex, keysMap, multiSE, spectrumAnnotator, annotationPreferences, shotgunProtocol, identificationParameters);
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+            }
+        }
+
+        /**
+         * Returns the spectrum keys grouped by peptide by this runnable.
+         *
+         * @return the spectrum keys grouped by peptide by this runnable
+         */
+        public HashMap<String, ArrayList<String>> getKeysMap() {
+            return keysMap;
+        }
+    }
 }
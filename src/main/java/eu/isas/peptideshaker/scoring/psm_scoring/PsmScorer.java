@@ -1,5 +1,6 @@
 package eu.isas.peptideshaker.scoring.psm_scoring;
 
+import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.ShotgunProtocol;
 import com.compomics.util.experiment.biology.Ion;
 import com.compomics.util.experiment.biology.Peptide;
@@ -12,6 +13,7 @@ import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
 import com.compomics.util.experiment.identification.psm_scoring.PsmScores;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.preferences.AnnotationPreferences;
 import com.compomics.util.preferences.IdentificationParameters;
@@ -22,11 +24,15 @@ import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.myparameters.PSParameter;
 import eu.isas.peptideshaker.scoring.InputMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import eu.isas.peptideshaker.utils.SerializationCopy;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -46,7 +52,10 @@ public class PsmScorer {
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
 
     /**
-     * Scores the PSMs contained in an identification object.
+     * Scores the PSMs contained in an identification object. When using
+     * multiple threads, every thread scores the matches of all files with its
+     * own annotation preferences and input map, the input maps are merged into
+     * the given input map once all threads are done.
      *
      * @param identification the object containing the identification matches
      * @param inputMap the input map scores
@@ -54,6 +63,8 @@ public class PsmScorer {
      * @param shotgunProtocol information on the protocol used
      * @param identificationParameters identification parameters used
      * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for the exceptions occurring in the
+     * scoring threads
      *
      * @throws IOException thrown if an IOException occurs
      * @throws InterruptedException thrown if an InterruptedException occurs
@@ -64,111 +75,147 @@ public class PsmScorer {
      * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
      * occurs
      */
-    public void estimateIntermediateScores(Identification identification, InputMap inputMap, ProcessingPreferences processingPreferences, 
-            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, WaitingHandler waitingHandler) 
+    public void estimateIntermediateScores(Identification identification, InputMap inputMap, ProcessingPreferences processingPreferences,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
             throws SQLException, IOException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
-        AnnotationPreferences annotationPreferences = identificationParameters.getAnnotationPreferences();
-        HashMap<Ion.IonType, HashSet<Integer>> iontypes = annotationPreferences.getIonTypes();
-        NeutralLossesMap neutralLosses = annotationPreferences.getNeutralLosses();
-        ArrayList<Integer> charges = annotationPreferences.getValidatedCharges();
-
-        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        PsmScoringPreferences psmScoringPreferences = identificationParameters.getPsmScoringPreferences();
-
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
 
-        //HashMap<Integer, BufferedWriter> brs = new HashMap<Integer, BufferedWriter>();
-        for (String spectrumFileName : identification.getSpectrumFiles()) {
+        int nThreads = processingPreferences.getnThreads();
 
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, identification.getSpectrumIdentification(spectrumFileName), null, false, waitingHandler);
+        if (nThreads == 1) {
 
-            while (psmIterator.hasNext()) {
+            AnnotationPreferences annotationPreferences = identificationParameters.getAnnotationPreferences();
 
-                waitingHandler.setDisplayProgress(false);
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                waitingHandler.setDisplayProgress(true);
-                
-                String spectrumKey = spectrumMatch.getKey();
+            for (String spectrumFileName : identification.getSpectrumFiles()) {
 
-                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+                PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, identification.getSpectrumIdentification(spectrumFileName), null, false, waitingHandler);
 
-                for (int advocateIndex : assumptions.keySet()) {
+                while (psmIterator.hasNext()) {
 
-                    HashSet<Integer> scoresForAdvocate = psmScoringPreferences.getScoreForAlgorithm(advocateIndex);
+                    waitingHandler.setDisplayProgress(false);
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    waitingHandler.setDisplayProgress(true);
 
-                    if (scoresForAdvocate != null) {
+                    estimateIntermediateScores(identification, spectrumMatch, spectrumFileName, inputMap, annotationPreferences, shotgunProtocol, identificationParameters);
 
-                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateIndex);
+                    waitingHandler.increaseSecondaryProgressCounter();
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                }
+            }
 
-                        for (double eValue : advocateAssumptions.keySet()) {
-                            for (SpectrumIdentificationAssumption assumption : advocateAssumptions.get(eValue)) {
+        } else {
 
-                                if (assumption instanceof PeptideAssumption) {
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            ArrayList<IntermediateScoresRunnable> runnables = new ArrayList<IntermediateScoresRunnable>(nThreads);
+            SpectrumMatchesProvider spectrumMatchesProvider = new SpectrumMatchesProvider(identification, waitingHandler);
 
-                                    PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
-                                    annotationPreferences.setCurrentSettings(peptideAssumption, true, sequenceMatchingPreferences);
-                                    PSParameter psParameter = new PSParameter();
-                                    MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
+            for (int i = 1; i <= nThreads && !waitingHandler.isRunCanceled(); i++) {
+                AnnotationPreferences annotationPreferences = (AnnotationPreferences) SerializationCopy.deepCopy(identificationParameters.getAnnotationPreferences());
+                IntermediateScoresRunnable runnable = new IntermediateScoresRunnable(spectrumMatchesProvider, identification, annotationPreferences,
+                        shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler);
+                runnables.add(runnable);
+                pool.submit(runnable);
+            }
+            if (waitingHandler.isRunCanceled()) {
+                pool.shutdownNow();
+                return;
+            }
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("PSM scoring timed out. Please contact the developers.");
+            }
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+            for (IntermediateScoresRunnable runnable : runnables) {
+                inputMap.addAll(runnable.getInputMap());
+            }
+        }
 
-                                    for (int scoreIndex : scoresForAdvocate) {
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
 
-                                        Peptide peptide = peptideAssumption.getPeptide();
-                                        boolean decoy = peptide.isDecoy(sequenceMatchingPreferences);
-                                        double score;
+    /**
+     * Estimates the intermediate scores of the peptide assumptions of a
+     * spectrum match.
+     *
+     * @param identification the object containing the identification matches
+     * @param spectrumMatch the spectrum match of interest
+     * @param spectrumFileName the name of the spectrum file
+     * @param inputMap the input map where to store the scores
+     * @param annotationPreferences the annotation preferences, the current
+     * settings will be changed
+     * @param shotgunProtocol information on the protocol used
+     * @param identificationParameters identification parameters used
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    private void estimateIntermediateScores(Identification identification, SpectrumMatch spectrumMatch, String spectrumFileName, InputMap inputMap,
+            AnnotationPreferences annotationPreferences, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters)
+            throws SQLException, IOException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
-                                        if (scoreIndex == PsmScores.native_score.index) {
-                                            score = peptideAssumption.getScore();
-                                        } else {
-                                            score = PsmScores.getDecreasingScore(peptide, spectrum, iontypes, neutralLosses, charges,
-                                                    peptideAssumption.getIdentificationCharge().value, shotgunProtocol, scoreIndex);
-                                        }
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        PsmScoringPreferences psmScoringPreferences = identificationParameters.getPsmScoringPreferences();
 
-                                        psParameter.setIntermediateScore(scoreIndex, score);
-                                        inputMap.setIntermediateScore(spectrumFileName, advocateIndex, scoreIndex, score, decoy);
-
-//                                    try {
-//                                        BufferedWriter br = brs.get(scoreIndex);
-//                                        if (br == null) {
-//                                            PsmScores psmScores = PsmScores.getScore(scoreIndex);
-//                                            br = new BufferedWriter(new FileWriter(new File("D:\\projects\\PeptideShaker\\rescoring", psmScores.name + ".txt")));
-//                                            brs.put(scoreIndex, br);
-//                                            br.write("Title\tPeptide\tScore\tDecoy");
-//                                        br.newLine();
-//                                        }
-//                                        if (decoy) {
-//                                            br.write(Spectrum.getSpectrumTitle(spectrumKey) + "\t" + peptide.getKey() + "\t" + score + "\t" + 1);
-//                                        } else {
-//                                            br.write(Spectrum.getSpectrumTitle(spectrumKey) + "\t" + peptide.getKey() + "\t" + score + "\t" + 0);
-//                                        }
-//                                        br.newLine();
-//
-//                                    } catch (Exception e) {
-//                                        e.printStackTrace();
-//                                    }
-                                    }
+        String spectrumKey = spectrumMatch.getKey();
+
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+
+        for (int advocateIndex : assumptions.keySet()) {
+
+            HashSet<Integer> scoresForAdvocate = psmScoringPreferences.getScoreForAlgorithm(advocateIndex);
+
+            if (scoresForAdvocate != null) {
+
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateIndex);
+
+                for (double eValue : advocateAssumptions.keySet()) {
+                    for (SpectrumIdentificationAssumption assumption : advocateAssumptions.get(eValue)) {
+
+                        if (assumption instanceof PeptideAssumption) {
+
+                            PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                            annotationPreferences.setCurrentSettings(peptideAssumption, true, sequenceMatchingPreferences);
+                            HashMap<Ion.IonType, HashSet<Integer>> iontypes = annotationPreferences.getIonTypes();
+                            NeutralLossesMap neutralLosses = annotationPreferences.getNeutralLosses();
+                            ArrayList<Integer> charges = annotationPreferences.getValidatedCharges();
+                            PSParameter psParameter = new PSParameter();
+                            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
+
+                            for (int scoreIndex : scoresForAdvocate) {
+
+                                Peptide peptide = peptideAssumption.getPeptide();
+                                boolean decoy = peptide.isDecoy(sequenceMatchingPreferences);
+                                double score;
 
-                                    assumption.addUrParam(psParameter);
+                                if (scoreIndex == PsmScores.native_score.index) {
+                                    score = peptideAssumption.getScore();
+                                } else {
+                                    score = PsmScores.getDecreasingScore(peptide, spectrum, iontypes, neutralLosses, charges,
+                                            peptideAssumption.getIdentificationCharge().value, shotgunProtocol, scoreIndex);
                                 }
+
+                                psParameter.setIntermediateScore(scoreIndex, score);
+                                inputMap.setIntermediateScore(spectrumFileName, advocateIndex, scoreIndex, score, decoy);
                             }
+
+                            assumption.addUrParam(psParameter);
                         }
                     }
                 }
-
-                identification.updateAssumptions(spectrumKey, assumptions);
-
-                waitingHandler.increaseSecondaryProgressCounter();
-                if (waitingHandler.isRunCanceled()) {
-                    return;
-                }
             }
         }
 
-//        for (BufferedWriter br : brs.values()) {
-//            br.close();
-//        }
-        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        identification.updateAssumptions(spectrumKey, assumptions);
     }
 
     /**
@@ -322,4 +369,166 @@ public class PsmScorer {
 //        br.close();
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
     }
+
+    /**
+     * Provides the spectrum matches of all spectrum files, file after file, to
+     * the threads estimating the intermediate scores.
+     */
+    private static class SpectrumMatchesProvider {
+
+        /**
+         * The identification.
+         */
+        private final Identification identification;
+        /**
+         * The names of the spectrum files.
+         */
+        private final ArrayList<String> spectrumFiles;
+        /**
+         * The index of the next spectrum file to iterate.
+         */
+        private int fileIndex = 0;
+        /**
+         * The iterator of the PSMs of the current spectrum file.
+         */
+        private PsmIterator psmIterator = null;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param identification the identification
+         * @param waitingHandler a waiting handler to display progress
+         */
+        public SpectrumMatchesProvider(Identification identification, WaitingHandler waitingHandler) {
+            this.identification = identification;
+            this.spectrumFiles = new ArrayList<String>(identification.getSpectrumFiles());
+            this.waitingHandler = waitingHandler;
+        }
+
+        /**
+         * Returns the next spectrum match, null if all matches were provided.
+         *
+         * @return the next spectrum match
+         *
+         * @throws SQLException thrown if an SQLException occurs
+         * @throws IOException thrown if an IOException occurs
+         * @throws ClassNotFoundException thrown if a ClassNotFoundException
+         * occurs
+         * @throws InterruptedException thrown if an InterruptedException occurs
+         * @throws MzMLUnmarshallerException thrown if an
+         * MzMLUnmarshallerException occurs
+         */
+        public synchronized SpectrumMatch next() throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+            while (true) {
+                while (psmIterator == null || !psmIterator.hasNext()) {
+                    if (fileIndex == spectrumFiles.size()) {
+                        return null;
+                    }
+                    String spectrumFileName = spectrumFiles.get(fileIndex++);
+                    psmIterator = identification.getPsmIterator(spectrumFileName, identification.getSpectrumIdentification(spectrumFileName), null, false, null);
+                }
+                SpectrumMatch spectrumMatch = psmIterator.next();
+                if (spectrumMatch != null) {
+                    return spectrumMatch;
+                }
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
+        }
+    }
+
+    /**
+     * Runnable estimating the intermediate scores of the PSMs of all spectrum
+     * files. Every runnable keeps its annotation preferences and its input map
+     * for all files, the input map is merged at the end.
+     */
+    private class IntermediateScoresRunnable implements Runnable {
+
+        /**
+         * The provider of the spectrum matches, shared between the threads.
+         */
+        private final SpectrumMatchesProvider spectrumMatchesProvider;
+        /**
+         * The identification.
+         */
+        private Identification identification;
+        /**
+         * The annotation preferences of this thread.
+         */
+        private AnnotationPreferences annotationPreferences;
+        /**
+         * Information on the protocol used.
+         */
+        private ShotgunProtocol shotgunProtocol;
+        /**
+         * The identification parameters.
+         */
+        private IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private ExceptionHandler exceptionHandler;
+        /**
+         * The input map filled by this thread.
+         */
+        private InputMap threadInputMap = new InputMap();
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumMatchesProvider the provider of the spectrum matches
+         * shared between the threads
+         * @param identification the identification
+         * @param annotationPreferences the annotation preferences to be used
+         * by this thread only
+         * @param shotgunProtocol information on the protocol used
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public IntermediateScoresRunnable(SpectrumMatchesProvider spectrumMatchesProvider, Identification identification, AnnotationPreferences annotationPreferences,
+                ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.spectrumMatchesProvider = spectrumMatchesProvider;
+            this.identification = identification;
+            this.annotationPreferences = annotationPreferences;
+            this.shotgunProtocol = shotgunProtocol;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!waitingHandler.isRunCanceled()) {
+                    SpectrumMatch spectrumMatch = spectrumMatchesProvider.next();
+                    if (spectrumMatch == null) {
+                        break;
+                    }
+                    String spectrumFileName = Spectrum.getSpectrumFile(spectrumMatch.getKey());
+                    estimateIntermediateScores(identification, spectrumMatch, spectrumFileName, threadInputMap, annotationPreferences, shotgunProtocol, identificationParameters);
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+            }
+        }
+
+        /**
+         * Returns the input map filled by this thread.
+         *
+         * @return the input map filled by this thread
+         */
+        public InputMap getInputMap() {
+            return threadInputMap;
+        }
+    }
 }
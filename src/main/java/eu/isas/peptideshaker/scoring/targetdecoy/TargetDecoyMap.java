@@ -4,8 +4,10 @@ import com.compomics.util.Util;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This map contains the information of a target/decoy strategy
@@ -43,6 +45,12 @@ public class TargetDecoyMap implements Serializable {
      * The results computed on this map.
      */
     private TargetDecoyResults targetDecoyResults = new TargetDecoyResults();
+    /**
+     * The sorted scores and probabilities of the map used for fast probability
+     * lookup, built once the probabilities are estimated. Null when the map
+     * changed since the last build.
+     */
+    private transient volatile ProbabilityLookup probabilityLookup = null;
 
     /**
      * Constructs a target/decoy map.
@@ -52,30 +60,68 @@ public class TargetDecoyMap implements Serializable {
 
     /**
      * Returns the posterior error probability estimated at the given score.
+     * The lookup is conducted by binary search in primitive arrays built once
+     * after the estimation of the probabilities.
      *
      * @param score the given score
      * @return the estimated posterior error probability
      */
     public Double getProbability(double score) {
-        TargetDecoyPoint point = hitMap.get(score);
-        if (point != null) {
-            return point.p;
-        } else if (score >= scores.get(scores.size() - 1)) {
-            return hitMap.get(scores.get(scores.size() - 1)).p;
+        ProbabilityLookup lookup = probabilityLookup;
+        if (lookup == null) {
+            lookup = buildLookupArrays();
+        }
+        double[] scoresArray = lookup.scores;
+        double[] probabilitiesArray = lookup.probabilities;
+        int lastIndex = scoresArray.length - 1;
+        int index = Arrays.binarySearch(scoresArray, score);
+        if (index >= 0) {
+            return probabilitiesArray[index];
+        } else if (score >= scoresArray[lastIndex]) {
+            return probabilitiesArray[lastIndex];
         } else {
-            int indexInf = 0;
-            int indexSup = scores.size() - 1;
-            int indexTemp;
-            while (indexSup - indexInf > 1) {
-                indexTemp = (indexSup - indexInf) / 2 + indexInf;
-                if (scores.get(indexTemp) > score) {
-                    indexSup = indexTemp;
-                } else {
-                    indexInf = indexTemp;
-                }
+            int indexSup = -index - 1;
+            int indexInf = indexSup - 1;
+            if (indexSup == 0) {
+                indexInf = 0;
+                indexSup = Math.min(1, lastIndex);
             }
-            return (hitMap.get(scores.get(indexSup)).p + hitMap.get(scores.get(indexInf)).p) / 2;
+            return (probabilitiesArray[indexSup] + probabilitiesArray[indexInf]) / 2;
+        }
+    }
+
+    /**
+     * Builds the primitive arrays of sorted scores and probabilities used for
+     * probability lookup if not done already.
+     *
+     * @return the arrays used for probability lookup
+     */
+    private synchronized ProbabilityLookup buildLookupArrays() {
+        ProbabilityLookup lookup = probabilityLookup;
+        if (lookup != null) {
+            return lookup;
+        }
+        if (scores == null) {
+            estimateScores();
         }
+        double[] scoresArray = new double[scores.size()];
+        double[] probabilitiesArray = new double[scores.size()];
+        for (int i = 0; i < scoresArray.length; i++) {
+            double score = scores.get(i);
+            scoresArray[i] = score;
+            probabilitiesArray[i] = hitMap.get(score).p;
+        }
+        lookup = new ProbabilityLookup(scoresArray, probabilitiesArray);
+        probabilityLookup = lookup;
+        return lookup;
+    }
+
+    /**
+     * Clears the primitive arrays used for probability lookup. They will be
+     * rebuilt upon the next lookup.
+     */
+    private synchronized void clearLookupArrays() {
+        probabilityLookup = null;
     }
 
     /**
@@ -115,6 +161,7 @@ public class TargetDecoyMap implements Serializable {
         } else {
             targetDecoyPoint.nTarget++;
         }
+        clearLookupArrays();
     }
 
     /**
@@ -136,6 +183,7 @@ public class TargetDecoyMap implements Serializable {
         scores = null;
         nmax = null;
         windowSize = null;
+        clearLookupArrays();
     }
 
     /**
@@ -251,6 +299,9 @@ public class TargetDecoyMap implements Serializable {
                 return;
             }
         }
+
+        clearLookupArrays();
+        buildLookupArrays();
     }
 
     /**
@@ -309,22 +360,26 @@ public class TargetDecoyMap implements Serializable {
     }
 
     /**
-     * Adds all the points from another target/decoy map.
+     * Adds all the points from another target/decoy map. This can be used to
+     * merge maps filled independently, for instance by different threads.
      *
      * @param anOtherMap another target/decoy map
      */
-    public void addAll(TargetDecoyMap anOtherMap) {
-        for (double score : anOtherMap.getScores()) {
-            for (int i = 0; i < anOtherMap.getNDecoy(score); i++) {
-                put(score, true);
-            }
-            for (int i = 0; i < anOtherMap.getNTarget(score); i++) {
-                put(score, false);
+    public synchronized void addAll(TargetDecoyMap anOtherMap) {
+        for (Map.Entry<Double, TargetDecoyPoint> entry : anOtherMap.hitMap.entrySet()) {
+            TargetDecoyPoint otherPoint = entry.getValue();
+            TargetDecoyPoint targetDecoyPoint = hitMap.get(entry.getKey());
+            if (targetDecoyPoint == null) {
+                targetDecoyPoint = new TargetDecoyPoint();
+                hitMap.put(entry.getKey(), targetDecoyPoint);
             }
+            targetDecoyPoint.nTarget += otherPoint.nTarget;
+            targetDecoyPoint.nDecoy += otherPoint.nDecoy;
         }
         scores = null;
         nmax = null;
         windowSize = null;
+        clearLookupArrays();
     }
 
     /**
@@ -391,4 +446,32 @@ public class TargetDecoyMap implements Serializable {
     public int getMapSize() {
         return hitMap.size();
     }
+
+    /**
+     * The sorted scores and associated probabilities of a map. The arrays are
+     * never modified once the lookup is built.
+     */
+    private static class ProbabilityLookup {
+
+        /**
+         * The sorted scores.
+         */
+        private final double[] scores;
+        /**
+         * The probabilities associated to the sorted scores.
+         */
+        private final double[] probabilities;
+
+        /**
+         * Constructor.
+         *
+         * @param scores the sorted scores
+         * @param probabilities the probabilities associated to the sorted
+         * scores
+         */
+        private ProbabilityLookup(double[] scores, double[] probabilities) {
+            this.scores = scores;
+            this.probabilities = probabilities;
+        }
+    }
 }
@@ -267,7 +267,8 @@ public class CpsParent extends UserPreferencesParent {
     }
 
     /**
-     * Saves the project in the cps file.
+     * Saves the project in the cps file. If the project was loaded from or
+     * last saved to this file, only the modified files are appended to it.
      *
      * @param waitingHandler waiting handler displaying feedback to the user.
      * can be null.
@@ -279,9 +280,9 @@ public class CpsParent extends UserPreferencesParent {
      */
     public void saveProject(WaitingHandler waitingHandler, boolean emptyCache) throws IOException, SQLException, FileNotFoundException, ArchiveException {
         CpsExporter.saveAs(cpsFile, waitingHandler, experiment, identification, shotgunProtocol, identificationParameters,
-                spectrumCountingPreferences, projectDetails, metrics,
+                spectrumCountingPreferences, projectDetails, null, metrics,
                 processingPreferences, identificationFeaturesGenerator.getIdentificationFeaturesCache(),
-                objectsCache, emptyCache, PeptideShaker.getJarFilePath());
+                objectsCache, emptyCache, null, PeptideShaker.getJarFilePath(), true);
 
         loadUserPreferences();
         userPreferences.addRecentProject(cpsFile);
@@ -1,8 +1,13 @@
 package eu.isas.peptideshaker.utils;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 /**
  * This class caches the identification features calculated by the
@@ -99,29 +104,42 @@ public class IdentificationFeaturesCache implements Serializable {
      */
     private final int smallObjectsCacheSize = 1000000;
     /**
-     * The number of values kept in memory for big objects.
+     * The memory in MB available for the big objects, null to use the
+     * default. Not saved with the project as it depends on the machine.
      */
-    private final int bigObjectsCacheSize = 1000;
-    /**
-     * Separator used to concatenate strings.
-     */
-    private static final String cacheSeparator = "_ccs_";
+    private transient Integer bigObjectsMemoryLimit = null;
     /**
      * The cached protein matches for small objects.
+     *
+     * @deprecated kept for backward compatibility, use smallObjects instead
      */
-    private ArrayList<String> smallObjectsInCache = new ArrayList<String>();
+    private ArrayList<String> smallObjectsInCache = null;
     /**
      * The cached protein matches for big objects.
+     *
+     * @deprecated kept for backward compatibility, use bigObjects instead
      */
-    private ArrayList<String> bigObjectsInCache = new ArrayList<String>();
+    private ArrayList<String> bigObjectsInCache = null;
     /**
      * Mapping of the stored big objects.
+     *
+     * @deprecated kept for backward compatibility, use bigObjects instead
      */
-    private HashMap<ObjectType, HashMap<String, Object>> bigObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+    private HashMap<ObjectType, HashMap<String, Object>> bigObjectsCache = null;
     /**
      * Mapping of the stored small objects.
+     *
+     * @deprecated kept for backward compatibility, use smallObjects instead
+     */
+    private HashMap<ObjectType, HashMap<String, Object>> smallObjectsCache = null;
+    /**
+     * The least recently used cache of the small objects.
      */
-    private HashMap<ObjectType, HashMap<String, Object>> smallObjectsCache = new HashMap<ObjectType, HashMap<String, Object>>();
+    private ObjectsLru smallObjects = null;
+    /**
+     * The least recently used cache of the big objects.
+     */
+    private ObjectsLru bigObjects = null;
     /**
      * The protein list.
      */
@@ -171,47 +189,7 @@ public class IdentificationFeaturesCache implements Serializable {
      * @param type the object type
      */
     public void removeObjects(ObjectType type) {
-
-        String typeKey = getTypeAsString(type);
-        ArrayList<String> toRemove = new ArrayList<String>();
-
-        switch (type) {
-            case coverable_AA:
-            case coverable_AA_p:
-            case AA_coverage:
-            case tryptic_protein:
-                bigObjectsCache.remove(type);
-                for (String key : bigObjectsInCache) {
-                    if (key.contains(typeKey)) {
-                        toRemove.add(key);
-                    }
-                }
-                for (String key : toRemove) {
-                    bigObjectsInCache.remove(key);
-                }
-                break;
-            case sequence_coverage:
-            case sequence_validation_coverage:
-            case expected_coverage:
-            case spectrum_counting:
-            case number_of_spectra:
-            case number_of_validated_spectra:
-            case number_of_validated_peptides:
-            case number_of_confident_spectra:
-            case number_of_confident_peptides:
-            case max_psm_mz_for_peptides:
-            case unique_peptides:
-                smallObjectsCache.remove(type);
-                for (String key : smallObjectsInCache) {
-                    if (key.contains(typeKey)) {
-                        toRemove.add(key);
-                    }
-                }
-                for (String key : toRemove) {
-                    bigObjectsInCache.remove(key);
-                }
-                break;
-        }
+        getObjectsLru(type).remove(type);
     }
 
     /**
@@ -222,130 +200,159 @@ public class IdentificationFeaturesCache implements Serializable {
      * @param object the object to store
      */
     public void addObject(ObjectType type, String objectKey, Object object) {
-        switch (type) {
-            case coverable_AA:
-            case coverable_AA_p:
-            case AA_coverage:
-            case tryptic_protein:
-                if (!bigObjectsCache.containsKey(type)) {
-                    bigObjectsCache.put(type, new HashMap<String, Object>());
-                }
+        getObjectsLru(type).put(type, objectKey, object);
+    }
 
-                Object oldValue = bigObjectsCache.get(type).put(objectKey, object);
+    /**
+     * Returns an object if present in the cache. Null if not.
+     *
+     * @param type the type of the object
+     * @param objectKey the key of the object
+     * @return the desired object
+     */
+    public Object getObject(ObjectType type, String objectKey) {
+        return getObjectsLru(type).get(type, objectKey);
+    }
 
-                if (oldValue == null) {
-                    bigObjectsInCache.add(getCacheKey(type, objectKey)); // don't add if the object was already in the cache
-                }
+    /**
+     * Returns the number of objects found in the cache since the cache was
+     * created or loaded.
+     *
+     * @return the number of cache hits
+     */
+    public long getCacheHits() {
+        return getBigObjects().getnHits() + getSmallObjects().getnHits();
+    }
 
-                while (bigObjectsInCache.size() >= bigObjectsCacheSize) {
-                    ObjectType oldType = getType(bigObjectsInCache.get(0));
-                    String oldKey = getObjectKey(bigObjectsInCache.get(0));
-                    if (bigObjectsCache.containsKey(oldType)) { //Should always be true. Should...
-                        bigObjectsCache.get(oldType).remove(oldKey);
-                        if (bigObjectsCache.get(oldType).isEmpty()) {
-                            bigObjectsCache.remove(oldType);
-                        }
-                    }
-                    bigObjectsInCache.remove(0);
-                    if (bigObjectsInCache.isEmpty()) {
-                        break;
-                    }
-                }
-                break;
-            case sequence_coverage:
-            case sequence_validation_coverage:
-            case expected_coverage:
-            case spectrum_counting:
-            case number_of_spectra:
-            case number_of_validated_spectra:
-            case number_of_validated_peptides:
-            case number_of_confident_spectra:
-            case number_of_confident_peptides:
-            case max_psm_mz_for_peptides:
-            case unique_peptides:
-                if (!smallObjectsCache.containsKey(type)) {
-                    smallObjectsCache.put(type, new HashMap<String, Object>());
-                }
+    /**
+     * Returns the number of objects not found in the cache since the cache
+     * was created or loaded.
+     *
+     * @return the number of cache misses
+     */
+    public long getCacheMisses() {
+        return getBigObjects().getnMisses() + getSmallObjects().getnMisses();
+    }
 
-                oldValue = smallObjectsCache.get(type).put(objectKey, object);
+    /**
+     * Returns the number of objects evicted from the cache since the cache was
+     * created or loaded.
+     *
+     * @return the number of cache evictions
+     */
+    public long getCacheEvictions() {
+        return getBigObjects().getnEvictions() + getSmallObjects().getnEvictions();
+    }
 
-                if (oldValue == null) {
-                    smallObjectsInCache.add(getCacheKey(type, objectKey));
-                }
+    /**
+     * Returns the memory in MB available for the big objects. By default one
+     * eighth of the maximal heap size.
+     *
+     * @return the memory in MB available for the big objects
+     */
+    public int getBigObjectsMemoryLimit() {
+        if (bigObjectsMemoryLimit == null) {
+            return getDefaultBigObjectsMemoryLimit();
+        }
+        return bigObjectsMemoryLimit;
+    }
 
-                while (smallObjectsInCache.size() >= smallObjectsCacheSize) {
-                    ObjectType oldType = getType(smallObjectsInCache.get(0));
-                    String oldKey = getObjectKey(smallObjectsInCache.get(0));
-                    if (smallObjectsCache.containsKey(oldType)) { //Should always be true. Should...
-                        smallObjectsCache.get(oldType).remove(oldKey);
-                        if (smallObjectsCache.get(oldType).isEmpty()) {
-                            smallObjectsCache.remove(oldType);
-                        }
-                    }
-                    smallObjectsInCache.remove(0);
-                    if (smallObjectsInCache.isEmpty()) {
-                        break;
-                    }
-                }
-                break;
+    /**
+     * Returns the default memory in MB available for the big objects: one
+     * eighth of the maximal heap size of this virtual machine, at least 16 MB.
+     *
+     * @return the default memory in MB available for the big objects
+     */
+    public static int getDefaultBigObjectsMemoryLimit() {
+        return (int) Math.max(Runtime.getRuntime().maxMemory() / (8 * 1024 * 1024), 16);
+    }
+
+    /**
+     * Sets the memory in MB available for the big objects. Objects are evicted
+     * from the cache if needed.
+     *
+     * @param bigObjectsMemoryLimit the memory in MB available for the big
+     * objects
+     */
+    public void setBigObjectsMemoryLimit(int bigObjectsMemoryLimit) {
+        this.bigObjectsMemoryLimit = bigObjectsMemoryLimit;
+        getBigObjects().setMaxWeight(1024L * 1024L * bigObjectsMemoryLimit);
+    }
+
+    /**
+     * Returns the memory in bytes used by the big objects in cache as
+     * estimated from the size of the arrays and lists.
+     *
+     * @return the memory in bytes used by the big objects in cache
+     */
+    public long getBigObjectsMemoryUsage() {
+        return getBigObjects().getWeight();
+    }
+
+    /**
+     * Returns the cache where objects of the given type are stored.
+     *
+     * @param type the type of object
+     *
+     * @return the cache where objects of the given type are stored
+     */
+    private ObjectsLru getObjectsLru(ObjectType type) {
+        if (isBigObject(type)) {
+            return getBigObjects();
+        } else {
+            return getSmallObjects();
         }
     }
 
     /**
-     * Returns an object if present in the cache. Null if not.
+     * Returns the cache of the big objects. Objects cached by a previous
+     * version are imported in the new cache.
      *
-     * @param type the type of the object
-     * @param objectKey the key of the object
-     * @return the desired object
+     * @return the cache of the big objects
+     */
+    private synchronized ObjectsLru getBigObjects() {
+        if (bigObjects == null) { // Backward compatibility check
+            bigObjects = new ObjectsLru(Integer.MAX_VALUE, 1024L * 1024L * getBigObjectsMemoryLimit());
+            bigObjects.importObjects(bigObjectsCache);
+            bigObjectsCache = null;
+            bigObjectsInCache = null;
+        }
+        return bigObjects;
+    }
+
+    /**
+     * Returns the cache of the small objects. Objects cached by a previous
+     * version are imported in the new cache.
+     *
+     * @return the cache of the small objects
+     */
+    private synchronized ObjectsLru getSmallObjects() {
+        if (smallObjects == null) { // Backward compatibility check
+            smallObjects = new ObjectsLru(smallObjectsCacheSize, Long.MAX_VALUE);
+            smallObjects.importObjects(smallObjectsCache);
+            smallObjectsCache = null;
+            smallObjectsInCache = null;
+        }
+        return smallObjects;
+    }
+
+    /**
+     * Indicates whether objects of the given type are stored as big objects.
+     *
+     * @param type the type of object
+     *
+     * @return a boolean indicating whether objects of the given type are
+     * stored as big objects
      */
-    public Object getObject(ObjectType type, String objectKey) {
-        Object result = null;
+    private static boolean isBigObject(ObjectType type) {
         switch (type) {
             case coverable_AA:
             case coverable_AA_p:
             case AA_coverage:
             case tryptic_protein:
-                if (bigObjectsCache.containsKey(type)) {
-                    result = bigObjectsCache.get(type).get(objectKey);
-                }
-                if (result != null && bigObjectsInCache.size() >= bigObjectsCacheSize) {
-                    String cacheKey = getCacheKey(type, objectKey);
-                    for (int i = 0; i < Math.min(bigObjectsInCache.size(), 100); i++) {
-                        if (bigObjectsInCache.get(i).equals(cacheKey)) {
-                            bigObjectsInCache.remove(i);
-                            bigObjectsInCache.add(cacheKey);
-                            break;
-                        }
-                    }
-                }
-                return result;
-            case sequence_coverage:
-            case sequence_validation_coverage:
-            case expected_coverage:
-            case spectrum_counting:
-            case number_of_spectra:
-            case number_of_validated_spectra:
-            case number_of_validated_peptides:
-            case number_of_confident_spectra:
-            case number_of_confident_peptides:
-            case max_psm_mz_for_peptides:
-            case unique_peptides:
-                if (smallObjectsCache.containsKey(type)) {
-                    result = smallObjectsCache.get(type).get(objectKey);
-                }
-                if (result != null && smallObjectsInCache.size() >= smallObjectsCacheSize) {
-                    String cacheKey = getCacheKey(type, objectKey);
-                    for (int i = 0; i < Math.min(smallObjectsInCache.size(), 100); i++) {
-                        if (smallObjectsInCache.get(i).equals(cacheKey)) {
-                            smallObjectsInCache.remove(i);
-                            smallObjectsInCache.add(cacheKey);
-                            break;
-                        }
-                    }
-                }
-                return result;
+                return true;
             default:
-                return result;
+                return false;
         }
     }
 
@@ -535,117 +542,310 @@ public class IdentificationFeaturesCache implements Serializable {
     }
 
     /**
-     * Convenience method returning a string as key for the object of the given
-     * type identified by the given key.
+     * Reads the cache and bounds the big objects by the memory available on
+     * this machine rather than by the one of the machine which saved it.
      *
-     * @param type the type of object
-     * @param objectKey the key of the object
-     * @return the key to be used in cache
-     */
-    private String getCacheKey(ObjectType type, String objectKey) {
-        return getTypeAsString(type) + cacheSeparator + objectKey;
+     * @param in the input stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the cache
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the cache
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (bigObjects != null) {
+            bigObjects.setMaxWeight(1024L * 1024L * getBigObjectsMemoryLimit());
+        }
     }
 
     /**
-     * Returns the object type as string.
-     *
-     * @param type the type of object
-     * @return the corresponding key
+     * An access-ordered cache of objects keyed by type and object key. Every
+     * type has its own access-ordered map and the least recently used object
+     * across the types is found by comparing the eldest entry of every type,
+     * making insertion, retrieval and eviction independent of the cache size.
+     * The cache is bounded by a number of objects and by the estimated memory
+     * used by the objects.
      */
-    private String getTypeAsString(ObjectType type) {
-        switch (type) {
-            case coverable_AA:
-                return "coverable_AA";
-            case coverable_AA_p:
-                return "coverable_AA_p";
-            case AA_coverage:
-                return "AA_coverage";
-            case sequence_coverage:
-                return "sequence_coverage";
-            case sequence_validation_coverage:
-                return "sequence_validation_coverage";
-            case expected_coverage:
-                return "expected_coverage";
-            case spectrum_counting:
-                return "spectrum_counting";
-            case number_of_spectra:
-                return "#spectra";
-            case number_of_validated_spectra:
-                return "#validated_spectra";
-            case number_of_validated_peptides:
-                return "#validated_peptides";
-            case number_of_confident_spectra:
-                return "#confident_spectra";
-            case number_of_confident_peptides:
-                return "#confident_peptides";
-            case max_psm_mz_for_peptides:
-                return "max_psm_mz_for_peptides";
-            case tryptic_protein:
-                return "tryptic_protein";
-            case unique_peptides:
-                return "unique_peptides";
-            default:
-                return "default";
+    private static class ObjectsLru implements Serializable {
+
+        /**
+         * Serial number for backward compatibility.
+         */
+        static final long serialVersionUID = 4387604928465395736L;
+        /**
+         * The maximal number of objects to keep in the cache.
+         */
+        private final int capacity;
+        /**
+         * The maximal estimated memory in bytes used by the objects in cache.
+         */
+        private long maxWeight;
+        /**
+         * The estimated memory in bytes used by the objects in cache.
+         */
+        private long weight = 0;
+        /**
+         * The access-ordered objects of every type.
+         */
+        private final HashMap<ObjectType, LinkedHashMap<String, CachedObject>> objectsMap = new HashMap<ObjectType, LinkedHashMap<String, CachedObject>>();
+        /**
+         * The number of objects in the cache.
+         */
+        private int size = 0;
+        /**
+         * Counter used to date the accesses to the objects.
+         */
+        private long accessCounter = 0;
+        /**
+         * The number of objects found in the cache.
+         */
+        private transient long nHits = 0;
+        /**
+         * The number of objects not found in the cache.
+         */
+        private transient long nMisses = 0;
+        /**
+         * The number of objects evicted from the cache.
+         */
+        private transient long nEvictions = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity the maximal number of objects to keep in the cache
+         * @param maxWeight the maximal estimated memory in bytes used by the
+         * objects in cache
+         */
+        public ObjectsLru(int capacity, long maxWeight) {
+            this.capacity = capacity;
+            this.maxWeight = maxWeight;
         }
-    }
 
-    /**
-     * Convenience method returning the type of object base on the objects cache
-     * key.
-     *
-     * @param cacheKey the object cache key
-     * @return the type of object
-     */
-    private ObjectType getType(String cacheKey) {
-        String objectTypeAsString = cacheKey.split(cacheSeparator)[0];
-        if (objectTypeAsString.equals("coverable_AA")) {
-            return ObjectType.coverable_AA;
-        } else if (objectTypeAsString.equals("coverable_AA_p")) {
-            return ObjectType.coverable_AA_p;
-        } else if (objectTypeAsString.equals("AA_coverage")) {
-            return ObjectType.AA_coverage;
-        } else if (objectTypeAsString.equals("sequence_coverage")) {
-            return ObjectType.sequence_coverage;
-        } else if (objectTypeAsString.equals("sequence_validation_coverage")) {
-            return ObjectType.sequence_validation_coverage;
-        } else if (objectTypeAsString.equals("expected_coverage")) {
-            return ObjectType.expected_coverage;
-        } else if (objectTypeAsString.equals("spectrum_counting")) {
-            return ObjectType.spectrum_counting;
-        } else if (objectTypeAsString.equals("#spectra")) {
-            return ObjectType.number_of_spectra;
-        } else if (objectTypeAsString.equals("#validated_spectra")) {
-            return ObjectType.number_of_validated_spectra;
-        } else if (objectTypeAsString.equals("#validated_peptides")) {
-            return ObjectType.number_of_validated_peptides;
-        } else if (objectTypeAsString.equals("#confident_spectra")) {
-            return ObjectType.number_of_confident_spectra;
-        } else if (objectTypeAsString.equals("#confident_peptides")) {
-            return ObjectType.number_of_confident_peptides;
-        } else if (objectTypeAsString.equals("max_psm_mz_for_peptides")) {
-            return ObjectType.max_psm_mz_for_peptides;
-        } else if (objectTypeAsString.equals("tryptic_protein")) {
-            return ObjectType.tryptic_protein;
-        } else if (objectTypeAsString.equals("unique_peptides")) {
-            return ObjectType.unique_peptides;
-        } else {
-            return null;
+        /**
+         * Returns an object if present in the cache. Null if not.
+         *
+         * @param type the type of the object
+         * @param objectKey the key of the object
+         *
+         * @return the desired object
+         */
+        public synchronized Object get(ObjectType type, String objectKey) {
+            LinkedHashMap<String, CachedObject> typeMap = objectsMap.get(type);
+            CachedObject cachedObject = typeMap == null ? null : typeMap.get(objectKey);
+            if (cachedObject == null) {
+                nMisses++;
+                return null;
+            }
+            nHits++;
+            cachedObject.lastAccess = ++accessCounter;
+            return cachedObject.object;
+        }
+
+        /**
+         * Adds an object in the cache and evicts the least recently used
+         * objects if the cache is full.
+         *
+         * @param type the type of the object
+         * @param objectKey the key of the object
+         * @param object the object to store
+         */
+        public synchronized void put(ObjectType type, String objectKey, Object object) {
+            LinkedHashMap<String, CachedObject> typeMap = objectsMap.get(type);
+            if (typeMap == null) {
+                typeMap = new LinkedHashMap<String, CachedObject>(16, 0.75f, true);
+                objectsMap.put(type, typeMap);
+            }
+            long objectWeight = maxWeight == Long.MAX_VALUE ? 0 : getWeight(object);
+            CachedObject oldValue = typeMap.put(objectKey, new CachedObject(object, ++accessCounter, objectWeight));
+            if (oldValue == null) {
+                size++;
+            } else {
+                weight -= oldValue.weight;
+            }
+            weight += objectWeight;
+            evict();
+        }
+
+        /**
+         * Removes all objects of the given type.
+         *
+         * @param type the type of object
+         */
+        public synchronized void remove(ObjectType type) {
+            LinkedHashMap<String, CachedObject> typeMap = objectsMap.remove(type);
+            if (typeMap != null) {
+                size -= typeMap.size();
+                for (CachedObject cachedObject : typeMap.values()) {
+                    weight -= cachedObject.weight;
+                }
+            }
+        }
+
+        /**
+         * Sets the maximal estimated memory in bytes used by the objects in
+         * cache and evicts objects if needed.
+         *
+         * @param maxWeight the maximal estimated memory in bytes used by the
+         * objects in cache
+         */
+        public synchronized void setMaxWeight(long maxWeight) {
+            this.maxWeight = maxWeight;
+            evict();
+        }
+
+        /**
+         * Returns the estimated memory in bytes used by the objects in cache.
+         *
+         * @return the estimated memory in bytes used by the objects in cache
+         */
+        public synchronized long getWeight() {
+            return weight;
+        }
+
+        /**
+         * Evicts the least recently used objects until the cache is within
+         * its bounds.
+         */
+        private void evict() {
+            while (size > 0 && (size > capacity || weight > maxWeight)) {
+                evictEldest();
+            }
+        }
+
+        /**
+         * Imports the objects of a cache saved by a previous version.
+         *
+         * @param legacyCache the objects cached by a previous version, can be
+         * null
+         */
+        public synchronized void importObjects(HashMap<ObjectType, HashMap<String, Object>> legacyCache) {
+            if (legacyCache != null) {
+                for (ObjectType type : legacyCache.keySet()) {
+                    HashMap<String, Object> typeMap = legacyCache.get(type);
+                    for (String objectKey : typeMap.keySet()) {
+                        put(type, objectKey, typeMap.get(objectKey));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Removes the least recently used object from the cache.
+         */
+        private void evictEldest() {
+            ObjectType eldestType = null;
+            long eldestAccess = Long.MAX_VALUE;
+            for (ObjectType type : objectsMap.keySet()) {
+                CachedObject cachedObject = objectsMap.get(type).values().iterator().next();
+                if (cachedObject.lastAccess < eldestAccess) {
+                    eldestAccess = cachedObject.lastAccess;
+                    eldestType = type;
+                }
+            }
+            LinkedHashMap<String, CachedObject> typeMap = objectsMap.get(eldestType);
+            Iterator<CachedObject> iterator = typeMap.values().iterator();
+            CachedObject eldest = iterator.next();
+            iterator.remove();
+            weight -= eldest.weight;
+            if (typeMap.isEmpty()) {
+                objectsMap.remove(eldestType);
+            }
+            size--;
+            nEvictions++;
+        }
+
+        /**
+         * Returns an estimate of the memory in bytes used by an object. The
+         * memory used by arrays and lists of strings is estimated from their
+         * size, other objects are given a constant weight.
+         *
+         * @param object the object
+         *
+         * @return an estimate of the memory in bytes used by the object
+         */
+        private static long getWeight(Object object) {
+            if (object instanceof double[]) {
+                return 16 + 8L * ((double[]) object).length;
+            } else if (object instanceof int[]) {
+                return 16 + 4L * ((int[]) object).length;
+            } else if (object instanceof boolean[]) {
+                return 16 + ((boolean[]) object).length;
+            } else if (object instanceof Collection) {
+                long result = 40;
+                for (Object element : (Collection) object) {
+                    if (element instanceof String) {
+                        result += 48 + 2L * ((String) element).length();
+                    } else {
+                        result += 16;
+                    }
+                }
+                return result;
+            }
+            return 16;
+        }
+
+        /**
+         * Returns the number of objects found in the cache.
+         *
+         * @return the number of objects found in the cache
+         */
+        public synchronized long getnHits() {
+            return nHits;
+        }
+
+        /**
+         * Returns the number of objects not found in the cache.
+         *
+         * @return the number of objects not found in the cache
+         */
+        public synchronized long getnMisses() {
+            return nMisses;
+        }
+
+        /**
+         * Returns the number of objects evicted from the cache.
+         *
+         * @return the number of objects evicted from the cache
+         */
+        public synchronized long getnEvictions() {
+            return nEvictions;
         }
     }
 
     /**
-     * Convenience method returning the object key based on the cache key.
-     *
-     * @param cacheKey the cache key
-     * @return the object key
+     * An object stored in the cache along with the date of its last access.
      */
-    private String getObjectKey(String cacheKey) {
-        StringBuilder buf = new StringBuilder();
-        String escapedString = java.util.regex.Pattern.quote(cacheKey);
-        String[] splittedKey = cacheKey.split(escapedString);
-        for (int i = 1; i < splittedKey.length; i++) {
-            buf.append(splittedKey[i]);
+    private static class CachedObject implements Serializable {
+
+        /**
+         * Serial number for backward compatibility.
+         */
+        static final long serialVersionUID = -2870371426931553054L;
+        /**
+         * The cached object.
+         */
+        private final Object object;
+        /**
+         * The date of the last access to the object in accesses of the cache.
+         */
+        private long lastAccess;
+        /**
+         * The estimated memory in bytes used by the object.
+         */
+        private final long weight;
+
+        /**
+         * Constructor.
+         *
+         * @param object the cached object
+         * @param lastAccess the date of the last access to the object
+         * @param weight the estimated memory in bytes used by the object
+         */
+        public CachedObject(Object object, long lastAccess, long weight) {
+            this.object = object;
+            this.lastAccess = lastAccess;
+            this.weight = weight;
         }
-        return buf.toString();
     }
 }
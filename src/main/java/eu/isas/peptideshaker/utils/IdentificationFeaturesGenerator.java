@@ -38,6 +38,14 @@ import org.apache.commons.math.MathException;
 
 /**
  * This class provides identification features and stores them in cache.
+ * <br>
+ * Thread-safety: the features of a given match, e.g. coverage, spectrum
+ * counting, number of validated peptides or spectra, PTM sites, can be
+ * obtained from multiple threads without external locking. The cache is
+ * synchronized and a feature computed concurrently by two threads yields the
+ * same value. The methods building or setting the lists of matches, e.g.
+ * getProcessedProteinKeys, setProteinKeys, getSortedPeptideKeys, and the
+ * setters must be called from a single thread.
  *
  * @author Marc Vaudel
  * @author Harald Barsnes
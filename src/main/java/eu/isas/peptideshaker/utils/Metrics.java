@@ -84,6 +84,18 @@ public class Metrics implements Serializable {
      * name'_'peptide key'. Values: arraylist of spectrum keys.
      */
     private HashMap<String, ArrayList<String>> fractionPsmMatches;
+    /**
+     * The PSM matches for each peptide in each fraction. Key: fraction name,
+     * peptide key. Values: arraylist of spectrum keys. Saved with the project
+     * in place of the fractionPsmMatches, it is null in projects saved by
+     * previous versions.
+     */
+    private HashMap<String, HashMap<String, ArrayList<String>>> fractionPeptidePsmMatches;
+    /**
+     * The fraction PSM matches indexed by 'fraction name'_'peptide key' built
+     * from the fractionPeptidePsmMatches on demand.
+     */
+    private transient HashMap<String, ArrayList<String>> fractionPsmMatchesView = null;
     /**
      * The total number of peptides per fraction.
      */
@@ -427,18 +439,71 @@ public class Metrics implements Serializable {
 
     /**
      * Returns the list of fraction PSM matches. Key: 'fraction name'_'peptide
-     * key'. Values: arraylist of spectrum keys.
+     * key'. Values: arraylist of spectrum keys. When the matches are stored
+     * per fraction and peptide, the map is built at the first call.
+     *
+     * @deprecated use getFractionPsmMatches(String, String) instead
      *
      * @return he list of fraction PSM matches
      */
     public HashMap<String, ArrayList<String>> getFractionPsmMatches() {
-        if (fractionPsmMatches != null) {
+        if (fractionPeptidePsmMatches != null) {
+            if (fractionPsmMatchesView == null) {
+                HashMap<String, ArrayList<String>> result = new HashMap<String, ArrayList<String>>();
+                for (String fraction : fractionPeptidePsmMatches.keySet()) {
+                    HashMap<String, ArrayList<String>> fractionMap = fractionPeptidePsmMatches.get(fraction);
+                    for (String peptideKey : fractionMap.keySet()) {
+                        result.put(fraction + "_" + peptideKey, fractionMap.get(peptideKey));
+                    }
+                }
+                fractionPsmMatchesView = result;
+            }
+            return fractionPsmMatchesView;
+        } else if (fractionPsmMatches != null) {
             return fractionPsmMatches;
         } else {
             return new HashMap<String, ArrayList<String>>();
         }
     }
 
+    /**
+     * Sets the PSM matches for each peptide in each fraction. Key: fraction
+     * name, peptide key. Values: arraylist of spectrum keys. The fraction PSM
+     * matches indexed by 'fraction name'_'peptide key' are cleared.
+     *
+     * @param fractionPeptidePsmMatches the PSM matches for each peptide in
+     * each fraction
+     */
+    public void setFractionPeptidePsmMatches(HashMap<String, HashMap<String, ArrayList<String>>> fractionPeptidePsmMatches) {
+        this.fractionPeptidePsmMatches = fractionPeptidePsmMatches;
+        fractionPsmMatches = null;
+        fractionPsmMatchesView = null;
+    }
+
+    /**
+     * Returns the keys of the spectrum matches of the given peptide in the
+     * given fraction, null if none.
+     *
+     * @param fraction the name of the fraction
+     * @param peptideKey the key of the peptide
+     *
+     * @return the keys of the spectrum matches of the given peptide in the
+     * given fraction
+     */
+    public ArrayList<String> getFractionPsmMatches(String fraction, String peptideKey) {
+        if (fractionPeptidePsmMatches != null) {
+            HashMap<String, ArrayList<String>> fractionMap = fractionPeptidePsmMatches.get(fraction);
+            if (fractionMap == null) {
+                return null;
+            }
+            return fractionMap.get(peptideKey);
+        } else if (fractionPsmMatches != null) {
+            // backward compatibility
+            return fractionPsmMatches.get(fraction + "_" + peptideKey);
+        }
+        return null;
+    }
+
     /**
      * Set the total number of peptides per fraction.
      *
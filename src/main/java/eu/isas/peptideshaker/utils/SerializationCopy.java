@@ -0,0 +1,50 @@
+package eu.isas.peptideshaker.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * This class makes deep copies of serializable objects, typically to give
+ * every processing thread its own copy of settings which are modified during
+ * processing.
+ */
+public class SerializationCopy {
+
+    /**
+     * Empty default constructor.
+     */
+    public SerializationCopy() {
+    }
+
+    /**
+     * Returns a deep copy of the given object obtained by serializing and
+     * deserializing it in memory.
+     *
+     * @param object the object to copy, must be serializable
+     *
+     * @return a deep copy of the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * serializing the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    public static Object deepCopy(Object object) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        try {
+            oos.writeObject(object);
+        } finally {
+            oos.close();
+        }
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        try {
+            return ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+}
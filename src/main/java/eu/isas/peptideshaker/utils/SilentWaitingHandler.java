@@ -0,0 +1,77 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.waiting.WaitingHandler;
+
+/**
+ * Waiting handler for a task run concurrently with other tasks. The progress
+ * of the task is never displayed, its reports are forwarded to the waiting
+ * handler of the run and canceling the task or the run cancels both.
+ */
+public class SilentWaitingHandler extends WaitingHandlerCLIImpl {
+
+    /**
+     * The waiting handler of the run, can be null.
+     */
+    private final WaitingHandler runWaitingHandler;
+
+    /**
+     * Constructor.
+     *
+     * @param runWaitingHandler the waiting handler of the run, can be null
+     */
+    public SilentWaitingHandler(WaitingHandler runWaitingHandler) {
+        this.runWaitingHandler = runWaitingHandler;
+        super.setDisplayProgress(false);
+    }
+
+    @Override
+    public void setDisplayProgress(boolean displayProgress) {
+        // the progress of a concurrent task is never displayed
+    }
+
+    @Override
+    public void setWaitingText(String text) {
+        // the progress of a concurrent task is never displayed
+    }
+
+    @Override
+    public void increaseSecondaryProgressCounter() {
+        // the progress of a concurrent task is never displayed
+    }
+
+    @Override
+    public void setSecondaryProgressCounterIndeterminate(boolean indeterminate) {
+        // the progress of a concurrent task is never displayed
+    }
+
+    @Override
+    public void resetSecondaryProgressCounter() {
+        // the progress of a concurrent task is never displayed
+    }
+
+    @Override
+    public void setMaxSecondaryProgressCounter(int maxProgressValue) {
+        // the progress of a concurrent task is never displayed
+    }
+
+    @Override
+    public void appendReport(String report, boolean includeDate, boolean addNewLine) {
+        if (runWaitingHandler != null) {
+            runWaitingHandler.appendReport(report, includeDate, addNewLine);
+        }
+    }
+
+    @Override
+    public boolean isRunCanceled() {
+        return super.isRunCanceled() || runWaitingHandler != null && runWaitingHandler.isRunCanceled();
+    }
+
+    @Override
+    public void setRunCanceled() {
+        super.setRunCanceled();
+        if (runWaitingHandler != null) {
+            runWaitingHandler.setRunCanceled();
+        }
+    }
+}
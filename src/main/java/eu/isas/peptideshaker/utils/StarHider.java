@@ -164,16 +164,18 @@ public class StarHider {
 
                             Double proteinMW = sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
 
-                            for (String fraction : psParameter.getFractions()) {
-
-                                // set the fraction molecular weights
-                                if (psParameter.getFractionConfidence(fraction) > peptideShakerGUI.getProcessingPreferences().getProteinConfidenceMwPlots()) {
-                                    if (fractionMW.containsKey(fraction)) {
-                                        fractionMW.get(fraction).add(proteinMW);
-                                    } else {
-                                        ArrayList<Double> mw = new ArrayList<Double>();
-                                        mw.add(proteinMW);
-                                        fractionMW.put(fraction, mw);
+                            if (psParameter.getFractions() != null) {
+                                for (String fraction : psParameter.getFractions()) {
+
+                                    // set the fraction molecular weights
+                                    if (psParameter.getFractionConfidence(fraction) > peptideShakerGUI.getProcessingPreferences().getProteinConfidenceMwPlots()) {
+                                        if (fractionMW.containsKey(fraction)) {
+                                            fractionMW.get(fraction).add(proteinMW);
+                                        } else {
+                                            ArrayList<Double> mw = new ArrayList<Double>();
+                                            mw.add(proteinMW);
+                                            fractionMW.put(fraction, mw);
+                                        }
                                     }
                                 }
                             }
@@ -44,11 +44,19 @@ import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.SerializationCopy;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.RowFilter;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
@@ -96,7 +104,8 @@ public class MatchesValidator {
     /**
      * Validates the identification matches comprised in an identification
      * object based on the target/decoy strategy and quality control metrics
-     * based on given FDR thresholds.
+     * based on given FDR thresholds. The spectrum matches are validated using
+     * a single thread.
      *
      * @param identification the identification class containing the matches to
      * validate
@@ -125,6 +134,43 @@ public class MatchesValidator {
     public void validateIdentifications(Identification identification, Metrics metrics, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator, InputMap inputMap,
             SpectrumCountingPreferences spectrumCountingPreferences) throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+        validateIdentifications(identification, metrics, waitingHandler, exceptionHandler, shotgunProtocol, identificationParameters, identificationFeaturesGenerator, inputMap,
+                spectrumCountingPreferences, getSingleThreadProcessingPreferences());
+    }
+
+    /**
+     * Validates the identification matches comprised in an identification
+     * object based on the target/decoy strategy and quality control metrics
+     * based on given FDR thresholds.
+     *
+     * @param identification the identification class containing the matches to
+     * validate
+     * @param metrics if provided, metrics on fractions will be saved while
+     * iterating the matches
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param identificationFeaturesGenerator the identification features
+     * generator providing information about the matches
+     * @param inputMap the input target/decoy map
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param processingPreferences the processing preferences
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while getting a match from the database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while getting a match from the database
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file
+     * @throws java.lang.InterruptedException exception thrown whenever an error
+     * occurred while getting a match from the database
+     */
+    public void validateIdentifications(Identification identification, Metrics metrics, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator, InputMap inputMap,
+            SpectrumCountingPreferences spectrumCountingPreferences, ProcessingPreferences processingPreferences) throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
 
         IdMatchValidationPreferences validationPreferences = identificationParameters.getIdValidationPreferences();
 
@@ -192,15 +238,16 @@ public class MatchesValidator {
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
 
-        validateIdentifications(identification, metrics, inputMap, waitingHandler,
-                identificationFeaturesGenerator, shotgunProtocol, identificationParameters, spectrumCountingPreferences);
+        validateIdentifications(identification, metrics, inputMap, waitingHandler, exceptionHandler,
+                identificationFeaturesGenerator, shotgunProtocol, identificationParameters, spectrumCountingPreferences, processingPreferences);
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
     }
 
     /**
      * This method validates the identification matches of an identification
-     * object. Target Decoy thresholds must be set.
+     * object. Target Decoy thresholds must be set. The spectrum matches are
+     * validated using a single thread.
      *
      * @param identification the identification class containing the matches to
      * validate
@@ -230,6 +277,44 @@ public class MatchesValidator {
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
             SpectrumCountingPreferences spectrumCountingPreferences)
             throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+        validateIdentifications(identification, metrics, inputMap, waitingHandler, null, identificationFeaturesGenerator, shotgunProtocol, identificationParameters,
+                spectrumCountingPreferences, getSingleThreadProcessingPreferences());
+    }
+
+    /**
+     * This method validates the identification matches of an identification
+     * object. Target Decoy thresholds must be set.
+     *
+     * @param identification the identification class containing the matches to
+     * validate
+     * @param metrics if provided, metrics on fractions will be saved while
+     * iterating the matches
+     * @param inputMap the target decoy map of all search engine scores
+     * @param waitingHandler the progress bar
+     * @param exceptionHandler handler for exceptions
+     * @param identificationFeaturesGenerator an identification features
+     * generator computing information about the identification matches
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param processingPreferences the processing preferences
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     * @throws InterruptedException exception thrown whenever an error occurred
+     * while interacting with the database
+     */
+    public void validateIdentifications(Identification identification, Metrics metrics, InputMap inputMap,
+            WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters,
+            SpectrumCountingPreferences spectrumCountingPreferences, ProcessingPreferences processingPreferences)
+            throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
 
         PSParameter psParameter = new PSParameter();
         PSParameter psParameter2 = new PSParameter();
@@ -245,176 +330,43 @@ public class MatchesValidator {
                     + 2 * identification.getSpectrumIdentificationSize());
         }
 
-        PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
         HashMap<String, ArrayList<String>> spectrumKeysMap = identification.getSpectrumIdentificationMap();
         if (metrics.getGroupedSpectrumKeys() != null) {
             spectrumKeysMap = metrics.getGroupedSpectrumKeys();
         }
 
-        // validate the spectrum matches
+        // validate the spectrum matches, the parameters of every thread are reused for all files and passes
+        ArrayList<IdentificationParameters> threadParameters = getThreadParameters(identificationParameters, processingPreferences.getnThreads());
         if (inputMap != null) {
             inputMap.resetAdvocateContributions();
         }
         for (String spectrumFileName : identification.getSpectrumFiles()) {
 
-            ArrayList<Double> precursorMzDeviations = new ArrayList<Double>();
-
             ArrayList<String> spectrumKeys = spectrumKeysMap.get(spectrumFileName);
 
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, parameters, false, waitingHandler);
-
-            while (psmIterator.hasNext()) {
-
-                if (waitingHandler != null) {
-                    waitingHandler.setDisplayProgress(false);
-                }
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                if (waitingHandler != null) {
-                    waitingHandler.setDisplayProgress(true);
-                }
-
-                String spectrumKey = spectrumMatch.getKey();
-
-                updateSpectrumMatchValidationLevel(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator, psmMap, spectrumKey, null, false);
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-
-                if (psParameter.getMatchValidationLevel().isValidated()) {
-
-                    PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
-
-                    if (peptideAssumption != null) {
-
-                        double precursorMz = spectrumFactory.getPrecursorMz(spectrumKey);
-                        double precursorMzError = peptideAssumption.getDeltaMass(precursorMz, shotgunProtocol.isMs1ResolutionPpm());
-                        precursorMzDeviations.add(precursorMzError);
-
-                        if (inputMap != null) {
-
-                            Peptide bestPeptide = peptideAssumption.getPeptide();
-                            ArrayList<Integer> agreementAdvocates = new ArrayList<Integer>();
-
-                            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
-                            for (int advocateId : assumptions.keySet()) {
-                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateId);
-                                if (advocateAssumptions != null) {
-                                    ArrayList<Double> eValues = new ArrayList<Double>(advocateAssumptions.keySet());
-                                    Collections.sort(eValues);
-                                    for (SpectrumIdentificationAssumption firstHit : advocateAssumptions.get(eValues.get(0))) {
-                                        if (firstHit instanceof PeptideAssumption) {
-                                            Peptide advocatePeptide = ((PeptideAssumption) firstHit).getPeptide();
-                                            if (bestPeptide.isSameSequenceAndModificationStatus(advocatePeptide, identificationParameters.getSequenceMatchingPreferences())) {
-                                                agreementAdvocates.add(advocateId);
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-
-                            boolean unique = agreementAdvocates.size() == 1;
-
-                            for (int advocateId : agreementAdvocates) {
-                                inputMap.addAdvocateContribution(advocateId, spectrumFileName, unique);
-                            }
-
-                            inputMap.addAdvocateContribution(Advocate.peptideShaker.getIndex(), spectrumFileName, agreementAdvocates.isEmpty());
-                        }
-                    }
-                }
-
-                if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressCounter();
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
-                }
+            // first pass: gather the precursor m/z deviations of the validated matches
+            ArrayList<Double> precursorMzDeviations = validatePsms(identification, spectrumFileName, spectrumKeys, inputMap, null, waitingHandler, exceptionHandler,
+                    identificationFeaturesGenerator, shotgunProtocol, threadParameters);
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
             }
 
             if (inputMap != null) {
                 inputMap.resetAdvocateContributions(spectrumFileName);
             }
 
-            psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, parameters, false, waitingHandler);
-
-            while (psmIterator.hasNext()) {
-
-                if (waitingHandler != null) {
-                    waitingHandler.setDisplayProgress(false);
-                }
-                SpectrumMatch spectrumMatch = psmIterator.next();
-                if (waitingHandler != null) {
-                    waitingHandler.setDisplayProgress(true);
-                }
-
-                String spectrumKey = spectrumMatch.getKey();
-
-                updateSpectrumMatchValidationLevel(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator, psmMap, spectrumKey, precursorMzDeviations, true);
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-
-                if (psParameter.getMatchValidationLevel().isValidated()) {
-
-                    PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
-
-                    if (peptideAssumption != null) {
-                        if (inputMap != null) {
-                            Peptide bestPeptide = peptideAssumption.getPeptide();
-                            ArrayList<Integer> agreementAdvocates = new ArrayList<Integer>();
-                            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
-                            for (int advocateId : assumptions.keySet()) {
-                                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateId);
-                                for (double eValue : advocateAssumptions.keySet()) {
-                                    for (SpectrumIdentificationAssumption spectrumIdAssumption : advocateAssumptions.get(eValue)) {
-                                        if (spectrumIdAssumption instanceof PeptideAssumption) {
-                                            Peptide advocatePeptide = ((PeptideAssumption) spectrumIdAssumption).getPeptide();
-                                            if (bestPeptide.isSameSequenceAndModificationStatus(advocatePeptide, identificationParameters.getSequenceMatchingPreferences())) {
-                                                agreementAdvocates.add(advocateId);
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                            boolean unique = agreementAdvocates.size() == 1;
-                            for (int advocateId : agreementAdvocates) {
-                                inputMap.addAdvocateContribution(advocateId, spectrumFileName, unique);
-                            }
-                            inputMap.addAdvocateContribution(Advocate.peptideShaker.getIndex(), spectrumFileName, agreementAdvocates.isEmpty());
-                        }
-                    }
-                }
-
-                // go through the peptide assumptions
-                if (inputMap != null) { //backward compatibility check
-                    HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
-                    for (int advocateId : assumptions.keySet()) {
-                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateId);
-                        for (double eValue : advocateAssumptions.keySet()) {
-                            for (SpectrumIdentificationAssumption spectrumIdAssumption : advocateAssumptions.get(eValue)) {
-                                if (spectrumIdAssumption instanceof PeptideAssumption) {
-                                    PeptideAssumption peptideAssumption = (PeptideAssumption) spectrumIdAssumption;
-                                    updatePeptideAssumptionValidationLevel(identificationFeaturesGenerator, shotgunProtocol, identificationParameters, inputMap, spectrumKey, peptideAssumption, peptideSpectrumAnnotator, precursorMzDeviations);
-                                } else if (spectrumIdAssumption instanceof TagAssumption) {
-                                    TagAssumption tagAssumption = (TagAssumption) spectrumIdAssumption;
-                                    updateTagAssumptionValidationLevel(identificationFeaturesGenerator, shotgunProtocol, identificationParameters, inputMap, spectrumKey, tagAssumption);
-                                }
-                            }
-                        }
-                    }
-                }
-
-                if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressCounter();
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
-                }
+            // second pass: validate the matches and their assumptions using the quality control filters
+            validatePsms(identification, spectrumFileName, spectrumKeys, inputMap, precursorMzDeviations, waitingHandler, exceptionHandler,
+                    identificationFeaturesGenerator, shotgunProtocol, threadParameters);
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
             }
         }
 
         HashMap<String, Integer> validatedTotalPeptidesPerFraction = new HashMap<String, Integer>();
         ArrayList<Double> validatedPeptideLengths = new ArrayList<Double>();
 
-        // validate the peptides
+        // validate the peptides, note that peptides and proteins are validated sequentially
         PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, parameters, waitingHandler);
         while (peptideMatchesIterator.hasNext()) {
 
@@ -442,47 +394,49 @@ public class MatchesValidator {
             HashMap<String, Integer> validatedPsmsPerFraction = new HashMap<String, Integer>();
             HashMap<String, ArrayList<Double>> precursorIntensitesPerFractionPeptideLevel = new HashMap<String, ArrayList<Double>>();
 
-            for (String fraction : psParameter.getFractions()) {
+            if (psParameter.getFractions() != null) {
+                for (String fraction : psParameter.getFractions()) {
 
-                ArrayList<Double> precursorIntensities = new ArrayList<Double>();
+                    ArrayList<Double> precursorIntensities = new ArrayList<Double>();
 
-                if (metrics.getFractionPsmMatches().get(fraction + "_" + peptideKey) != null) {
-                    ArrayList<String> spectrumKeys = metrics.getFractionPsmMatches().get(fraction + "_" + peptideKey);
+                    ArrayList<String> spectrumKeys = metrics.getFractionPsmMatches(fraction, peptideKey);
+                    if (spectrumKeys != null) {
 
-                    for (int k = 0; k < spectrumKeys.size(); k++) {
+                        for (int k = 0; k < spectrumKeys.size(); k++) {
 
-                        psParameter2 = (PSParameter) identification.getSpectrumMatchParameter(spectrumKeys.get(k), psParameter2);
+                            psParameter2 = (PSParameter) identification.getSpectrumMatchParameter(spectrumKeys.get(k), psParameter2);
 
-                        if (psParameter2.getMatchValidationLevel().isValidated()) {
-                            if (validatedPsmsPerFraction.containsKey(fraction)) {
-                                Integer value = validatedPsmsPerFraction.get(fraction);
-                                validatedPsmsPerFraction.put(fraction, value + 1);
-                            } else {
-                                validatedPsmsPerFraction.put(fraction, 1);
-                            }
+                            if (psParameter2.getMatchValidationLevel().isValidated()) {
+                                if (validatedPsmsPerFraction.containsKey(fraction)) {
+                                    Integer value = validatedPsmsPerFraction.get(fraction);
+                                    validatedPsmsPerFraction.put(fraction, value + 1);
+                                } else {
+                                    validatedPsmsPerFraction.put(fraction, 1);
+                                }
 
-                            if (SpectrumFactory.getInstance().getPrecursor(spectrumKeys.get(k)).getIntensity() > 0) { // @TODO: replace by an mgf index map? (have to add intensity map to the index first...)
-                                precursorIntensities.add(SpectrumFactory.getInstance().getPrecursor(spectrumKeys.get(k)).getIntensity());
+                                if (SpectrumFactory.getInstance().getPrecursor(spectrumKeys.get(k)).getIntensity() > 0) { // @TODO: replace by an mgf index map? (have to add intensity map to the index first...)
+                                    precursorIntensities.add(SpectrumFactory.getInstance().getPrecursor(spectrumKeys.get(k)).getIntensity());
+                                }
                             }
-                        }
 
-                        if (waitingHandler != null) {
-                            if (waitingHandler.isRunCanceled()) {
-                                return;
+                            if (waitingHandler != null) {
+                                if (waitingHandler.isRunCanceled()) {
+                                    return;
+                                }
                             }
                         }
                     }
-                }
 
-                precursorIntensitesPerFractionPeptideLevel.put(fraction, precursorIntensities);
+                    precursorIntensitesPerFractionPeptideLevel.put(fraction, precursorIntensities);
 
-                // save the total number of peptides per fraction
-                if (psParameter.getMatchValidationLevel().isValidated()) {
-                    if (validatedTotalPeptidesPerFraction.containsKey(fraction)) {
-                        Integer value = validatedTotalPeptidesPerFraction.get(fraction);
-                        validatedTotalPeptidesPerFraction.put(fraction, value + 1);
-                    } else {
-                        validatedTotalPeptidesPerFraction.put(fraction, 1);
+                    // save the total number of peptides per fraction
+                    if (psParameter.getMatchValidationLevel().isValidated()) {
+                        if (validatedTotalPeptidesPerFraction.containsKey(fraction)) {
+                            Integer value = validatedTotalPeptidesPerFraction.get(fraction);
+                            validatedTotalPeptidesPerFraction.put(fraction, value + 1);
+                        } else {
+                            validatedTotalPeptidesPerFraction.put(fraction, 1);
+                        }
                     }
                 }
             }
@@ -560,41 +514,43 @@ public class MatchesValidator {
 
                 psParameter2 = (PSParameter) identification.getPeptideMatchParameter(currentPeptideKey, psParameter2);
 
-                for (String fraction : psParameter2.getFractions()) {
+                if (psParameter2.getFractions() != null) {
+                    for (String fraction : psParameter2.getFractions()) {
 
-                    if (psParameter2.getFractionValidatedSpectra(fraction) != null) {
-                        if (validatedPsmsPerFraction.containsKey(fraction)) {
-                            Integer value = validatedPsmsPerFraction.get(fraction);
-                            validatedPsmsPerFraction.put(fraction, value + psParameter2.getFractionValidatedSpectra(fraction));
-                        } else {
-                            validatedPsmsPerFraction.put(fraction, psParameter2.getFractionValidatedSpectra(fraction));
-                        }
+                        if (psParameter2.getFractionValidatedSpectra(fraction) != null) {
+                            if (validatedPsmsPerFraction.containsKey(fraction)) {
+                                Integer value = validatedPsmsPerFraction.get(fraction);
+                                validatedPsmsPerFraction.put(fraction, value + psParameter2.getFractionValidatedSpectra(fraction));
+                            } else {
+                                validatedPsmsPerFraction.put(fraction, psParameter2.getFractionValidatedSpectra(fraction));
+                            }
 
-                        if (validatedPsmsPerFraction.get(fraction) > maxValidatedSpectraFractionLevel) {
-                            maxValidatedSpectraFractionLevel = validatedPsmsPerFraction.get(fraction);
+                            if (validatedPsmsPerFraction.get(fraction) > maxValidatedSpectraFractionLevel) {
+                                maxValidatedSpectraFractionLevel = validatedPsmsPerFraction.get(fraction);
+                            }
                         }
-                    }
 
-                    if (psParameter2.getPrecursorIntensityPerFraction(fraction) != null) {
-                        if (precursorIntensitesPerFractionProteinLevel.containsKey(fraction)) {
-                            for (int i = 0; i < psParameter2.getPrecursorIntensityPerFraction(fraction).size(); i++) {
-                                precursorIntensitesPerFractionProteinLevel.get(fraction).add(psParameter2.getPrecursorIntensityPerFraction(fraction).get(i));
+                        if (psParameter2.getPrecursorIntensityPerFraction(fraction) != null) {
+                            if (precursorIntensitesPerFractionProteinLevel.containsKey(fraction)) {
+                                for (int i = 0; i < psParameter2.getPrecursorIntensityPerFraction(fraction).size(); i++) {
+                                    precursorIntensitesPerFractionProteinLevel.get(fraction).add(psParameter2.getPrecursorIntensityPerFraction(fraction).get(i));
+                                }
+                            } else {
+                                precursorIntensitesPerFractionProteinLevel.put(fraction, psParameter2.getPrecursorIntensityPerFraction(fraction));
                             }
-                        } else {
-                            precursorIntensitesPerFractionProteinLevel.put(fraction, psParameter2.getPrecursorIntensityPerFraction(fraction));
                         }
-                    }
 
-                    if (psParameter2.getMatchValidationLevel().isValidated()) {
-                        if (validatedPeptidesPerFraction.containsKey(fraction)) {
-                            Integer value = validatedPeptidesPerFraction.get(fraction);
-                            validatedPeptidesPerFraction.put(fraction, value + 1);
-                        } else {
-                            validatedPeptidesPerFraction.put(fraction, 1);
-                        }
+                        if (psParameter2.getMatchValidationLevel().isValidated()) {
+                            if (validatedPeptidesPerFraction.containsKey(fraction)) {
+                                Integer value = validatedPeptidesPerFraction.get(fraction);
+                                validatedPeptidesPerFraction.put(fraction, value + 1);
+                            } else {
+                                validatedPeptidesPerFraction.put(fraction, 1);
+                            }
 
-                        if (validatedPeptidesPerFraction.get(fraction) > maxValidatedPeptidesFractionLevel) {
-                            maxValidatedPeptidesFractionLevel = validatedPeptidesPerFraction.get(fraction);
+                            if (validatedPeptidesPerFraction.get(fraction) > maxValidatedPeptidesFractionLevel) {
+                                maxValidatedPeptidesFractionLevel = validatedPeptidesPerFraction.get(fraction);
+                            }
                         }
                     }
                 }
@@ -611,13 +567,15 @@ public class MatchesValidator {
             psParameter.setFractionValidatedPeptides(validatedPeptidesPerFraction);
             psParameter.setPrecursorIntensityPerFraction(precursorIntensitesPerFractionProteinLevel);
 
-            for (String fraction : psParameter.getFractions()) {
-                if (psParameter.getPrecursorIntensityAveragePerFraction(fraction) != null) {
-                    if (psParameter.getPrecursorIntensityAveragePerFraction(fraction) > maxProteinAveragePrecursorIntensity) {
-                        maxProteinAveragePrecursorIntensity = psParameter.getPrecursorIntensityAveragePerFraction(fraction);
-                    }
-                    if (psParameter.getPrecursorIntensityAveragePerFraction(fraction) > maxProteinSummedPrecursorIntensity) {
-                        maxProteinAveragePrecursorIntensity = psParameter.getPrecursorIntensitySummedPerFraction(fraction);
+            if (psParameter.getFractions() != null) {
+                for (String fraction : psParameter.getFractions()) {
+                    if (psParameter.getPrecursorIntensityAveragePerFraction(fraction) != null) {
+                        if (psParameter.getPrecursorIntensityAveragePerFraction(fraction) > maxProteinAveragePrecursorIntensity) {
+                            maxProteinAveragePrecursorIntensity = psParameter.getPrecursorIntensityAveragePerFraction(fraction);
+                        }
+                        if (psParameter.getPrecursorIntensityAveragePerFraction(fraction) > maxProteinSummedPrecursorIntensity) {
+                            maxProteinAveragePrecursorIntensity = psParameter.getPrecursorIntensitySummedPerFraction(fraction);
+                        }
                     }
                 }
             }
@@ -638,6 +596,290 @@ public class MatchesValidator {
         metrics.setTotalSpectrumCountingMass(totalSpectrumCountingMass);
     }
 
+    /**
+     * Validates the spectrum matches of a spectrum file. When no precursor m/z
+     * deviations are given, the matches are validated without quality control
+     * filters and the precursor m/z deviations of the validated matches are
+     * gathered. Otherwise the matches and their assumptions are validated
+     * using the quality control filters and the given deviations.
+     *
+     * @param identification the identification class containing the matches to
+     * validate
+     * @param spectrumFileName the name of the spectrum file
+     * @param spectrumKeys the keys of the spectra to validate
+     * @param inputMap the target decoy map of all search engine scores
+     * @param precursorMzDeviations the precursor m/z deviations of the
+     * validated matches of this file, null for the first pass
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
+     * @param identificationFeaturesGenerator an identification features
+     * generator computing information about the identification matches
+     * @param shotgunProtocol information about the protocol
+     * @param threadParameters the identification parameters to use for every
+     * thread, one per thread
+     *
+     * @return the precursor m/z deviations of the validated matches in
+     * ascending order
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     * @throws InterruptedException exception thrown whenever an error occurred
+     * while interacting with the database
+     */
+    private ArrayList<Double> validatePsms(Identification identification, String spectrumFileName, ArrayList<String> spectrumKeys, InputMap inputMap,
+            ArrayList<Double> precursorMzDeviations, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator, ShotgunProtocol shotgunProtocol, ArrayList<IdentificationParameters> threadParameters)
+            throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+
+        boolean firstPass = precursorMzDeviations == null;
+        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+        parameters.add(new PSParameter());
+        int nThreads = threadParameters.size();
+
+        if (nThreads == 1) {
+
+            if (firstPass) {
+                precursorMzDeviations = new ArrayList<Double>();
+            }
+
+            PSParameter psParameter = new PSParameter();
+            PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+            int fractionIndex = psmMap.getFractionRegistry().getIndex(spectrumFileName);
+            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, parameters, false, waitingHandler);
+
+            while (psmIterator.hasNext()) {
+
+                if (waitingHandler != null) {
+                    waitingHandler.setDisplayProgress(false);
+                }
+                SpectrumMatch spectrumMatch = psmIterator.next();
+                if (waitingHandler != null) {
+                    waitingHandler.setDisplayProgress(true);
+                }
+
+                validatePsm(identification, spectrumMatch, spectrumFileName, fractionIndex, inputMap, precursorMzDeviations, firstPass, psParameter, peptideSpectrumAnnotator,
+                        identificationFeaturesGenerator, shotgunProtocol, threadParameters.get(0));
+
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                    if (waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                }
+            }
+
+            if (firstPass) {
+                Collections.sort(precursorMzDeviations);
+            }
+            return precursorMzDeviations;
+        }
+
+        PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, parameters, false, null);
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<PsmValidatorRunnable> runnables = new ArrayList<PsmValidatorRunnable>(nThreads);
+
+        // during the second pass the sorted deviations are only read and are shared by all threads
+        for (IdentificationParameters identificationParameters : threadParameters) {
+            ArrayList<Double> threadDeviations = firstPass ? new ArrayList<Double>() : precursorMzDeviations;
+            PsmValidatorRunnable runnable = new PsmValidatorRunnable(psmIterator, spectrumFileName, identification, inputMap, threadDeviations, firstPass,
+                    identificationFeaturesGenerator, shotgunProtocol, identificationParameters, waitingHandler, exceptionHandler);
+            runnables.add(runnable);
+            pool.submit(runnable);
+        }
+
+        pool.shutdown();
+        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("PSM validation timed out. Please contact the developers.");
+        }
+
+        if (firstPass) {
+            precursorMzDeviations = new ArrayList<Double>();
+            for (PsmValidatorRunnable runnable : runnables) {
+                precursorMzDeviations.addAll(runnable.getPrecursorMzDeviations());
+            }
+            // the order of the merged deviations depends on the scheduling of the threads
+            Collections.sort(precursorMzDeviations);
+        }
+
+        return precursorMzDeviations;
+    }
+
+    /**
+     * Returns the identification parameters to use for every validation
+     * thread. The annotation settings are updated for every match, every
+     * thread hence gets its own copy of the parameters. When a single thread
+     * is used, the given parameters are returned.
+     *
+     * @param identificationParameters the identification parameters
+     * @param nThreads the number of threads
+     *
+     * @return the identification parameters to use for every thread
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * copying the parameters
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while copying the parameters
+     */
+    private static ArrayList<IdentificationParameters> getThreadParameters(IdentificationParameters identificationParameters, int nThreads)
+            throws IOException, ClassNotFoundException {
+        ArrayList<IdentificationParameters> threadParameters = new ArrayList<IdentificationParameters>(nThreads);
+        if (nThreads <= 1) {
+            threadParameters.add(identificationParameters);
+            return threadParameters;
+        }
+        for (int i = 0; i < nThreads; i++) {
+            threadParameters.add((IdentificationParameters) SerializationCopy.deepCopy(identificationParameters));
+        }
+        return threadParameters;
+    }
+
+    /**
+     * Returns processing preferences using a single thread.
+     *
+     * @return processing preferences using a single thread
+     */
+    private static ProcessingPreferences getSingleThreadProcessingPreferences() {
+        ProcessingPreferences processingPreferences = new ProcessingPreferences();
+        processingPreferences.setnThreads(1);
+        return processingPreferences;
+    }
+
+    /**
+     * Validates a spectrum match. During the first pass the match is validated
+     * without quality control filters and the precursor m/z deviation of
+     * validated matches is added to the given list. During the second pass the
+     * match and its assumptions are validated using the quality control
+     * filters. In both cases, the advocate contributions are added to the input
+     * map.
+     *
+     * @param identification the identification class containing the matches to
+     * validate
+     * @param spectrumMatch the spectrum match to validate
+     * @param spectrumFileName the name of the spectrum file
+     * @param fractionIndex the index of the spectrum file in the fraction
+     * registry of the PSM map, -1 if not registered
+     * @param inputMap the target decoy map of all search engine scores
+     * @param precursorMzDeviations the precursor m/z deviations to fill during
+     * the first pass, to compare the match to during the second pass
+     * @param firstPass indicates whether this is the first pass
+     * @param psParameter a PSParameter used to retrieve the match parameters
+     * @param peptideSpectrumAnnotator a spectrum annotator
+     * @param identificationFeaturesGenerator an identification features
+     * generator computing information about the identification matches
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     * @throws InterruptedException exception thrown whenever an error occurred
+     * while interacting with the database
+     */
+    private void validatePsm(Identification identification, SpectrumMatch spectrumMatch, String spectrumFileName, int fractionIndex, InputMap inputMap,
+            ArrayList<Double> precursorMzDeviations, boolean firstPass, PSParameter psParameter, PeptideSpectrumAnnotator peptideSpectrumAnnotator,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator, ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters)
+            throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+
+        String spectrumKey = spectrumMatch.getKey();
+
+        if (firstPass) {
+            updateSpectrumMatchValidationLevel(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator, psmMap, spectrumKey, fractionIndex, null, false);
+        } else {
+            updateSpectrumMatchValidationLevel(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator, psmMap, spectrumKey, fractionIndex, precursorMzDeviations, true);
+        }
+        psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+
+        if (psParameter.getMatchValidationLevel().isValidated()) {
+
+            PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+
+            if (peptideAssumption != null) {
+
+                if (firstPass) {
+                    double precursorMz = spectrumFactory.getPrecursorMz(spectrumKey);
+                    double precursorMzError = peptideAssumption.getDeltaMass(precursorMz, shotgunProtocol.isMs1ResolutionPpm());
+                    precursorMzDeviations.add(precursorMzError);
+                }
+
+                if (inputMap != null) {
+
+                    Peptide bestPeptide = peptideAssumption.getPeptide();
+                    ArrayList<Integer> agreementAdvocates = new ArrayList<Integer>();
+
+                    HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+                    for (int advocateId : assumptions.keySet()) {
+                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateId);
+                        if (firstPass) {
+                            if (advocateAssumptions != null) {
+                                ArrayList<Double> eValues = new ArrayList<Double>(advocateAssumptions.keySet());
+                                Collections.sort(eValues);
+                                for (SpectrumIdentificationAssumption firstHit : advocateAssumptions.get(eValues.get(0))) {
+                                    if (firstHit instanceof PeptideAssumption) {
+                                        Peptide advocatePeptide = ((PeptideAssumption) firstHit).getPeptide();
+                                        if (bestPeptide.isSameSequenceAndModificationStatus(advocatePeptide, identificationParameters.getSequenceMatchingPreferences())) {
+                                            agreementAdvocates.add(advocateId);
+                                            break;
+                                        }
+                                    }
+                                }
+                            }
+                        } else {
+                            for (double eValue : advocateAssumptions.keySet()) {
+                                for (SpectrumIdentificationAssumption spectrumIdAssumption : advocateAssumptions.get(eValue)) {
+                                    if (spectrumIdAssumption instanceof PeptideAssumption) {
+                                        Peptide advocatePeptide = ((PeptideAssumption) spectrumIdAssumption).getPeptide();
+                                        if (bestPeptide.isSameSequenceAndModificationStatus(advocatePeptide, identificationParameters.getSequenceMatchingPreferences())) {
+                                            agreementAdvocates.add(advocateId);
+                                            break;
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+
+                    boolean unique = agreementAdvocates.size() == 1;
+
+                    for (int advocateId : agreementAdvocates) {
+                        inputMap.addAdvocateContribution(advocateId, spectrumFileName, unique);
+                    }
+
+                    inputMap.addAdvocateContribution(Advocate.peptideShaker.getIndex(), spectrumFileName, agreementAdvocates.isEmpty());
+                }
+            }
+        }
+
+        // go through the peptide assumptions
+        if (!firstPass && inputMap != null) { //backward compatibility check
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(spectrumKey);
+            for (int advocateId : assumptions.keySet()) {
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = assumptions.get(advocateId);
+                for (double eValue : advocateAssumptions.keySet()) {
+                    for (SpectrumIdentificationAssumption spectrumIdAssumption : advocateAssumptions.get(eValue)) {
+                        if (spectrumIdAssumption instanceof PeptideAssumption) {
+                            PeptideAssumption peptideAssumption = (PeptideAssumption) spectrumIdAssumption;
+                            updatePeptideAssumptionValidationLevel(identificationFeaturesGenerator, shotgunProtocol, identificationParameters, inputMap, spectrumKey, peptideAssumption, peptideSpectrumAnnotator, precursorMzDeviations);
+                        } else if (spectrumIdAssumption instanceof TagAssumption) {
+                            TagAssumption tagAssumption = (TagAssumption) spectrumIdAssumption;
+                            updateTagAssumptionValidationLevel(identificationFeaturesGenerator, shotgunProtocol, identificationParameters, inputMap, spectrumKey, tagAssumption);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Updates the validation status of a protein match. If the match was
      * manually validated nothing will be changed.
@@ -908,6 +1150,38 @@ public class MatchesValidator {
     public static void updateSpectrumMatchValidationLevel(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
             ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator,
             PsmSpecificMap psmMap, String spectrumKey, ArrayList<Double> precursorMzDeviations, boolean applyQCFilters) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
+        int fractionIndex = psmMap.getFractionRegistry().getIndex(Spectrum.getSpectrumFile(spectrumKey));
+        updateSpectrumMatchValidationLevel(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters, peptideSpectrumAnnotator,
+                psmMap, spectrumKey, fractionIndex, precursorMzDeviations, applyQCFilters);
+    }
+
+    /**
+     * Updates the validation status of a spectrum match. If the match was
+     * manually validated nothing will be changed.
+     *
+     * @param identification the identification object
+     * @param psmMap the PSM level target/decoy scoring map
+     * @param shotgunProtocol information about the protocol
+     * @param identificationParameters the identification parameters
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param spectrumKey the key of the spectrum match of interest
+     * @param fractionIndex the index of the spectrum file of the match in the
+     * fraction registry of the PSM map, -1 if not registered
+     * @param peptideSpectrumAnnotator a spectrum annotator, can be null
+     * @param precursorMzDeviations list of the precursor m/z deviations to
+     * compare this psm to
+     * @param applyQCFilters if true quality control filters will be used
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     */
+    public static void updateSpectrumMatchValidationLevel(Identification identification, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, PeptideSpectrumAnnotator peptideSpectrumAnnotator,
+            PsmSpecificMap psmMap, String spectrumKey, int fractionIndex, ArrayList<Double> precursorMzDeviations, boolean applyQCFilters) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
         PSParameter psParameter = new PSParameter();
@@ -917,9 +1191,8 @@ public class MatchesValidator {
 
         if (sequenceFactory.concatenatedTargetDecoy()) {
 
-            Integer charge = new Integer(psParameter.getSpecificMapKey());
-            String fileName = Spectrum.getSpectrumFile(spectrumKey);
-            TargetDecoyMap targetDecoyMap = psmMap.getTargetDecoyMap(charge, fileName);
+            int charge = Integer.parseInt(psParameter.getSpecificMapKey());
+            TargetDecoyMap targetDecoyMap = psmMap.getTargetDecoyMap(charge, fractionIndex);
             double psmThreshold = 0;
             double confidenceThreshold = 100;
             boolean noValidated = true;
@@ -1256,8 +1529,10 @@ public class MatchesValidator {
      * validate
      * @param metrics if provided fraction information and found modifications
      * will be saved while iterating the matches
-     * @param identificationParameters the identification parameters
      * @param waitingHandler the handler displaying feedback to the user
+     * @param identificationParameters the identification parameters
+     * @param processingPreferences the processing preferences
+     * @param exceptionHandler handler for exceptions
      *
      * @throws IOException thrown if an IOException occurs
      * @throws InterruptedException thrown if an InterruptedException occurs
@@ -1265,86 +1540,164 @@ public class MatchesValidator {
      * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
      */
     public void fillPeptideMaps(Identification identification, Metrics metrics, WaitingHandler waitingHandler,
-            IdentificationParameters identificationParameters) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+            IdentificationParameters identificationParameters, ProcessingPreferences processingPreferences, ExceptionHandler exceptionHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         waitingHandler.setWaitingText("Filling Peptide Maps. Please Wait...");
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getPeptideIdentification().size() * 2);
 
-        ArrayList<String> foundModifications = new ArrayList<String>();
-        HashMap<String, ArrayList<String>> fractionPsmMatches = new HashMap<String, ArrayList<String>>();
+        LinkedHashSet<String> foundModifications = new LinkedHashSet<String>();
+        HashMap<String, HashMap<String, ArrayList<String>>> fractionPsmMatches = new HashMap<String, HashMap<String, ArrayList<String>>>();
 
-        PSParameter psParameter = new PSParameter();
-        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(null, false, null, waitingHandler);
+        int nThreads = processingPreferences.getnThreads();
 
-        while (peptideMatchesIterator.hasNext()) {
+        if (nThreads == 1) {
 
-            waitingHandler.setDisplayProgress(false);
-            PeptideMatch peptideMatch = peptideMatchesIterator.next();
-            waitingHandler.setDisplayProgress(true);
+            PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(null, false, null, waitingHandler);
+            PSParameter psParameter = new PSParameter();
+            HashMap<String, Double> fractionScores = new HashMap<String, Double>();
 
-            String peptideKey = peptideMatch.getKey();
-            for (String modification : Peptide.getModificationFamily(peptideKey)) {
-                if (!foundModifications.contains(modification)) {
-                    foundModifications.add(modification);
-                }
-            }
+            while (peptideMatchesIterator.hasNext()) {
 
-            double probaScore = 1;
-            HashMap<String, Double> fractionScores = new HashMap<String, Double>();
+                waitingHandler.setDisplayProgress(false);
+                PeptideMatch peptideMatch = peptideMatchesIterator.next();
+                waitingHandler.setDisplayProgress(true);
 
-            // get the fraction scores
-            identification.loadSpectrumMatchParameters(peptideMatch.getSpectrumMatches(), psParameter, null);
-            for (String spectrumKey : peptideMatch.getSpectrumMatches()) {
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-                probaScore = probaScore * psParameter.getPsmProbability();
-                String fraction = Spectrum.getSpectrumFile(spectrumKey);
-
-                if (!fractionScores.containsKey(fraction)) {
-                    fractionScores.put(fraction, 1.0);
-                }
+                foundModifications.addAll(Peptide.getModificationFamily(peptideMatch.getKey()));
+                fillPeptideMaps(identification, peptideMatch, fractionPsmMatches, fractionScores, psParameter, identificationParameters);
 
-                fractionScores.put(fraction, fractionScores.get(fraction) * psParameter.getPsmProbability());
+                waitingHandler.increaseSecondaryProgressCounter();
 
-                if (!fractionPsmMatches.containsKey(fraction + "_" + peptideKey)) {
-                    ArrayList<String> spectrumMatches = new ArrayList<String>(1);
-                    spectrumMatches.add(spectrumKey);
-                    fractionPsmMatches.put(fraction + "_" + peptideKey, spectrumMatches);
-                } else {
-                    fractionPsmMatches.get(fraction + "_" + peptideKey).add(spectrumKey);
+                if (waitingHandler.isRunCanceled()) {
+                    return;
                 }
             }
 
-            psParameter = new PSParameter();
-            psParameter.setPeptideProbabilityScore(probaScore);
-            psParameter.setSpecificMapKey(peptideMap.getKey(peptideMatch));
+        } else {
 
-            // set the fraction scores
-            for (String fractionName : fractionScores.keySet()) {
-                psParameter.setFractionScore(fractionName, fractionScores.get(fractionName));
-            }
+            PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(null, false, null, null);
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            ArrayList<PeptideMapFillerRunnable> runnables = new ArrayList<PeptideMapFillerRunnable>(nThreads);
+            AtomicInteger peptideIndex = new AtomicInteger();
 
-            identification.addPeptideMatchParameter(peptideKey, psParameter);
-            peptideMap.addPoint(psParameter.getPeptideProbabilityScore(), peptideMatch, identificationParameters.getSequenceMatchingPreferences());
+            for (int i = 1; i <= nThreads; i++) {
+                PeptideMapFillerRunnable runnable = new PeptideMapFillerRunnable(peptideMatchesIterator, peptideIndex, identification, identificationParameters, waitingHandler, exceptionHandler);
+                runnables.add(runnable);
+                pool.submit(runnable);
+            }
 
-            waitingHandler.increaseSecondaryProgressCounter();
+            pool.shutdown();
+            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+                throw new InterruptedException("Peptide map filling timed out. Please contact the developers.");
+            }
 
             if (waitingHandler.isRunCanceled()) {
                 return;
             }
+
+            // merge the results of the different threads, every peptide was processed by a single thread
+            TreeMap<Integer, ArrayList<String>> modificationsPerPeptide = new TreeMap<Integer, ArrayList<String>>();
+            for (PeptideMapFillerRunnable runnable : runnables) {
+                modificationsPerPeptide.putAll(runnable.getNewModifications());
+                for (String fraction : runnable.getFractionPsmMatches().keySet()) {
+                    HashMap<String, ArrayList<String>> threadFractionMap = runnable.getFractionPsmMatches().get(fraction);
+                    HashMap<String, ArrayList<String>> fractionMap = fractionPsmMatches.get(fraction);
+                    if (fractionMap == null) {
+                        fractionPsmMatches.put(fraction, threadFractionMap);
+                    } else {
+                        fractionMap.putAll(threadFractionMap);
+                    }
+                }
+            }
+
+            // add the modifications in the order of the peptides where they were first found
+            for (ArrayList<String> peptideModifications : modificationsPerPeptide.values()) {
+                foundModifications.addAll(peptideModifications);
+            }
         }
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
 
         if (metrics != null) {
             // set the fraction psm matches
-            metrics.setFractionPsmMatches(fractionPsmMatches);
+            metrics.setFractionPeptidePsmMatches(fractionPsmMatches);
             // set the ptms
-            metrics.setFoundModifications(foundModifications);
+            metrics.setFoundModifications(new ArrayList<String>(foundModifications));
         }
     }
 
+    /**
+     * Adds a peptide match to the peptide specific map and stores the fraction
+     * details in the given maps.
+     *
+     * @param identification the identification class containing the matches to
+     * validate
+     * @param peptideMatch the peptide match
+     * @param fractionPsmMatches the PSM matches for each peptide in each
+     * fraction
+     * @param fractionScores a map used to compute the fraction scores, it is
+     * cleared before use
+     * @param psParameter a PSParameter used to retrieve the spectrum match
+     * parameters
+     * @param identificationParameters the identification parameters
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    private void fillPeptideMaps(Identification identification, PeptideMatch peptideMatch,
+            HashMap<String, HashMap<String, ArrayList<String>>> fractionPsmMatches, HashMap<String, Double> fractionScores, PSParameter psParameter,
+            IdentificationParameters identificationParameters) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        String peptideKey = peptideMatch.getKey();
+
+        double probaScore = 1;
+        fractionScores.clear();
+
+        // get the fraction scores
+        identification.loadSpectrumMatchParameters(peptideMatch.getSpectrumMatches(), psParameter, null);
+        for (String spectrumKey : peptideMatch.getSpectrumMatches()) {
+            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+            double psmProbability = psParameter.getPsmProbability();
+            probaScore = probaScore * psmProbability;
+            String fraction = Spectrum.getSpectrumFile(spectrumKey);
+
+            Double fractionScore = fractionScores.get(fraction);
+            if (fractionScore == null) {
+                fractionScores.put(fraction, psmProbability);
+            } else {
+                fractionScores.put(fraction, fractionScore * psmProbability);
+            }
+
+            HashMap<String, ArrayList<String>> fractionMap = fractionPsmMatches.get(fraction);
+            if (fractionMap == null) {
+                fractionMap = new HashMap<String, ArrayList<String>>();
+                fractionPsmMatches.put(fraction, fractionMap);
+            }
+            ArrayList<String> spectrumMatches = fractionMap.get(peptideKey);
+            if (spectrumMatches == null) {
+                spectrumMatches = new ArrayList<String>(1);
+                fractionMap.put(peptideKey, spectrumMatches);
+            }
+            spectrumMatches.add(spectrumKey);
+        }
+
+        PSParameter peptideParameter = new PSParameter();
+        peptideParameter.setPeptideProbabilityScore(probaScore);
+        peptideParameter.setSpecificMapKey(peptideMap.getKey(peptideMatch));
+
+        // set the fraction scores
+        for (String fractionName : fractionScores.keySet()) {
+            peptideParameter.setFractionScore(fractionName, fractionScores.get(fractionName));
+        }
+
+        identification.addPeptideMatchParameter(peptideKey, peptideParameter);
+        peptideMap.addPoint(peptideParameter.getPeptideProbabilityScore(), peptideMatch, identificationParameters.getSequenceMatchingPreferences());
+    }
+
     /**
      * Attaches the peptide posterior error probabilities to the peptide
      * matches.
@@ -1386,11 +1739,13 @@ public class MatchesValidator {
             } else {
                 psParameter.setPeptideProbability(1.0);
             }
-            for (String fraction : psParameter.getFractions()) {
-                if (sequenceFactory.concatenatedTargetDecoy()) {
-                    psParameter.setFractionPEP(fraction, peptideMap.getProbability(psParameter.getSpecificMapKey(), psParameter.getFractionScore(fraction)));
-                } else {
-                    psParameter.setFractionPEP(fraction, 1.0);
+            if (psParameter.getFractions() != null) {
+                for (String fraction : psParameter.getFractions()) {
+                    if (sequenceFactory.concatenatedTargetDecoy()) {
+                        psParameter.setFractionPEP(fraction, peptideMap.getProbability(psParameter.getSpecificMapKey(), psParameter.getFractionScore(fraction)));
+                    } else {
+                        psParameter.setFractionPEP(fraction, 1.0);
+                    }
                 }
             }
 
@@ -1454,12 +1809,14 @@ public class MatchesValidator {
                 psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
                 probaScore = probaScore * psParameter.getPeptideProbability();
 
-                for (String fraction : psParameter.getFractions()) {
-                    if (!fractionScores.containsKey(fraction)) {
-                        fractionScores.put(fraction, 1.0);
-                    }
+                if (psParameter.getFractions() != null) {
+                    for (String fraction : psParameter.getFractions()) {
+                        if (!fractionScores.containsKey(fraction)) {
+                            fractionScores.put(fraction, 1.0);
+                        }
 
-                    fractionScores.put(fraction, fractionScores.get(fraction) * psParameter.getFractionPEP(fraction));
+                        fractionScores.put(fraction, fractionScores.get(fraction) * psParameter.getFractionPEP(fraction));
+                    }
                 }
             }
 
@@ -1530,21 +1887,23 @@ public class MatchesValidator {
                 psParameter.setProteinProbability(1.0);
             }
 
-            for (String fraction : psParameter.getFractions()) {
-                if (sequenceFactory.concatenatedTargetDecoy()) {
-                    psParameter.setFractionPEP(fraction, proteinMap.getProbability(psParameter.getFractionScore(fraction)));
-                } else {
-                    psParameter.setFractionPEP(fraction, 1.0);
-                }
-
-                // set the fraction molecular weights
-                if (!proteinMatch.isDecoy() && psParameter.getFractionConfidence(fraction) > processingPreferences.getProteinConfidenceMwPlots()) {
-                    if (fractionMW.containsKey(fraction)) {
-                        fractionMW.get(fraction).add(proteinMW);
+            if (psParameter.getFractions() != null) {
+                for (String fraction : psParameter.getFractions()) {
+                    if (sequenceFactory.concatenatedTargetDecoy()) {
+                        psParameter.setFractionPEP(fraction, proteinMap.getProbability(psParameter.getFractionScore(fraction)));
                     } else {
-                        ArrayList<Double> mw = new ArrayList<Double>();
-                        mw.add(proteinMW);
-                        fractionMW.put(fraction, mw);
+                        psParameter.setFractionPEP(fraction, 1.0);
+                    }
+
+                    // set the fraction molecular weights
+                    if (!proteinMatch.isDecoy() && psParameter.getFractionConfidence(fraction) > processingPreferences.getProteinConfidenceMwPlots()) {
+                        if (fractionMW.containsKey(fraction)) {
+                            fractionMW.get(fraction).add(proteinMW);
+                        } else {
+                            ArrayList<Double> mw = new ArrayList<Double>();
+                            mw.add(proteinMW);
+                            fractionMW.put(fraction, mw);
+                        }
                     }
                 }
             }
@@ -1663,4 +2022,265 @@ public class MatchesValidator {
         validationQCPreferences.setProteinFilters(proteinFilters);
 
     }
+
+    /**
+     * Runnable validating the spectrum matches of a spectrum file.
+     */
+    private class PsmValidatorRunnable implements Runnable {
+
+        /**
+         * An iterator for the PSMs, shared between the runnables.
+         */
+        private final PsmIterator psmIterator;
+        /**
+         * The name of the spectrum file.
+         */
+        private final String spectrumFileName;
+        /**
+         * The index of the spectrum file in the fraction registry of the PSM
+         * map.
+         */
+        private final int fractionIndex;
+        /**
+         * The identification.
+         */
+        private final Identification identification;
+        /**
+         * The target decoy map of all search engine scores.
+         */
+        private final InputMap inputMap;
+        /**
+         * The precursor m/z deviations, filled by this runnable during the
+         * first pass, used as reference during the second pass.
+         */
+        private final ArrayList<Double> precursorMzDeviations;
+        /**
+         * Indicates whether this is the first pass.
+         */
+        private final boolean firstPass;
+        /**
+         * The identification features generator.
+         */
+        private final IdentificationFeaturesGenerator identificationFeaturesGenerator;
+        /**
+         * Information about the protocol.
+         */
+        private final ShotgunProtocol shotgunProtocol;
+        /**
+         * The identification parameters, confined to this runnable.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+        /**
+         * The spectrum annotator used by this runnable.
+         */
+        private final PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        /**
+         * A PSParameter used to retrieve the match parameters.
+         */
+        private PSParameter psParameter = new PSParameter();
+
+        /**
+         * Constructor.
+         *
+         * @param psmIterator an iterator for the PSMs, shared between the
+         * runnables
+         * @param spectrumFileName the name of the spectrum file
+         * @param identification the identification
+         * @param inputMap the target decoy map of all search engine scores
+         * @param precursorMzDeviations the precursor m/z deviations, to be
+         * filled during the first pass, used as reference during the second
+         * pass
+         * @param firstPass indicates whether this is the first pass
+         * @param identificationFeaturesGenerator the identification features
+         * generator
+         * @param shotgunProtocol information about the protocol
+         * @param identificationParameters the identification parameters, not
+         * shared with other threads
+         * @param waitingHandler the waiting handler
+         * @param exceptionHandler handler for the exceptions
+         */
+        public PsmValidatorRunnable(PsmIterator psmIterator, String spectrumFileName, Identification identification, InputMap inputMap,
+                ArrayList<Double> precursorMzDeviations, boolean firstPass, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+                ShotgunProtocol shotgunProtocol, IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.psmIterator = psmIterator;
+            this.spectrumFileName = spectrumFileName;
+            this.fractionIndex = psmMap.getFractionRegistry().getIndex(spectrumFileName);
+            this.identification = identification;
+            this.inputMap = inputMap;
+            this.precursorMzDeviations = precursorMzDeviations;
+            this.firstPass = firstPass;
+            this.identificationFeaturesGenerator = identificationFeaturesGenerator;
+            this.shotgunProtocol = shotgunProtocol;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                    SpectrumMatch spectrumMatch;
+                    synchronized (psmIterator) {
+                        if (!psmIterator.hasNext()) {
+                            break;
+                        }
+                        spectrumMatch = psmIterator.next();
+                    }
+                    validatePsm(identification, spectrumMatch, spectrumFileName, fractionIndex, inputMap, precursorMzDeviations, firstPass, psParameter, peptideSpectrumAnnotator,
+                            identificationFeaturesGenerator, shotgunProtocol, identificationParameters);
+                    if (waitingHandler != null) {
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+            }
+        }
+
+        /**
+         * Returns the precursor m/z deviations handled by this runnable.
+         *
+         * @return the precursor m/z deviations handled by this runnable
+         */
+        public ArrayList<Double> getPrecursorMzDeviations() {
+            return precursorMzDeviations;
+        }
+    }
+
+    /**
+     * Runnable filling the peptide maps.
+     */
+    private class PeptideMapFillerRunnable implements Runnable {
+
+        /**
+         * An iterator for the peptide matches, shared between the runnables.
+         */
+        private final PeptideMatchesIterator peptideMatchesIterator;
+        /**
+         * The index of the next peptide returned by the iterator, shared
+         * between the runnables.
+         */
+        private final AtomicInteger peptideIndex;
+        /**
+         * The identification.
+         */
+        private final Identification identification;
+        /**
+         * The identification parameters.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+        /**
+         * The modifications found by this runnable.
+         */
+        private final HashSet<String> foundModifications = new HashSet<String>();
+        /**
+         * The modifications first found by this runnable indexed by the index
+         * of the peptide where they were found.
+         */
+        private final HashMap<Integer, ArrayList<String>> newModifications = new HashMap<Integer, ArrayList<String>>();
+        /**
+         * The PSM matches for each peptide in each fraction found by this
+         * runnable.
+         */
+        private final HashMap<String, HashMap<String, ArrayList<String>>> fractionPsmMatches = new HashMap<String, HashMap<String, ArrayList<String>>>();
+        /**
+         * Map used to compute the fraction scores.
+         */
+        private final HashMap<String, Double> fractionScores = new HashMap<String, Double>();
+        /**
+         * A PSParameter used to retrieve the match parameters.
+         */
+        private final PSParameter psParameter = new PSParameter();
+
+        /**
+         * Constructor.
+         *
+         * @param peptideMatchesIterator an iterator for the peptide matches,
+         * shared between the runnables
+         * @param peptideIndex the index of the next peptide returned by the
+         * iterator, shared between the runnables
+         * @param identification the identification
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler the waiting handler
+         * @param exceptionHandler handler for the exceptions
+         */
+        public PeptideMapFillerRunnable(PeptideMatchesIterator peptideMatchesIterator, AtomicInteger peptideIndex, Identification identification,
+                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.peptideMatchesIterator = peptideMatchesIterator;
+            this.peptideIndex = peptideIndex;
+            this.identification = identification;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!waitingHandler.isRunCanceled()) {
+                    PeptideMatch peptideMatch;
+                    int index;
+                    synchronized (peptideMatchesIterator) {
+                        if (!peptideMatchesIterator.hasNext()) {
+                            break;
+                        }
+                        peptideMatch = peptideMatchesIterator.next();
+                        index = peptideIndex.getAndIncrement();
+                    }
+                    ArrayList<String> peptideModifications = null;
+                    for (String modification : Peptide.getModificationFamily(peptideMatch.getKey())) {
+                        if (foundModifications.add(modification)) {
+                            if (peptideModifications == null) {
+                                peptideModifications = new ArrayList<String>(1);
+                                newModifications.put(index, peptideModifications);
+                            }
+                            peptideModifications.add(modification);
+                        }
+                    }
+                    fillPeptideMaps(identification, peptideMatch, fractionPsmMatches, fractionScores, psParameter, identificationParameters);
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+            }
+        }
+
+        /**
+         * Returns the modifications first found by this runnable indexed by
+         * the index of the peptide where they were found.
+         *
+         * @return the modifications first found by this runnable
+         */
+        public HashMap<Integer, ArrayList<String>> getNewModifications() {
+            return newModifications;
+        }
+
+        /**
+         * Returns the PSM matches for each peptide in each fraction found by
+         * this runnable.
+         *
+         * @return the PSM matches for each peptide in each fraction found by
+         * this runnable
+         */
+        public HashMap<String, HashMap<String, ArrayList<String>>> getFractionPsmMatches() {
+            return fractionPsmMatches;
+        }
+    }
 }
@@ -0,0 +1,261 @@
+package eu.isas.peptideshaker.export;
+
+import eu.isas.peptideshaker.PeptideShaker;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+/**
+ * Tests the change detection of the cps archive snapshot.
+ */
+public class CpsArchiveSnapshotTest extends TestCase {
+
+    /**
+     * The path of the database file relative to the matches folder.
+     */
+    private static final String DB_FILE = "db/seg0/c1.dat";
+    /**
+     * The prefix of the entries in the archive.
+     */
+    private static final String ENTRY_PREFIX = "resources/matches/";
+    /**
+     * The temporary folder of the test.
+     */
+    private File tempFolder;
+    /**
+     * The matches folder.
+     */
+    private File matchesFolder;
+    /**
+     * The archive.
+     */
+    private File archiveFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        tempFolder = File.createTempFile("peptideshaker_test", "");
+        tempFolder.delete();
+        matchesFolder = new File(tempFolder, "matches");
+        new File(matchesFolder, "db/seg0").mkdirs();
+        writeFile(new File(matchesFolder, PeptideShaker.experimentObjectName), "experiment");
+        writeFile(new File(matchesFolder, DB_FILE), "AAAAAAAA");
+        archiveFile = new File(tempFolder, "test.cps");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CpsArchiveSnapshot.clear();
+        deleteFolder(tempFolder);
+    }
+
+    /**
+     * Tests that checksums are only computed for recently modified files.
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    public void testChecksums() throws IOException {
+
+        long oldTime = getSeconds(System.currentTimeMillis() - 3600 * 1000);
+        new File(matchesFolder, PeptideShaker.experimentObjectName).setLastModified(oldTime);
+
+        HashMap<String, long[]> files = CpsArchiveSnapshot.getFiles(matchesFolder);
+        Assert.assertEquals(2, files.size());
+        Assert.assertEquals(CpsArchiveSnapshot.NO_CHECKSUM, files.get(PeptideShaker.experimentObjectName)[2]);
+        Assert.assertTrue(files.get(DB_FILE)[2] != CpsArchiveSnapshot.NO_CHECKSUM);
+    }
+
+    /**
+     * Tests that a file rewritten with the same size and modification time is
+     * appended to the archive.
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    public void testSameSecondRewrite() throws IOException {
+
+        File dbFile = new File(matchesFolder, DB_FILE);
+        long time = getSeconds(System.currentTimeMillis());
+        dbFile.setLastModified(time);
+        writeArchive();
+        CpsArchiveSnapshot.register(archiveFile, CpsArchiveSnapshot.getFiles(matchesFolder));
+
+        writeFile(dbFile, "BBBBBBBB");
+        dbFile.setLastModified(time);
+        long archiveLength = archiveFile.length();
+
+        CpsArchiveSnapshot snapshot = CpsArchiveSnapshot.getSnapshot(archiveFile);
+        Assert.assertNotNull(snapshot);
+        Assert.assertTrue(snapshot.update(matchesFolder, null));
+        Assert.assertTrue(archiveFile.length() > archiveLength);
+        Assert.assertEquals("BBBBBBBB", getLastEntry(ENTRY_PREFIX + DB_FILE));
+
+        // the snapshot was updated and nothing is appended anymore
+        archiveLength = archiveFile.length();
+        snapshot = CpsArchiveSnapshot.getSnapshot(archiveFile);
+        Assert.assertNotNull(snapshot);
+        Assert.assertTrue(snapshot.update(matchesFolder, null));
+        Assert.assertEquals(archiveLength, archiveFile.length());
+    }
+
+    /**
+     * Tests that unchanged files are not appended to the archive.
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    public void testUnchangedFiles() throws IOException {
+
+        long oldTime = getSeconds(System.currentTimeMillis() - 3600 * 1000);
+        new File(matchesFolder, PeptideShaker.experimentObjectName).setLastModified(oldTime);
+        new File(matchesFolder, DB_FILE).setLastModified(oldTime);
+        writeArchive();
+        CpsArchiveSnapshot.register(archiveFile, CpsArchiveSnapshot.getFiles(matchesFolder));
+        long archiveLength = archiveFile.length();
+
+        CpsArchiveSnapshot snapshot = CpsArchiveSnapshot.getSnapshot(archiveFile);
+        Assert.assertNotNull(snapshot);
+        Assert.assertTrue(snapshot.update(matchesFolder, null));
+        Assert.assertEquals(archiveLength, archiveFile.length());
+
+        // a modification with a new time stamp is detected without checksum
+        File dbFile = new File(matchesFolder, DB_FILE);
+        writeFile(dbFile, "CCCCCCCC");
+        dbFile.setLastModified(oldTime + 1000);
+        Assert.assertTrue(snapshot.update(matchesFolder, null));
+        Assert.assertEquals("CCCCCCCC", getLastEntry(ENTRY_PREFIX + DB_FILE));
+    }
+
+    /**
+     * Tests that an archive rewritten with the same size and modification time
+     * invalidates the snapshot.
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    public void testArchiveRewrite() throws IOException {
+
+        writeArchive();
+        long time = getSeconds(System.currentTimeMillis());
+        archiveFile.setLastModified(time);
+        CpsArchiveSnapshot.register(archiveFile, CpsArchiveSnapshot.getFiles(matchesFolder));
+        Assert.assertNotNull(CpsArchiveSnapshot.getSnapshot(archiveFile));
+
+        writeFile(new File(matchesFolder, DB_FILE), "DDDDDDDD");
+        long length = archiveFile.length();
+        writeArchive();
+        Assert.assertEquals(length, archiveFile.length());
+        archiveFile.setLastModified(time);
+        Assert.assertNull(CpsArchiveSnapshot.getSnapshot(archiveFile));
+    }
+
+    /**
+     * Writes the content of the matches folder to the archive.
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    private void writeArchive() throws IOException {
+        TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(new FileOutputStream(archiveFile));
+        try {
+            for (String path : new String[]{PeptideShaker.experimentObjectName, DB_FILE}) {
+                File file = new File(matchesFolder, path);
+                tarOutput.putArchiveEntry(new TarArchiveEntry(file, ENTRY_PREFIX + path));
+                FileInputStream input = new FileInputStream(file);
+                try {
+                    byte[] buffer = new byte[(int) file.length()];
+                    int offset = 0;
+                    while (offset < buffer.length) {
+                        offset += input.read(buffer, offset, buffer.length - offset);
+                    }
+                    tarOutput.write(buffer);
+                } finally {
+                    input.close();
+                }
+                tarOutput.closeArchiveEntry();
+            }
+        } finally {
+            tarOutput.close();
+        }
+    }
+
+    /**
+     * Returns the content of the last entry of the archive with the given
+     * name, null if not found.
+     *
+     * @param name the name of the entry
+     *
+     * @return the content of the last entry with the given name
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    private String getLastEntry(String name) throws IOException {
+        String content = null;
+        TarArchiveInputStream tarInput = new TarArchiveInputStream(new FileInputStream(archiveFile));
+        try {
+            TarArchiveEntry entry;
+            while ((entry = tarInput.getNextTarEntry()) != null) {
+                if (entry.getName().equals(name)) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[1024];
+                    int read;
+                    while ((read = tarInput.read(buffer)) != -1) {
+                        bytes.write(buffer, 0, read);
+                    }
+                    content = bytes.toString("UTF-8");
+                }
+            }
+        } finally {
+            tarInput.close();
+        }
+        return content;
+    }
+
+    /**
+     * Writes a file.
+     *
+     * @param file the file
+     * @param content the content of the file
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    private static void writeFile(File file, String content) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            raf.write(content.getBytes("UTF-8"));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Rounds a time down to the second.
+     *
+     * @param time the time in milliseconds
+     *
+     * @return the time rounded down to the second
+     */
+    private static long getSeconds(long time) {
+        return time / 1000 * 1000;
+    }
+
+    /**
+     * Deletes a folder recursively.
+     *
+     * @param folder the folder
+     */
+    private static void deleteFolder(File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteFolder(file);
+            }
+        }
+        folder.delete();
+    }
+}
@@ -0,0 +1,109 @@
+package eu.isas.peptideshaker.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the parallel gzip output stream.
+ */
+public class ParallelGzipOutputStreamTest extends TestCase {
+
+    /**
+     * Tests that data compressed in several members is read back by a standard
+     * gzip input stream.
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    public void testMultiMemberRoundTrip() throws IOException {
+
+        byte[] data = new byte[100000];
+        Random random = new Random(42);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('A' + random.nextInt(4));
+        }
+
+        // small blocks and few threads to have many members and pending blocks
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ParallelGzipOutputStream gzipOutputStream = new ParallelGzipOutputStream(compressed, 3, 1000);
+        int offset = 0;
+        int length = 1;
+        while (offset < data.length) {
+            int toWrite = Math.min(length, data.length - offset);
+            gzipOutputStream.write(data, offset, toWrite);
+            written.write(data, offset, toWrite);
+            offset += toWrite;
+            length = length * 2 % 3001 + 1;
+
+            // mix single byte writes and flushes
+            gzipOutputStream.write('\n');
+            written.write('\n');
+            gzipOutputStream.flush();
+        }
+        gzipOutputStream.close();
+
+        Assert.assertTrue(Arrays.equals(written.toByteArray(), decompress(compressed.toByteArray())));
+    }
+
+    /**
+     * Tests that an empty stream produces a valid gzip file.
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    public void testEmptyStream() throws IOException {
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ParallelGzipOutputStream gzipOutputStream = new ParallelGzipOutputStream(compressed, 2);
+        gzipOutputStream.close();
+        gzipOutputStream.close();
+
+        Assert.assertTrue(compressed.size() > 0);
+        Assert.assertEquals(0, decompress(compressed.toByteArray()).length);
+    }
+
+    /**
+     * Tests that a stream of exactly one block is written as a single member.
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    public void testFullBlock() throws IOException {
+
+        byte[] data = "PEPTIDESHAKER".getBytes("UTF-8");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ParallelGzipOutputStream gzipOutputStream = new ParallelGzipOutputStream(compressed, 2, data.length);
+        gzipOutputStream.write(data);
+        gzipOutputStream.close();
+
+        Assert.assertTrue(Arrays.equals(data, decompress(compressed.toByteArray())));
+    }
+
+    /**
+     * Decompresses the given gzip data.
+     *
+     * @param compressed the compressed data
+     *
+     * @return the decompressed data
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = gzipInputStream.read(buffer)) != -1) {
+                result.write(buffer, 0, read);
+            }
+            return result.toByteArray();
+        } finally {
+            gzipInputStream.close();
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package eu.isas.peptideshaker.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.zip.GZIPInputStream;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the parquet export writer by reading the written files back.
+ */
+public class ParquetExportWriterTest extends TestCase {
+
+    /**
+     * Characters which are not allowed in column names by Spark.
+     */
+    private static final String FORBIDDEN_CHARACTERS = " ,;{}()\n\t=";
+
+    /**
+     * Tests the conversion of the column titles to unique snake case
+     * identifiers.
+     */
+    public void testColumnNames() {
+
+        Assert.assertEquals("algorithm_score", ParquetExportWriter.getColumnName("Algorithm Score"));
+        Assert.assertEquals("precursor_m_z_error_ppm", ParquetExportWriter.getColumnName("Precursor m/z Error (ppm)"));
+        Assert.assertEquals("validated_psms", ParquetExportWriter.getColumnName("#Validated PSMs"));
+        Assert.assertEquals("a_b_c_d", ParquetExportWriter.getColumnName("a,b;{c}\n\td=="));
+        Assert.assertEquals("_2nd_peptide", ParquetExportWriter.getColumnName("2nd Peptide"));
+        Assert.assertEquals("column", ParquetExportWriter.getColumnName(" () "));
+
+        ArrayList<String> titles = new ArrayList<String>(Arrays.asList("Hidden", "Starred", "Hidden", "Hidden 2", "Validation", "Hidden"));
+        ArrayList<String> names = ParquetExportWriter.getColumnNames(titles);
+        Assert.assertEquals(Arrays.asList("hidden", "starred", "hidden_2", "hidden_2_2", "validation", "hidden_3"), names);
+    }
+
+    /**
+     * Writes a table over several row groups and reads it back, including the
+     * file metadata in the footer.
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    public void testRoundTrip() throws IOException {
+
+        ArrayList<String> titles = new ArrayList<String>(Arrays.asList("Protein(s)", "Algorithm Score", "Algorithm Score", "Sequence = {x}"));
+        ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+        for (int i = 0; i < 25; i++) {
+            ArrayList<String> row = new ArrayList<String>(titles.size());
+            row.add("P" + i + ", Q" + i);
+            row.add(i % 7 == 0 ? null : Double.toString(i / 3.0));
+            row.add(Integer.toString(-i));
+            row.add("PEPTIDE\u00c5K" + i);
+            rows.add(row);
+        }
+
+        File file = File.createTempFile("peptideshaker_test", ParquetExportWriter.EXTENSION);
+        file.deleteOnExit();
+        ParquetExportWriter writer = new ParquetExportWriter(file, 10);
+        writer.setColumnNames(titles);
+        for (ArrayList<String> row : rows) {
+            writer.writeRow(row);
+        }
+        writer.close();
+
+        byte[] content = new byte[(int) file.length()];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.readFully(content);
+        } finally {
+            raf.close();
+        }
+
+        // magic numbers and footer
+        Assert.assertEquals("PAR1", new String(content, 0, 4, "US-ASCII"));
+        Assert.assertEquals("PAR1", new String(content, content.length - 4, 4, "US-ASCII"));
+        int footerLength = readIntLittleEndian(content, content.length - 8);
+        int footerStart = content.length - 8 - footerLength;
+        Assert.assertTrue(footerStart >= 4);
+        ThriftCompactReader footerReader = new ThriftCompactReader(content, footerStart);
+        HashMap<Integer, Object> fileMetaData = footerReader.readStruct();
+        Assert.assertEquals(content.length - 8, footerReader.getPosition());
+
+        // schema
+        Assert.assertEquals(1L, fileMetaData.get(1));
+        ArrayList<?> schema = (ArrayList<?>) fileMetaData.get(2);
+        Assert.assertEquals(titles.size() + 1, schema.size());
+        HashMap<?, ?> root = (HashMap<?, ?>) schema.get(0);
+        Assert.assertEquals("schema", getString(root.get(4)));
+        Assert.assertEquals((long) titles.size(), root.get(5));
+        ArrayList<String> expectedNames = new ArrayList<String>(Arrays.asList("protein_s", "algorithm_score", "algorithm_score_2", "sequence_x"));
+        HashSet<String> names = new HashSet<String>();
+        for (int i = 0; i < titles.size(); i++) {
+            HashMap<?, ?> element = (HashMap<?, ?>) schema.get(i + 1);
+            String name = getString(element.get(4));
+            Assert.assertEquals(expectedNames.get(i), name);
+            for (char forbidden : FORBIDDEN_CHARACTERS.toCharArray()) {
+                Assert.assertTrue(name, name.indexOf(forbidden) < 0);
+            }
+            Assert.assertTrue(names.add(name));
+            Assert.assertEquals(6L, element.get(1));
+            Assert.assertEquals(0L, element.get(3));
+            Assert.assertEquals(0L, element.get(6));
+        }
+        Assert.assertEquals(expectedNames, writer.getColumnNames());
+        Assert.assertEquals((long) rows.size(), fileMetaData.get(3));
+        Assert.assertEquals("PeptideShaker", getString(fileMetaData.get(6)));
+
+        // row groups
+        ArrayList<?> rowGroups = (ArrayList<?>) fileMetaData.get(4);
+        Assert.assertEquals(3, rowGroups.size());
+        ArrayList<ArrayList<String>> readRows = new ArrayList<ArrayList<String>>();
+        for (Object rowGroupObject : rowGroups) {
+            HashMap<?, ?> rowGroup = (HashMap<?, ?>) rowGroupObject;
+            int nRows = ((Long) rowGroup.get(3)).intValue();
+            ArrayList<?> columns = (ArrayList<?>) rowGroup.get(1);
+            Assert.assertEquals(titles.size(), columns.size());
+            ArrayList<ArrayList<String>> columnValues = new ArrayList<ArrayList<String>>();
+            for (int i = 0; i < columns.size(); i++) {
+                HashMap<?, ?> columnChunk = (HashMap<?, ?>) columns.get(i);
+                HashMap<?, ?> columnMetaData = (HashMap<?, ?>) columnChunk.get(3);
+                Assert.assertEquals(6L, columnMetaData.get(1));
+                Assert.assertEquals(expectedNames.get(i), getString(((ArrayList<?>) columnMetaData.get(3)).get(0)));
+                Assert.assertEquals(2L, columnMetaData.get(4));
+                Assert.assertEquals((long) nRows, columnMetaData.get(5));
+                long offset = (Long) columnMetaData.get(9);
+                Assert.assertEquals(offset, columnChunk.get(2));
+
+                // page
+                ThriftCompactReader pageReader = new ThriftCompactReader(content, (int) offset);
+                HashMap<Integer, Object> pageHeader = pageReader.readStruct();
+                Assert.assertEquals(0L, pageHeader.get(1));
+                int uncompressedSize = ((Long) pageHeader.get(2)).intValue();
+                int compressedSize = ((Long) pageHeader.get(3)).intValue();
+                HashMap<?, ?> dataPageHeader = (HashMap<?, ?>) pageHeader.get(5);
+                Assert.assertEquals((long) nRows, dataPageHeader.get(1));
+                int headerLength = pageReader.getPosition() - (int) offset;
+                Assert.assertEquals((long) (headerLength + compressedSize), columnMetaData.get(7));
+                Assert.assertEquals((long) (headerLength + uncompressedSize), columnMetaData.get(6));
+
+                byte[] values = gunzip(content, pageReader.getPosition(), compressedSize);
+                Assert.assertEquals(uncompressedSize, values.length);
+                ArrayList<String> decodedValues = new ArrayList<String>(nRows);
+                int position = 0;
+                while (position < values.length) {
+                    int length = readIntLittleEndian(values, position);
+                    decodedValues.add(new String(values, position + 4, length, "UTF-8"));
+                    position += 4 + length;
+                }
+                Assert.assertEquals(nRows, decodedValues.size());
+                columnValues.add(decodedValues);
+            }
+            for (int j = 0; j < nRows; j++) {
+                ArrayList<String> row = new ArrayList<String>(columns.size());
+                for (ArrayList<String> values : columnValues) {
+                    row.add(values.get(j));
+                }
+                readRows.add(row);
+            }
+        }
+
+        Assert.assertEquals(rows.size(), readRows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            ArrayList<String> expectedRow = rows.get(i);
+            ArrayList<String> readRow = readRows.get(i);
+            for (int j = 0; j < expectedRow.size(); j++) {
+                String expected = expectedRow.get(j);
+                Assert.assertEquals(expected == null ? "" : expected, readRow.get(j));
+            }
+        }
+    }
+
+    /**
+     * Tests that a table without row is still a valid file.
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    public void testEmptyTable() throws IOException {
+
+        File file = File.createTempFile("peptideshaker_test", ParquetExportWriter.EXTENSION);
+        file.deleteOnExit();
+        ParquetExportWriter writer = new ParquetExportWriter(file, 10);
+        writer.setColumnNames(new ArrayList<String>(Arrays.asList("Accession")));
+        writer.close();
+
+        byte[] content = new byte[(int) file.length()];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.readFully(content);
+        } finally {
+            raf.close();
+        }
+
+        int footerLength = readIntLittleEndian(content, content.length - 8);
+        Assert.assertEquals(content.length - 12, footerLength);
+        HashMap<Integer, Object> fileMetaData = new ThriftCompactReader(content, 4).readStruct();
+        Assert.assertEquals(0L, fileMetaData.get(3));
+        Assert.assertEquals(0, ((ArrayList<?>) fileMetaData.get(4)).size());
+    }
+
+    /**
+     * Reads an integer encoded on four bytes in little endian order.
+     *
+     * @param bytes the bytes
+     * @param offset the offset of the integer
+     *
+     * @return the integer
+     */
+    private static int readIntLittleEndian(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+                | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16
+                | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * Decompresses gzip compressed bytes.
+     *
+     * @param bytes the bytes
+     * @param offset the offset of the compressed bytes
+     * @param length the number of compressed bytes
+     *
+     * @return the decompressed bytes
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    private static byte[] gunzip(byte[] bytes, int offset, int length) throws IOException {
+        GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(bytes, offset, length));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        inputStream.close();
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Returns a binary value as UTF-8 string.
+     *
+     * @param value the binary value
+     *
+     * @return the string
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    private static String getString(Object value) throws IOException {
+        return new String((byte[]) value, "UTF-8");
+    }
+
+    /**
+     * Minimal reader for the thrift compact protocol. Structs are returned as
+     * maps indexed by field id, lists as array lists, integers as longs and
+     * binaries as byte arrays.
+     */
+    private static class ThriftCompactReader {
+
+        /**
+         * The bytes to read.
+         */
+        private final byte[] bytes;
+        /**
+         * The current position.
+         */
+        private int position;
+
+        /**
+         * Constructor.
+         *
+         * @param bytes the bytes to read
+         * @param position the position where to start reading
+         */
+        public ThriftCompactReader(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        /**
+         * Returns the current position.
+         *
+         * @return the current position
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        /**
+         * Reads a struct.
+         *
+         * @return the fields of the struct indexed by id
+         */
+        public HashMap<Integer, Object> readStruct() {
+            HashMap<Integer, Object> fields = new HashMap<Integer, Object>();
+            int lastFieldId = 0;
+            while (true) {
+                int header = bytes[position++] & 0xFF;
+                int type = header & 0x0F;
+                if (type == 0) {
+                    return fields;
+                }
+                int delta = header >>> 4;
+                int fieldId = delta == 0 ? (int) readZigZag() : lastFieldId + delta;
+                fields.put(fieldId, readValue(type));
+                lastFieldId = fieldId;
+            }
+        }
+
+        /**
+         * Reads a value of the given compact type.
+         *
+         * @param type the compact type
+         *
+         * @return the value
+         */
+        private Object readValue(int type) {
+            switch (type) {
+                case 5:
+                case 6:
+                    return readZigZag();
+                case 8:
+                    int length = (int) readVarint();
+                    byte[] value = Arrays.copyOfRange(bytes, position, position + length);
+                    position += length;
+                    return value;
+                case 9:
+                    int header = bytes[position++] & 0xFF;
+                    int size = header >>> 4;
+                    if (size == 15) {
+                        size = (int) readVarint();
+                    }
+                    int elementType = header & 0x0F;
+                    ArrayList<Object> list = new ArrayList<Object>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue(elementType));
+                    }
+                    return list;
+                case 12:
+                    return readStruct();
+                default:
+                    throw new IllegalArgumentException("Unexpected compact type " + type + ".");
+            }
+        }
+
+        /**
+         * Reads a zigzag encoded variable length integer.
+         *
+         * @return the value
+         */
+        private long readZigZag() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Reads an unsigned variable length integer.
+         *
+         * @return the value
+         */
+        private long readVarint() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                int b = bytes[position++] & 0xFF;
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+    }
+}
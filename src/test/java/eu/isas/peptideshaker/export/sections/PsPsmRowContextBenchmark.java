@@ -0,0 +1,137 @@
+package eu.isas.peptideshaker.export.sections;
+
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
+import com.compomics.util.experiment.personalization.UrParameter;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.PeptideShaker;
+import eu.isas.peptideshaker.cmd.PeptideShakerCLI;
+import eu.isas.peptideshaker.export.exportfeatures.PsPsmFeature;
+import eu.isas.peptideshaker.myparameters.PSParameter;
+import eu.isas.peptideshaker.utils.CpsParent;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Measures the time needed to compute all PSM columns of a project, once by
+ * resolving the feature of every cell as done before the columns were
+ * compiled, and once with the columns compiled once and a single row context
+ * per line as done by the PSM section. This is not a unit test, run the main
+ * method with the path to a cps file as argument. The FASTA and spectrum files
+ * of the project need to be available.
+ */
+public class PsPsmRowContextBenchmark extends CpsParent {
+
+    /**
+     * The number of times the columns are computed.
+     */
+    private static final int N_RUNS = 3;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the path to the cps file
+     *
+     * @throws Exception thrown if an error occurs while loading the project or
+     * computing the columns
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: PsPsmRowContextBenchmark <cps file>");
+            return;
+        }
+        new PsPsmRowContextBenchmark().run(new File(args[0]));
+    }
+
+    /**
+     * Loads the project and times the computation of the columns.
+     *
+     * @param cpsFile the cps file
+     *
+     * @throws Exception thrown if an error occurs while loading the project or
+     * computing the columns
+     */
+    private void run(File cpsFile) throws Exception {
+
+        WaitingHandler waitingHandler = new WaitingHandlerCLIImpl();
+        setCpsFile(cpsFile);
+        loadCpsFile(PeptideShaker.getJarFilePath(), waitingHandler);
+
+        try {
+            if (!loadFastaFile(waitingHandler) || !loadSpectrumFiles(waitingHandler)) {
+                System.out.println("The FASTA or spectrum files of the project were not found.");
+                return;
+            }
+
+            // the first run also loads the matches in the cache
+            for (int run = 0; run < N_RUNS; run++) {
+                long start = System.currentTimeMillis();
+                int nCells = computeColumns(false);
+                long cellTime = System.currentTimeMillis() - start;
+                start = System.currentTimeMillis();
+                computeColumns(true);
+                long compiledTime = System.currentTimeMillis() - start;
+                System.out.println("Run " + (run + 1) + ", " + nCells + " cells: feature resolved per cell " + cellTime
+                        + " ms, compiled columns " + compiledTime + " ms.");
+            }
+        } finally {
+            PeptideShakerCLI.closePeptideShaker(identification);
+        }
+    }
+
+    /**
+     * Computes all PSM columns of all spectrum matches.
+     *
+     * @param compiled if true the columns are compiled once and share a row
+     * context per line, otherwise the feature is resolved for every cell
+     *
+     * @return the number of cells computed
+     *
+     * @throws Exception thrown if an error occurs while computing the columns
+     */
+    private int computeColumns(boolean compiled) throws Exception {
+
+        PsPsmFeature[] features = PsPsmFeature.values();
+        ArrayList<PsPsmSection.PsmColumn> columns = new ArrayList<PsPsmSection.PsmColumn>(features.length);
+        if (compiled) {
+            for (PsPsmFeature feature : features) {
+                columns.add(PsPsmSection.compileColumn(feature, identification, identificationFeaturesGenerator, identificationParameters));
+            }
+        }
+
+        int nCells = 0;
+        PSParameter psParameter = new PSParameter();
+        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+        parameters.add(psParameter);
+        HashMap<String, ArrayList<String>> psmMap = identification.getSpectrumIdentificationMap();
+
+        for (String spectrumFile : psmMap.keySet()) {
+
+            PsmIterator psmIterator = identification.getPsmIterator(spectrumFile, psmMap.get(spectrumFile), parameters, false, null);
+
+            while (psmIterator.hasNext()) {
+
+                SpectrumMatch spectrumMatch = psmIterator.next();
+                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumMatch.getKey(), psParameter);
+
+                if (compiled) {
+                    PsPsmRowContext rowContext = new PsPsmRowContext(spectrumMatch, psParameter, null);
+                    for (PsPsmSection.PsmColumn column : columns) {
+                        column.getValue(rowContext);
+                        nCells++;
+                    }
+                } else {
+                    for (PsPsmFeature feature : features) {
+                        PsPsmSection.getFeature(identification, identificationFeaturesGenerator, shotgunProtocol, identificationParameters,
+                                null, null, spectrumMatch, psParameter, feature, false, true, null);
+                        nCells++;
+                    }
+                }
+            }
+        }
+
+        return nCells;
+    }
+}
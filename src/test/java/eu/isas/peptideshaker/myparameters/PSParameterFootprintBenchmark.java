@@ -0,0 +1,100 @@
+package eu.isas.peptideshaker.myparameters;
+
+import java.util.HashMap;
+
+/**
+ * Measures the retained heap of PSM-like parameters, with three intermediate
+ * scores and a delta PEP, for the current parameter and for the field layout
+ * of the previous versions. This is not a unit test, run the main method with
+ * the number of parameters to hold as argument, 1,000,000 by default.
+ */
+public class PSParameterFootprintBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the number of parameters to hold, optional
+     *
+     * @throws InterruptedException thrown if the thread is interrupted while
+     * waiting for the garbage collection
+     */
+    public static void main(String[] args) throws InterruptedException {
+
+        int nParameters = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        long before = getUsedMemory();
+        Object[] parameters = new Object[nParameters];
+        long arrayMemory = getUsedMemory() - before;
+        for (int i = 0; i < nParameters; i++) {
+            parameters[i] = getLegacyParameter(i);
+        }
+        long legacyMemory = getUsedMemory() - before - arrayMemory;
+        System.out.println("Previous layout: " + legacyMemory / nParameters + " bytes per parameter.");
+
+        parameters = null;
+        before = getUsedMemory();
+        parameters = new Object[nParameters];
+        for (int i = 0; i < nParameters; i++) {
+            parameters[i] = getParameter(i);
+        }
+        long memory = getUsedMemory() - before - arrayMemory;
+        System.out.println("Current layout: " + memory / nParameters + " bytes per parameter.");
+        System.out.println(parameters.length + " parameters held.");
+    }
+
+    /**
+     * Returns a PSM-like parameter.
+     *
+     * @param i the index of the parameter
+     *
+     * @return a PSM-like parameter
+     */
+    private static PSParameter getParameter(int i) {
+        PSParameter psParameter = new PSParameter();
+        psParameter.setSpectrumProbabilityScore(0.001 * i);
+        psParameter.setPsmProbability(0.01);
+        psParameter.setDeltaPEP(0.5);
+        psParameter.setIntermediateScore(0, 1.0 * i);
+        psParameter.setIntermediateScore(1, 2.0);
+        psParameter.setIntermediateScore(4, 3.0);
+        return psParameter;
+    }
+
+    /**
+     * Returns a PSM-like parameter with the field layout of the previous
+     * versions.
+     *
+     * @param i the index of the parameter
+     *
+     * @return a PSM-like parameter with the field layout of the previous
+     * versions
+     */
+    private static eu.isas.peptideshaker.myparameters.legacy.PSParameter getLegacyParameter(int i) {
+        eu.isas.peptideshaker.myparameters.legacy.PSParameter psParameter = new eu.isas.peptideshaker.myparameters.legacy.PSParameter();
+        psParameter.psmProbabilityScore = 0.001 * i;
+        psParameter.psmProbability = 0.01;
+        psParameter.deltaPEP = 0.5;
+        psParameter.intermediateScores = new HashMap<Integer, Double>();
+        psParameter.intermediateScores.put(0, 1.0 * i);
+        psParameter.intermediateScores.put(1, 2.0);
+        psParameter.intermediateScores.put(4, 3.0);
+        return psParameter;
+    }
+
+    /**
+     * Returns the heap in use after garbage collection.
+     *
+     * @return the heap in use in bytes
+     *
+     * @throws InterruptedException thrown if the thread is interrupted while
+     * waiting for the garbage collection
+     */
+    private static long getUsedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
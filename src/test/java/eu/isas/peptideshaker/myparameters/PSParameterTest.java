@@ -0,0 +1,198 @@
+package eu.isas.peptideshaker.myparameters;
+
+import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the serialization of the PeptideShaker parameter against the field
+ * layout of the previous versions.
+ */
+public class PSParameterTest extends TestCase {
+
+    /**
+     * Tests that a parameter written by a previous version is read by the
+     * current version.
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    public void testReadLegacyStream() throws IOException, ClassNotFoundException {
+
+        eu.isas.peptideshaker.myparameters.legacy.PSParameter legacyParameter = new eu.isas.peptideshaker.myparameters.legacy.PSParameter();
+        legacyParameter.psmProbabilityScore = 0.25;
+        legacyParameter.psmProbability = 0.01;
+        legacyParameter.deltaPEP = 0.5;
+        legacyParameter.matchValidationLevel = MatchValidationLevel.confident;
+        legacyParameter.manualValidation = true;
+        legacyParameter.secificMapKey = "2";
+        legacyParameter.fractionPEP.put("f1", 0.2);
+        legacyParameter.fractionScore.put("f1", 0.3);
+        legacyParameter.precursorIntensityPerFraction.put("f1", new ArrayList<Double>(Arrays.asList(1.0, 3.0)));
+        legacyParameter.precursorIntensityAveragePerFraction.put("f1", 2.0);
+        legacyParameter.qcFilters.put("criterion", true);
+        legacyParameter.intermediateScores = new HashMap<Integer, Double>();
+        legacyParameter.intermediateScores.put(0, 1.5);
+        legacyParameter.intermediateScores.put(4, 3.0);
+
+        PSParameter psParameter = (PSParameter) read(write(legacyParameter), PSParameter.class);
+
+        Assert.assertEquals(0.25, psParameter.getPsmProbabilityScore(), 0);
+        Assert.assertEquals(0.01, psParameter.getPsmProbability(), 0);
+        Assert.assertEquals(0.5, psParameter.getDeltaPEP());
+        Assert.assertNull(psParameter.getAlgorithmDeltaPEP());
+        Assert.assertEquals(MatchValidationLevel.confident, psParameter.getMatchValidationLevel());
+        Assert.assertTrue(psParameter.isManualValidation());
+        Assert.assertEquals("2", psParameter.getSpecificMapKey());
+        Assert.assertEquals(0.2, psParameter.getFractionPEP("f1"), 0);
+        Assert.assertEquals(0.3, psParameter.getFractionScore("f1"), 0);
+        Assert.assertEquals(Arrays.asList(1.0, 3.0), psParameter.getPrecursorIntensityPerFraction("f1"));
+        Assert.assertEquals(2.0, psParameter.getPrecursorIntensityAveragePerFraction("f1"));
+        Assert.assertEquals(0, psParameter.getFractionValidatedPeptides("f1").intValue());
+        Assert.assertTrue(psParameter.isQcPassed("criterion"));
+        Assert.assertEquals(1.5, psParameter.getIntermediateScore(0));
+        Assert.assertNull(psParameter.getIntermediateScore(1));
+        Assert.assertEquals(3.0, psParameter.getIntermediateScore(4));
+    }
+
+    /**
+     * Tests that a default parameter written by a previous version is read by
+     * the current version.
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    public void testReadLegacyDefaultStream() throws IOException, ClassNotFoundException {
+
+        PSParameter psParameter = (PSParameter) read(write(new eu.isas.peptideshaker.myparameters.legacy.PSParameter()), PSParameter.class);
+
+        Assert.assertNull(psParameter.getDeltaPEP());
+        Assert.assertFalse(psParameter.isManualValidation());
+        Assert.assertNull(psParameter.getFractions());
+        Assert.assertTrue(psParameter.hasQcFilters());
+        Assert.assertTrue(psParameter.getQcCriteria().isEmpty());
+        Assert.assertNull(psParameter.getIntermediateScore(0));
+    }
+
+    /**
+     * Tests that a parameter written by the current version is read with the
+     * field layout of the previous versions.
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    public void testWriteLegacyStream() throws IOException, ClassNotFoundException {
+
+        PSParameter psParameter = new PSParameter();
+        psParameter.setSpectrumProbabilityScore(0.25);
+        psParameter.setPsmProbability(0.01);
+        psParameter.setAlgorithmDeltaPEP(0.1);
+        psParameter.setMatchValidationLevel(MatchValidationLevel.doubtful);
+        psParameter.setReasonDoubtful("reason");
+        psParameter.setFractionPEP("f1", 0.2);
+        psParameter.setQcResult("criterion", false);
+        psParameter.setIntermediateScore(0, 1.5);
+        psParameter.setIntermediateScore(4, 3.0);
+
+        eu.isas.peptideshaker.myparameters.legacy.PSParameter legacyParameter
+                = (eu.isas.peptideshaker.myparameters.legacy.PSParameter) read(write(psParameter), eu.isas.peptideshaker.myparameters.legacy.PSParameter.class);
+
+        Assert.assertEquals(0.25, legacyParameter.psmProbabilityScore, 0);
+        Assert.assertEquals(0.01, legacyParameter.psmProbability, 0);
+        Assert.assertEquals(0.1, legacyParameter.algorithmDeltaPEP);
+        Assert.assertNull(legacyParameter.deltaPEP);
+        Assert.assertEquals(MatchValidationLevel.doubtful, legacyParameter.matchValidationLevel);
+        Assert.assertEquals("reason", legacyParameter.reasonDoubtful);
+        Assert.assertEquals(Boolean.FALSE, legacyParameter.manualValidation);
+        Assert.assertEquals(0.2, legacyParameter.fractionPEP.get("f1"));
+        Assert.assertFalse(legacyParameter.qcFilters.get("criterion"));
+        Assert.assertEquals(2, legacyParameter.intermediateScores.size());
+        Assert.assertEquals(1.5, legacyParameter.intermediateScores.get(0));
+        Assert.assertEquals(3.0, legacyParameter.intermediateScores.get(4));
+
+        // the previous versions expect the maps to be allocated
+        Assert.assertNotNull(legacyParameter.fractionScore);
+        Assert.assertNotNull(legacyParameter.validatedPeptidesPerFraction);
+        Assert.assertNotNull(legacyParameter.validatedSpectraPerFraction);
+        Assert.assertNotNull(legacyParameter.precursorIntensityPerFraction);
+        Assert.assertNotNull(legacyParameter.precursorIntensityAveragePerFraction);
+        Assert.assertNotNull(legacyParameter.precursorIntensitySummedPerFraction);
+    }
+
+    /**
+     * Tests that a default parameter written by the current version is read
+     * with the field layout of the previous versions.
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    public void testWriteLegacyDefaultStream() throws IOException, ClassNotFoundException {
+
+        eu.isas.peptideshaker.myparameters.legacy.PSParameter legacyParameter
+                = (eu.isas.peptideshaker.myparameters.legacy.PSParameter) read(write(new PSParameter()), eu.isas.peptideshaker.myparameters.legacy.PSParameter.class);
+
+        Assert.assertNull(legacyParameter.algorithmDeltaPEP);
+        Assert.assertNull(legacyParameter.deltaPEP);
+        Assert.assertNull(legacyParameter.intermediateScores);
+        Assert.assertNotNull(legacyParameter.fractionPEP);
+        Assert.assertTrue(legacyParameter.qcFilters.isEmpty());
+    }
+
+    /**
+     * Serializes the given object.
+     *
+     * @param object the object to serialize
+     *
+     * @return the serialized object
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    private static byte[] write(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(object);
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes a parameter as an instance of the given class, regardless of
+     * the package of the class in the stream.
+     *
+     * @param bytes the serialized parameter
+     * @param parameterClass the class to use for the parameter
+     *
+     * @return the deserialized parameter
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    private static Object read(byte[] bytes, final Class<?> parameterClass) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                if (desc.getName().endsWith("." + parameterClass.getSimpleName())) {
+                    return parameterClass;
+                }
+                return super.resolveClass(desc);
+            }
+        };
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package eu.isas.peptideshaker.myparameters.legacy;
+
+import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Field layout of the PeptideShaker parameter before its memory footprint was
+ * reduced. The class has the same simple name and serial version UID as the
+ * current parameter, streams can therefore be exchanged between both classes
+ * by resolving the class name to the other class.
+ */
+public class PSParameter implements Serializable {
+
+    /**
+     * Serial version UID for post-serialization compatibility.
+     */
+    static final long serialVersionUID = 2846587135366515967L;
+    /**
+     * Probabilistic score for a peptide to protein match.
+     */
+    public double searchEngineProbability;
+    /**
+     * The difference in identification algorithm level PEP with the next best
+     * peptide assumption with sequence difference for a given search engine.
+     */
+    public Double algorithmDeltaPEP;
+    /**
+     * The difference in identification algorithm level PEP with the next best
+     * peptide assumption with sequence difference across all search engines.
+     */
+    public Double deltaPEP;
+    /**
+     * Probabilistic score for a peptide to spectrum match.
+     */
+    public double psmProbabilityScore;
+    /**
+     * Spectrum posterior error probability.
+     */
+    public double psmProbability;
+    /**
+     * Probabilistic score for a peptide match.
+     */
+    public double peptideProbabilityScore;
+    /**
+     * Peptide Posterior error probability.
+     */
+    public double peptideProbability;
+    /**
+     * Probabilistic score for a protein match.
+     */
+    public double proteinProbabilityScore;
+    /**
+     * Protein posterior error probability.
+     */
+    public double proteinProbability;
+    /**
+     * Boolean indicating whether a match is validated or not at the selected
+     * threshold.
+     */
+    public boolean validated = false;
+    /**
+     * The validation level of a given match.
+     */
+    public MatchValidationLevel matchValidationLevel;
+    /**
+     * Boolean indicating whether the validation confidence was manually
+     * updated.
+     */
+    public Boolean manualValidation = false;
+    /**
+     * The reason why a match is flagged as doubtful.
+     */
+    public String reasonDoubtful = null;
+    /**
+     * Boolean indicating whether this is a hidden match.
+     */
+    public boolean hidden = false;
+    /**
+     * Boolean indicating whether this is a starred match.
+     */
+    public boolean starred = false;
+    /**
+     * The key in the corresponding specific map.
+     */
+    public String secificMapKey;
+    /**
+     * Protein groups can belong to the following groups according to the
+     * static field indexing.
+     */
+    public int groupClass = 0;
+    /**
+     * The fraction confidence map.
+     */
+    public HashMap<String, Double> fractionPEP = new HashMap<String, Double>();
+    /**
+     * The fraction confidence map.
+     */
+    public HashMap<String, Double> fractionScore = new HashMap<String, Double>();
+    /**
+     * The number of validated peptides per fraction.
+     */
+    public HashMap<String, Integer> validatedPeptidesPerFraction = new HashMap<String, Integer>();
+    /**
+     * The number of validated spectra per fraction.
+     */
+    public HashMap<String, Integer> validatedSpectraPerFraction = new HashMap<String, Integer>();
+    /**
+     * The precursor intensity per fraction.
+     */
+    public HashMap<String, ArrayList<Double>> precursorIntensityPerFraction = new HashMap<String, ArrayList<Double>>();
+    /**
+     * The average precursor intensity per fraction.
+     */
+    public HashMap<String, Double> precursorIntensityAveragePerFraction = new HashMap<String, Double>();
+    /**
+     * The summed precursor intensity per fraction.
+     */
+    public HashMap<String, Double> precursorIntensitySummedPerFraction = new HashMap<String, Double>();
+    /**
+     * The results of the validation quality filters.
+     */
+    public HashMap<String, Boolean> qcFilters = new HashMap<String, Boolean>();
+    /**
+     * Map of the intermediate scores. Score index &gt; value
+     */
+    public HashMap<Integer, Double> intermediateScores;
+}
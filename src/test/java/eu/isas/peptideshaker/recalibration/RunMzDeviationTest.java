@@ -0,0 +1,90 @@
+package eu.isas.peptideshaker.recalibration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the bin lookup of the run m/z deviation.
+ */
+public class RunMzDeviationTest extends TestCase {
+
+    /**
+     * Tests that the bins found by binary search are the ones found by the
+     * former bracketing loop on random bins.
+     */
+    public void testBinLookup() {
+
+        Random random = new Random(42);
+
+        for (int test = 0; test < 1000; test++) {
+
+            int nBins = 1 + random.nextInt(20);
+            HashSet<Double> binSet = new HashSet<Double>(nBins);
+            while (binSet.size() < nBins) {
+                binSet.add((double) random.nextInt(1000));
+            }
+            ArrayList<Double> binList = new ArrayList<Double>(binSet);
+            Collections.sort(binList);
+            double[] bins = new double[nBins];
+            for (int i = 0; i < nBins; i++) {
+                bins[i] = binList.get(i);
+            }
+
+            for (int query = 0; query < 50; query++) {
+
+                double value;
+                if (random.nextBoolean()) {
+                    value = binList.get(random.nextInt(nBins));
+                } else {
+                    value = random.nextDouble() * 1200 - 100;
+                }
+
+                double[] expected = getBinsLoop(binList, value);
+                int lowerBin = RunMzDeviation.getLowerBin(bins, value);
+                int upperBin = RunMzDeviation.getUpperBin(bins, lowerBin, value);
+
+                Assert.assertEquals(expected[0], bins[lowerBin], 0);
+                Assert.assertEquals(expected[1], bins[upperBin], 0);
+            }
+        }
+    }
+
+    /**
+     * Returns the bins surrounding the given value as found by the bracketing
+     * loop formerly used by RunMzDeviation.
+     *
+     * @param keys the bins sorted in ascending order
+     * @param value the value of interest
+     *
+     * @return the lower and upper bins
+     */
+    private static double[] getBinsLoop(ArrayList<Double> keys, double value) {
+
+        double key1 = keys.get(0);
+        double key2 = key1;
+
+        if (value > key1) {
+            key1 = keys.get(keys.size() - 1);
+            key2 = key1;
+            if (value < key1) {
+                for (int i = 0; i < keys.size() - 1; i++) {
+                    key1 = keys.get(i);
+                    if (value == key1) {
+                        key2 = value;
+                        break;
+                    }
+                    key2 = keys.get(i + 1);
+                    if (key1 < value && value < key2) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        return new double[]{key1, key2};
+    }
+}
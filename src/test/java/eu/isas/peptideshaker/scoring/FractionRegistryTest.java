@@ -0,0 +1,136 @@
+package eu.isas.peptideshaker.scoring;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the fraction registry.
+ */
+public class FractionRegistryTest extends TestCase {
+
+    /**
+     * Tests that the fractions are indexed in the order of registration.
+     */
+    public void testRegister() {
+
+        FractionRegistry fractionRegistry = new FractionRegistry();
+        Assert.assertEquals(0, fractionRegistry.size());
+        Assert.assertEquals(-1, fractionRegistry.getIndex("a.mgf"));
+
+        Assert.assertEquals(0, fractionRegistry.register("a.mgf"));
+        Assert.assertEquals(1, fractionRegistry.register("b.mgf"));
+        Assert.assertEquals(0, fractionRegistry.register("a.mgf"));
+        Assert.assertEquals(2, fractionRegistry.register("c.mgf"));
+
+        Assert.assertEquals(3, fractionRegistry.size());
+        Assert.assertEquals(1, fractionRegistry.getIndex("b.mgf"));
+        Assert.assertEquals(-1, fractionRegistry.getIndex("d.mgf"));
+        Assert.assertEquals("c.mgf", fractionRegistry.getName(2));
+        Assert.assertEquals(Arrays.asList("a.mgf", "b.mgf", "c.mgf"), fractionRegistry.getNames());
+
+        // the returned names are a copy
+        fractionRegistry.getNames().clear();
+        Assert.assertEquals(3, fractionRegistry.getNames().size());
+    }
+
+    /**
+     * Tests the constructor registering a list of fractions.
+     */
+    public void testIterableConstructor() {
+
+        FractionRegistry fractionRegistry = new FractionRegistry(Arrays.asList("b.mgf", "a.mgf", "b.mgf"));
+
+        Assert.assertEquals(2, fractionRegistry.size());
+        Assert.assertEquals(0, fractionRegistry.getIndex("b.mgf"));
+        Assert.assertEquals(1, fractionRegistry.getIndex("a.mgf"));
+    }
+
+    /**
+     * Tests that fractions registered concurrently receive unique dense
+     * indexes.
+     *
+     * @throws Exception thrown if a registering thread fails
+     */
+    public void testConcurrentRegister() throws Exception {
+
+        final int nFractions = 1000;
+        int nThreads = 8;
+        final FractionRegistry fractionRegistry = new FractionRegistry();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            ArrayList<Future<int[]>> futures = new ArrayList<Future<int[]>>(nThreads);
+            for (int thread = 0; thread < nThreads; thread++) {
+                final int offset = thread;
+                futures.add(pool.submit(new Callable<int[]>() {
+                    public int[] call() {
+                        int[] indexes = new int[nFractions];
+                        for (int i = 0; i < nFractions; i++) {
+                            int fraction = (i + offset * 97) % nFractions;
+                            indexes[fraction] = fractionRegistry.register("fraction_" + fraction);
+                        }
+                        return indexes;
+                    }
+                }));
+            }
+
+            int[] reference = futures.get(0).get();
+            for (Future<int[]> future : futures) {
+                Assert.assertTrue(Arrays.equals(reference, future.get()));
+            }
+
+            Assert.assertEquals(nFractions, fractionRegistry.size());
+            HashSet<Integer> indexes = new HashSet<Integer>();
+            for (int fraction = 0; fraction < nFractions; fraction++) {
+                int index = reference[fraction];
+                Assert.assertTrue(index >= 0 && index < nFractions);
+                Assert.assertTrue(indexes.add(index));
+                Assert.assertEquals("fraction_" + fraction, fractionRegistry.getName(index));
+                Assert.assertEquals(index, fractionRegistry.getIndex("fraction_" + fraction));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests that the registry is restored after serialization.
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    public void testSerialization() throws IOException, ClassNotFoundException {
+
+        FractionRegistry fractionRegistry = new FractionRegistry(Arrays.asList("a.mgf", "b.mgf"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(fractionRegistry);
+        } finally {
+            out.close();
+        }
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        FractionRegistry readRegistry;
+        try {
+            readRegistry = (FractionRegistry) in.readObject();
+        } finally {
+            in.close();
+        }
+
+        Assert.assertEquals(Arrays.asList("a.mgf", "b.mgf"), readRegistry.getNames());
+        Assert.assertEquals(1, readRegistry.getIndex("b.mgf"));
+        Assert.assertEquals(2, readRegistry.register("c.mgf"));
+    }
+}
@@ -0,0 +1,58 @@
+package eu.isas.peptideshaker.scoring;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the PSM specific map.
+ */
+public class PsmSpecificMapTest extends TestCase {
+
+    /**
+     * Tests that the probability of a match from a file without map is 1.
+     */
+    public void testUnknownFileProbability() {
+
+        PsmSpecificMap psmSpecificMap = new PsmSpecificMap();
+
+        Assert.assertEquals(1.0, psmSpecificMap.getProbability("a.mgf", 2, 0.5), 0);
+        Assert.assertEquals(1.0, psmSpecificMap.getProbability(-1, 2, 0.5), 0);
+        Assert.assertEquals(-1, psmSpecificMap.getFractionRegistry().getIndex("a.mgf"));
+    }
+
+    /**
+     * Tests that the fraction registry is rebuilt when the map is read.
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     */
+    public void testSerialization() throws IOException, ClassNotFoundException {
+
+        PsmSpecificMap psmSpecificMap = new PsmSpecificMap();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(psmSpecificMap);
+        } finally {
+            out.close();
+        }
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        PsmSpecificMap readMap;
+        try {
+            readMap = (PsmSpecificMap) in.readObject();
+        } finally {
+            in.close();
+        }
+
+        Assert.assertNotNull(readMap.getFractionRegistry());
+        Assert.assertEquals(0, readMap.getFractionRegistry().size());
+        Assert.assertEquals(1.0, readMap.getProbability("a.mgf", 2, 0.5), 0);
+        Assert.assertEquals(0, readMap.getFractionRegistry().register("a.mgf"));
+    }
+}
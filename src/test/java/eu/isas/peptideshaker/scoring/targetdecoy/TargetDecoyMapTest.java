@@ -0,0 +1,148 @@
+package eu.isas.peptideshaker.scoring.targetdecoy;
+
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import java.util.ArrayList;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the probability lookup of the target/decoy map.
+ */
+public class TargetDecoyMapTest extends TestCase {
+
+    /**
+     * Tests the lookup in sorted arrays against a linear scan of the points of
+     * the map.
+     */
+    public void testGetProbability() {
+
+        TargetDecoyMap targetDecoyMap = getMap(new Random(42), 5000);
+        TargetDecoySeries targetDecoySeries = targetDecoyMap.getTargetDecoySeries();
+        double[] scores = targetDecoySeries.getScores();
+        double[] pep = targetDecoySeries.getPEP();
+
+        // the scores of the map
+        for (double score : scores) {
+            Assert.assertEquals(getProbabilityLinear(scores, pep, score), targetDecoyMap.getProbability(score), 1e-12);
+        }
+
+        // scores between, below and above the scores of the map
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            double score = -0.1 + 1.2 * random.nextDouble();
+            Assert.assertEquals(getProbabilityLinear(scores, pep, score), targetDecoyMap.getProbability(score), 1e-12);
+        }
+    }
+
+    /**
+     * Tests that the lookup is rebuilt when the map changes.
+     */
+    public void testLookupUpdate() {
+
+        TargetDecoyMap targetDecoyMap = getMap(new Random(1), 500);
+        targetDecoyMap.getProbability(0.5);
+
+        TargetDecoyMap otherMap = getMap(new Random(2), 500);
+        targetDecoyMap.addAll(otherMap);
+        targetDecoyMap.estimateProbabilities(new WaitingHandlerCLIImpl());
+
+        TargetDecoySeries targetDecoySeries = targetDecoyMap.getTargetDecoySeries();
+        double[] scores = targetDecoySeries.getScores();
+        double[] pep = targetDecoySeries.getPEP();
+        Assert.assertEquals(1000, scores.length);
+        for (double score : scores) {
+            Assert.assertEquals(getProbabilityLinear(scores, pep, score), targetDecoyMap.getProbability(score), 1e-12);
+        }
+    }
+
+    /**
+     * Tests the lookup from multiple threads.
+     *
+     * @throws InterruptedException if a thread is interrupted
+     */
+    public void testConcurrentLookup() throws InterruptedException {
+
+        final TargetDecoyMap targetDecoyMap = getMap(new Random(3), 2000);
+        TargetDecoySeries targetDecoySeries = targetDecoyMap.getTargetDecoySeries();
+        final double[] scores = targetDecoySeries.getScores();
+        final double[] pep = targetDecoySeries.getPEP();
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final Random random = new Random(i);
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 20000; j++) {
+                            double score = random.nextDouble();
+                            Assert.assertEquals(getProbabilityLinear(scores, pep, score), targetDecoyMap.getProbability(score), 1e-12);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(errors.isEmpty());
+    }
+
+    /**
+     * Returns a target/decoy map filled with random points where the
+     * probabilities were estimated.
+     *
+     * @param random the random number generator
+     * @param nPoints the number of points
+     *
+     * @return a target/decoy map
+     */
+    private static TargetDecoyMap getMap(Random random, int nPoints) {
+        TargetDecoyMap targetDecoyMap = new TargetDecoyMap();
+        for (int i = 0; i < nPoints; i++) {
+            double score = random.nextDouble();
+            boolean decoy = random.nextDouble() < score;
+            targetDecoyMap.put(score, decoy);
+        }
+        targetDecoyMap.estimateProbabilities(new WaitingHandlerCLIImpl());
+        return targetDecoyMap;
+    }
+
+    /**
+     * Returns the probability at the given score by scanning the points
+     * linearly, as the map did before the sorted arrays.
+     *
+     * @param scores the sorted scores
+     * @param pep the posterior error probabilities in percent
+     * @param score the score of interest
+     *
+     * @return the probability at the given score
+     */
+    private static double getProbabilityLinear(double[] scores, double[] pep, double score) {
+        int last = scores.length - 1;
+        if (score >= scores[last]) {
+            return pep[last] / 100;
+        }
+        for (int i = 0; i <= last; i++) {
+            if (scores[i] == score) {
+                return pep[i] / 100;
+            }
+        }
+        int indexSup = 0;
+        while (scores[indexSup] < score) {
+            indexSup++;
+        }
+        int indexInf = Math.max(indexSup - 1, 0);
+        if (indexSup == 0) {
+            indexSup = Math.min(1, last);
+        }
+        return (pep[indexSup] / 100 + pep[indexInf] / 100) / 2;
+    }
+}
@@ -1,6 +1,15 @@
 package eu.isas.peptideshaker.test;
 
+import eu.isas.peptideshaker.export.CpsArchiveSnapshotTest;
+import eu.isas.peptideshaker.export.ParallelGzipOutputStreamTest;
+import eu.isas.peptideshaker.export.ParquetExportWriterTest;
+import eu.isas.peptideshaker.myparameters.PSParameterTest;
 import eu.isas.peptideshaker.pride.PrideWebServiceTest;
+import eu.isas.peptideshaker.recalibration.RunMzDeviationTest;
+import eu.isas.peptideshaker.scoring.FractionRegistryTest;
+import eu.isas.peptideshaker.scoring.PsmSpecificMapTest;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMapTest;
+import eu.isas.peptideshaker.utils.IdentificationFeaturesCacheTest;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -19,6 +28,15 @@ public class FullSuite extends TestCase {
     public static Test suite() {
         TestSuite ts = new TestSuite("Test suite for the PeptideShaker project.");
         ts.addTest(new TestSuite(PrideWebServiceTest.class));
+        ts.addTest(new TestSuite(TargetDecoyMapTest.class));
+        ts.addTest(new TestSuite(ParquetExportWriterTest.class));
+        ts.addTest(new TestSuite(CpsArchiveSnapshotTest.class));
+        ts.addTest(new TestSuite(ParallelGzipOutputStreamTest.class));
+        ts.addTest(new TestSuite(PSParameterTest.class));
+        ts.addTest(new TestSuite(FractionRegistryTest.class));
+        ts.addTest(new TestSuite(PsmSpecificMapTest.class));
+        ts.addTest(new TestSuite(RunMzDeviationTest.class));
+        ts.addTest(new TestSuite(IdentificationFeaturesCacheTest.class));
         return ts;
     }
 }
@@ -0,0 +1,115 @@
+package eu.isas.peptideshaker.utils;
+
+import eu.isas.peptideshaker.utils.IdentificationFeaturesCache.ObjectType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the identification features cache.
+ */
+public class IdentificationFeaturesCacheTest extends TestCase {
+
+    /**
+     * Number of doubles in the arrays used as big objects: two arrays fit in
+     * one MB, three do not.
+     */
+    private static final int ARRAY_LENGTH = 50000;
+
+    /**
+     * Tests that the least recently used big object is evicted whatever its
+     * type.
+     */
+    public void testEvictionAcrossTypes() {
+
+        IdentificationFeaturesCache identificationFeaturesCache = new IdentificationFeaturesCache();
+        identificationFeaturesCache.setBigObjectsMemoryLimit(1);
+
+        double[] a = new double[ARRAY_LENGTH];
+        double[] b = new double[ARRAY_LENGTH];
+        double[] c = new double[ARRAY_LENGTH];
+
+        identificationFeaturesCache.addObject(ObjectType.coverable_AA_p, "a", a);
+        identificationFeaturesCache.addObject(ObjectType.AA_coverage, "b", b);
+        Assert.assertSame(a, identificationFeaturesCache.getObject(ObjectType.coverable_AA_p, "a"));
+        Assert.assertEquals(0, identificationFeaturesCache.getCacheEvictions());
+
+        identificationFeaturesCache.addObject(ObjectType.tryptic_protein, "c", c);
+
+        Assert.assertSame(a, identificationFeaturesCache.getObject(ObjectType.coverable_AA_p, "a"));
+        Assert.assertNull(identificationFeaturesCache.getObject(ObjectType.AA_coverage, "b"));
+        Assert.assertSame(c, identificationFeaturesCache.getObject(ObjectType.tryptic_protein, "c"));
+        Assert.assertEquals(1, identificationFeaturesCache.getCacheEvictions());
+        Assert.assertEquals(2 * (16 + 8L * ARRAY_LENGTH), identificationFeaturesCache.getBigObjectsMemoryUsage());
+    }
+
+    /**
+     * Tests the hit and miss counters.
+     */
+    public void testCounters() {
+
+        IdentificationFeaturesCache identificationFeaturesCache = new IdentificationFeaturesCache();
+
+        Assert.assertNull(identificationFeaturesCache.getObject(ObjectType.number_of_spectra, "protein"));
+        identificationFeaturesCache.addObject(ObjectType.number_of_spectra, "protein", 2);
+        Assert.assertEquals(2, identificationFeaturesCache.getObject(ObjectType.number_of_spectra, "protein"));
+        Assert.assertNull(identificationFeaturesCache.getObject(ObjectType.coverable_AA_p, "protein"));
+
+        Assert.assertEquals(1, identificationFeaturesCache.getCacheHits());
+        Assert.assertEquals(2, identificationFeaturesCache.getCacheMisses());
+        Assert.assertEquals(0, identificationFeaturesCache.getCacheEvictions());
+    }
+
+    /**
+     * Tests that lowering the memory limit evicts the least recently used big
+     * objects.
+     */
+    public void testSetBigObjectsMemoryLimit() {
+
+        IdentificationFeaturesCache identificationFeaturesCache = new IdentificationFeaturesCache();
+        identificationFeaturesCache.setBigObjectsMemoryLimit(2);
+
+        for (int i = 0; i < 4; i++) {
+            identificationFeaturesCache.addObject(ObjectType.coverable_AA_p, "protein" + i, new double[ARRAY_LENGTH]);
+        }
+        Assert.assertEquals(0, identificationFeaturesCache.getCacheEvictions());
+
+        identificationFeaturesCache.setBigObjectsMemoryLimit(1);
+
+        Assert.assertEquals(2, identificationFeaturesCache.getCacheEvictions());
+        Assert.assertNull(identificationFeaturesCache.getObject(ObjectType.coverable_AA_p, "protein0"));
+        Assert.assertNull(identificationFeaturesCache.getObject(ObjectType.coverable_AA_p, "protein1"));
+        Assert.assertNotNull(identificationFeaturesCache.getObject(ObjectType.coverable_AA_p, "protein2"));
+        Assert.assertNotNull(identificationFeaturesCache.getObject(ObjectType.coverable_AA_p, "protein3"));
+    }
+
+    /**
+     * Tests that the memory limit is not saved with the cache.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * serializing the cache
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the cache
+     */
+    public void testSerialization() throws IOException, ClassNotFoundException {
+
+        IdentificationFeaturesCache identificationFeaturesCache = new IdentificationFeaturesCache();
+        identificationFeaturesCache.setBigObjectsMemoryLimit(1);
+        identificationFeaturesCache.addObject(ObjectType.coverable_AA_p, "protein", new double[ARRAY_LENGTH]);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(identificationFeaturesCache);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        IdentificationFeaturesCache copy = (IdentificationFeaturesCache) in.readObject();
+        in.close();
+
+        Assert.assertEquals(IdentificationFeaturesCache.getDefaultBigObjectsMemoryLimit(), copy.getBigObjectsMemoryLimit());
+        Assert.assertNotNull(copy.getObject(ObjectType.coverable_AA_p, "protein"));
+    }
+}